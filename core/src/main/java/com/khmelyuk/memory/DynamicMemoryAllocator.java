@@ -3,7 +3,11 @@ package com.khmelyuk.memory;
 import com.khmelyuk.memory.vm.DynamicVirtualMemory;
 import com.khmelyuk.memory.vm.storage.ByteArrayStorageFactory;
 import com.khmelyuk.memory.vm.storage.DynamicStorage;
-import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTable;
+import com.khmelyuk.memory.vm.storage.StorageFactory;
+import com.khmelyuk.memory.vm.table.AllocationPolicy;
+import com.khmelyuk.memory.vm.table.ArenaVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.VirtualMemoryTableFactory;
 
 /**
  * Allocates a virtual memory that can growth dynamically.
@@ -12,6 +16,54 @@ import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTable;
  */
 public class DynamicMemoryAllocator {
 
+    private final VirtualMemoryTableFactory tableFactory;
+    private final StorageFactory storageFactory;
+
+    public DynamicMemoryAllocator() {
+        this(LinkedVirtualMemoryTableFactory.getInstance());
+    }
+
+    /**
+     * Creates an allocator that uses the specified factory to create the virtual memory table.
+     *
+     * @param tableFactory the factory for the virtual memory table.
+     */
+    public DynamicMemoryAllocator(VirtualMemoryTableFactory tableFactory) {
+        this(tableFactory, ByteArrayStorageFactory.getInstance());
+    }
+
+    /**
+     * Creates an allocator that uses the specified factories to create the virtual memory table and storage,
+     * for example {@link com.khmelyuk.memory.vm.storage.UnsafeStorageFactory} for off-heap memory.
+     *
+     * @param tableFactory   the factory for the virtual memory table.
+     * @param storageFactory the factory for the storage.
+     */
+    public DynamicMemoryAllocator(VirtualMemoryTableFactory tableFactory, StorageFactory storageFactory) {
+        this.tableFactory = tableFactory;
+        this.storageFactory = storageFactory;
+    }
+
+    /**
+     * Creates an allocator that uses the linked virtual memory table with specified allocation policy.
+     *
+     * @param policy the policy to choose the free block to allocate from.
+     */
+    public DynamicMemoryAllocator(AllocationPolicy policy) {
+        this(new LinkedVirtualMemoryTableFactory(policy));
+    }
+
+    /**
+     * Creates an allocator that splits the memory into a number of arenas, so threads don't share a table.
+     *
+     * @param tableFactory the factory for the virtual memory table of each arena.
+     * @param arenas       the number of arenas, 1 means the memory is not split.
+     * @see com.khmelyuk.memory.vm.table.ArenaVirtualMemoryTable
+     */
+    public DynamicMemoryAllocator(VirtualMemoryTableFactory tableFactory, int arenas) {
+        this(arenas > 1 ? new ArenaVirtualMemoryTableFactory(arenas, tableFactory) : tableFactory);
+    }
+
     /**
      * Allocates a memory with specified size, and sets the max size the memory can grow to.
      *
@@ -20,21 +72,20 @@ public class DynamicMemoryAllocator {
      * @param growthStepSize the size of the memory growth step.
      * @return the memory with specified size.
      */
-    public Memory allocate(int size, int maxSize, int growthStepSize) {
+    public Memory allocate(long size, long maxSize, int growthStepSize) {
         assert size >= 0 : "Memory size can't negative";
         assert size <= maxSize : "Memory size can't be larger maxSize";
         assert growthStepSize > 0 : "Growths step size can't be zero or negative";
         assert growthStepSize <= maxSize : "Growths step size can't be larger maxSize";
 
         if (size == maxSize) {
-            return new FixedMemoryAllocator().allocate(size);
+            return new FixedMemoryAllocator(tableFactory, storageFactory).allocate(size);
         }
 
         DynamicStorage storage = new DynamicStorage(
-                size, maxSize, growthStepSize,
-                ByteArrayStorageFactory.getInstance());
+                size, maxSize, growthStepSize, storageFactory);
 
-        return new Memory(new DynamicVirtualMemory(storage, new LinkedVirtualMemoryTable(size)));
+        return new Memory(new DynamicVirtualMemory(storage, tableFactory.create(size)));
     }
 
     /**
@@ -44,10 +95,10 @@ public class DynamicMemoryAllocator {
      * @param maxSize        the max size for the memory
      * @param growthStepSize the size of the memory growth step.
      * @return the memory with specified size.
-     * @see DynamicMemoryAllocator#allocate(int, int, int)
+     * @see DynamicMemoryAllocator#allocate(long, long, int)
      */
     public Memory allocate(MemorySize size, MemorySize maxSize, MemorySize growthStepSize) {
-        return allocate(size.getBytes(), maxSize.getBytes(), growthStepSize.getBytes());
+        return allocate(size.getBytes(), maxSize.getBytes(), growthStepSize.getBytesAsInt());
     }
 
     /**
@@ -57,8 +108,8 @@ public class DynamicMemoryAllocator {
      * @param maxSize the max size for the memory
      * @return the memory with specified size.
      */
-    public Memory allocate(int size, int maxSize) {
-        return allocate(size, maxSize, size);
+    public Memory allocate(long size, long maxSize) {
+        return allocate(size, maxSize, (int) Math.min(size, Integer.MAX_VALUE));
     }
 
     /**
@@ -67,7 +118,7 @@ public class DynamicMemoryAllocator {
      * @param size    the memory size.
      * @param maxSize the max size for the memory
      * @return the memory with specified size.
-     * @see DynamicMemoryAllocator#allocate(int, int)
+     * @see DynamicMemoryAllocator#allocate(long, long)
      */
     public Memory allocate(MemorySize size, MemorySize maxSize) {
         return allocate(size.getBytes(), maxSize.getBytes());
@@ -4,16 +4,22 @@ import com.khmelyuk.memory.vm.DynamicVirtualMemory;
 import com.khmelyuk.memory.vm.FixedVirtualMemory;
 import com.khmelyuk.memory.vm.FreeEventListener;
 import com.khmelyuk.memory.vm.VirtualMemory;
-import com.khmelyuk.memory.vm.storage.ByteBufferStorage;
 import com.khmelyuk.memory.vm.storage.DynamicStorage;
 import com.khmelyuk.memory.vm.storage.FileChannelStorageFactory;
+import com.khmelyuk.memory.vm.storage.MappedFileStorage;
+import com.khmelyuk.memory.vm.storage.Storage;
 import com.khmelyuk.memory.vm.storage.StorageFactory;
-import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTable;
+import com.khmelyuk.memory.vm.table.AllocationPolicy;
+import com.khmelyuk.memory.vm.table.ArenaVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.PersistentVirtualMemoryTable;
+import com.khmelyuk.memory.vm.table.VirtualMemoryTable;
+import com.khmelyuk.memory.vm.table.VirtualMemoryTableFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
@@ -23,18 +29,78 @@ import java.nio.channels.FileChannel;
  */
 public class FileMemoryAllocator {
 
-    public Memory allocate(File file, int size) throws IOException {
+    /**
+     * The size of a single mapped segment, memory that is larger is mapped by a number of segments.
+     * It's a power of two, so the segment of an address is found with a shift.
+     */
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * The suffix of the file the allocation table of persistent memory is stored to.
+     */
+    public static final String TABLE_FILE_SUFFIX = ".table";
+
+    private final VirtualMemoryTableFactory tableFactory;
+
+    public FileMemoryAllocator() {
+        this(LinkedVirtualMemoryTableFactory.getInstance());
+    }
+
+    /**
+     * Creates an allocator that uses the specified factory to create the virtual memory table.
+     *
+     * @param tableFactory the factory for the virtual memory table.
+     */
+    public FileMemoryAllocator(VirtualMemoryTableFactory tableFactory) {
+        this.tableFactory = tableFactory;
+    }
+
+    /**
+     * Creates an allocator that uses the linked virtual memory table with specified allocation policy.
+     *
+     * @param policy the policy to choose the free block to allocate from.
+     */
+    public FileMemoryAllocator(AllocationPolicy policy) {
+        this(new LinkedVirtualMemoryTableFactory(policy));
+    }
+
+    /**
+     * Creates an allocator that splits the memory into a number of arenas, so threads don't share a table.
+     *
+     * @param tableFactory the factory for the virtual memory table of each arena.
+     * @param arenas       the number of arenas, 1 means the memory is not split.
+     * @see com.khmelyuk.memory.vm.table.ArenaVirtualMemoryTable
+     */
+    public FileMemoryAllocator(VirtualMemoryTableFactory tableFactory, int arenas) {
+        this(arenas > 1 ? new ArenaVirtualMemoryTableFactory(arenas, tableFactory) : tableFactory);
+    }
+
+    /**
+     * Allocates a memory of specified size mapped by the file.
+     * The file is mapped by segments of {@link #SEGMENT_SIZE}, each segment is mapped on the first access,
+     * so the memory can be larger than 2 GB and a large file is not mapped at once.
+     *
+     * @param file the file to map.
+     * @param size the memory size.
+     * @return the memory with specified size.
+     * @throws IOException error to map the file.
+     */
+    public Memory allocate(File file, long size) throws IOException {
         assert size >= 0 : "Memory size can't negative";
 
         final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
         final FileChannel channel = randomAccessFile.getChannel();
         channel.force(true);
 
-        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        final Storage storage;
+        try {
+            storage = new MappedFileStorage(channel, size, SEGMENT_SIZE, false);
+        } catch (MemoryException e) {
+            randomAccessFile.close();
+            throw e;
+        }
 
-        VirtualMemory vm = new FixedVirtualMemory(
-                new ByteBufferStorage(buffer),
-                new LinkedVirtualMemoryTable(size));
+        VirtualMemory vm = new FixedVirtualMemory(storage, tableFactory.create(size));
 
         vm.setFreeEventListener(new FreeEventListener() {
             public void onFree(VirtualMemory memory) {
@@ -50,7 +116,17 @@ public class FileMemoryAllocator {
         return new Memory(vm);
     }
 
-    public Memory allocate(File file, int size, int maxSize) throws IOException {
+    /**
+     * Allocates a memory of specified size mapped by the file, that can grow to the max size.
+     * The memory grows by the initial size, but not more than {@link #SEGMENT_SIZE} at once.
+     *
+     * @param file    the file to map.
+     * @param size    the memory size.
+     * @param maxSize the max size for the memory.
+     * @return the memory with specified size.
+     * @throws IOException error to map the file.
+     */
+    public Memory allocate(File file, long size, long maxSize) throws IOException {
         assert size >= 0 : "Memory size can't negative";
 
         if (size == maxSize) {
@@ -62,14 +138,108 @@ public class FileMemoryAllocator {
         channel.force(true);
 
         StorageFactory factory = new FileChannelStorageFactory(channel, false);
-        DynamicStorage storage = new DynamicStorage(size, maxSize, size, factory);
-        VirtualMemory vm = new DynamicVirtualMemory(storage, new LinkedVirtualMemoryTable(size));
+        DynamicStorage storage = new DynamicStorage(size, maxSize, (int) Math.min(size, SEGMENT_SIZE), factory);
+        VirtualMemory vm = new DynamicVirtualMemory(storage, tableFactory.create(size));
+
+        vm.setFreeEventListener(new FreeEventListener() {
+            public void onFree(VirtualMemory memory) {
+                try {
+                    channel.close();
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        return new Memory(vm);
+    }
+
+    /**
+     * Allocates a memory of specified size mapped by the file, which allocation table is persisted,
+     * so the memory can be opened again with {@link #open(File)} after it's freed or the process is restarted.
+     * The table is persisted to the file next to the memory file with {@link #TABLE_FILE_SUFFIX} suffix.
+     * <p/>
+     * The persistent memory always uses the linked table with first fit policy,
+     * whatever table factory is set to this allocator, and it can't be compacted.
+     *
+     * @param file the file to map.
+     * @param size the memory size.
+     * @return the memory with specified size.
+     * @throws IOException error to map the file.
+     * @see PersistentVirtualMemoryTable
+     */
+    public Memory create(File file, long size) throws IOException {
+        assert size >= 0 : "Memory size can't negative";
+
+        final RandomAccessFile tableFile = new RandomAccessFile(getTableFile(file), "rw");
+        boolean mapped = false;
+        try {
+            final Memory result = mapPersistent(
+                    file, size, PersistentVirtualMemoryTable.create(tableFile.getChannel(), size), tableFile);
+            mapped = true;
+            return result;
+        } finally {
+            if (!mapped) {
+                tableFile.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the memory allocated with {@link #create(File, long)}, the used blocks are restored from
+     * the persisted allocation table, so it takes time proportional to the number of used blocks.
+     * The spaces can be found with {@link Memory#getSpaces()} or {@link Memory#getSpace(long)}.
+     *
+     * @param file the file of the memory.
+     * @return the opened memory.
+     * @throws IOException error to map the file, or the file doesn't have the allocation table.
+     */
+    public Memory open(File file) throws IOException {
+        final File table = getTableFile(file);
+        if (!file.exists() || !table.exists()) {
+            throw new FileNotFoundException("Persistent memory is not found: " + file);
+        }
+
+        final RandomAccessFile tableFile = new RandomAccessFile(table, "rw");
+        boolean mapped = false;
+        try {
+            final PersistentVirtualMemoryTable persistentTable = PersistentVirtualMemoryTable.open(tableFile.getChannel());
+            final long size = persistentTable.getFreeMemorySize() + persistentTable.getUsedMemorySize();
+            final Memory result = mapPersistent(file, size, persistentTable, tableFile);
+            mapped = true;
+            return result;
+        } catch (MemoryException e) {
+            throw new IOException("Error to open the persistent memory " + file, e);
+        } finally {
+            if (!mapped) {
+                tableFile.close();
+            }
+        }
+    }
+
+    private Memory mapPersistent(File file, long size, VirtualMemoryTable table, final RandomAccessFile tableFile)
+            throws IOException {
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        final FileChannel channel = randomAccessFile.getChannel();
+
+        final Storage storage;
+        try {
+            storage = new MappedFileStorage(channel, size, SEGMENT_SIZE, false);
+        } catch (MemoryException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+
+        VirtualMemory vm = new FixedVirtualMemory(storage, table);
 
         vm.setFreeEventListener(new FreeEventListener() {
             public void onFree(VirtualMemory memory) {
                 try {
                     channel.close();
                     randomAccessFile.close();
+                    tableFile.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -79,4 +249,7 @@ public class FileMemoryAllocator {
         return new Memory(vm);
     }
 
+    private static File getTableFile(File file) {
+        return new File(file.getPath() + TABLE_FILE_SUFFIX);
+    }
 }
@@ -1,8 +1,14 @@
 package com.khmelyuk.memory;
 
 import com.khmelyuk.memory.vm.FixedVirtualMemory;
-import com.khmelyuk.memory.vm.storage.ByteArrayStorage;
-import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTable;
+import com.khmelyuk.memory.vm.storage.ByteArrayStorageFactory;
+import com.khmelyuk.memory.vm.storage.DynamicStorage;
+import com.khmelyuk.memory.vm.storage.Storage;
+import com.khmelyuk.memory.vm.storage.StorageFactory;
+import com.khmelyuk.memory.vm.table.AllocationPolicy;
+import com.khmelyuk.memory.vm.table.ArenaVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.VirtualMemoryTableFactory;
 
 /**
  * A fixed memory size allocator.
@@ -11,18 +17,79 @@ import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTable;
  */
 public class FixedMemoryAllocator {
 
+    /**
+     * The size of a sector of memory that is larger than a single storage can be.
+     * It's a power of two, so the sector of an address is found with a shift.
+     */
+    public static final int SECTOR_SIZE = 1 << 30;
+
+    private final VirtualMemoryTableFactory tableFactory;
+    private final StorageFactory storageFactory;
+
+    public FixedMemoryAllocator() {
+        this(LinkedVirtualMemoryTableFactory.getInstance());
+    }
+
+    /**
+     * Creates an allocator that uses the specified factory to create the virtual memory table.
+     *
+     * @param tableFactory the factory for the virtual memory table.
+     */
+    public FixedMemoryAllocator(VirtualMemoryTableFactory tableFactory) {
+        this(tableFactory, ByteArrayStorageFactory.getInstance());
+    }
+
+    /**
+     * Creates an allocator that uses the specified factories to create the virtual memory table and storage,
+     * for example {@link com.khmelyuk.memory.vm.storage.UnsafeStorageFactory} for off-heap memory.
+     *
+     * @param tableFactory   the factory for the virtual memory table.
+     * @param storageFactory the factory for the storage.
+     */
+    public FixedMemoryAllocator(VirtualMemoryTableFactory tableFactory, StorageFactory storageFactory) {
+        this.tableFactory = tableFactory;
+        this.storageFactory = storageFactory;
+    }
+
+    /**
+     * Creates an allocator that uses the linked virtual memory table with specified allocation policy.
+     *
+     * @param policy the policy to choose the free block to allocate from.
+     */
+    public FixedMemoryAllocator(AllocationPolicy policy) {
+        this(new LinkedVirtualMemoryTableFactory(policy));
+    }
+
+    /**
+     * Creates an allocator that splits the memory into a number of arenas, so threads don't share a table.
+     *
+     * @param tableFactory the factory for the virtual memory table of each arena.
+     * @param arenas       the number of arenas, 1 means the memory is not split.
+     * @see com.khmelyuk.memory.vm.table.ArenaVirtualMemoryTable
+     */
+    public FixedMemoryAllocator(VirtualMemoryTableFactory tableFactory, int arenas) {
+        this(arenas > 1 ? new ArenaVirtualMemoryTableFactory(arenas, tableFactory) : tableFactory);
+    }
+
     /**
      * Allocated a memory with specified size.
+     * The memory that is larger than a single storage can be, that is 2 GB, is a chain of storages
+     * of {@link #SECTOR_SIZE}, and the first storage takes the rest of the size.
      *
      * @param size the memory size.
      * @return the memory with specified size.
      */
-    public Memory allocate(int size) {
+    public Memory allocate(long size) {
         assert size >= 0 : "Memory size can't negative";
 
-        return new Memory(new FixedVirtualMemory(
-                new ByteArrayStorage(size),
-                new LinkedVirtualMemoryTable(size)));
+        final Storage storage;
+        if (size > Integer.MAX_VALUE) {
+            storage = new DynamicStorage(size, size, SECTOR_SIZE, storageFactory);
+        } else {
+            storage = storageFactory.create(0, (int) size);
+        }
+
+        return new Memory(new FixedVirtualMemory(storage, tableFactory.create(size)));
     }
 
     /**
@@ -30,7 +97,7 @@ public class FixedMemoryAllocator {
      *
      * @param size the memory size.
      * @return the memory with specified size.
-     * @see #allocate(int)
+     * @see #allocate(long)
      */
     public Memory allocate(MemorySize size) {
         return allocate(size.getBytes());
@@ -4,12 +4,23 @@ import com.khmelyuk.memory.metrics.Metrics;
 import com.khmelyuk.memory.metrics.MetricsSnapshot;
 import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
 import com.khmelyuk.memory.metrics.Monitorable;
+import com.khmelyuk.memory.pressure.PressureListener;
+import com.khmelyuk.memory.pressure.PressureMonitor;
+import com.khmelyuk.memory.pressure.Watermark;
+import com.khmelyuk.memory.slab.Slab;
 import com.khmelyuk.memory.space.FreeSpaceListener;
 import com.khmelyuk.memory.space.MemorySpace;
 import com.khmelyuk.memory.space.Space;
+import com.khmelyuk.memory.vm.Compactor;
+import com.khmelyuk.memory.vm.EpochReclaimer;
 import com.khmelyuk.memory.vm.VirtualMemory;
 import com.khmelyuk.memory.vm.VirtualMemoryBlock;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Represents a memory block.
  *
@@ -20,17 +31,27 @@ public class Memory implements Monitorable {
     private final VirtualMemory vm;
     private final FreeSpaceListener freeSpaceListener;
     private final Metrics metrics;
+    private final PressureMonitor pressureMonitor;
+
+    private volatile boolean slabsCreated;
 
     public Memory(VirtualMemory vm) {
         this.vm = vm;
 
         metrics = new Metrics();
         metrics.addValueMetric("memory.spaces");
+        if (vm.getUsedSize() > 0) {
+            // the memory is restored, so it has spaces already
+            metrics.increment("memory.spaces", vm.getUsedBlocks().size());
+        }
+
+        pressureMonitor = new PressureMonitor(this, vm, metrics);
 
         freeSpaceListener = new FreeSpaceListener() {
             public void onFreeSpace(Space space) {
                 Memory.this.vm.free(space.getBlock());
                 metrics.decrement("memory.spaces");
+                pressureMonitor.check();
             }
         };
     }
@@ -45,6 +66,7 @@ public class Memory implements Monitorable {
     public MemorySpace allocate(int length) throws OutOfMemoryException {
         final VirtualMemoryBlock block = vm.allocate(length);
         metrics.increment("memory.spaces");
+        pressureMonitor.check();
         return new MemorySpace(this, block, freeSpaceListener);
     }
 
@@ -57,13 +79,211 @@ public class Memory implements Monitorable {
      * @see Memory#allocate(int)
      */
     public MemorySpace allocate(MemorySize size) throws OutOfMemoryException {
-        return allocate(size.getBytes());
+        return allocate(size.getBytesAsInt());
+    }
+
+    /**
+     * Allocates a memory space of specified size, which address is a multiple of specified alignment,
+     * for example a cache line or a page size.
+     *
+     * @param length    the memory size.
+     * @param alignment the alignment of space address, should be a power of two.
+     * @return the new space
+     * @throws OutOfMemoryException error to allocate a memory.
+     */
+    public MemorySpace allocate(int length, int alignment) throws OutOfMemoryException {
+        final VirtualMemoryBlock block = vm.allocate(length, alignment);
+        metrics.increment("memory.spaces");
+        pressureMonitor.check();
+        return new MemorySpace(this, block, freeSpaceListener);
+    }
+
+    /**
+     * Tries to allocate a memory space of specified size.
+     *
+     * @param length the size of the memory space.
+     * @return the new memory space, or null if there is no memory for it.
+     */
+    public MemorySpace tryAllocate(int length) {
+        final VirtualMemoryBlock block = vm.tryAllocate(length);
+        if (block == null) {
+            return null;
+        }
+        metrics.increment("memory.spaces");
+        pressureMonitor.check();
+        return new MemorySpace(this, block, freeSpaceListener);
+    }
+
+    /**
+     * Allocates a memory space of specified size, waiting till spaces are freed if there is no memory for it.
+     * Waiting threads are served in the order they came, so a large space is not starved by smaller ones.
+     *
+     * @param length  the size of the memory space.
+     * @param timeout the max time to wait.
+     * @param unit    the unit of the timeout.
+     * @return the new memory space.
+     * @throws OutOfMemoryException failed to allocate a memory in time.
+     * @throws InterruptedException the thread was interrupted while waiting.
+     */
+    public MemorySpace allocate(int length, long timeout, TimeUnit unit)
+            throws OutOfMemoryException, InterruptedException {
+        final VirtualMemoryBlock block = vm.allocate(length, timeout, unit);
+        metrics.increment("memory.spaces");
+        pressureMonitor.check();
+        return new MemorySpace(this, block, freeSpaceListener);
+    }
+
+    /**
+     * Allocates memory spaces of specified sizes at once.
+     * Either all spaces are allocated, or none of them.
+     *
+     * @param lengths the sizes of spaces.
+     * @return the new spaces in the order of sizes.
+     * @throws OutOfMemoryException error to allocate a memory.
+     */
+    public MemorySpace[] allocateAll(int... lengths) throws OutOfMemoryException {
+        final VirtualMemoryBlock[] blocks = vm.allocateAll(lengths);
+        metrics.increment("memory.spaces", blocks.length);
+        pressureMonitor.check();
+
+        final MemorySpace[] result = new MemorySpace[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            result[i] = new MemorySpace(this, blocks[i], freeSpaceListener);
+        }
+        return result;
+    }
+
+    /**
+     * Frees the memory spaces at once.
+     *
+     * @param spaces the spaces to free.
+     * @return the number of freed spaces.
+     */
+    public int freeAll(Collection<? extends Space> spaces) {
+        final List<VirtualMemoryBlock> blocks = new ArrayList<>(spaces.size());
+        for (Space each : spaces) {
+            blocks.add(each.getBlock());
+        }
+
+        final int result = vm.freeAll(blocks);
+        metrics.decrement("memory.spaces", result);
+        pressureMonitor.check();
+        return result;
+    }
+
+    /**
+     * Creates a slab allocator for records of the same size.
+     * Slabs are allocated from this memory as they are needed.
+     *
+     * @param recordSize the size of each record.
+     * @param slabSize   the size of each slab.
+     * @return the new slab allocator.
+     */
+    public Slab createSlab(int recordSize, int slabSize) {
+        if (vm.getCompactor() != null) {
+            throw new MemoryException("Slabs can't be created in the memory with compaction");
+        }
+        slabsCreated = true;
+        return new Slab(vm, recordSize, slabSize);
+    }
+
+    /**
+     * Creates a slab allocator for records of the same size.
+     *
+     * @param recordSize the size of each record.
+     * @param slabSize   the size of each slab.
+     * @return the new slab allocator.
+     * @see Memory#createSlab(int, int)
+     */
+    public Slab createSlab(int recordSize, MemorySize slabSize) {
+        return createSlab(recordSize, slabSize.getBytesAsInt());
+    }
+
+    /**
+     * Enables the compaction of this memory, so spaces can be moved to defeat external fragmentation.
+     * Spaces stay valid when they are moved, but their addresses are changed.
+     * Should be enabled before any space is allocated, and slabs can't be used with compaction.
+     *
+     * @return the compactor to run compaction on demand or in background.
+     * @throws MemoryException the memory can't be compacted.
+     */
+    public Compactor enableCompaction() throws MemoryException {
+        if (slabsCreated) {
+            throw new MemoryException("Memory with slabs can't be compacted");
+        }
+        return vm.enableCompaction();
+    }
+
+    /**
+     * Enables the epoch based reclamation of this memory, so freed spaces are reused only when
+     * all readers, that were reading spaces when they were freed, are done.
+     * Should be enabled before any space is allocated, and can't be used with compaction.
+     *
+     * @return the reclaimer to run reclamation on demand.
+     * @throws MemoryException the reclamation can't be enabled.
+     */
+    public EpochReclaimer enableReclamation() throws MemoryException {
+        return vm.enableReclamation();
+    }
+
+    /**
+     * Adds the listener of memory pressure, so cached data can be evicted before allocations fail.
+     * Watermarks are checked when spaces are allocated and freed, listeners are called on the notifier thread.
+     *
+     * @param watermark the watermark to check.
+     * @param listener  the listener to notify when memory reaches the high watermark and drops to the low one.
+     */
+    public void addPressureListener(Watermark watermark, PressureListener listener) {
+        pressureMonitor.addListener(watermark, listener);
+    }
+
+    /**
+     * Removes the listener of memory pressure.
+     *
+     * @param listener the listener to remove.
+     * @return true if listener was removed.
+     */
+    public boolean removePressureListener(PressureListener listener) {
+        return pressureMonitor.removeListener(listener);
+    }
+
+    /**
+     * Gets the spaces of all used blocks, for example to find the spaces of the memory
+     * opened with {@link FileMemoryAllocator#open(java.io.File)}.
+     * It's not a constant time operation.
+     *
+     * @return the list of used spaces.
+     */
+    public List<MemorySpace> getSpaces() {
+        final List<VirtualMemoryBlock> blocks = vm.getUsedBlocks();
+        final List<MemorySpace> result = new ArrayList<>(blocks.size());
+        for (VirtualMemoryBlock each : blocks) {
+            result.add(new MemorySpace(this, each, freeSpaceListener));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the space of the used block at specified address.
+     * It's not a constant time operation.
+     *
+     * @param address the address of the space.
+     * @return the found space or null if there is no space at this address.
+     */
+    public MemorySpace getSpace(long address) {
+        for (VirtualMemoryBlock each : vm.getUsedBlocks()) {
+            if (each.getAddress() == address) {
+                return new MemorySpace(this, each, freeSpaceListener);
+            }
+        }
+        return null;
     }
 
     /**
      * Frees the memory.
      */
     public void free() {
+        pressureMonitor.stop();
         vm.free();
     }
 
@@ -72,7 +292,7 @@ public class Memory implements Monitorable {
      *
      * @return the memory size.
      */
-    public int size() {
+    public long size() {
         return vm.size();
     }
 
@@ -81,7 +301,7 @@ public class Memory implements Monitorable {
      *
      * @return the size of free memory.
      */
-    public int getFreeMemorySize() {
+    public long getFreeMemorySize() {
         return vm.getFreeSize();
     }
 
@@ -90,7 +310,7 @@ public class Memory implements Monitorable {
      *
      * @return the size of used memory.
      */
-    public int getUsedMemorySize() {
+    public long getUsedMemorySize() {
         return vm.getUsedSize();
     }
 
@@ -13,7 +13,7 @@ public final class MemorySize {
 
     // -------------- factory methods
 
-    public static MemorySize bytes(int size) {
+    public static MemorySize bytes(long size) {
         return new MemorySize(size, SizeUnit.Bytes);
     }
 
@@ -33,15 +33,15 @@ public final class MemorySize {
 
     // TODO - maybe it's better to save bytes not size?
 
-    private final int size;
+    private final long size;
     private final SizeUnit unit;
 
-    public MemorySize(int size, SizeUnit unit) {
+    public MemorySize(long size, SizeUnit unit) {
         this.size = size;
         this.unit = unit;
     }
 
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
@@ -49,10 +49,24 @@ public final class MemorySize {
         return unit;
     }
 
-    public int getBytes() {
+    public long getBytes() {
         return unit.toBytes(size);
     }
 
+    /**
+     * Gets the number of bytes as int, used for sizes of blocks that can't be larger than 2 GB.
+     *
+     * @return the number of bytes.
+     * @throws OutOfBoundException if the number of bytes doesn't fit int.
+     */
+    public int getBytesAsInt() throws OutOfBoundException {
+        final long bytes = getBytes();
+        if (bytes > Integer.MAX_VALUE || bytes < Integer.MIN_VALUE) {
+            throw new OutOfBoundException("Size is too large: " + bytes);
+        }
+        return (int) bytes;
+    }
+
     public MemorySize convertTo(SizeUnit unit) {
         return new MemorySize(unit.fromBytes(getBytes()), unit);
     }
@@ -66,7 +80,7 @@ public final class MemorySize {
      */
     public MemorySize add(final MemorySize memorySize) {
         SizeUnit minUnit = SizeUnit.min(unit, memorySize.unit);
-        int bytes = getBytes() + memorySize.getBytes();
+        long bytes = getBytes() + memorySize.getBytes();
         return new MemorySize(minUnit.fromBytes(bytes), minUnit);
     }
 
@@ -79,7 +93,7 @@ public final class MemorySize {
      */
     public MemorySize subtract(final MemorySize memorySize) {
         SizeUnit minUnit = SizeUnit.min(unit, memorySize.unit);
-        int bytes = getBytes() - memorySize.getBytes();
+        long bytes = getBytes() - memorySize.getBytes();
         return new MemorySize(minUnit.fromBytes(bytes), minUnit);
     }
 
@@ -100,6 +114,7 @@ public final class MemorySize {
 
     @Override
     public int hashCode() {
-        return getBytes() ^ 31;
+        final long bytes = getBytes();
+        return (int) (bytes ^ (bytes >>> 32)) ^ 31;
     }
 }
\ No newline at end of file
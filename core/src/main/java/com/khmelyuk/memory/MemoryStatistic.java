@@ -64,8 +64,7 @@ public final class MemoryStatistic implements Serializable {
     }
 
     public long getTotalSize() {
-        // TODO - change to usedSize.add(freeSize).bytes() after bytes are long type
-        return (long) usedSize.getBytes() + freeSize.getBytes();
+        return usedSize.add(freeSize).getBytes();
     }
 
     public BigDecimal getUsedPercentage() {
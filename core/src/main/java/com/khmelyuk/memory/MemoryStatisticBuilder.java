@@ -16,8 +16,8 @@ class MemoryStatisticBuilder {
     }
 
     public MemoryStatistic build() {
-        MemorySize freeSize = MemorySize.bytes((int) metrics.getValueMetric("vmtable.freeSize").get());
-        MemorySize usedSize = MemorySize.bytes((int) metrics.getValueMetric("vmtable.usedSize").get());
+        MemorySize freeSize = MemorySize.bytes(metrics.getValueMetric("vmtable.freeSize").get());
+        MemorySize usedSize = MemorySize.bytes(metrics.getValueMetric("vmtable.usedSize").get());
 
         long usedBlocksCount = metrics.getValueMetric("vmtable.usedBlocksCount").get();
         long freeBlocksCount = metrics.getValueMetric("vmtable.freeBlocksCount").get();
@@ -27,7 +27,7 @@ public enum SizeUnit {
         return bytes;
     }
 
-    public int toBytes(int size) {
+    public long toBytes(long size) {
         if (size == 0) {
             return 0;
         }
@@ -35,10 +35,10 @@ public enum SizeUnit {
             return size;
         }
 
-        return bytes * size;
+        return (long) bytes * size;
     }
 
-    public int fromBytes(int size) {
+    public long fromBytes(long size) {
         return size / bytes + (size % bytes != 0 ? 1 : 0);
     }
 
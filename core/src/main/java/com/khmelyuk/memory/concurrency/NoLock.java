@@ -0,0 +1,49 @@
+package com.khmelyuk.memory.concurrency;
+
+import com.khmelyuk.memory.annotation.Immutable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The lock that doesn't lock anything.
+ * Used where the locking is optional, so callers don't need to check if there is a lock.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@Immutable
+public final class NoLock implements Lock {
+
+    public static final NoLock INSTANCE = new NoLock();
+
+    private NoLock() {
+    }
+
+    @Override
+    public void lock() {
+    }
+
+    @Override
+    public void lockInterruptibly() {
+    }
+
+    @Override
+    public boolean tryLock() {
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) {
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("NoLock doesn't support conditions");
+    }
+}
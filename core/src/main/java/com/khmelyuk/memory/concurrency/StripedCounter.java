@@ -0,0 +1,70 @@
+package com.khmelyuk.memory.concurrency;
+
+import com.khmelyuk.memory.annotation.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads updates over a number of padded cells, so threads that update it concurrently
+ * don't fight for the same cache line. Reading the value sums all cells, so it's more expensive than update.
+ * <p/>
+ * The sum is not an atomic snapshot if there are concurrent updates.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@ThreadSafe
+public final class StripedCounter {
+
+    /**
+     * The number of longs between two cells, so each cell is on it's own cache line.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedCounter(int stripes) {
+        int count = Integer.highestOneBit(Math.max(stripes, 1) * 2 - 1);
+        this.mask = count - 1;
+        this.cells = new AtomicLongArray(count * PADDING);
+    }
+
+    public void add(long value) {
+        cells.addAndGet(cellIndex(), value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Resets the counter to 0. Not atomic, if there are concurrent updates, they can be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & mask) * PADDING;
+    }
+}
@@ -111,6 +111,15 @@ public final class Metrics {
         getValueMetric(metric).increment();
     }
 
+    /**
+     * Increments the metric value.
+     *
+     * @param metric the metric name.
+     */
+    public void increment(String metric, long value) {
+        getValueMetric(metric).increment(value);
+    }
+
     /**
      * Decrements the metric value.
      *
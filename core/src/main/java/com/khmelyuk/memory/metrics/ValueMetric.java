@@ -31,6 +31,10 @@ public class ValueMetric implements Metric<Long> {
         this.value.incrementAndGet();
     }
 
+    public void increment(long value) {
+        this.value.addAndGet(value);
+    }
+
     public void decrement() {
         this.value.decrementAndGet();
     }
@@ -0,0 +1,29 @@
+package com.khmelyuk.memory.pressure;
+
+import com.khmelyuk.memory.Memory;
+
+/**
+ * The listener for memory pressure, usually used to evict cached data before allocations fail.
+ * Listeners are called on the notifier thread, not the thread that allocates or frees memory.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public interface PressureListener {
+
+    /**
+     * Called when memory reaches the high watermark.
+     *
+     * @param memory    the memory that is under pressure.
+     * @param watermark the reached watermark.
+     */
+    void onHighWatermark(Memory memory, Watermark watermark);
+
+    /**
+     * Called when memory, that was under pressure, drops to the low watermark.
+     *
+     * @param memory    the memory that is relieved.
+     * @param watermark the watermark.
+     */
+    void onLowWatermark(Memory memory, Watermark watermark);
+
+}
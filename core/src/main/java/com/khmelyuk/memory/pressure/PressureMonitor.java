@@ -0,0 +1,218 @@
+package com.khmelyuk.memory.pressure;
+
+import com.khmelyuk.memory.Memory;
+import com.khmelyuk.memory.annotation.ThreadSafe;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.vm.VirtualMemory;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks the watermarks of memory pressure and notifies listeners.
+ * <p/>
+ * Cheap watermarks are checked by the thread that allocates or frees memory, it only reads the memory
+ * counters and changes the state of the watermark. Other watermarks are checked on the notifier thread,
+ * the check is scheduled once, whatever number of changes was made meanwhile.
+ * Listeners are always called on the notifier thread, in the order the watermarks were reached,
+ * so eviction doesn't run in the critical section of the allocating thread.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@ThreadSafe
+public class PressureMonitor {
+
+    private static final Registration[] EMPTY = new Registration[0];
+
+    private final Memory memory;
+    private final VirtualMemory vm;
+    private final Metrics metrics;
+
+    private volatile Registration[] registrations = EMPTY;
+    private volatile boolean hasExpensive;
+
+    private final AtomicBoolean checkScheduled = new AtomicBoolean();
+    private volatile ExecutorService notifier;
+
+    private final Runnable expensiveCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkScheduled.set(false);
+            for (Registration each : registrations) {
+                if (!each.watermark.isCheap()) {
+                    check(each);
+                }
+            }
+        }
+    };
+
+    public PressureMonitor(Memory memory, VirtualMemory vm, Metrics metrics) {
+        this.memory = memory;
+        this.vm = vm;
+        this.metrics = metrics;
+
+        metrics.addValueMetric("memory.pressure.highWatermarks");
+        metrics.addValueMetric("memory.pressure.lowWatermarks");
+    }
+
+    /**
+     * Adds the listener of specified watermark.
+     * The watermark is checked at once, so the listener is notified if memory is under pressure already.
+     *
+     * @param watermark the watermark to check.
+     * @param listener  the listener to notify.
+     */
+    public synchronized void addListener(Watermark watermark, PressureListener listener) {
+        if (notifier == null) {
+            notifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "memory-pressure-notifier");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        final Registration[] result = Arrays.copyOf(registrations, registrations.length + 1);
+        result[result.length - 1] = new Registration(watermark, listener);
+        registrations = result;
+        hasExpensive |= !watermark.isCheap();
+
+        check();
+    }
+
+    /**
+     * Removes the listener of all watermarks.
+     *
+     * @param listener the listener to remove.
+     * @return true if listener was removed.
+     */
+    public synchronized boolean removeListener(PressureListener listener) {
+        int count = 0;
+        boolean expensive = false;
+        final Registration[] result = new Registration[registrations.length];
+        for (Registration each : registrations) {
+            if (each.listener != listener) {
+                result[count++] = each;
+                expensive |= !each.watermark.isCheap();
+            }
+        }
+
+        final boolean removed = (count != registrations.length);
+        registrations = Arrays.copyOf(result, count);
+        hasExpensive = expensive;
+
+        return removed;
+    }
+
+    /**
+     * Checks the watermarks after memory is changed.
+     * Cheap watermarks are checked by the current thread, other are scheduled to check on the notifier thread.
+     */
+    public void check() {
+        final Registration[] registrations = this.registrations;
+        if (registrations.length == 0) {
+            return;
+        }
+
+        for (Registration each : registrations) {
+            if (each.watermark.isCheap()) {
+                check(each);
+            }
+        }
+
+        if (hasExpensive && checkScheduled.compareAndSet(false, true)) {
+            if (!execute(expensiveCheck)) {
+                checkScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Stops the notifier thread, the listeners that are scheduled already are called.
+     */
+    public synchronized void stop() {
+        registrations = EMPTY;
+        hasExpensive = false;
+        if (notifier != null) {
+            notifier.shutdown();
+            notifier = null;
+        }
+    }
+
+    /**
+     * Checks the watermark and changes the state with hysteresis.
+     *
+     * @param registration the watermark with the listener.
+     */
+    private void check(final Registration registration) {
+        final Watermark watermark = registration.watermark;
+        final boolean high = registration.high;
+        if (high ? !watermark.isLow(vm) : !watermark.isHigh(vm)) {
+            return;
+        }
+
+        // the state is changed and the listener is scheduled at once,
+        // so listeners are called in the order the state was changed
+        synchronized (registration) {
+            if (registration.high != high) {
+                return;
+            }
+            registration.high = !high;
+            if (high) {
+                metrics.increment("memory.pressure.lowWatermarks");
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        registration.listener.onLowWatermark(memory, watermark);
+                    }
+                });
+            } else {
+                metrics.increment("memory.pressure.highWatermarks");
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        registration.listener.onHighWatermark(memory, watermark);
+                    }
+                });
+            }
+        }
+    }
+
+    private boolean execute(Runnable task) {
+        final ExecutorService notifier = this.notifier;
+        if (notifier == null) {
+            return false;
+        }
+        try {
+            notifier.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // the monitor is stopped
+            return false;
+        }
+    }
+
+    // ---------- internal structures
+
+    private static final class Registration {
+
+        final Watermark watermark;
+        final PressureListener listener;
+
+        /**
+         * Whether memory is under pressure, that is the high watermark was reached and the low was not yet.
+         */
+        volatile boolean high;
+
+        Registration(Watermark watermark, PressureListener listener) {
+            this.watermark = watermark;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.khmelyuk.memory.pressure;
+
+import com.khmelyuk.memory.annotation.Immutable;
+import com.khmelyuk.memory.vm.VirtualMemory;
+
+/**
+ * The watermark of memory pressure, with hysteresis.
+ * Memory is under pressure when it reaches the high watermark, and it's relieved only when
+ * it drops to the low watermark, so listeners are not called on each allocation near the watermark.
+ * <p/>
+ * Cheap watermarks are checked on each allocation and free, other watermarks are checked
+ * on the notifier thread after the memory is changed.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@Immutable
+public abstract class Watermark {
+
+    /**
+     * Creates a watermark of the used memory, in percents of the max memory size.
+     *
+     * @param high the used percentage at which memory is under pressure.
+     * @param low  the used percentage at which memory is relieved, not larger than high.
+     * @return the watermark of the used memory.
+     */
+    public static Watermark usedPercentage(int high, int low) {
+        if (high < 0 || high > 100 || low < 0 || low > high) {
+            throw new IllegalArgumentException("Watermarks should be 0 <= low <= high <= 100: " + low + ", " + high);
+        }
+        return new UsedPercentage(high, low);
+    }
+
+    /**
+     * Creates a watermark of the largest free block, that is the largest block that can be allocated.
+     *
+     * @param high memory is under pressure when the largest free block is smaller than this size.
+     * @param low  memory is relieved when the largest free block is not smaller than this size,
+     *             not smaller than high.
+     * @return the watermark of the largest free block.
+     */
+    public static Watermark largestFreeBlock(long high, long low) {
+        if (high < 0 || low < high) {
+            throw new IllegalArgumentException("Watermarks should be 0 <= high <= low: " + high + ", " + low);
+        }
+        return new LargestFreeBlock(high, low);
+    }
+
+    /**
+     * Creates a watermark of the memory size, memory is under pressure when it can't grow anymore.
+     * Memory of fixed size is always at the max size.
+     *
+     * @return the watermark of the memory size.
+     */
+    public static Watermark maxSize() {
+        return new MaxSize();
+    }
+
+    /**
+     * Checks whether memory reached the high watermark.
+     *
+     * @param vm the virtual memory to check.
+     * @return true if memory is under pressure.
+     */
+    public abstract boolean isHigh(VirtualMemory vm);
+
+    /**
+     * Checks whether memory dropped to the low watermark.
+     *
+     * @param vm the virtual memory to check.
+     * @return true if memory is relieved.
+     */
+    public abstract boolean isLow(VirtualMemory vm);
+
+    /**
+     * Checks whether the watermark is cheap to check on each allocation and free.
+     *
+     * @return true if cheap to check.
+     */
+    public boolean isCheap() {
+        return true;
+    }
+
+    // ---------- watermarks
+
+    private static final class UsedPercentage extends Watermark {
+
+        private final int high;
+        private final int low;
+
+        UsedPercentage(int high, int low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean isHigh(VirtualMemory vm) {
+            return vm.getUsedSize() * 100 >= vm.getMaxSize() * high;
+        }
+
+        @Override
+        public boolean isLow(VirtualMemory vm) {
+            return vm.getUsedSize() * 100 <= vm.getMaxSize() * low;
+        }
+
+        @Override
+        public String toString() {
+            return "usedPercentage(" + high + ", " + low + ")";
+        }
+    }
+
+    private static final class LargestFreeBlock extends Watermark {
+
+        private final long high;
+        private final long low;
+
+        LargestFreeBlock(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean isHigh(VirtualMemory vm) {
+            return vm.getLargestFreeBlockSize() < high;
+        }
+
+        @Override
+        public boolean isLow(VirtualMemory vm) {
+            return vm.getLargestFreeBlockSize() >= low;
+        }
+
+        @Override
+        public boolean isCheap() {
+            // free blocks are scanned
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "largestFreeBlock(" + high + ", " + low + ")";
+        }
+    }
+
+    private static final class MaxSize extends Watermark {
+
+        @Override
+        public boolean isHigh(VirtualMemory vm) {
+            return vm.size() >= vm.getMaxSize();
+        }
+
+        @Override
+        public boolean isLow(VirtualMemory vm) {
+            return vm.size() < vm.getMaxSize();
+        }
+
+        @Override
+        public String toString() {
+            return "maxSize()";
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.khmelyuk.memory.slab;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.OutOfMemoryException;
+import com.khmelyuk.memory.annotation.ThreadSafe;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+import com.khmelyuk.memory.metrics.Monitorable;
+import com.khmelyuk.memory.vm.VirtualMemory;
+import com.khmelyuk.memory.vm.VirtualMemoryBlock;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Allocates records of the same size from the large blocks of the virtual memory, called slabs.
+ * <p/>
+ * The record is identified by an int handle, so there are no Java objects per record.
+ * Each slab keeps a stack of it's free records, and the link to the next free record
+ * is stored in the first 4 bytes of the free record itself. Slab records that were never used
+ * are not in the stack, they are taken in order, so a new slab doesn't need to be initialized.
+ * Both allocate and free are O(1).
+ * <p/>
+ * Slabs that have no used records stay allocated till {@link #releaseEmptySlabs()} is called.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@ThreadSafe
+public class Slab implements Monitorable {
+
+    /**
+     * The min record size, as a free record keeps the link to the next free record.
+     */
+    public static final int MIN_RECORD_SIZE = 4;
+
+    private static final int NONE = -1;
+    private static final int INITIAL_SLABS = 8;
+
+    private final VirtualMemory vm;
+    private final int recordSize;
+    private final int recordsPerSlab;
+
+    private final Lock lock = new ReentrantLock();
+
+    // the state of each slab, by slab index
+    private VirtualMemoryBlock[] blocks;
+    private long[] addresses;
+    private int[] freeHeads;
+    private int[] nextUnused;
+    private int[] usedCounts;
+    private long[][] usedBits;
+
+    // the list of slabs with free records
+    private int partialHead = NONE;
+    private int[] nextPartial;
+    private int[] prevPartial;
+
+    // the indexes of released slabs that can be reused
+    private int[] releasedIndexes;
+    private int releasedCount;
+
+    private int slabsCount;
+    private int maxIndex;
+    private int usedRecords;
+    private int releasedSlabs;
+
+    private final Metrics metrics;
+
+    /**
+     * Creates a slab allocator over the virtual memory.
+     *
+     * @param vm         the virtual memory to allocate slabs from.
+     * @param recordSize the size of each record, at least {@link #MIN_RECORD_SIZE} bytes.
+     * @param slabSize   the size of each slab, at least the record size.
+     */
+    public Slab(VirtualMemory vm, int recordSize, int slabSize) {
+        if (recordSize < MIN_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record size can't be less than " + MIN_RECORD_SIZE + ": " + recordSize);
+        }
+        if (slabSize < recordSize) {
+            throw new IllegalArgumentException("Slab size can't be less than record size: " + slabSize);
+        }
+
+        this.vm = vm;
+        this.recordSize = recordSize;
+        this.recordsPerSlab = slabSize / recordSize;
+
+        this.blocks = new VirtualMemoryBlock[INITIAL_SLABS];
+        this.addresses = new long[INITIAL_SLABS];
+        this.freeHeads = new int[INITIAL_SLABS];
+        this.nextUnused = new int[INITIAL_SLABS];
+        this.usedCounts = new int[INITIAL_SLABS];
+        this.usedBits = new long[INITIAL_SLABS][];
+        this.nextPartial = new int[INITIAL_SLABS];
+        this.prevPartial = new int[INITIAL_SLABS];
+        this.releasedIndexes = new int[INITIAL_SLABS];
+
+        metrics = new Metrics();
+        metrics.addValueMetric("slab.recordSize", recordSize);
+        metrics.addValueMetric("slab.recordsPerSlab", recordsPerSlab);
+        metrics.addValueMetric("slab.slabs");
+        metrics.addValueMetric("slab.records");
+        metrics.addValueMetric("slab.usedRecords");
+        metrics.addValueMetric("slab.freeRecords");
+        metrics.addValueMetric("slab.allocations");
+        metrics.addValueMetric("slab.frees");
+        metrics.addValueMetric("slab.failedFrees");
+        metrics.addValueMetric("slab.releasedSlabs");
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    public int getRecordsPerSlab() {
+        return recordsPerSlab;
+    }
+
+    public int getSlabsCount() {
+        lock.lock();
+        try {
+            return slabsCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getUsedRecordsCount() {
+        lock.lock();
+        try {
+            return usedRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates a record.
+     *
+     * @return the handle of the allocated record.
+     * @throws OutOfMemoryException error to allocate a new slab.
+     */
+    public int allocate() throws OutOfMemoryException {
+        lock.lock();
+        try {
+            if (partialHead == NONE) {
+                addSlab();
+            }
+
+            final int slab = partialHead;
+            int slot = freeHeads[slab];
+            if (slot != NONE) {
+                freeHeads[slab] = readInt(addresses[slab] + slot * recordSize);
+            } else {
+                slot = nextUnused[slab]++;
+            }
+
+            usedBits[slab][slot >>> 6] |= 1L << slot;
+            usedCounts[slab]++;
+            usedRecords++;
+            if (usedCounts[slab] == recordsPerSlab) {
+                unlinkPartial(slab);
+            }
+
+            metrics.increment("slab.allocations");
+
+            return slab * recordsPerSlab + slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the record.
+     *
+     * @param record the handle of the record.
+     * @return true if record was freed, false if it's not used.
+     */
+    public boolean free(int record) {
+        lock.lock();
+        try {
+            metrics.increment("slab.frees");
+
+            final int slab = record / recordsPerSlab;
+            final int slot = record % recordsPerSlab;
+            if (!isUsed(record, slab, slot)) {
+                metrics.increment("slab.failedFrees");
+                return false;
+            }
+
+            usedBits[slab][slot >>> 6] &= ~(1L << slot);
+            writeInt(addresses[slab] + slot * recordSize, freeHeads[slab]);
+            freeHeads[slab] = slot;
+
+            if (usedCounts[slab] == recordsPerSlab) {
+                linkPartial(slab);
+            }
+            usedCounts[slab]--;
+            usedRecords--;
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns slabs without used records back to the memory.
+     *
+     * @return the number of released slabs.
+     */
+    public int releaseEmptySlabs() {
+        lock.lock();
+        try {
+            int released = 0;
+            for (int slab = 0; slab < maxIndex; slab++) {
+                if (blocks[slab] != null && usedCounts[slab] == 0) {
+                    releaseSlab(slab);
+                    released++;
+                }
+            }
+            releasedSlabs += released;
+            return released;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees all slabs, the handles of the records are not valid any more.
+     */
+    public void free() {
+        lock.lock();
+        try {
+            for (int slab = 0; slab < maxIndex; slab++) {
+                if (blocks[slab] != null) {
+                    releaseSlab(slab);
+                }
+            }
+            usedRecords = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------- Read/write support
+
+    /**
+     * Writes the data to the record.
+     *
+     * @param record the handle of the record.
+     * @param data   the data to write.
+     * @throws OutOfBoundException the data is larger than record or record is not used.
+     */
+    public void write(int record, byte[] data) throws OutOfBoundException {
+        write(record, data, 0, data.length);
+    }
+
+    /**
+     * Writes the data to the record from specified offset.
+     *
+     * @param record the handle of the record.
+     * @param data   the data to write.
+     * @param offset the offset in the record.
+     * @param length the size of the data to write.
+     * @throws OutOfBoundException the data is out of record bounds or record is not used.
+     */
+    public void write(int record, byte[] data, int offset, int length) throws OutOfBoundException {
+        if (offset < 0 || length > data.length || offset + length > recordSize) {
+            throw new OutOfBoundException();
+        }
+        vm.write(data, getRecordAddress(record) + offset, length);
+    }
+
+    /**
+     * Reads the record into the buffer.
+     *
+     * @param record the handle of the record.
+     * @param data   the buffer to read into, it should be not larger than the record.
+     * @return the number of read bytes.
+     * @throws OutOfBoundException record is not used.
+     */
+    public int read(int record, byte[] data) throws OutOfBoundException {
+        return read(record, data, 0, Math.min(data.length, recordSize));
+    }
+
+    /**
+     * Reads the part of the record into the buffer.
+     *
+     * @param record the handle of the record.
+     * @param data   the buffer to read into.
+     * @param offset the offset in the record.
+     * @param length how many bytes to read.
+     * @return the number of read bytes.
+     * @throws OutOfBoundException the part is out of record bounds or record is not used.
+     */
+    public int read(int record, byte[] data, int offset, int length) throws OutOfBoundException {
+        if (offset < 0 || length > data.length || offset + length > recordSize) {
+            throw new OutOfBoundException();
+        }
+        return vm.read(data, getRecordAddress(record) + offset, length);
+    }
+
+    /**
+     * Gets the address of the record in the virtual memory.
+     *
+     * @param record the handle of the record.
+     * @return the address of the record.
+     * @throws OutOfBoundException record is not used.
+     */
+    public long getRecordAddress(int record) throws OutOfBoundException {
+        lock.lock();
+        try {
+            final int slab = record / recordsPerSlab;
+            final int slot = record % recordsPerSlab;
+            if (!isUsed(record, slab, slot)) {
+                throw new OutOfBoundException("Record is not used: " + record);
+            }
+            return addresses[slab] + slot * recordSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        lock.lock();
+        try {
+            metrics.mark("slab.slabs", slabsCount);
+            metrics.mark("slab.records", (long) slabsCount * recordsPerSlab);
+            metrics.mark("slab.usedRecords", usedRecords);
+            metrics.mark("slab.freeRecords", (long) slabsCount * recordsPerSlab - usedRecords);
+            metrics.mark("slab.releasedSlabs", releasedSlabs);
+        } finally {
+            lock.unlock();
+        }
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    // ---------------------------------------------- Helpers
+
+    private boolean isUsed(int record, int slab, int slot) {
+        return record >= 0
+                && slab < maxIndex
+                && blocks[slab] != null
+                && (usedBits[slab][slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void addSlab() throws OutOfMemoryException {
+        final VirtualMemoryBlock block = vm.allocate(recordsPerSlab * recordSize);
+
+        final int slab;
+        if (releasedCount > 0) {
+            slab = releasedIndexes[--releasedCount];
+        } else {
+            if (maxIndex == blocks.length) {
+                grow();
+            }
+            slab = maxIndex++;
+        }
+
+        blocks[slab] = block;
+        addresses[slab] = block.getAddress();
+        freeHeads[slab] = NONE;
+        nextUnused[slab] = 0;
+        usedCounts[slab] = 0;
+        usedBits[slab] = new long[(recordsPerSlab + 63) >>> 6];
+        slabsCount++;
+
+        linkPartial(slab);
+    }
+
+    private void releaseSlab(int slab) {
+        if (usedCounts[slab] < recordsPerSlab) {
+            unlinkPartial(slab);
+        }
+        vm.free(blocks[slab]);
+
+        usedRecords -= usedCounts[slab];
+        blocks[slab] = null;
+        usedBits[slab] = null;
+        usedCounts[slab] = 0;
+        slabsCount--;
+
+        if (releasedCount == releasedIndexes.length) {
+            releasedIndexes = Arrays.copyOf(releasedIndexes, releasedCount * 2);
+        }
+        releasedIndexes[releasedCount++] = slab;
+    }
+
+    private void grow() {
+        final int length = blocks.length * 2;
+        blocks = Arrays.copyOf(blocks, length);
+        addresses = Arrays.copyOf(addresses, length);
+        freeHeads = Arrays.copyOf(freeHeads, length);
+        nextUnused = Arrays.copyOf(nextUnused, length);
+        usedCounts = Arrays.copyOf(usedCounts, length);
+        usedBits = Arrays.copyOf(usedBits, length);
+        nextPartial = Arrays.copyOf(nextPartial, length);
+        prevPartial = Arrays.copyOf(prevPartial, length);
+    }
+
+    private void linkPartial(int slab) {
+        prevPartial[slab] = NONE;
+        nextPartial[slab] = partialHead;
+        if (partialHead != NONE) {
+            prevPartial[partialHead] = slab;
+        }
+        partialHead = slab;
+    }
+
+    private void unlinkPartial(int slab) {
+        final int prev = prevPartial[slab];
+        final int next = nextPartial[slab];
+        if (prev != NONE) {
+            nextPartial[prev] = next;
+        } else {
+            partialHead = next;
+        }
+        if (next != NONE) {
+            prevPartial[next] = prev;
+        }
+    }
+
+    private int readInt(long address) {
+        return ((vm.read(address) & 0xFF) << 24)
+                | ((vm.read(address + 1) & 0xFF) << 16)
+                | ((vm.read(address + 2) & 0xFF) << 8)
+                | (vm.read(address + 3) & 0xFF);
+    }
+
+    private void writeInt(long address, int value) {
+        vm.write((byte) (value >>> 24), address);
+        vm.write((byte) (value >>> 16), address + 1);
+        vm.write((byte) (value >>> 8), address + 2);
+        vm.write((byte) value, address + 3);
+    }
+}
@@ -28,7 +28,7 @@ public final class MemorySpace implements Space {
     }
 
     @Override
-    public int getAddress() {
+    public long getAddress() {
         return block.getAddress();
     }
 
@@ -37,6 +37,11 @@ public final class MemorySpace implements Space {
         return block.size();
     }
 
+    @Override
+    public void resize(int size) {
+        block.resize(size);
+    }
+
     @Override
     public void free() {
         if (freeSpaceListener != null) {
@@ -94,6 +99,46 @@ public final class MemorySpace implements Space {
         return block.read(buffer, spaceOffset, length);
     }
 
+    @Override
+    public short getShort(int spaceOffset) {
+        return block.getShort(spaceOffset);
+    }
+
+    @Override
+    public void putShort(int spaceOffset, short value) {
+        block.putShort(spaceOffset, value);
+    }
+
+    @Override
+    public int getInt(int spaceOffset) {
+        return block.getInt(spaceOffset);
+    }
+
+    @Override
+    public void putInt(int spaceOffset, int value) {
+        block.putInt(spaceOffset, value);
+    }
+
+    @Override
+    public long getLong(int spaceOffset) {
+        return block.getLong(spaceOffset);
+    }
+
+    @Override
+    public void putLong(int spaceOffset, long value) {
+        block.putLong(spaceOffset, value);
+    }
+
+    @Override
+    public double getDouble(int spaceOffset) {
+        return block.getDouble(spaceOffset);
+    }
+
+    @Override
+    public void putDouble(int spaceOffset, double value) {
+        block.putDouble(spaceOffset, value);
+    }
+
     @Override
     public Space readOnly() {
         return new ReadOnlySpace(this);
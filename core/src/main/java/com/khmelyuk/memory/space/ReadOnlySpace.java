@@ -23,7 +23,7 @@ public final class ReadOnlySpace implements Space {
     }
 
     @Override
-    public int getAddress() {
+    public long getAddress() {
         return space.getAddress();
     }
 
@@ -32,6 +32,11 @@ public final class ReadOnlySpace implements Space {
         return space.size();
     }
 
+    @Override
+    public void resize(int size) {
+        throw new WriteNotAllowedException();
+    }
+
     @Override
     public void free() {
         throw new WriteNotAllowedException();
@@ -87,6 +92,46 @@ public final class ReadOnlySpace implements Space {
         return space.read(buffer, spaceOffset, length);
     }
 
+    @Override
+    public short getShort(int spaceOffset) {
+        return space.getShort(spaceOffset);
+    }
+
+    @Override
+    public void putShort(int spaceOffset, short value) {
+        throw new WriteNotAllowedException();
+    }
+
+    @Override
+    public int getInt(int spaceOffset) {
+        return space.getInt(spaceOffset);
+    }
+
+    @Override
+    public void putInt(int spaceOffset, int value) {
+        throw new WriteNotAllowedException();
+    }
+
+    @Override
+    public long getLong(int spaceOffset) {
+        return space.getLong(spaceOffset);
+    }
+
+    @Override
+    public void putLong(int spaceOffset, long value) {
+        throw new WriteNotAllowedException();
+    }
+
+    @Override
+    public double getDouble(int spaceOffset) {
+        return space.getDouble(spaceOffset);
+    }
+
+    @Override
+    public void putDouble(int spaceOffset, double value) {
+        throw new WriteNotAllowedException();
+    }
+
     @Override
     public Space readOnly() {
         return this;
@@ -1,6 +1,7 @@
 package com.khmelyuk.memory.space;
 
 import com.khmelyuk.memory.MemoryException;
+import com.khmelyuk.memory.OutOfMemoryException;
 import com.khmelyuk.memory.space.transactional.TransactionalSpace;
 import com.khmelyuk.memory.vm.VirtualMemoryBlock;
 
@@ -20,7 +21,7 @@ public interface Space {
      *
      * @return the space address.
      */
-    int getAddress();
+    long getAddress();
 
     /**
      * Gets the space size.
@@ -36,6 +37,15 @@ public interface Space {
      */
     VirtualMemoryBlock getBlock();
 
+    /**
+     * Resizes this space. The space is extended or shrunk in place if possible,
+     * otherwise it's content is moved to a new address.
+     *
+     * @param size the new size of the space.
+     * @throws OutOfMemoryException failed to allocate the space of need size.
+     */
+    void resize(int size) throws OutOfMemoryException;
+
     /**
      * Frees this space.
      */
@@ -119,6 +129,70 @@ public interface Space {
      */
     int read(byte[] buffer, int spaceOffset, int length);
 
+    /**
+     * Reads a short value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @return the read value.
+     */
+    short getShort(int spaceOffset);
+
+    /**
+     * Writes a short value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @param value       the value to write.
+     */
+    void putShort(int spaceOffset, short value);
+
+    /**
+     * Reads an int value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @return the read value.
+     */
+    int getInt(int spaceOffset);
+
+    /**
+     * Writes an int value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @param value       the value to write.
+     */
+    void putInt(int spaceOffset, int value);
+
+    /**
+     * Reads a long value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @return the read value.
+     */
+    long getLong(int spaceOffset);
+
+    /**
+     * Writes a long value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @param value       the value to write.
+     */
+    void putLong(int spaceOffset, long value);
+
+    /**
+     * Reads a double value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @return the read value.
+     */
+    double getDouble(int spaceOffset);
+
+    /**
+     * Writes a double value at specified offset of the space.
+     *
+     * @param spaceOffset the space offset of the value.
+     * @param value       the value to write.
+     */
+    void putDouble(int spaceOffset, double value);
+
     /**
      * Returns the read only version of this space.
      *
@@ -35,7 +35,7 @@ public class CopyTransactionalSpace implements TransactionalSpace {
     }
 
     @Override
-    public int getAddress() {
+    public long getAddress() {
         return currentSpace.getAddress();
     }
 
@@ -49,6 +49,14 @@ public class CopyTransactionalSpace implements TransactionalSpace {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void resize(int size) {
+        if (status.get() != STATUS_NONE) {
+            throw new MemoryException("Space can't be resized in transaction");
+        }
+        space.resize(size);
+    }
+
     @Override
     public void free() {
         if (tSpace != null) {
@@ -106,6 +114,46 @@ public class CopyTransactionalSpace implements TransactionalSpace {
         return currentSpace.read(buffer, spaceOffset, length);
     }
 
+    @Override
+    public short getShort(int spaceOffset) {
+        return currentSpace.getShort(spaceOffset);
+    }
+
+    @Override
+    public void putShort(int spaceOffset, short value) {
+        currentSpace.putShort(spaceOffset, value);
+    }
+
+    @Override
+    public int getInt(int spaceOffset) {
+        return currentSpace.getInt(spaceOffset);
+    }
+
+    @Override
+    public void putInt(int spaceOffset, int value) {
+        currentSpace.putInt(spaceOffset, value);
+    }
+
+    @Override
+    public long getLong(int spaceOffset) {
+        return currentSpace.getLong(spaceOffset);
+    }
+
+    @Override
+    public void putLong(int spaceOffset, long value) {
+        currentSpace.putLong(spaceOffset, value);
+    }
+
+    @Override
+    public double getDouble(int spaceOffset) {
+        return currentSpace.getDouble(spaceOffset);
+    }
+
+    @Override
+    public void putDouble(int spaceOffset, double value) {
+        currentSpace.putDouble(spaceOffset, value);
+    }
+
     @Override
     public Space readOnly() {
         return space.readOnly();
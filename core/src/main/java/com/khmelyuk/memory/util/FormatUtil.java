@@ -18,7 +18,7 @@ public class FormatUtil {
     /**
      * Represent the size as string with the best fit unit.
      *
-     * @see #sizeAsString(int)
+     * @see #sizeAsString(long)
      */
     public static String sizeAsString(MemorySize size) {
         return sizeAsString(size.getBytes());
@@ -30,7 +30,7 @@ public class FormatUtil {
      * @param size the size to convert to string.
      * @return the string that represents size.
      */
-    private static String sizeAsString(int size) {
+    private static String sizeAsString(long size) {
         if (size >= SizeUnit.KB.bytes()) {
             return getDivision(size, SizeUnit.KB.bytes()).toString() + "KB";
         } else if (size >= SizeUnit.MB.bytes()) {
@@ -41,7 +41,7 @@ public class FormatUtil {
         return String.valueOf(size);
     }
 
-    public static BigDecimal getDivision(int value1, int value2) {
+    public static BigDecimal getDivision(long value1, long value2) {
         if (value2 == 0 || value1 == 0) {
             return BigDecimal.ZERO;
         }
@@ -1,15 +1,28 @@
 package com.khmelyuk.memory.vm;
 
+import com.khmelyuk.memory.MemoryException;
 import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.OutOfMemoryException;
+import com.khmelyuk.memory.concurrency.NoLock;
 import com.khmelyuk.memory.metrics.Metrics;
 import com.khmelyuk.memory.metrics.MetricsSnapshot;
 import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
 import com.khmelyuk.memory.metrics.TimeContext;
 import com.khmelyuk.memory.vm.storage.Storage;
+import com.khmelyuk.memory.vm.table.Block;
+import com.khmelyuk.memory.vm.table.BlockMover;
+import com.khmelyuk.memory.vm.table.RelocatableVirtualMemoryTable;
 import com.khmelyuk.memory.vm.table.VirtualMemoryTable;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents the abstract virtual memory. This class contains a list of general implementations.
@@ -18,14 +31,22 @@ import java.io.OutputStream;
  */
 public abstract class AbstractVirtualMemory<S extends Storage> implements VirtualMemory {
 
+    private static final int COPY_BUFFER_SIZE = 8192;
+
     protected S storage;
     protected VirtualMemoryTable table;
-    protected int size;
+    protected long size;
 
     protected FreeEventListener freeEventListener;
 
     protected final Metrics metrics;
 
+    private final AllocationQueue allocationQueue;
+
+    private volatile Compactor compactor;
+    private volatile EpochReclaimer reclaimer;
+    private volatile Lock blockAccessLock = NoLock.INSTANCE;
+
     protected AbstractVirtualMemory(S storage, VirtualMemoryTable table) {
         this.storage = storage;
         this.table = table;
@@ -38,46 +59,326 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         metrics.addTimerMetric("vm.io.writeTime");
         metrics.addTimerMetric("vm.allocationTime");
         metrics.addTimerMetric("vm.freeTime");
+        metrics.addValueMetric("vm.resizes");
+        metrics.addValueMetric("vm.reallocations");
+
+        this.allocationQueue = new AllocationQueue(metrics);
     }
 
-    public int size() {
+    public long size() {
         return size;
     }
 
-    public int getMaxSize() {
+    public long getMaxSize() {
         return size;
     }
 
-    public int getFreeSize() {
+    public long getFreeSize() {
         return table.getFreeMemorySize();
     }
 
-    public int getUsedSize() {
+    public long getUsedSize() {
         return table.getUsedMemorySize();
     }
 
+    public long getLargestFreeBlockSize() {
+        if (table instanceof RelocatableVirtualMemoryTable) {
+            return ((RelocatableVirtualMemoryTable) table).getLargestFreeBlockSize();
+        }
+
+        long result = 0;
+        for (Block each : table.getFree()) {
+            result = Math.max(result, each.getSize());
+        }
+        return result;
+    }
+
     public void free() {
         storage.free();
         table.reset(0);
         size = 0;
 
+        if (reclaimer != null) {
+            reclaimer.clear();
+        }
+
         // call the FreeEventListener if any
         if (freeEventListener != null) {
             freeEventListener.onFree(this);
         }
     }
 
+    public List<VirtualMemoryBlock> getUsedBlocks() {
+        final Collection<Block> used = table.getUsed();
+        final List<VirtualMemoryBlock> result = new ArrayList<>(used.size());
+        for (Block each : used) {
+            result.add(new VirtualMemoryBlock(this, each));
+        }
+        return result;
+    }
+
+    /**
+     * Allocates a block in the table, the memory is increased if supported.
+     *
+     * @param length the block size.
+     * @return the allocated block or null if there is no memory for it.
+     */
+    protected abstract Block allocateBlock(int length);
+
+    /**
+     * Checks whether the blocks can be allocated without waiting. The allocations that don't wait fail
+     * if they would take the memory freed for the first waiting thread, so it's not starved.
+     *
+     * @param length the size of blocks to allocate.
+     * @return true if the blocks can be allocated from the memory that is not reserved for waiting threads.
+     */
+    protected boolean canAllocateWithoutWait(long length) {
+        return allocationQueue.canAllocate(getMaxSize() - getUsedSize(), length);
+    }
+
+    /**
+     * Gets the total size of blocks to allocate.
+     *
+     * @param lengths the sizes of blocks.
+     * @return the total size of blocks in bytes.
+     */
+    protected static long totalLength(int[] lengths) {
+        long result = 0;
+        for (int each : lengths) {
+            result += each;
+        }
+        return result;
+    }
+
+    public VirtualMemoryBlock tryAllocate(int length) throws OutOfBoundException {
+        if (length < 0) {
+            throw new OutOfBoundException();
+        }
+        if (!canAllocateWithoutWait(length)) {
+            return null;
+        }
+
+        TimeContext timer = metrics.getTimer("vm.allocationTime");
+        timer.start();
+        final Block block = allocateBlock(length);
+        timer.stop();
+
+        return (block != null ? new VirtualMemoryBlock(this, block) : null);
+    }
+
+    public VirtualMemoryBlock allocate(int length, long timeout, TimeUnit unit)
+            throws OutOfMemoryException, OutOfBoundException, InterruptedException {
+        if (length < 0) {
+            throw new OutOfBoundException();
+        }
+        if (length > getMaxSize()) {
+            // the block would never fit, so there is no reason to wait for it
+            throw new OutOfMemoryException();
+        }
+
+        // threads that wait already are served first
+        Block block = (allocationQueue.isEmpty() ? allocateBlock(length) : null);
+        if (block == null) {
+            block = allocationQueue.allocate(this, length, unit.toNanos(timeout));
+        }
+        if (block == null) {
+            throw new OutOfMemoryException();
+        }
+
+        return new VirtualMemoryBlock(this, block);
+    }
+
+    /**
+     * Resizes the block in place.
+     *
+     * @param block  the block to resize.
+     * @param length the new size of the block.
+     * @return true if block was resized in place.
+     */
+    protected boolean resizeBlock(Block block, int length) {
+        return table.resize(block, length);
+    }
+
+    public Block resize(Block block, int length) throws OutOfMemoryException, OutOfBoundException {
+        if (length < 0) {
+            throw new OutOfBoundException();
+        }
+
+        TimeContext timer = metrics.getTimer("vm.allocationTime");
+        timer.start();
+
+        final long oldSize = block.getSize();
+        if (resizeBlock(block, length)) {
+            timer.stop();
+            metrics.increment("vm.resizes");
+            allocationQueue.signal(Math.max(0, oldSize - length));
+            return block;
+        }
+
+        // can't resize in place, so move the content to a new block
+        final Block result = allocateBlock(length);
+        if (result == null) {
+            throw new OutOfMemoryException();
+        }
+
+        final int copyLength = (int) Math.min(block.getSize(), length);
+        copy(block.getAddress(), result.getAddress(), copyLength, new byte[Math.min(copyLength, COPY_BUFFER_SIZE)]);
+        freeBlock(block);
+
+        timer.stop();
+        metrics.increment("vm.reallocations");
+
+        return result;
+    }
+
+    /**
+     * Copies the content of storage from one address to another.
+     * The ranges should not overlap, unless the content is copied to the lower address.
+     *
+     * @param from   the address to copy from.
+     * @param to     the address to copy to.
+     * @param length the number of bytes to copy.
+     * @param buffer the buffer to copy with.
+     */
+    private void copy(long from, long to, int length, byte[] buffer) {
+        for (int offset = 0; offset < length; offset += buffer.length) {
+            final int count = Math.min(buffer.length, length - offset);
+            storage.read(buffer, from + offset, count);
+            storage.write(buffer, to + offset, count);
+        }
+    }
+
     public void free(VirtualMemoryBlock block) {
         TimeContext timer = metrics.getTimer("vm.freeTime");
         timer.start();
-        table.free(block.getBlock());
+        final Block freed = block.markFreed();
+        if (freed != null) {
+            freeBlock(freed);
+        }
         timer.stop();
     }
 
+    /**
+     * Frees the block in the table, or retires it if the reclamation is enabled.
+     *
+     * @param block the block to free.
+     */
+    private void freeBlock(Block block) {
+        final long length = block.getSize();
+        final EpochReclaimer reclaimer = this.reclaimer;
+        if (reclaimer != null) {
+            reclaimer.retire(block);
+        } else {
+            table.free(block);
+        }
+        allocationQueue.signal(length);
+    }
+
+    /**
+     * Returns the retired blocks to the table, if the reclamation is enabled.
+     * Used to retry the allocation, when there is no free memory.
+     *
+     * @return true if any block was returned to the table.
+     */
+    protected boolean reclaim() {
+        final EpochReclaimer reclaimer = this.reclaimer;
+        return reclaimer != null && reclaimer.reclaim() > 0;
+    }
+
+    public int freeAll(Collection<VirtualMemoryBlock> blocks) {
+        final List<Block> tableBlocks = new ArrayList<>(blocks.size());
+        long freedSize = 0;
+        for (VirtualMemoryBlock each : blocks) {
+            final Block freed = each.markFreed();
+            if (freed != null) {
+                tableBlocks.add(freed);
+                freedSize += freed.getSize();
+            }
+        }
+
+        TimeContext timer = metrics.getTimer("vm.freeTime");
+        timer.start();
+        final EpochReclaimer reclaimer = this.reclaimer;
+        final int result;
+        if (reclaimer != null) {
+            reclaimer.retireAll(tableBlocks);
+            result = tableBlocks.size();
+        } else {
+            result = table.freeAll(tableBlocks);
+        }
+        timer.stop();
+
+        allocationQueue.signal(freedSize);
+
+        return result;
+    }
+
+    protected VirtualMemoryBlock[] toVirtualMemoryBlocks(Block[] blocks) {
+        final VirtualMemoryBlock[] result = new VirtualMemoryBlock[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            result[i] = new VirtualMemoryBlock(this, blocks[i]);
+        }
+        return result;
+    }
+
     public void setFreeEventListener(FreeEventListener listener) {
         this.freeEventListener = listener;
     }
 
+    public synchronized Compactor enableCompaction() throws MemoryException {
+        if (compactor != null) {
+            return compactor;
+        }
+        if (reclaimer != null) {
+            throw new MemoryException("Compaction can't be enabled with the reclamation");
+        }
+        if (!(table instanceof RelocatableVirtualMemoryTable)) {
+            throw new MemoryException("Virtual memory table can't relocate blocks");
+        }
+        if (table.getUsedMemorySize() != 0) {
+            throw new MemoryException("Compaction should be enabled before blocks are allocated");
+        }
+
+        final ReadWriteLock relocationLock = new ReentrantReadWriteLock();
+        blockAccessLock = relocationLock.readLock();
+        compactor = new Compactor(
+                (RelocatableVirtualMemoryTable) table,
+                new StorageBlockMover(),
+                relocationLock.writeLock(),
+                metrics);
+
+        return compactor;
+    }
+
+    public Compactor getCompactor() {
+        return compactor;
+    }
+
+    public synchronized EpochReclaimer enableReclamation() throws MemoryException {
+        if (reclaimer != null) {
+            return reclaimer;
+        }
+        if (compactor != null) {
+            throw new MemoryException("Reclamation can't be enabled with the compaction");
+        }
+        if (table.getUsedMemorySize() != 0) {
+            throw new MemoryException("Reclamation should be enabled before blocks are allocated");
+        }
+
+        reclaimer = new EpochReclaimer(table, allocationQueue, metrics);
+        blockAccessLock = reclaimer.getReaderLock();
+
+        return reclaimer;
+    }
+
+    public EpochReclaimer getReclaimer() {
+        return reclaimer;
+    }
+
+    public Lock getBlockAccessLock() {
+        return blockAccessLock;
+    }
+
     @Override
     public MetricsSnapshot getMetrics() {
         return new MetricsSnapshotBuilder().fromMetrics(metrics).merge(table.getMetrics()).build();
@@ -89,7 +390,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         return new VMInputStream(this);
     }
 
-    public InputStream getInputStream(int offset, int length) throws OutOfBoundException {
+    public InputStream getInputStream(long offset, int length) throws OutOfBoundException {
         if (offset + length > size()) {
             throw new OutOfBoundException();
         }
@@ -101,7 +402,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         return new VMOutputStream(this);
     }
 
-    public OutputStream getOutputStream(int offset, int length) throws OutOfBoundException {
+    public OutputStream getOutputStream(long offset, int length) throws OutOfBoundException {
         if (offset + length > size()) {
             throw new OutOfBoundException();
         }
@@ -117,7 +418,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         metrics.increment("vm.io.writes");
     }
 
-    public void write(byte[] data, int offset) throws OutOfBoundException {
+    public void write(byte[] data, long offset) throws OutOfBoundException {
         TimeContext timer = metrics.getTimer("vm.io.writeTime");
         timer.start();
         this.storage.write(data, offset);
@@ -125,7 +426,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         metrics.increment("vm.io.writes");
     }
 
-    public void write(byte[] data, int offset, int length) throws OutOfBoundException {
+    public void write(byte[] data, long offset, int length) throws OutOfBoundException {
         TimeContext timer = metrics.getTimer("vm.io.writeTime");
         timer.start();
         this.storage.write(data, offset, length);
@@ -133,7 +434,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         metrics.increment("vm.io.writes");
     }
 
-    public void write(byte data, int offset) throws OutOfBoundException {
+    public void write(byte data, long offset) throws OutOfBoundException {
         TimeContext timer = metrics.getTimer("vm.io.writeTime");
         timer.start();
         this.storage.write(data, offset);
@@ -151,7 +452,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         return result;
     }
 
-    public int read(byte[] data, int offset, int length) {
+    public int read(byte[] data, long offset, int length) {
         TimeContext timer = metrics.getTimer("vm.io.readTime");
         timer.start();
         int result = this.storage.read(data, offset, length);
@@ -161,7 +462,7 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
         return result;
     }
 
-    public byte read(int offset) {
+    public byte read(long offset) {
         TimeContext timer = metrics.getTimer("vm.io.readTime");
         timer.start();
         byte result = this.storage.read(offset);
@@ -170,4 +471,52 @@ public abstract class AbstractVirtualMemory<S extends Storage> implements Virtua
 
         return result;
     }
+
+    public short getShort(long offset) throws OutOfBoundException {
+        return this.storage.getShort(offset);
+    }
+
+    public void putShort(long offset, short value) throws OutOfBoundException {
+        this.storage.putShort(offset, value);
+    }
+
+    public int getInt(long offset) throws OutOfBoundException {
+        return this.storage.getInt(offset);
+    }
+
+    public void putInt(long offset, int value) throws OutOfBoundException {
+        this.storage.putInt(offset, value);
+    }
+
+    public long getLong(long offset) throws OutOfBoundException {
+        return this.storage.getLong(offset);
+    }
+
+    public void putLong(long offset, long value) throws OutOfBoundException {
+        this.storage.putLong(offset, value);
+    }
+
+    public double getDouble(long offset) throws OutOfBoundException {
+        return this.storage.getDouble(offset);
+    }
+
+    public void putDouble(long offset, double value) throws OutOfBoundException {
+        this.storage.putDouble(offset, value);
+    }
+
+    /**
+     * Moves blocks within the storage. Blocks are moved down, so the content is copied from the start.
+     */
+    private class StorageBlockMover implements BlockMover {
+
+        private final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+        @Override
+        public void move(long from, long to, int length) {
+            if (to > from) {
+                throw new IllegalArgumentException("Blocks can be moved only to the lower address");
+            }
+            copy(from, to, length, buffer);
+        }
+    }
 }
@@ -0,0 +1,232 @@
+package com.khmelyuk.memory.vm;
+
+import com.khmelyuk.memory.annotation.ThreadSafe;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.TimeContext;
+import com.khmelyuk.memory.vm.table.Block;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue of threads that wait for free memory to allocate a block.
+ * <p/>
+ * Threads are served in the order they came: only the first thread in the queue tries to allocate,
+ * so a large block is not starved by smaller blocks of threads that came later.
+ * The first thread is signalled when memory is freed, and it passes the turn to the next thread when it's done.
+ * Threads park on their conditions while waiting, so they don't spin.
+ * <p/>
+ * The block is allocated out of the queue lock, as allocation can increase the memory,
+ * so threads that free memory and signal the queue don't wait for it. The signal is remembered by the waiter,
+ * so the signal that comes while the first thread is allocating is not lost.
+ * <p/>
+ * The memory freed while a thread is the first in the queue is reserved for it, up to the size it needs,
+ * so the allocations that don't wait can't take it, but still can allocate from the rest of the memory.
+ * The reservation is dropped when the first thread leaves the queue.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@ThreadSafe
+class AllocationQueue {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final Metrics metrics;
+
+    /**
+     * The number of waiters, so free doesn't take the lock if there are no waiters.
+     */
+    private volatile int size;
+
+    /**
+     * The number of bytes freed for the first waiter, that are reserved for it. Changed under the lock.
+     */
+    private volatile long reserved;
+
+    AllocationQueue(Metrics metrics) {
+        this.metrics = metrics;
+
+        metrics.addValueMetric("vm.allocation.waits");
+        metrics.addValueMetric("vm.allocation.timeouts");
+        metrics.addValueMetric("vm.allocation.waiters");
+        metrics.addTimerMetric("vm.allocation.waitTime");
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Checks whether the block can be allocated without waiting, so it doesn't take the memory reserved
+     * for the first waiting thread.
+     *
+     * @param free   the size of memory that is free or can be added, in bytes.
+     * @param length the size of blocks to allocate.
+     * @return true if the memory that is not reserved is enough for the blocks.
+     */
+    boolean canAllocate(long free, long length) {
+        return size == 0 || free - reserved >= length;
+    }
+
+    /**
+     * Waits for the turn and for the free memory, and allocates the block.
+     *
+     * @param vm     the virtual memory to allocate the block in.
+     * @param length the block size.
+     * @param nanos  the max time to wait in nanoseconds.
+     * @return the allocated block, or null if it wasn't allocated in time.
+     * @throws InterruptedException the thread was interrupted while waiting.
+     */
+    Block allocate(AbstractVirtualMemory<?> vm, int length, long nanos) throws InterruptedException {
+        final TimeContext timer = metrics.getTimer("vm.allocation.waitTime");
+        final Waiter waiter = new Waiter(lock.newCondition(), length);
+        final long deadline = System.nanoTime() + nanos;
+
+        lock.lockInterruptibly();
+        try {
+            waiters.addLast(waiter);
+            size = waiters.size();
+            metrics.increment("vm.allocation.waits");
+            metrics.mark("vm.allocation.waiters", size);
+        } finally {
+            lock.unlock();
+        }
+        timer.start();
+
+        Block result = null;
+        try {
+            while (true) {
+                if (takeTurn(waiter)) {
+                    result = vm.allocateBlock(length);
+                    if (result != null) {
+                        break;
+                    }
+                }
+                if (!await(waiter, deadline)) {
+                    metrics.increment("vm.allocation.timeouts");
+                    break;
+                }
+            }
+        } finally {
+            timer.stop();
+            lock.lock();
+            try {
+                if (waiters.peekFirst() == waiter) {
+                    // the reserved memory is used by the waiter or is left for others
+                    reserved = 0;
+                }
+                waiters.remove(waiter);
+                size = waiters.size();
+                metrics.mark("vm.allocation.waiters", size);
+
+                // the next thread could allocate from the memory that is left
+                signalFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Signals the first waiting thread, that memory was freed.
+     */
+    void signal() {
+        signal(0);
+    }
+
+    /**
+     * Signals the first waiting thread, that memory was freed, and reserves the freed memory for it.
+     *
+     * @param freed the number of freed bytes.
+     */
+    void signal(long freed) {
+        if (size == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            final Waiter first = waiters.peekFirst();
+            if (first != null) {
+                reserved = Math.min(first.length, reserved + freed);
+            }
+            signalFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether the waiter is the first in the queue, and clears its signal before it tries to allocate.
+     *
+     * @param waiter the waiter.
+     * @return true if the waiter is the first, so it can try to allocate.
+     */
+    private boolean takeTurn(Waiter waiter) {
+        lock.lock();
+        try {
+            waiter.signalled = false;
+            return waiters.peekFirst() == waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits till the waiter is signalled.
+     *
+     * @param waiter   the waiter.
+     * @param deadline the time to wait till, in nanoseconds.
+     * @return true if the waiter was signalled, false if the time is out.
+     * @throws InterruptedException the thread was interrupted while waiting.
+     */
+    private boolean await(Waiter waiter, long deadline) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long nanos = deadline - System.nanoTime();
+            while (!waiter.signalled) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = waiter.turn.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signals the first waiter. Called under the lock.
+     */
+    private void signalFirst() {
+        final Waiter first = waiters.peekFirst();
+        if (first != null) {
+            first.signalled = true;
+            first.turn.signal();
+        }
+    }
+
+    /**
+     * The thread waiting in the queue.
+     */
+    private static final class Waiter {
+
+        final Condition turn;
+        final long length;
+
+        /**
+         * Whether the waiter was signalled since it tried to allocate last time, guarded by the lock.
+         */
+        boolean signalled;
+
+        Waiter(Condition turn, long length) {
+            this.turn = turn;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.khmelyuk.memory.vm;
+
+import java.io.InputStream;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Represents an input stream for the block of Virtual Memory.
+ * The block address is resolved on each read, so the stream is valid when the block is relocated or resized.
+ *
+ * @author Ruslan Khmelyuk
+ */
+class BlockInputStream extends InputStream {
+
+    private final VirtualMemory vm;
+    private final VirtualMemoryBlock block;
+
+    private int localOffset;
+
+    BlockInputStream(VirtualMemory vm, VirtualMemoryBlock block) {
+        this.vm = vm;
+        this.block = block;
+    }
+
+    @Override
+    public int read() {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            accessLock.lock();
+            if (localOffset + 1 > block.size()) {
+                return -1;
+            }
+            return vm.read(block.getAddress() + localOffset++) & 0xFF;
+        } finally {
+            accessLock.unlock();
+        }
+    }
+
+    /**
+     * Always resets to the begin of the input stream.
+     */
+    @Override
+    public void reset() {
+        localOffset = 0;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int length = block.size();
+        long realOffset = localOffset + n;
+        if (realOffset > length) {
+            int result = length - localOffset;
+            localOffset = length;
+            return result;
+        }
+
+        localOffset = (int) realOffset;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.size() - localOffset;
+    }
+}
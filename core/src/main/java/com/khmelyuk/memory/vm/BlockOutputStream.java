@@ -0,0 +1,44 @@
+package com.khmelyuk.memory.vm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Represents an output stream for the block of Virtual Memory.
+ * The block address is resolved on each write, so the stream is valid when the block is relocated or resized.
+ *
+ * @author Ruslan Khmelyuk
+ */
+class BlockOutputStream extends OutputStream {
+
+    private final VirtualMemory vm;
+    private final VirtualMemoryBlock block;
+
+    private int localOffset;
+
+    BlockOutputStream(VirtualMemory vm, VirtualMemoryBlock block) {
+        this.vm = vm;
+        this.block = block;
+    }
+
+    /**
+     * Writes the byte to the block of virtual memory.
+     *
+     * @param b the byte to write.
+     * @throws IOException error to write a byte or output stream is ended.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            accessLock.lock();
+            if (localOffset + 1 > block.size()) {
+                throw new IOException("Stream is ended.");
+            }
+            vm.write((byte) b, block.getAddress() + localOffset++);
+        } finally {
+            accessLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.khmelyuk.memory.vm;
+
+import com.khmelyuk.memory.annotation.ThreadSafe;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.TimeContext;
+import com.khmelyuk.memory.vm.table.BlockMover;
+import com.khmelyuk.memory.vm.table.RelocatableVirtualMemoryTable;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Compacts the virtual memory: slides used blocks together, so free memory is a single block at the end.
+ * <p/>
+ * Compaction is done in steps. Each step moves up to {@link #getStepSize()} bytes (at least one block),
+ * while access to the blocks of virtual memory is suspended, so the pause is bounded by the step size.
+ * Blocks are handles, their addresses are updated when blocks are moved.
+ * <p/>
+ * Fragmentation is the percentage of free memory that is not in the largest free block.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@ThreadSafe
+public class Compactor {
+
+    public static final int DEFAULT_STEP_SIZE = 64 * 1024;
+
+    private final RelocatableVirtualMemoryTable table;
+    private final BlockMover mover;
+    private final Lock relocationLock;
+    private final Metrics metrics;
+
+    private volatile int stepSize = DEFAULT_STEP_SIZE;
+    private ScheduledExecutorService executor;
+
+    Compactor(RelocatableVirtualMemoryTable table, BlockMover mover, Lock relocationLock, Metrics metrics) {
+        this.table = table;
+        this.mover = mover;
+        this.relocationLock = relocationLock;
+        this.metrics = metrics;
+
+        metrics.addValueMetric("vm.compaction.passes");
+        metrics.addValueMetric("vm.compaction.steps");
+        metrics.addValueMetric("vm.compaction.bytesMoved");
+        metrics.addValueMetric("vm.compaction.fragmentationBefore");
+        metrics.addValueMetric("vm.compaction.fragmentationAfter");
+        metrics.addTimerMetric("vm.compaction.pauseTime");
+    }
+
+    public int getStepSize() {
+        return stepSize;
+    }
+
+    /**
+     * Sets the max number of bytes to move in a single step.
+     *
+     * @param stepSize the max number of bytes to move in a single step.
+     */
+    public void setStepSize(int stepSize) {
+        if (stepSize <= 0) {
+            throw new IllegalArgumentException("Step size should be positive: " + stepSize);
+        }
+        this.stepSize = stepSize;
+    }
+
+    /**
+     * Gets the current fragmentation of free memory.
+     *
+     * @return the fragmentation in percents, 0 if all free memory is in a single block.
+     */
+    public int getFragmentation() {
+        final long freeSize = table.getFreeMemorySize();
+        if (freeSize == 0) {
+            return 0;
+        }
+        return (int) ((freeSize - table.getLargestFreeBlockSize()) * 100 / freeSize);
+    }
+
+    /**
+     * Runs a single compaction step.
+     *
+     * @return the number of moved bytes, 0 if there is nothing to move now.
+     */
+    public int compactStep() {
+        final TimeContext timer = metrics.getTimer("vm.compaction.pauseTime");
+        final int moved;
+        try {
+            relocationLock.lock();
+            timer.start();
+            moved = table.compact(stepSize, mover);
+            timer.stop();
+        } finally {
+            relocationLock.unlock();
+        }
+
+        metrics.increment("vm.compaction.steps");
+        metrics.increment("vm.compaction.bytesMoved", moved);
+
+        return moved;
+    }
+
+    /**
+     * Runs compaction steps until there is nothing to move.
+     * Blocks can be accessed between steps.
+     *
+     * @return the number of moved bytes.
+     */
+    public int compact() {
+        metrics.increment("vm.compaction.passes");
+        metrics.mark("vm.compaction.fragmentationBefore", getFragmentation());
+
+        int result = 0;
+        int moved;
+        while ((moved = compactStep()) > 0) {
+            result += moved;
+        }
+
+        metrics.mark("vm.compaction.fragmentationAfter", getFragmentation());
+
+        return result;
+    }
+
+    /**
+     * Starts the background compaction, which runs a compaction pass
+     * if memory is fragmented, with specified delay between passes.
+     *
+     * @param delay the delay between compaction passes.
+     * @param unit  the unit of the delay.
+     */
+    public synchronized void start(long delay, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("Background compaction is already started");
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "memory-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (getFragmentation() > 0) {
+                    compact();
+                }
+            }
+        }, delay, delay, unit);
+    }
+
+    /**
+     * Stops the background compaction. The current step, if any, is completed.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    public synchronized boolean isStarted() {
+        return executor != null;
+    }
+}
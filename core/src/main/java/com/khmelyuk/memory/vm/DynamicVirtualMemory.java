@@ -19,7 +19,7 @@ public class DynamicVirtualMemory extends AbstractVirtualMemory<DynamicStorage>
 
     private final Lock resizeLock = new ReentrantLock();
 
-    private final int maxSize;
+    private final long maxSize;
     private final int growth;
 
     public DynamicVirtualMemory(DynamicStorage storage, VirtualMemoryTable table) {
@@ -31,16 +31,42 @@ public class DynamicVirtualMemory extends AbstractVirtualMemory<DynamicStorage>
         this.maxSize = storage.getMaxSize();
     }
 
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
     @Override
     public VirtualMemoryBlock allocate(int length) throws OutOfMemoryException, OutOfBoundException {
         if (length < 0) {
             throw new OutOfBoundException();
         }
+        if (!canAllocateWithoutWait(length)) {
+            throw new OutOfMemoryException();
+        }
 
         TimeContext timer = metrics.getTimer("vm.allocationTime");
         timer.start();
 
+        Block block = allocateBlock(length);
+        if (block == null) {
+            // throws exception if failed to allocate the block.
+            throw new OutOfMemoryException();
+        }
+
+        timer.stop();
+
+        // returns the allocated VM block.
+        return new VirtualMemoryBlock(this, block);
+    }
+
+    @Override
+    protected Block allocateBlock(int length) {
         Block block = table.allocate(length);
+        if (block == null && reclaim()) {
+            // retired blocks are reused before the memory is increased
+            block = table.allocate(length);
+        }
 
         // if failed to allocate a block,
         // then tries to increase a memory size and allocate.
@@ -56,17 +82,94 @@ public class DynamicVirtualMemory extends AbstractVirtualMemory<DynamicStorage>
             block = table.allocate(length);
         }
 
+        return block;
+    }
+
+    @Override
+    protected boolean resizeBlock(Block block, int length) {
+        boolean result = table.resize(block, length);
+
+        // the block that would end after the end of memory
+        // can be extended in place after the memory size is increased.
+        while (!result && block.getAddress() + length > size) {
+            if (size >= maxSize || !extendMemorySize()) {
+                break;
+            }
+            result = table.resize(block, length);
+        }
+
+        return result;
+    }
+
+    @Override
+    public VirtualMemoryBlock allocate(int length, int alignment) throws OutOfMemoryException, OutOfBoundException {
+        if (length < 0) {
+            throw new OutOfBoundException();
+        }
+        if (!canAllocateWithoutWait(length)) {
+            throw new OutOfMemoryException();
+        }
+
+        TimeContext timer = metrics.getTimer("vm.allocationTime");
+        timer.start();
+
+        Block block = table.allocate(length, alignment);
+        if (block == null && reclaim()) {
+            // retired blocks are reused before the memory is increased
+            block = table.allocate(length, alignment);
+        }
+
+        // if failed to allocate a block,
+        // then tries to increase a memory size and allocate.
+        while (block == null) {
+            if (size >= maxSize || !extendMemorySize()) {
+                break;
+            }
+            block = table.allocate(length, alignment);
+        }
+
         if (block == null) {
-            // throws exception if failed to allocate the block.
             throw new OutOfMemoryException();
         }
 
         timer.stop();
 
-        // returns the allocated VM block.
         return new VirtualMemoryBlock(this, block);
     }
 
+    @Override
+    public VirtualMemoryBlock[] allocateAll(int[] lengths) throws OutOfMemoryException, OutOfBoundException {
+        if (!canAllocateWithoutWait(totalLength(lengths))) {
+            throw new OutOfMemoryException();
+        }
+
+        TimeContext timer = metrics.getTimer("vm.allocationTime");
+        timer.start();
+
+        Block[] blocks = table.allocateAll(lengths);
+        if (blocks == null && reclaim()) {
+            // retired blocks are reused before the memory is increased
+            blocks = table.allocateAll(lengths);
+        }
+
+        // if failed to allocate blocks,
+        // then tries to increase a memory size and allocate.
+        while (blocks == null) {
+            if (size >= maxSize || !extendMemorySize()) {
+                break;
+            }
+            blocks = table.allocateAll(lengths);
+        }
+
+        if (blocks == null) {
+            throw new OutOfMemoryException();
+        }
+
+        timer.stop();
+
+        return toVirtualMemoryBlocks(blocks);
+    }
+
     /**
      * Extends the virtual memory size.
      * This method extends the memory by a {@code growth} step to max {@code maxSize} value.
@@ -77,7 +180,7 @@ public class DynamicVirtualMemory extends AbstractVirtualMemory<DynamicStorage>
         try {
             resizeLock.lock();
 
-            int newSize = Math.min(size + growth, maxSize);
+            long newSize = Math.min(size + growth, maxSize);
 
             if (table.canIncreaseSize(newSize)) {
                 storage.increaseSize(newSize);
@@ -0,0 +1,328 @@
+package com.khmelyuk.memory.vm;
+
+import com.khmelyuk.memory.annotation.ThreadSafe;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.vm.table.Block;
+import com.khmelyuk.memory.vm.table.VirtualMemoryTable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Defers the free of blocks till no reader can access them, with the epoch based reclamation.
+ * <p/>
+ * Reader enters the critical section with the reader lock, that is the block access lock of virtual memory.
+ * The thread publishes the global epoch in it's own record on enter and clears it on exit,
+ * so readers don't share any lock or counter.
+ * Freed block is retired with the current epoch. The global epoch is advanced only when all readers
+ * in the critical section have seen it, so after the epoch is advanced twice, all readers that could
+ * access the retired block have exited, and the block is returned to the table.
+ * <p/>
+ * Retired blocks are returned to the table in batches, each with a single call to the table.
+ * Reclamation is run after {@link #getBatchSize()} blocks are retired, when memory can't be allocated,
+ * or on demand.
+ *
+ * @author Ruslan Khmelyuk
+ */
+@ThreadSafe
+public class EpochReclaimer {
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private static final long INACTIVE = -1;
+
+    private final VirtualMemoryTable table;
+    private final AllocationQueue allocationQueue;
+    private final Metrics metrics;
+
+    private final AtomicLong epoch = new AtomicLong();
+    private final ConcurrentLinkedQueue<Reader> readers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Reader> reader = new ThreadLocal<Reader>() {
+        @Override
+        protected Reader initialValue() {
+            final Reader result = new Reader(Thread.currentThread());
+            readers.add(result);
+            return result;
+        }
+    };
+
+    private final ConcurrentLinkedQueue<Retired> retired = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Lock reclaimLock = new ReentrantLock();
+    private final Lock readerLock = new ReaderLock();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    EpochReclaimer(VirtualMemoryTable table, AllocationQueue allocationQueue, Metrics metrics) {
+        this.table = table;
+        this.allocationQueue = allocationQueue;
+        this.metrics = metrics;
+
+        metrics.addValueMetric("vm.reclamation.retired");
+        metrics.addValueMetric("vm.reclamation.reclaimed");
+        metrics.addValueMetric("vm.reclamation.batches");
+        metrics.addValueMetric("vm.reclamation.epochs");
+        metrics.addValueMetric("vm.reclamation.pending");
+    }
+
+    /**
+     * Gets the lock to enter and exit the critical section of the reader.
+     * The lock doesn't exclude other readers or writers, it's reentrant.
+     *
+     * @return the reader lock.
+     */
+    public Lock getReaderLock() {
+        return readerLock;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of retired blocks, after which reclamation is run.
+     *
+     * @param batchSize the number of retired blocks to run reclamation.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size should be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Gets the number of retired blocks that are not returned to the table yet.
+     *
+     * @return the number of retired blocks.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Enters the critical section of the reader.
+     */
+    public void enter() {
+        final Reader current = reader.get();
+        if (current.depth++ == 0) {
+            // the epoch is published only if it wasn't advanced meanwhile,
+            // so the reader is seen by the thread that advances the epoch.
+            long value;
+            do {
+                value = epoch.get();
+                current.epoch = value;
+            }
+            while (epoch.get() != value);
+        }
+    }
+
+    /**
+     * Exits the critical section of the reader.
+     */
+    public void exit() {
+        final Reader current = reader.get();
+        if (--current.depth == 0) {
+            current.epoch = INACTIVE;
+        }
+    }
+
+    /**
+     * Retires the freed block, so it's returned to the table when no reader can access it.
+     *
+     * @param block the block to retire.
+     */
+    public void retire(Block block) {
+        retired.add(new Retired(block, epoch.get()));
+        metrics.increment("vm.reclamation.retired");
+
+        if (pendingCount.incrementAndGet() >= batchSize) {
+            reclaim();
+        }
+    }
+
+    /**
+     * Retires the freed blocks, so they are returned to the table when no reader can access them.
+     *
+     * @param blocks the blocks to retire.
+     */
+    public void retireAll(Collection<? extends Block> blocks) {
+        final long current = epoch.get();
+        for (Block each : blocks) {
+            retired.add(new Retired(each, current));
+        }
+        metrics.increment("vm.reclamation.retired", blocks.size());
+
+        if (pendingCount.addAndGet(blocks.size()) >= batchSize) {
+            reclaim();
+        }
+    }
+
+    /**
+     * Advances the epoch if possible, and returns blocks that can't be accessed by readers anymore to the table.
+     * Does nothing if other thread is reclaiming blocks now.
+     *
+     * @return the number of blocks returned to the table.
+     */
+    public int reclaim() {
+        if (!reclaimLock.tryLock()) {
+            return 0;
+        }
+
+        try {
+            // the block retired in the epoch is safe to return, when epoch is advanced twice
+            if (tryAdvance()) {
+                tryAdvance();
+            }
+            final long safeEpoch = epoch.get() - 2;
+
+            final List<Block> batch = new ArrayList<>();
+            Retired head;
+            while ((head = retired.peek()) != null && head.epoch <= safeEpoch) {
+                retired.poll();
+                batch.add(head.block);
+            }
+
+            if (!batch.isEmpty()) {
+                pendingCount.addAndGet(-batch.size());
+                table.freeAll(batch);
+                allocationQueue.signal();
+
+                metrics.increment("vm.reclamation.reclaimed", batch.size());
+                metrics.increment("vm.reclamation.batches");
+            }
+            metrics.mark("vm.reclamation.pending", pendingCount.get());
+
+            return batch.size();
+        } finally {
+            reclaimLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all retired blocks without returning them to the table, used when the table is reset.
+     */
+    void clear() {
+        reclaimLock.lock();
+        try {
+            retired.clear();
+            pendingCount.set(0);
+            metrics.mark("vm.reclamation.pending", 0);
+        } finally {
+            reclaimLock.unlock();
+        }
+    }
+
+    /**
+     * Advances the global epoch if all readers in the critical section have seen the current epoch.
+     * Records of finished threads are removed. Called under the reclaim lock.
+     *
+     * @return true if epoch was advanced.
+     */
+    private boolean tryAdvance() {
+        final long current = epoch.get();
+        for (Iterator<Reader> it = readers.iterator(); it.hasNext(); ) {
+            final Reader each = it.next();
+            final long readerEpoch = each.epoch;
+            if (readerEpoch == INACTIVE) {
+                final Thread owner = each.owner.get();
+                if (owner == null || !owner.isAlive()) {
+                    it.remove();
+                }
+            } else if (readerEpoch != current) {
+                return false;
+            }
+        }
+
+        epoch.set(current + 1);
+        metrics.increment("vm.reclamation.epochs");
+        return true;
+    }
+
+    // ---------- internal structures
+
+    /**
+     * The record of the reader thread.
+     */
+    private static final class Reader {
+
+        final WeakReference<Thread> owner;
+
+        /**
+         * The epoch seen by the reader in the critical section, or {@link #INACTIVE}.
+         */
+        volatile long epoch = INACTIVE;
+
+        /**
+         * The depth of nested critical sections, used by the owner thread only.
+         */
+        int depth;
+
+        Reader(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+    }
+
+    private static final class Retired {
+
+        final Block block;
+        final long epoch;
+
+        Retired(Block block, long epoch) {
+            this.block = block;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * The lock face of the critical section of the reader.
+     */
+    private class ReaderLock implements Lock {
+
+        @Override
+        public void lock() {
+            enter();
+        }
+
+        @Override
+        public void lockInterruptibly() {
+            enter();
+        }
+
+        @Override
+        public boolean tryLock() {
+            enter();
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) {
+            enter();
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            exit();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Reader lock doesn't support conditions");
+        }
+    }
+}
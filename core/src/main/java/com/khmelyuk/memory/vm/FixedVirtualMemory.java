@@ -23,11 +23,48 @@ public class FixedVirtualMemory extends AbstractVirtualMemory<Storage> {
         if (length < 0) {
             throw new OutOfBoundException();
         }
+        if (!canAllocateWithoutWait(length)) {
+            throw new OutOfMemoryException();
+        }
 
         TimeContext timer = metrics.getTimer("vm.allocationTime");
         timer.start();
 
+        Block block = allocateBlock(length);
+        if (block == null) {
+            throw new OutOfMemoryException();
+        }
+
+        timer.stop();
+
+        return new VirtualMemoryBlock(this, block);
+    }
+
+    @Override
+    protected Block allocateBlock(int length) {
         Block block = table.allocate(length);
+        if (block == null && reclaim()) {
+            block = table.allocate(length);
+        }
+        return block;
+    }
+
+    @Override
+    public VirtualMemoryBlock allocate(int length, int alignment) throws OutOfMemoryException, OutOfBoundException {
+        if (length < 0) {
+            throw new OutOfBoundException();
+        }
+        if (!canAllocateWithoutWait(length)) {
+            throw new OutOfMemoryException();
+        }
+
+        TimeContext timer = metrics.getTimer("vm.allocationTime");
+        timer.start();
+
+        Block block = table.allocate(length, alignment);
+        if (block == null && reclaim()) {
+            block = table.allocate(length, alignment);
+        }
         if (block == null) {
             throw new OutOfMemoryException();
         }
@@ -37,4 +74,25 @@ public class FixedVirtualMemory extends AbstractVirtualMemory<Storage> {
         return new VirtualMemoryBlock(this, block);
     }
 
+    @Override
+    public VirtualMemoryBlock[] allocateAll(int[] lengths) throws OutOfMemoryException, OutOfBoundException {
+        if (!canAllocateWithoutWait(totalLength(lengths))) {
+            throw new OutOfMemoryException();
+        }
+
+        TimeContext timer = metrics.getTimer("vm.allocationTime");
+        timer.start();
+
+        Block[] blocks = table.allocateAll(lengths);
+        if (blocks == null && reclaim()) {
+            blocks = table.allocateAll(lengths);
+        }
+        if (blocks == null) {
+            throw new OutOfMemoryException();
+        }
+
+        timer.stop();
+
+        return toVirtualMemoryBlocks(blocks);
+    }
 }
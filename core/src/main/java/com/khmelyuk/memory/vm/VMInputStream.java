@@ -11,10 +11,10 @@ import java.io.InputStream;
 public class VMInputStream extends InputStream {
 
     private final VirtualMemory vm;
-    private final int offset;
-    private final int length;
+    private final long offset;
+    private final long length;
 
-    private int localOffset;
+    private long localOffset;
 
     public VMInputStream(VirtualMemory vm) {
         this.vm = vm;
@@ -22,7 +22,7 @@ public class VMInputStream extends InputStream {
         this.length = vm.size();
     }
 
-    public VMInputStream(VirtualMemory vm, int offset, int length) {
+    public VMInputStream(VirtualMemory vm, long offset, int length) {
         this.vm = vm;
         this.offset = offset;
         this.length = length;
@@ -48,17 +48,17 @@ public class VMInputStream extends InputStream {
     public long skip(long n) {
         long realOffset = localOffset + n;
         if (realOffset > length) {
-            int result = length - localOffset;
+            long result = length - localOffset;
             localOffset = length;
             return result;
         }
 
-        localOffset = (int) realOffset;
+        localOffset = realOffset;
         return n;
     }
 
     @Override
     public int available() throws IOException {
-        return length - localOffset;
+        return (int) Math.min(length - localOffset, Integer.MAX_VALUE);
     }
 }
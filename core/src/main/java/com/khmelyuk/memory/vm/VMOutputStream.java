@@ -13,10 +13,10 @@ import java.io.OutputStream;
 public class VMOutputStream extends OutputStream {
 
     private final VirtualMemory vm;
-    private final int offset;
-    private final int length;
+    private final long offset;
+    private final long length;
 
-    private int localOffset;
+    private long localOffset;
 
     public VMOutputStream(VirtualMemory vm) {
         this.vm = vm;
@@ -24,7 +24,7 @@ public class VMOutputStream extends OutputStream {
         this.length = vm.size();
     }
 
-    public VMOutputStream(VirtualMemory vm, int offset, int length) {
+    public VMOutputStream(VirtualMemory vm, long offset, int length) {
         this.vm = vm;
         this.offset = offset;
         this.length = length;
@@ -1,11 +1,17 @@
 package com.khmelyuk.memory.vm;
 
+import com.khmelyuk.memory.MemoryException;
 import com.khmelyuk.memory.OutOfBoundException;
 import com.khmelyuk.memory.OutOfMemoryException;
 import com.khmelyuk.memory.metrics.Monitorable;
+import com.khmelyuk.memory.vm.table.Block;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Represents a virtual memory.
@@ -19,31 +25,48 @@ public interface VirtualMemory extends Monitorable {
      *
      * @return the virtual memory size.
      */
-    int size();
+    long size();
 
     /**
      * Gets the max size for virtual memory.
      *
      * @return the virtual memory max size.
      */
-    int getMaxSize();
+    long getMaxSize();
 
     /**
      * Get how many bytes is free for use.
      *
      * @return the free size of memory in bytes.
      */
-    int getFreeSize();
+    long getFreeSize();
 
     /**
      * Get how many bytes is used.
      *
      * @return the size of used memory in bytes.
      */
-    int getUsedSize();
+    long getUsedSize();
+
+    /**
+     * Gets the size of the largest free block, that is the largest block that can be allocated without growth.
+     * It's not a constant time operation for most of tables.
+     *
+     * @return the size of the largest free block in bytes.
+     */
+    long getLargestFreeBlockSize();
+
+    /**
+     * Gets the used blocks of the virtual memory, for example to access the blocks of the memory restored from file.
+     * It's not a constant time operation, and each call returns new objects for the same blocks.
+     *
+     * @return the list of used blocks.
+     */
+    List<VirtualMemoryBlock> getUsedBlocks();
 
     /**
      * Allocates a block in the virtual memory.
+     * Fails if it would take the memory freed for the thread that waits first, so it is not starved.
      *
      * @param length the block size.
      * @return the allocated virtual memory block.
@@ -51,18 +74,85 @@ public interface VirtualMemory extends Monitorable {
      */
     VirtualMemoryBlock allocate(int length) throws OutOfMemoryException;
 
+    /**
+     * Tries to allocate a block in the virtual memory.
+     * Fails if it would take the memory freed for the thread that waits first, so it is not starved.
+     *
+     * @param length the block size.
+     * @return the allocated virtual memory block, or null if there is no memory for it.
+     */
+    VirtualMemoryBlock tryAllocate(int length);
+
+    /**
+     * Allocates a block in the virtual memory, waiting till blocks are freed if there is no memory for it.
+     * Waiting threads are served in the order they came, and the memory freed for the first waiting thread
+     * is reserved for it, so a large block is not starved by smaller ones. Resizing a block doesn't wait
+     * in the queue. Fails without waiting if the block is larger than the max size of memory.
+     *
+     * @param length  the block size.
+     * @param timeout the max time to wait.
+     * @param unit    the unit of the timeout.
+     * @return the allocated virtual memory block.
+     * @throws OutOfMemoryException failed to allocate the block of need size in time.
+     * @throws InterruptedException the thread was interrupted while waiting.
+     */
+    VirtualMemoryBlock allocate(int length, long timeout, TimeUnit unit)
+            throws OutOfMemoryException, InterruptedException;
+
+    /**
+     * Allocates a block in the virtual memory, which address is a multiple of specified alignment.
+     * Fails if it would take the memory freed for the thread that waits first, so it is not starved.
+     *
+     * @param length    the block size.
+     * @param alignment the alignment of the block address, should be a power of two.
+     * @return the allocated virtual memory block.
+     * @throws OutOfMemoryException failed to allocate the block of need size.
+     */
+    VirtualMemoryBlock allocate(int length, int alignment) throws OutOfMemoryException;
+
+    /**
+     * Allocates blocks in the virtual memory at once.
+     * Either all blocks are allocated, or none of them.
+     * Fails if it would take the memory freed for the thread that waits first, so it is not starved.
+     *
+     * @param lengths the sizes of blocks.
+     * @return the allocated virtual memory blocks in the order of sizes.
+     * @throws OutOfMemoryException failed to allocate the blocks of need sizes.
+     */
+    VirtualMemoryBlock[] allocateAll(int[] lengths) throws OutOfMemoryException;
+
+    /**
+     * Resizes the block of the virtual memory. The block is resized in place if possible,
+     * otherwise a new block is allocated, the content is copied to it and the old block is freed.
+     *
+     * @param block  the block of this virtual memory to resize.
+     * @param length the new size of the block.
+     * @return the resized block, it's the same block if it was resized in place.
+     * @throws OutOfMemoryException failed to allocate the block of need size.
+     */
+    Block resize(Block block, int length) throws OutOfMemoryException;
+
     /**
      * Frees the entire virtual memory.
      */
     void free();
 
     /**
-     * Frees a block of the virtual memory.
+     * Frees a block of the virtual memory. The block is marked as freed, so it can't be accessed anymore,
+     * and the block that is freed already is ignored.
      *
      * @param block the block to free.
      */
     void free(VirtualMemoryBlock block);
 
+    /**
+     * Frees the blocks of the virtual memory at once. The blocks are marked as freed.
+     *
+     * @param blocks the blocks to free.
+     * @return the number of freed blocks.
+     */
+    int freeAll(Collection<VirtualMemoryBlock> blocks);
+
     /**
      * Sets the free memory listener.
      *
@@ -70,6 +160,47 @@ public interface VirtualMemory extends Monitorable {
      */
     void setFreeEventListener(FreeEventListener listener);
 
+    /**
+     * Enables the compaction of this virtual memory, so used blocks can be moved.
+     * Should be enabled before any block is allocated.
+     *
+     * @return the compactor of this virtual memory.
+     * @throws MemoryException the table can't relocate blocks, or there are allocated blocks already.
+     */
+    Compactor enableCompaction() throws MemoryException;
+
+    /**
+     * Gets the compactor of this virtual memory.
+     *
+     * @return the compactor or null if compaction is not enabled.
+     */
+    Compactor getCompactor();
+
+    /**
+     * Enables the epoch based reclamation of this virtual memory, so freed blocks are returned to the table
+     * only when all readers, that accessed blocks when they were freed, are done.
+     * Should be enabled before any block is allocated, and can't be used with the compaction.
+     *
+     * @return the reclaimer of this virtual memory.
+     * @throws MemoryException the compaction is enabled, or there are allocated blocks already.
+     */
+    EpochReclaimer enableReclamation() throws MemoryException;
+
+    /**
+     * Gets the reclaimer of this virtual memory.
+     *
+     * @return the reclaimer or null if reclamation is not enabled.
+     */
+    EpochReclaimer getReclaimer();
+
+    /**
+     * Gets the lock that should be held while a block is accessed by its address,
+     * so the block is not moved by the compaction or reused after it's freed in the middle.
+     *
+     * @return the lock to access blocks by their addresses.
+     */
+    Lock getBlockAccessLock();
+
     // -------------------------------------------------
 
     /**
@@ -89,7 +220,7 @@ public interface VirtualMemory extends Monitorable {
      * @return the virtual memory part as input stream.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    InputStream getInputStream(int offset, int length) throws OutOfBoundException;
+    InputStream getInputStream(long offset, int length) throws OutOfBoundException;
 
     /**
      * Gets the virtual memory as output stream.
@@ -108,7 +239,7 @@ public interface VirtualMemory extends Monitorable {
      * @return the virtual memory part as output stream.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    OutputStream getOutputStream(int offset, int length) throws OutOfBoundException;
+    OutputStream getOutputStream(long offset, int length) throws OutOfBoundException;
 
     /**
      * Writes the data as byte array directly to the virtual memory.
@@ -125,7 +256,7 @@ public interface VirtualMemory extends Monitorable {
      * @param offset the offset to write from.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte[] data, int offset) throws OutOfBoundException;
+    void write(byte[] data, long offset) throws OutOfBoundException;
 
     /**
      * Writes the byte value directly to the virtual memory on specified offset.
@@ -134,7 +265,7 @@ public interface VirtualMemory extends Monitorable {
      * @param offset the offset to write from.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte data, int offset) throws OutOfBoundException;
+    void write(byte data, long offset) throws OutOfBoundException;
 
     /**
      * Writes the byte array directly to the virtual memory
@@ -145,7 +276,7 @@ public interface VirtualMemory extends Monitorable {
      * @param length the size of the data to write to.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte[] data, int offset, int length) throws OutOfBoundException;
+    void write(byte[] data, long offset, int length) throws OutOfBoundException;
 
     /**
      * Read data from virtual memory into byte array and returns the number of read bytes.
@@ -161,7 +292,7 @@ public interface VirtualMemory extends Monitorable {
      * @param offset the offset.
      * @return the read byte.
      */
-    byte read(int offset);
+    byte read(long offset);
 
     /**
      * Read data from virtual memory into byte array from specified offset and with specified size.
@@ -171,5 +302,78 @@ public interface VirtualMemory extends Monitorable {
      * @param length how many bytes to read into buffer.
      * @return the number of read bytes.
      */
-    int read(byte[] data, int offset, int length);
+    int read(byte[] data, long offset, int length);
+
+    /**
+     * Reads a short value at specified offset.
+     * Primitive values are neither timed nor counted in the io metrics, so reading a field costs a single storage access.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    short getShort(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes a short value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putShort(long offset, short value) throws OutOfBoundException;
+
+    /**
+     * Reads an int value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    int getInt(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes an int value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putInt(long offset, int value) throws OutOfBoundException;
+
+    /**
+     * Reads a long value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    long getLong(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes a long value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putLong(long offset, long value) throws OutOfBoundException;
+
+    /**
+     * Reads a double value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    double getDouble(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes a double value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putDouble(long offset, double value) throws OutOfBoundException;
 }
@@ -1,6 +1,7 @@
 package com.khmelyuk.memory.vm;
 
 import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.OutOfMemoryException;
 import com.khmelyuk.memory.ReadException;
 import com.khmelyuk.memory.WriteException;
 import com.khmelyuk.memory.concurrency.LockInputStream;
@@ -14,6 +15,14 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents a block of virtual memory.
+ * <p/>
+ * The address of the block is resolved on each access under the block access lock of virtual memory,
+ * so the block can be moved by compaction between accesses.
+ * <p/>
+ * The block can be resized. It's resized in place if possible, otherwise it's moved to a new address.
+ * <p/>
+ * When the block is freed, it loses its address, so the block that is accessed after the free
+ * doesn't resolve the address that can be given to other owner already.
  *
  * @author Ruslan Khmelyuk
  */
@@ -21,12 +30,28 @@ public class VirtualMemoryBlock {
 
     private static final int BUFFER_SIZE = 8192;
 
+    /**
+     * The block of the freed virtual memory block, its address and size are 0 as of the freed table block,
+     * so any access is out of bound.
+     */
+    private static final Block FREED = new Block() {
+        @Override
+        public long getAddress() {
+            return 0;
+        }
+
+        @Override
+        public long getSize() {
+            return 0;
+        }
+    };
+
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
     private final Lock readLock = rwLock.readLock();
     private final Lock writeLock = rwLock.writeLock();
 
     private final VirtualMemory vm;
-    private final Block block;
+    private volatile Block block;
 
     public VirtualMemoryBlock(VirtualMemory vm, Block block) {
         this.vm = vm;
@@ -37,40 +62,98 @@ public class VirtualMemoryBlock {
         return block;
     }
 
-    public int getAddress() {
+    /**
+     * Checks whether the block is freed, the freed block can't be read or written.
+     *
+     * @return true if the block is freed.
+     */
+    public boolean isFreed() {
+        return block == FREED;
+    }
+
+    /**
+     * Marks the block as freed, so the readers that access it later don't resolve its address,
+     * even if the table block is not freed yet as its free is deferred.
+     * Waits for the operation with the block that is in progress.
+     *
+     * @return the table block to free, or null if the block is freed already.
+     */
+    Block markFreed() {
+        try {
+            writeLock.lock();
+
+            final Block result = block;
+            if (result == FREED) {
+                return null;
+            }
+            block = FREED;
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public long getAddress() {
         return block.getAddress();
     }
 
     public int size() {
-        return block.getSize();
+        return (int) block.getSize();
     }
 
     public InputStream getInputStream() {
-        InputStream in = vm.getInputStream(block.getAddress(), block.getSize());
-        return new LockInputStream(in, readLock);
+        return new LockInputStream(new BlockInputStream(vm, this), readLock);
     }
 
     public OutputStream getOutputStream() {
-        OutputStream out = vm.getOutputStream(block.getAddress(), block.getSize());
-        return new LockOutputStream(out, writeLock);
+        return new LockOutputStream(new BlockOutputStream(vm, this), writeLock);
+    }
+
+    /**
+     * Resizes the block. The block is extended or shrunk in place if possible, otherwise the content
+     * is moved to a new block, so the address is changed; the moved block is not aligned anymore.
+     * If the block is shrunk, the content after the new size is lost.
+     *
+     * @param length the new size of the block.
+     * @throws OutOfMemoryException failed to allocate the block of need size.
+     */
+    public void resize(int length) throws OutOfMemoryException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            writeLock.lock();
+            accessLock.lock();
+
+            if (block == FREED) {
+                throw new OutOfBoundException("The block is freed");
+            }
+            block = vm.resize(block, length);
+        } finally {
+            accessLock.unlock();
+            writeLock.unlock();
+        }
     }
 
     public void write(byte[] data) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             writeLock.lock();
+            accessLock.lock();
             final int length = data.length;
             if (length > block.getSize()) {
                 throw new OutOfBoundException();
             }
             vm.write(data, block.getAddress(), length);
         } finally {
+            accessLock.unlock();
             writeLock.unlock();
         }
     }
 
     public void write(byte[] data, int offset, int length) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             writeLock.lock();
+            accessLock.lock();
 
             if (data.length < length) {
                 length = data.length;
@@ -80,31 +163,41 @@ public class VirtualMemoryBlock {
             }
             vm.write(data, block.getAddress() + offset, length);
         } finally {
+            accessLock.unlock();
             writeLock.unlock();
         }
     }
 
     public int read(byte[] data) {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             readLock.lock();
+            accessLock.lock();
 
-            final int blockSize = block.getSize();
+            if (block == FREED) {
+                return -1;
+            }
+            final int blockSize = (int) block.getSize();
             int length = data.length;
             if (data.length > blockSize) {
                 length = blockSize;
             }
             return vm.read(data, block.getAddress(), length);
         } finally {
+            accessLock.unlock();
             readLock.unlock();
         }
     }
 
     public int read(byte[] data, int offset, int length) {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             readLock.lock();
+            accessLock.lock();
 
             return readWithoutLock(data, offset, length);
         } finally {
+            accessLock.unlock();
             readLock.unlock();
         }
     }
@@ -118,23 +211,34 @@ public class VirtualMemoryBlock {
     }
 
     public void writeObject(Object obj) throws OutOfBoundException, WriteException {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             writeLock.lock();
+            accessLock.lock();
 
-            OutputStream out = vm.getOutputStream(block.getAddress(), block.getSize());
+            if (block == FREED) {
+                throw new OutOfBoundException("The block is freed");
+            }
+            OutputStream out = vm.getOutputStream(block.getAddress(), (int) block.getSize());
             new ObjectOutputStream(out).writeObject(obj);
         } catch (IOException e) {
             throw new WriteException("Error to read an object", e);
         } finally {
+            accessLock.unlock();
             writeLock.unlock();
         }
     }
 
     public Object readObject() throws OutOfBoundException, ReadException {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             readLock.lock();
+            accessLock.lock();
 
-            InputStream in = vm.getInputStream(block.getAddress(), block.getSize());
+            if (block == FREED) {
+                throw new OutOfBoundException("The block is freed");
+            }
+            InputStream in = vm.getInputStream(block.getAddress(), (int) block.getSize());
             try {
                 return new ObjectInputStream(in).readObject();
             } catch (IOException e) {
@@ -143,15 +247,18 @@ public class VirtualMemoryBlock {
                 throw new ReadException("Error to read an object", e);
             }
         } finally {
+            accessLock.unlock();
             readLock.unlock();
         }
     }
 
     public void dump(OutputStream out) throws IOException {
+        final Lock accessLock = vm.getBlockAccessLock();
         try {
             readLock.lock();
+            accessLock.lock();
 
-            final int blockSize = block.getSize();
+            final int blockSize = (int) block.getSize();
             final int bufferSize = blockSize < BUFFER_SIZE ? blockSize : BUFFER_SIZE;
 
             int length, offset = 0;
@@ -161,11 +268,134 @@ public class VirtualMemoryBlock {
                 offset += length;
             }
         } finally {
+            accessLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    public short getShort(int offset) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            readLock.lock();
+            accessLock.lock();
+
+            return vm.getShort(address(offset, 2));
+        } finally {
+            accessLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    public void putShort(int offset, short value) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            writeLock.lock();
+            accessLock.lock();
+
+            vm.putShort(address(offset, 2), value);
+        } finally {
+            accessLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    public int getInt(int offset) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            readLock.lock();
+            accessLock.lock();
+
+            return vm.getInt(address(offset, 4));
+        } finally {
+            accessLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    public void putInt(int offset, int value) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            writeLock.lock();
+            accessLock.lock();
+
+            vm.putInt(address(offset, 4), value);
+        } finally {
+            accessLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    public long getLong(int offset) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            readLock.lock();
+            accessLock.lock();
+
+            return vm.getLong(address(offset, 8));
+        } finally {
+            accessLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    public void putLong(int offset, long value) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            writeLock.lock();
+            accessLock.lock();
+
+            vm.putLong(address(offset, 8), value);
+        } finally {
+            accessLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    public double getDouble(int offset) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            readLock.lock();
+            accessLock.lock();
+
+            return vm.getDouble(address(offset, 8));
+        } finally {
+            accessLock.unlock();
             readLock.unlock();
         }
     }
 
+    public void putDouble(int offset, double value) throws OutOfBoundException {
+        final Lock accessLock = vm.getBlockAccessLock();
+        try {
+            writeLock.lock();
+            accessLock.lock();
+
+            vm.putDouble(address(offset, 8), value);
+        } finally {
+            accessLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the address of the value within the block.
+     *
+     * @param offset the offset of the value in the block.
+     * @param length the length of the value in bytes.
+     * @return the address of the value.
+     * @throws OutOfBoundException the value is out of the block.
+     */
+    private long address(int offset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset + length > block.getSize()) {
+            throw new OutOfBoundException();
+        }
+        return block.getAddress() + offset;
+    }
+
     private int readWithoutLock(byte[] data, int offset, int length) {
+        if (block == FREED) {
+            return -1;
+        }
         if (data.length < length) {
             length = data.length;
         }
@@ -4,6 +4,8 @@ import com.khmelyuk.memory.OutOfBoundException;
 
 /**
  * A byte array storage.
+ * <p/>
+ * The primitive values are composed from bytes of the array in big-endian order.
  *
  * @author Ruslan Khmelyuk
  */
@@ -18,7 +20,7 @@ public final class ByteArrayStorage implements Storage {
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
@@ -38,30 +40,30 @@ public final class ByteArrayStorage implements Storage {
     }
 
     @Override
-    public void write(byte[] data, int offset) throws OutOfBoundException {
+    public void write(byte[] data, long offset) throws OutOfBoundException {
         if (offset >= size || data.length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        System.arraycopy(data, 0, this.data, offset, data.length);
+        System.arraycopy(data, 0, this.data, (int) offset, data.length);
     }
 
     @Override
-    public void write(byte[] data, int offset, int length) throws OutOfBoundException {
+    public void write(byte[] data, long offset, int length) throws OutOfBoundException {
         if (offset >= size || length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        System.arraycopy(data, 0, this.data, offset, length);
+        System.arraycopy(data, 0, this.data, (int) offset, length);
     }
 
     @Override
-    public void write(byte[] data, int offset, int dataOffset, int length) throws OutOfBoundException {
+    public void write(byte[] data, long offset, int dataOffset, int length) throws OutOfBoundException {
         if (offset >= size || length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        System.arraycopy(data, dataOffset, this.data, offset, length);
+        System.arraycopy(data, dataOffset, this.data, (int) offset, length);
     }
 
     @Override
@@ -77,7 +79,7 @@ public final class ByteArrayStorage implements Storage {
     }
 
     @Override
-    public int read(byte[] data, int offset, int length) {
+    public int read(byte[] data, long offset, int length) {
         if (data.length < length) {
             length = data.length;
         }
@@ -85,13 +87,13 @@ public final class ByteArrayStorage implements Storage {
             return -1;
         }
 
-        System.arraycopy(this.data, offset, data, 0, length);
+        System.arraycopy(this.data, (int) offset, data, 0, length);
 
         return length;
     }
 
     @Override
-    public int read(byte[] data, int offset, int dataOffset, int length) {
+    public int read(byte[] data, long offset, int dataOffset, int length) {
         if (data.length < length) {
             length = data.length;
         }
@@ -99,24 +101,104 @@ public final class ByteArrayStorage implements Storage {
             return -1;
         }
 
-        System.arraycopy(this.data, offset, data, dataOffset, length);
+        System.arraycopy(this.data, (int) offset, data, dataOffset, length);
 
         return length;
     }
 
     @Override
-    public void write(byte data, int offset) throws OutOfBoundException {
+    public void write(byte data, long offset) throws OutOfBoundException {
         if (offset >= size) {
             throw new OutOfBoundException();
         }
-        this.data[offset] = data;
+        this.data[(int) offset] = data;
     }
 
     @Override
-    public byte read(int offset) {
+    public byte read(long offset) {
         if (offset >= size) {
             return -1;
         }
-        return this.data[offset];
+        return this.data[(int) offset];
+    }
+
+    @Override
+    public short getShort(long offset) throws OutOfBoundException {
+        final int index = checkIndex(offset, 2);
+        final byte[] data = this.data;
+        return (short) ((data[index] << 8) | (data[index + 1] & 0xFF));
+    }
+
+    @Override
+    public void putShort(long offset, short value) throws OutOfBoundException {
+        final int index = checkIndex(offset, 2);
+        final byte[] data = this.data;
+        data[index] = (byte) (value >> 8);
+        data[index + 1] = (byte) value;
+    }
+
+    @Override
+    public int getInt(long offset) throws OutOfBoundException {
+        final int index = checkIndex(offset, 4);
+        final byte[] data = this.data;
+        return (data[index] << 24)
+                | ((data[index + 1] & 0xFF) << 16)
+                | ((data[index + 2] & 0xFF) << 8)
+                | (data[index + 3] & 0xFF);
+    }
+
+    @Override
+    public void putInt(long offset, int value) throws OutOfBoundException {
+        final int index = checkIndex(offset, 4);
+        final byte[] data = this.data;
+        data[index] = (byte) (value >> 24);
+        data[index + 1] = (byte) (value >> 16);
+        data[index + 2] = (byte) (value >> 8);
+        data[index + 3] = (byte) value;
+    }
+
+    @Override
+    public long getLong(long offset) throws OutOfBoundException {
+        final int index = checkIndex(offset, 8);
+        final byte[] data = this.data;
+        return ((long) data[index] << 56)
+                | ((data[index + 1] & 0xFFL) << 48)
+                | ((data[index + 2] & 0xFFL) << 40)
+                | ((data[index + 3] & 0xFFL) << 32)
+                | ((data[index + 4] & 0xFFL) << 24)
+                | ((data[index + 5] & 0xFFL) << 16)
+                | ((data[index + 6] & 0xFFL) << 8)
+                | (data[index + 7] & 0xFFL);
+    }
+
+    @Override
+    public void putLong(long offset, long value) throws OutOfBoundException {
+        final int index = checkIndex(offset, 8);
+        final byte[] data = this.data;
+        data[index] = (byte) (value >> 56);
+        data[index + 1] = (byte) (value >> 48);
+        data[index + 2] = (byte) (value >> 40);
+        data[index + 3] = (byte) (value >> 32);
+        data[index + 4] = (byte) (value >> 24);
+        data[index + 5] = (byte) (value >> 16);
+        data[index + 6] = (byte) (value >> 8);
+        data[index + 7] = (byte) value;
+    }
+
+    @Override
+    public double getDouble(long offset) throws OutOfBoundException {
+        return Double.longBitsToDouble(getLong(offset));
+    }
+
+    @Override
+    public void putDouble(long offset, double value) throws OutOfBoundException {
+        putLong(offset, Double.doubleToRawLongBits(value));
+    }
+
+    private int checkIndex(long offset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset + length > size) {
+            throw new OutOfBoundException();
+        }
+        return (int) offset;
     }
 }
@@ -14,7 +14,7 @@ public class ByteArrayStorageFactory implements StorageFactory {
     }
 
     @Override
-    public Storage create(int begin, int size) {
+    public Storage create(long begin, int size) {
         return new ByteArrayStorage(size);
     }
 }
@@ -2,10 +2,19 @@ package com.khmelyuk.memory.vm.storage;
 
 import com.khmelyuk.memory.OutOfBoundException;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
- * A byte array storage.
+ * A byte buffer storage.
+ * <p/>
+ * Bulk reads and writes use a duplicate of the buffer, which is cached per thread,
+ * so the position of the shared buffer is not changed and nothing is allocated per operation.
+ * The cached duplicate is weakly referenced, so the threads that don't use the storage anymore
+ * don't keep the direct or mapped buffer alive after the storage is freed.
+ * Single bytes and primitive values are accessed with absolute get and put
+ * on a big-endian duplicate of the buffer, so the order of the passed buffer is not changed.
  *
  * @author Ruslan Khmelyuk
  */
@@ -14,13 +23,16 @@ public final class ByteBufferStorage implements Storage {
     private ByteBuffer data;
     private int size;
 
+    private final ThreadLocal<WeakReference<ByteBuffer>> views = new ThreadLocal<>();
+
     public ByteBufferStorage(ByteBuffer buffer) {
-        this.data = buffer;
+        // the order is set on a duplicate, so the buffer of the caller is not changed
+        this.data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
         this.size = buffer.capacity();
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
@@ -28,6 +40,7 @@ public final class ByteBufferStorage implements Storage {
     public void free() {
         data = ByteBuffer.allocate(0);
         size = 0;
+        views.remove();
     }
 
     @Override
@@ -36,39 +49,36 @@ public final class ByteBufferStorage implements Storage {
             throw new OutOfBoundException();
         }
 
-        this.data.slice().put(data);
+        view(0).put(data);
     }
 
     @Override
-    public void write(byte[] data, int offset) throws OutOfBoundException {
+    public void write(byte[] data, long offset) throws OutOfBoundException {
         if (offset >= size || data.length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        ByteBuffer buf = this.data.slice();
-        buf.position(offset);
+        ByteBuffer buf = view(offset);
         buf.put(data);
     }
 
     @Override
-    public void write(byte[] data, int offset, int length) throws OutOfBoundException {
+    public void write(byte[] data, long offset, int length) throws OutOfBoundException {
         if (offset >= size || length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        ByteBuffer buf = this.data.slice();
-        buf.position(offset);
+        ByteBuffer buf = view(offset);
         buf.put(data, 0, length);
     }
 
     @Override
-    public void write(byte[] data, int offset, int dataOffset, int length) throws OutOfBoundException {
+    public void write(byte[] data, long offset, int dataOffset, int length) throws OutOfBoundException {
         if (offset >= size || length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        ByteBuffer buf = this.data.slice();
-        buf.position(offset);
+        ByteBuffer buf = view(offset);
         buf.put(data, dataOffset, length);
     }
 
@@ -79,58 +89,123 @@ public final class ByteBufferStorage implements Storage {
             length = size;
         }
 
-        this.data.get(data, 0, length);
+        view(0).get(data, 0, length);
 
         return length;
     }
 
     @Override
-    public int read(byte[] data, int offset, int length) {
+    public int read(byte[] data, long offset, int length) {
         if (offset + length > size) {
-            length = size - offset;
+            length = (int) (size - offset);
         }
         if (length == 0) {
             return -1;
         }
 
-        ByteBuffer buf = this.data.slice();
-        buf.position(offset);
+        ByteBuffer buf = view(offset);
         buf.get(data, 0, length);
 
         return length;
     }
 
     @Override
-    public int read(byte[] data, int offset, int dataOffset, int length) {
+    public int read(byte[] data, long offset, int dataOffset, int length) {
         if (offset + length > size) {
-            length = size - offset;
+            length = (int) (size - offset);
         }
         if (length == 0) {
             return -1;
         }
 
-        ByteBuffer buf = this.data.slice();
-        buf.position(offset);
+        ByteBuffer buf = view(offset);
         buf.get(data, dataOffset, length);
 
         return length;
     }
 
     @Override
-    public void write(byte data, int offset) throws OutOfBoundException {
+    public void write(byte data, long offset) throws OutOfBoundException {
         if (offset >= size) {
             throw new OutOfBoundException();
         }
 
-        this.data.put(offset, data);
+        this.data.put((int) offset, data);
     }
 
     @Override
-    public byte read(int offset) {
+    public byte read(long offset) {
         if (offset >= this.data.capacity()) {
             return -1;
         }
 
-        return data.get(offset);
+        return data.get((int) offset);
+    }
+
+    @Override
+    public short getShort(long offset) throws OutOfBoundException {
+        return data.getShort(checkIndex(offset, 2));
+    }
+
+    @Override
+    public void putShort(long offset, short value) throws OutOfBoundException {
+        data.putShort(checkIndex(offset, 2), value);
+    }
+
+    @Override
+    public int getInt(long offset) throws OutOfBoundException {
+        return data.getInt(checkIndex(offset, 4));
+    }
+
+    @Override
+    public void putInt(long offset, int value) throws OutOfBoundException {
+        data.putInt(checkIndex(offset, 4), value);
+    }
+
+    @Override
+    public long getLong(long offset) throws OutOfBoundException {
+        return data.getLong(checkIndex(offset, 8));
+    }
+
+    @Override
+    public void putLong(long offset, long value) throws OutOfBoundException {
+        data.putLong(checkIndex(offset, 8), value);
+    }
+
+    @Override
+    public double getDouble(long offset) throws OutOfBoundException {
+        return data.getDouble(checkIndex(offset, 8));
+    }
+
+    @Override
+    public void putDouble(long offset, double value) throws OutOfBoundException {
+        data.putDouble(checkIndex(offset, 8), value);
+    }
+
+    private int checkIndex(long offset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset + length > size) {
+            throw new OutOfBoundException();
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Gets the duplicate of the buffer for the current thread, positioned at specified offset.
+     * The duplicate is created again only if the buffer was changed, or the duplicate was collected.
+     *
+     * @param offset the offset to position the duplicate at.
+     * @return the duplicate of the buffer.
+     */
+    private ByteBuffer view(long offset) {
+        final ByteBuffer data = this.data;
+        final WeakReference<ByteBuffer> reference = views.get();
+        ByteBuffer result = reference != null ? reference.get() : null;
+        if (result == null || result.capacity() != data.capacity()) {
+            result = data.duplicate();
+            views.set(new WeakReference<>(result));
+        }
+        result.limit(result.capacity());
+        result.position((int) offset);
+        return result;
     }
 }
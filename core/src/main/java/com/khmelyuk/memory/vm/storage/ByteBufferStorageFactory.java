@@ -16,7 +16,7 @@ public class ByteBufferStorageFactory implements StorageFactory {
     }
 
     @Override
-    public Storage create(int begin, int size) {
+    public Storage create(long begin, int size) {
         return new ByteBufferStorage(ByteBuffer.allocate(size));
     }
 }
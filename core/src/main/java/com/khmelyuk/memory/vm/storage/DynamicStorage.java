@@ -4,6 +4,13 @@ import com.khmelyuk.memory.OutOfBoundException;
 
 /**
  * The storage that can growth.
+ * <p/>
+ * The storage consists of sectors: the first sector is of the initial size and all others are of the growth size,
+ * only the last sector can be smaller. So the sector of an offset and the offset within the sector are calculated
+ * without searching: with a shift and a mask if the growth is a power of two, or with a division otherwise.
+ * <p/>
+ * The primitive values are read from and written to the sector directly,
+ * only the values that cross the sector boundary are composed byte by byte.
  *
  * @author Ruslan Khmelyuk
  */
@@ -14,26 +21,62 @@ public class DynamicStorage implements Storage {
     private Storage[] data;
 
     private int count;
-    private int size;
+    private long size;
 
+    private final int firstSize;
     private final int growth;
-    private final int maxSize;
-    private final float oneGrowth;
+    private final int growthShift;
+    private final int growthMask;
+    private final long maxSize;
     private final StorageFactory storageFactory;
 
-    public DynamicStorage(int size, int maxSize, int growth, StorageFactory storageFactory) {
+    /**
+     * Creates a storage of specified size, that can grow to the max size by growth steps.
+     * Each sector is created with the storage factory, so it can't be larger than 2 GB.
+     * If the size is larger, the first sector takes the rest of the size
+     * and other sectors are of the growth size.
+     * <p/>
+     * The growth of power of two is recommended, as the sector is found with a shift instead of a division then.
+     *
+     * @param size           the initial size of the storage.
+     * @param maxSize        the max size of the storage.
+     * @param growth         the size of the growth step, that is the size of each sector after the first one.
+     * @param storageFactory the factory to create sectors.
+     */
+    public DynamicStorage(long size, long maxSize, int growth, StorageFactory storageFactory) {
         growth = (growth != 0 ? growth : 1);
 
-        int sectorsCount = (maxSize - size) / growth + 1;
+        // the first sector takes the rest, so other sectors are of growth size
+        int initialCount = 0;
+        if (size > Integer.MAX_VALUE) {
+            initialCount = (int) ((size - Integer.MAX_VALUE + growth - 1) / growth);
+        }
+        final int firstSize = (int) (size - (long) initialCount * growth);
+
+        long sectorsCount = (maxSize - size) / growth + 1;
         sectorsCount = Math.min(sectorsCount, SECTORS_GROW_COUNT);
-        this.data = new Storage[sectorsCount];
-        this.data[0] = storageFactory.create(0, size);
+        this.data = new Storage[(int) sectorsCount + initialCount];
+        this.data[0] = storageFactory.create(0, firstSize);
         this.count = 1;
 
+        long begin = firstSize;
+        for (int i = 0; i < initialCount; i++) {
+            this.data[count++] = storageFactory.create(begin, growth);
+            begin += growth;
+        }
+
         this.size = size;
+        this.firstSize = firstSize;
         this.growth = growth;
         this.maxSize = maxSize;
-        this.oneGrowth = 1f / growth;
+
+        if (Integer.bitCount(growth) == 1) {
+            this.growthShift = Integer.numberOfTrailingZeros(growth);
+            this.growthMask = growth - 1;
+        } else {
+            this.growthShift = -1;
+            this.growthMask = 0;
+        }
 
         this.storageFactory = storageFactory;
     }
@@ -42,28 +85,43 @@ public class DynamicStorage implements Storage {
         return growth;
     }
 
-    public int getMaxSize() {
+    public long getMaxSize() {
         return maxSize;
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
     @Override
     public void free() {
+        // sectors can hold memory that is not released by garbage collector
+        for (int i = 0; i < count; i++) {
+            data[i].free();
+        }
         data = new Storage[0];
         count = 0;
         size = 0;
     }
 
     /**
-     * Increases the size of this storage.
+     * Increases the size of this storage by a new sector.
+     * The storage is increased by growth steps, only the last step can be smaller.
      *
      * @param newSize the new size of the storage.
+     * @throws OutOfBoundException if the increase is larger than the growth step,
+     *                             or the storage was increased by a smaller step already.
      */
-    public void increaseSize(int newSize) {
+    public void increaseSize(long newSize) throws OutOfBoundException {
+        final long increase = newSize - size;
+        if (increase > growth) {
+            throw new OutOfBoundException("Storage can't be increased by more than " + growth + ": " + increase);
+        }
+        if ((size - firstSize) % growth != 0) {
+            throw new OutOfBoundException("Storage can't be increased after the last growth step");
+        }
+
         int length = data.length;
         if (length == count) {
             // if there is a need to extend a data array
@@ -78,299 +136,274 @@ public class DynamicStorage implements Storage {
         }
 
         // allocate the new memory sector
-        data[count++] = storageFactory.create(size, newSize - size);
+        data[count++] = storageFactory.create(size, (int) increase);
         size = newSize;
     }
 
     @Override
     public void write(byte[] data) throws OutOfBoundException {
-        int dataLength = data.length;
-        if (dataLength > size) {
+        if (data.length > size) {
             throw new OutOfBoundException();
         }
 
-        int dataOffset = 0;
-        final int endIdx = calcEndIndex(0, dataLength);
-        for (int i = 0; i <= endIdx; i++) {
-            final Storage each = this.data[i];
-            final int eachLength = each.size();
-            if (eachLength >= dataLength) {
-                each.write(data, 0, dataOffset, dataLength);
-                break;
-            } else {
-                each.write(data, 0, dataOffset, eachLength);
-                dataLength -= eachLength;
-                dataOffset += eachLength;
-            }
-        }
+        writeSectors(data, 0, 0, data.length);
     }
 
     @Override
-    public void write(byte[] data, int offset) throws OutOfBoundException {
-        write(data, offset, data.length);
+    public void write(byte[] data, long offset) throws OutOfBoundException {
+        write(data, offset, 0, data.length);
     }
 
     @Override
-    public void write(byte[] data, int offset, int length) throws OutOfBoundException {
-        // TODO - what about just calling write(data, offset, 0, length)?
-
-        if (offset >= size || length + offset > size) {
-            throw new OutOfBoundException();
-        }
-
-        int dataOffset = 0;
-        boolean started = false;
-
-        final int startIdx = calcStartIndex(offset);
-        final int endIdx = calcEndIndex(offset, length);
-        int start = calculateStartPosition(startIdx);
-        for (int i = startIdx; i <= endIdx; i++) {
-            final Storage each = this.data[i];
-            final int eachLength = each.size();
-            if (started || (offset >= start && offset < start + eachLength)) {
-                final int eachOffset = started ? 0 : offset - start;
-                final int realLength = eachLength - eachOffset;
-                started = true;
-
-                if (realLength >= length) {
-                    each.write(data, eachOffset, dataOffset, length);
-                    break;
-                } else {
-                    each.write(data, eachOffset, dataOffset, realLength);
-                    length -= realLength;
-                    dataOffset += realLength;
-                }
-            }
-            start += eachLength;
-        }
+    public void write(byte[] data, long offset, int length) throws OutOfBoundException {
+        write(data, offset, 0, length);
     }
 
     @Override
-    public void write(byte[] data, int offset, int dataOffset, int length) throws OutOfBoundException {
-        if (offset >= size || length + offset > size) {
+    public void write(byte[] data, long offset, int dataOffset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset >= size || length + offset > size) {
             throw new OutOfBoundException();
         }
 
-        boolean started = false;
-
-        final int startIdx = calcStartIndex(offset);
-        final int endIdx = calcEndIndex(offset, length);
-        int start = calculateStartPosition(startIdx);
-        for (int i = startIdx; i <= endIdx; i++) {
-            final Storage each = this.data[i];
-            final int eachLength = each.size();
-            if (started || (offset >= start && offset < start + eachLength)) {
-                final int eachOffset = started ? 0 : offset - start;
-                final int realLength = eachLength - eachOffset;
-                started = true;
-
-                if (realLength >= length) {
-                    each.write(data, eachOffset, dataOffset, length);
-                    break;
-                } else {
-                    each.write(data, eachOffset, dataOffset, realLength);
-                    length -= realLength;
-                    dataOffset += realLength;
-                }
-            }
-            start += eachLength;
-        }
+        writeSectors(data, offset, dataOffset, length);
     }
 
     @Override
     public int read(byte[] data) throws OutOfBoundException {
-        int dataLength = data.length;
-        if (dataLength > size) {
-            dataLength = size;
+        int length = data.length;
+        if (length > size) {
+            length = (int) size;
         }
-
-        int dataOffset = 0;
-        final int endIdx = calcEndIndex(0, dataLength);
-        for (int i = 0; i <= endIdx; i++) {
-            final Storage each = this.data[i];
-            final int eachLength = each.size();
-
-            if (dataLength <= eachLength) {
-                each.read(data, 0, dataOffset, dataLength);
-                break;
-            } else {
-                each.read(data, 0, dataOffset, eachLength);
-                dataLength -= eachLength;
-                dataOffset += eachLength;
-            }
+        if (length == 0) {
+            return -1;
         }
 
-        int read = dataOffset + dataLength;
-        return read != 0 ? read : -1;
+        readSectors(data, 0, 0, length);
+
+        return length;
     }
 
     @Override
-    public int read(byte[] data, int offset, int length) {
-        // TODO - what about just calling read(data, offset, 0, length)?
-        int dataLength = length;
-        if (data.length < dataLength) {
-            dataLength = data.length;
+    public int read(byte[] data, long offset, int length) {
+        return read(data, offset, 0, length);
+    }
+
+    @Override
+    public int read(byte[] data, long offset, int dataOffset, int length) {
+        if (data.length < length) {
+            length = data.length;
         }
-        if (dataLength == 0 || offset + dataLength > size) {
+        if (length == 0 || offset < 0 || offset + length > size) {
             return -1;
         }
 
-        int dataOffset = 0;
-        boolean started = false;
-
-        final int startIdx = calcStartIndex(offset);
-        final int endIdx = calcEndIndex(offset, dataLength);
-        int start = calculateStartPosition(startIdx);
-        for (int i = startIdx; i <= endIdx; i++) {
-            final Storage each = this.data[i];
-            final int eachLength = each.size();
-            if (started || (offset >= start && offset < start + eachLength)) {
-                final int eachOffset = started ? 0 : offset - start;
-                final int realLength = eachLength - eachOffset;
-                started = true;
-
-                if (dataLength <= realLength) {
-                    each.read(data, eachOffset, dataOffset, dataLength);
-                    break;
-                } else {
-                    each.read(data, eachOffset, dataOffset, realLength);
-                    dataLength -= realLength;
-                    dataOffset += realLength;
-                }
-            }
-            start += eachLength;
-        }
+        readSectors(data, offset, dataOffset, length);
 
-        int read = dataOffset + dataLength;
-        return read != 0 ? read : -1;
+        return length;
     }
 
     @Override
-    public int read(byte[] data, int offset, int dataOffset, int length) {
-        int dataLength = length;
-        if (data.length < dataLength) {
-            dataLength = data.length;
+    public void write(byte data, long offset) throws OutOfBoundException {
+        if (offset < 0 || offset >= size) {
+            throw new OutOfBoundException();
         }
-        if (dataLength == 0 || offset + dataLength > size) {
+
+        final int index = sectorIndex(offset);
+        this.data[index].write(data, sectorOffset(offset));
+    }
+
+    @Override
+    public byte read(long offset) {
+        if (offset < 0 || offset >= size) {
             return -1;
         }
 
-        boolean started = false;
-
-        final int startIdx = calcStartIndex(offset);
-        final int endIdx = calcEndIndex(offset, dataLength);
-        int start = calculateStartPosition(startIdx);
-        for (int i = startIdx; i <= endIdx; i++) {
-            final Storage each = this.data[i];
-            final int eachLength = each.size();
-            if (started || (offset >= start && offset < start + eachLength)) {
-                final int eachOffset = started ? 0 : offset - start;
-                final int realLength = eachLength - eachOffset;
-                started = true;
-
-                if (dataLength <= realLength) {
-                    each.read(data, eachOffset, dataOffset, dataLength);
-                    break;
-                } else {
-                    each.read(data, eachOffset, dataOffset, realLength);
-                    dataLength -= realLength;
-                    dataOffset += realLength;
-                }
-            }
-            start += eachLength;
-        }
+        final int index = sectorIndex(offset);
+        return this.data[index].read(sectorOffset(offset));
+    }
 
-        int read = dataOffset + dataLength;
-        return read != 0 ? read : -1;
+    @Override
+    public short getShort(long offset) throws OutOfBoundException {
+        checkBounds(offset, 2);
+        final int index = sectorIndex(offset);
+        final int sectorOffset = sectorOffset(offset);
+        if (sectorOffset + 2 <= sectorSize(index)) {
+            return data[index].getShort(sectorOffset);
+        }
+        return (short) readBytes(offset, 2);
     }
 
     @Override
-    public void write(byte data, int offset) throws OutOfBoundException {
-        if (offset >= size) {
-            throw new OutOfBoundException();
+    public void putShort(long offset, short value) throws OutOfBoundException {
+        checkBounds(offset, 2);
+        final int index = sectorIndex(offset);
+        final int sectorOffset = sectorOffset(offset);
+        if (sectorOffset + 2 <= sectorSize(index)) {
+            data[index].putShort(sectorOffset, value);
+        } else {
+            writeBytes(offset, value, 2);
         }
+    }
 
-        final int startIdx = calcStartIndex(offset);
-        final Storage sector = this.data[startIdx];
-        if (sector != null) {
-            int start = calculateStartPosition(startIdx);
-            sector.write(data, offset - start);
+    @Override
+    public int getInt(long offset) throws OutOfBoundException {
+        checkBounds(offset, 4);
+        final int index = sectorIndex(offset);
+        final int sectorOffset = sectorOffset(offset);
+        if (sectorOffset + 4 <= sectorSize(index)) {
+            return data[index].getInt(sectorOffset);
         }
+        return (int) readBytes(offset, 4);
     }
 
     @Override
-    public byte read(int offset) {
-        if (offset >= size) {
-            return -1;
+    public void putInt(long offset, int value) throws OutOfBoundException {
+        checkBounds(offset, 4);
+        final int index = sectorIndex(offset);
+        final int sectorOffset = sectorOffset(offset);
+        if (sectorOffset + 4 <= sectorSize(index)) {
+            data[index].putInt(sectorOffset, value);
+        } else {
+            writeBytes(offset, value, 4);
         }
+    }
 
-        final int startIdx = calcStartIndex(offset);
-        final Storage sector = this.data[startIdx];
+    @Override
+    public long getLong(long offset) throws OutOfBoundException {
+        checkBounds(offset, 8);
+        final int index = sectorIndex(offset);
+        final int sectorOffset = sectorOffset(offset);
+        if (sectorOffset + 8 <= sectorSize(index)) {
+            return data[index].getLong(sectorOffset);
+        }
+        return readBytes(offset, 8);
+    }
 
-        if (sector != null) {
-            int start = calculateStartPosition(startIdx);
-            return sector.read(offset - start);
+    @Override
+    public void putLong(long offset, long value) throws OutOfBoundException {
+        checkBounds(offset, 8);
+        final int index = sectorIndex(offset);
+        final int sectorOffset = sectorOffset(offset);
+        if (sectorOffset + 8 <= sectorSize(index)) {
+            data[index].putLong(sectorOffset, value);
+        } else {
+            writeBytes(offset, value, 8);
         }
+    }
 
-        return -1;
+    @Override
+    public double getDouble(long offset) throws OutOfBoundException {
+        return Double.longBitsToDouble(getLong(offset));
+    }
+
+    @Override
+    public void putDouble(long offset, double value) throws OutOfBoundException {
+        putLong(offset, Double.doubleToRawLongBits(value));
     }
 
     /**
-     * Calculate the index of the memory sector by offset.
-     * For example, if memory contains 5 sectors with next lengths: 50, 25, 25, 25
-     * then the index for offset = 65 will be 1, because 50 < 65 < (75 = 50 + 25).
-     *
-     * @param offset the offset to get index for.
-     * @return the found sector index, or -1 if not found.
+     * Writes the data to the sectors, starting from the sector of the offset.
+     * The bounds should be checked already.
      */
-    private int calcStartIndex(int offset) {
-        if (offset == 0) {
-            // first sector
-            return 0;
+    private void writeSectors(byte[] data, long offset, int dataOffset, int length) {
+        final Storage[] sectors = this.data;
+        int index = sectorIndex(offset);
+        int sectorOffset = sectorOffset(offset);
+        while (length > 0) {
+            final int sectorLength = Math.min(length, sectorSize(index) - sectorOffset);
+            sectors[index].write(data, sectorOffset, dataOffset, sectorLength);
+
+            length -= sectorLength;
+            dataOffset += sectorLength;
+            sectorOffset = 0;
+            index++;
         }
+    }
 
-        // check if first sector
-        final int len1 = data[0].size();
-        if (offset <= len1) {
-            return 0;
+    /**
+     * Reads the data from the sectors, starting from the sector of the offset.
+     * The bounds should be checked already.
+     */
+    private void readSectors(byte[] data, long offset, int dataOffset, int length) {
+        final Storage[] sectors = this.data;
+        int index = sectorIndex(offset);
+        int sectorOffset = sectorOffset(offset);
+        while (length > 0) {
+            final int sectorLength = Math.min(length, sectorSize(index) - sectorOffset);
+            sectors[index].read(data, sectorOffset, dataOffset, sectorLength);
+
+            length -= sectorLength;
+            dataOffset += sectorLength;
+            sectorOffset = 0;
+            index++;
         }
+    }
+
+    private void checkBounds(long offset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset + length > size) {
+            throw new OutOfBoundException();
+        }
+    }
 
-        // not a first sector - find an index by offset
-        int index = (int) ((offset - len1) * oneGrowth) + 1;
-        return index < count ? index : -1;
+    /**
+     * Reads the big-endian value that crosses the sector boundary byte by byte.
+     */
+    private long readBytes(long offset, int length) {
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result = (result << 8) | (read(offset + i) & 0xFF);
+        }
+        return result;
     }
 
     /**
-     * Calculate the index of the memory sector by offset and length..
-     * For example, if memory contains 5 sectors with next lengths: 50, 25, 25, 25
-     * then the index for offset = 65 and length is 20 will be 2, because 75 < (60 + 25 = 85) < (100 = 75 + 25).
+     * Writes the big-endian value that crosses the sector boundary byte by byte.
+     */
+    private void writeBytes(long offset, long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            write((byte) value, offset + i);
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Calculates the index of the sector by offset.
+     * For example, if the first sector is of 50 bytes and the growth is 25 bytes,
+     * then the index for offset 80 is 2, because 75 = 50 + 25 <= 80 < 100 = 50 + 25 * 2.
      *
-     * @param offset the offset to get index for.
-     * @param length the length of memory block.
-     * @return the found sector index, or -1 if not found.
+     * @param offset the offset within the storage.
+     * @return the sector index.
      */
-    private int calcEndIndex(int offset, int length) {
-        final int address = offset + length;
-        final int len1 = data[0].size();
-        if (address < len1) {
+    private int sectorIndex(long offset) {
+        final long rest = offset - firstSize;
+        if (rest < 0) {
             return 0;
         }
-        int index = (int) ((address - len1) * oneGrowth) + 1;
-        return index < count ? index : -1;
+        return 1 + (int) (growthShift >= 0 ? rest >>> growthShift : rest / growth);
+    }
+
+    /**
+     * Calculates the offset within the sector of the offset.
+     *
+     * @param offset the offset within the storage.
+     * @return the offset within the sector.
+     */
+    private int sectorOffset(long offset) {
+        final long rest = offset - firstSize;
+        if (rest < 0) {
+            return (int) offset;
+        }
+        return (int) (growthShift >= 0 ? rest & growthMask : rest % growth);
     }
 
     /**
-     * Calculate the start position for specified memory sector.
-     * Algorithm is simple - every except first and, maybe, last sectors have fixed size equal to {@code growth}.
-     * Method checks what the index, and using it returns an calculated position for sector.
+     * Gets the full size of the sector. The last sector can be smaller,
+     * but it's not accessed out of the storage size anyway.
      *
      * @param index the sector index.
-     * @return the calculated start position for memory sector.
+     * @return the size of the sector.
      */
-    private int calculateStartPosition(int index) {
-        return (index == 0
-                ? 0 : index == 1
-                ? this.data[0].size()
-                : this.data[0].size() + (index - 1) * growth);
+    private int sectorSize(int index) {
+        return index == 0 ? firstSize : growth;
     }
 }
@@ -20,7 +20,7 @@ public class FileChannelStorageFactory implements StorageFactory {
     }
 
     @Override
-    public Storage create(int begin, int size) {
+    public Storage create(long begin, int size) {
         try {
             FileChannel.MapMode mode =
                     readOnly
@@ -0,0 +1,354 @@
+package com.khmelyuk.memory.vm.storage;
+
+import com.khmelyuk.memory.MemoryException;
+import com.khmelyuk.memory.OutOfBoundException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A storage mapped by the file, that can be larger than 2 GB.
+ * <p/>
+ * The file is split into segments of the same size, a power of two, so the segment of an offset is found
+ * with a shift and a mask. A segment is mapped on the first access, so a large file doesn't need
+ * to be mapped at once. The data and values that cross the segment boundary are split between segments.
+ * <p/>
+ * The file is extended to the storage size when the storage is created, unless it's read only.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public final class MappedFileStorage implements Storage {
+
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+
+    private final int segmentSize;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    private volatile AtomicReferenceArray<Storage> segments;
+    private volatile long size;
+
+    /**
+     * Creates the storage of specified size mapped by the file channel.
+     *
+     * @param channel     the file channel to map.
+     * @param size        the storage size.
+     * @param segmentSize the size of a single mapped segment, should be a power of two.
+     * @param readOnly    whether the file is mapped to read only.
+     * @throws MemoryException error to extend the file to the storage size.
+     */
+    public MappedFileStorage(FileChannel channel, long size, int segmentSize, boolean readOnly) throws MemoryException {
+        if (Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size should be a power of two: " + segmentSize);
+        }
+        if (size < 0) {
+            throw new OutOfBoundException("Size can't be negative: " + size);
+        }
+
+        this.channel = channel;
+        this.mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        this.segmentSize = segmentSize;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        this.segmentMask = segmentSize - 1;
+
+        if (!readOnly) {
+            extendFile(channel, size);
+        }
+
+        this.segments = new AtomicReferenceArray<>((int) ((size + segmentMask) >>> segmentShift));
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of segments that are mapped already.
+     *
+     * @return the number of mapped segments.
+     */
+    public int getMappedSegmentsCount() {
+        final AtomicReferenceArray<Storage> segments = this.segments;
+
+        int result = 0;
+        for (int i = 0; i < segments.length(); i++) {
+            if (segments.get(i) != null) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void free() {
+        // mapped buffers are released by garbage collector
+        segments = new AtomicReferenceArray<>(0);
+        size = 0;
+    }
+
+    @Override
+    public void write(byte[] data) throws OutOfBoundException {
+        if (data.length > size) {
+            throw new OutOfBoundException();
+        }
+
+        writeSegments(data, 0, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, long offset) throws OutOfBoundException {
+        write(data, offset, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, long offset, int length) throws OutOfBoundException {
+        write(data, offset, 0, length);
+    }
+
+    @Override
+    public void write(byte[] data, long offset, int dataOffset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset >= size || length + offset > size
+                || dataOffset < 0 || dataOffset + length > data.length) {
+            throw new OutOfBoundException();
+        }
+
+        writeSegments(data, offset, dataOffset, length);
+    }
+
+    @Override
+    public void write(byte data, long offset) throws OutOfBoundException {
+        if (offset < 0 || offset >= size) {
+            throw new OutOfBoundException();
+        }
+
+        segment(offset).write(data, offset & segmentMask);
+    }
+
+    @Override
+    public int read(byte[] data) {
+        int length = data.length;
+        if (length > size) {
+            length = (int) size;
+        }
+        if (length == 0) {
+            return -1;
+        }
+
+        readSegments(data, 0, 0, length);
+
+        return length;
+    }
+
+    @Override
+    public int read(byte[] data, long offset, int length) {
+        return read(data, offset, 0, length);
+    }
+
+    @Override
+    public int read(byte[] data, long offset, int dataOffset, int length) {
+        if (data.length - dataOffset < length) {
+            length = data.length - dataOffset;
+        }
+        if (length <= 0 || offset < 0 || offset + length > size) {
+            return -1;
+        }
+
+        readSegments(data, offset, dataOffset, length);
+
+        return length;
+    }
+
+    @Override
+    public byte read(long offset) {
+        if (offset < 0 || offset >= size) {
+            return -1;
+        }
+
+        return segment(offset).read(offset & segmentMask);
+    }
+
+    @Override
+    public short getShort(long offset) throws OutOfBoundException {
+        checkBounds(offset, 2);
+        final int segmentOffset = (int) (offset & segmentMask);
+        if (segmentOffset + 2 <= segmentSize) {
+            return segment(offset).getShort(segmentOffset);
+        }
+        return (short) readBytes(offset, 2);
+    }
+
+    @Override
+    public void putShort(long offset, short value) throws OutOfBoundException {
+        checkBounds(offset, 2);
+        final int segmentOffset = (int) (offset & segmentMask);
+        if (segmentOffset + 2 <= segmentSize) {
+            segment(offset).putShort(segmentOffset, value);
+        } else {
+            writeBytes(offset, value, 2);
+        }
+    }
+
+    @Override
+    public int getInt(long offset) throws OutOfBoundException {
+        checkBounds(offset, 4);
+        final int segmentOffset = (int) (offset & segmentMask);
+        if (segmentOffset + 4 <= segmentSize) {
+            return segment(offset).getInt(segmentOffset);
+        }
+        return (int) readBytes(offset, 4);
+    }
+
+    @Override
+    public void putInt(long offset, int value) throws OutOfBoundException {
+        checkBounds(offset, 4);
+        final int segmentOffset = (int) (offset & segmentMask);
+        if (segmentOffset + 4 <= segmentSize) {
+            segment(offset).putInt(segmentOffset, value);
+        } else {
+            writeBytes(offset, value, 4);
+        }
+    }
+
+    @Override
+    public long getLong(long offset) throws OutOfBoundException {
+        checkBounds(offset, 8);
+        final int segmentOffset = (int) (offset & segmentMask);
+        if (segmentOffset + 8 <= segmentSize) {
+            return segment(offset).getLong(segmentOffset);
+        }
+        return readBytes(offset, 8);
+    }
+
+    @Override
+    public void putLong(long offset, long value) throws OutOfBoundException {
+        checkBounds(offset, 8);
+        final int segmentOffset = (int) (offset & segmentMask);
+        if (segmentOffset + 8 <= segmentSize) {
+            segment(offset).putLong(segmentOffset, value);
+        } else {
+            writeBytes(offset, value, 8);
+        }
+    }
+
+    @Override
+    public double getDouble(long offset) throws OutOfBoundException {
+        return Double.longBitsToDouble(getLong(offset));
+    }
+
+    @Override
+    public void putDouble(long offset, double value) throws OutOfBoundException {
+        putLong(offset, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Writes the data to the segments, starting from the segment of the offset.
+     * The bounds should be checked already.
+     */
+    private void writeSegments(byte[] data, long offset, int dataOffset, int length) {
+        int segmentOffset = (int) (offset & segmentMask);
+        while (length > 0) {
+            final int segmentLength = Math.min(length, segmentSize - segmentOffset);
+            segment(offset).write(data, segmentOffset, dataOffset, segmentLength);
+
+            length -= segmentLength;
+            dataOffset += segmentLength;
+            offset += segmentLength;
+            segmentOffset = 0;
+        }
+    }
+
+    /**
+     * Reads the data from the segments, starting from the segment of the offset.
+     * The bounds should be checked already.
+     */
+    private void readSegments(byte[] data, long offset, int dataOffset, int length) {
+        int segmentOffset = (int) (offset & segmentMask);
+        while (length > 0) {
+            final int segmentLength = Math.min(length, segmentSize - segmentOffset);
+            segment(offset).read(data, segmentOffset, dataOffset, segmentLength);
+
+            length -= segmentLength;
+            dataOffset += segmentLength;
+            offset += segmentLength;
+            segmentOffset = 0;
+        }
+    }
+
+    private void checkBounds(long offset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset + length > size) {
+            throw new OutOfBoundException();
+        }
+    }
+
+    /**
+     * Reads the big-endian value that crosses the segment boundary byte by byte.
+     */
+    private long readBytes(long offset, int length) {
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result = (result << 8) | (read(offset + i) & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the big-endian value that crosses the segment boundary byte by byte.
+     */
+    private void writeBytes(long offset, long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            write((byte) value, offset + i);
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Gets the segment that contains the offset, the segment is mapped if it's not mapped yet.
+     *
+     * @param offset the offset within the storage.
+     * @return the segment storage.
+     */
+    private Storage segment(long offset) {
+        final int index = (int) (offset >>> segmentShift);
+        final Storage segment = segments.get(index);
+        if (segment != null) {
+            return segment;
+        }
+        return map(index);
+    }
+
+    private synchronized Storage map(int index) throws MemoryException {
+        final AtomicReferenceArray<Storage> segments = this.segments;
+
+        Storage segment = segments.get(index);
+        if (segment == null) {
+            final long begin = (long) index << segmentShift;
+            final long length = Math.min(segmentSize, size - begin);
+            try {
+                segment = new ByteBufferStorage(channel.map(mode, begin, length));
+            } catch (IOException e) {
+                throw new MemoryException("Error to map the file segment at " + begin, e);
+            }
+            segments.set(index, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Extends the file to specified size, if it's smaller. The file is extended by writing the last byte,
+     * so the file system doesn't need to allocate the space that is not written yet.
+     */
+    private static void extendFile(FileChannel channel, long size) throws MemoryException {
+        try {
+            if (size > 0 && channel.size() < size) {
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+        } catch (IOException e) {
+            throw new MemoryException("Error to extend the file to " + size + " bytes", e);
+        }
+    }
+}
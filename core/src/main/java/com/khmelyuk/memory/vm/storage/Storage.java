@@ -4,6 +4,9 @@ import com.khmelyuk.memory.OutOfBoundException;
 
 /**
  * The interface for the storage. Framework should support different types of storage, like byte array or ByteBuffers.
+ * <p/>
+ * The primitive values are stored in big-endian byte order, that is the default order of {@link java.nio.ByteBuffer},
+ * so they are read the same from any storage.
  *
  * @author Ruslan Khmelyuk
  */
@@ -14,7 +17,7 @@ public interface Storage {
      *
      * @return a storage size.
      */
-    int size();
+    long size();
 
     /**
      * Free the storage memory.
@@ -36,7 +39,7 @@ public interface Storage {
      * @param offset the offset to write from.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte[] data, int offset) throws OutOfBoundException;
+    void write(byte[] data, long offset) throws OutOfBoundException;
 
     /**
      * Writes the byte value directly to the virtual memory on specified offset.
@@ -45,7 +48,7 @@ public interface Storage {
      * @param offset the offset to write from.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte data, int offset) throws OutOfBoundException;
+    void write(byte data, long offset) throws OutOfBoundException;
 
     /**
      * Writes the byte array directly to the virtual memory
@@ -56,7 +59,7 @@ public interface Storage {
      * @param length the size of the data to write to.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte[] data, int offset, int length) throws OutOfBoundException;
+    void write(byte[] data, long offset, int length) throws OutOfBoundException;
 
     /**
      * Writes the byte array directly to the virtual memory
@@ -68,7 +71,7 @@ public interface Storage {
      * @param dataOffset the of data to read from.
      * @throws OutOfBoundException error to access the memory out of bound.
      */
-    void write(byte[] data, int offset, int dataOffset, int length) throws OutOfBoundException;
+    void write(byte[] data, long offset, int dataOffset, int length) throws OutOfBoundException;
 
     /**
      * Read data from virtual memory into byte array and returns the number of read bytes.
@@ -84,7 +87,7 @@ public interface Storage {
      * @param offset the offset.
      * @return the read byte.
      */
-    byte read(int offset);
+    byte read(long offset);
 
     /**
      * Read data from virtual memory into byte array from specified offset and with specified size.
@@ -94,7 +97,7 @@ public interface Storage {
      * @param length how many bytes to read into buffer.
      * @return the number of read bytes.
      */
-    int read(byte[] data, int offset, int length);
+    int read(byte[] data, long offset, int length);
 
     /**
      * Read data from virtual memory into byte array from specified offset and with specified size.
@@ -105,5 +108,77 @@ public interface Storage {
      * @param length     how many bytes to read into buffer.
      * @return the number of read bytes.
      */
-    int read(byte[] data, int offset, int dataOffset, int length);
+    int read(byte[] data, long offset, int dataOffset, int length);
+
+    /**
+     * Reads a short value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    short getShort(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes a short value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putShort(long offset, short value) throws OutOfBoundException;
+
+    /**
+     * Reads an int value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    int getInt(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes an int value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putInt(long offset, int value) throws OutOfBoundException;
+
+    /**
+     * Reads a long value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    long getLong(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes a long value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putLong(long offset, long value) throws OutOfBoundException;
+
+    /**
+     * Reads a double value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @return the read value.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    double getDouble(long offset) throws OutOfBoundException;
+
+    /**
+     * Writes a double value at specified offset.
+     *
+     * @param offset the offset of the value.
+     * @param value  the value to write.
+     * @throws OutOfBoundException error to access the memory out of bound.
+     */
+    void putDouble(long offset, double value) throws OutOfBoundException;
 }
@@ -17,5 +17,5 @@ public interface StorageFactory {
      * @return the created storage.
      * @throws MemoryException error to create a new storage.
      */
-    Storage create(int begin, int size) throws MemoryException;
+    Storage create(long begin, int size) throws MemoryException;
 }
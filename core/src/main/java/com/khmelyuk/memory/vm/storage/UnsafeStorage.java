@@ -0,0 +1,365 @@
+package com.khmelyuk.memory.vm.storage;
+
+import com.khmelyuk.memory.MemoryException;
+import com.khmelyuk.memory.OutOfBoundException;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An off-heap storage, the memory is allocated out of Java heap and is accessed by absolute addresses.
+ * Reads and writes copy the data directly between the byte array and the off-heap memory,
+ * so nothing is allocated per operation. The primitive values are accessed directly too, the bytes are swapped
+ * if the native byte order is not big-endian.
+ * <p/>
+ * The memory is released in {@link #free()}, it's not released by garbage collector,
+ * so the storage should be freed when it's not used anymore. Each access is counted before it checks the bounds,
+ * and {@link #free()} resets the size and waits till the counted accesses are done before the memory is released.
+ * So an access either completes before the memory is released, or fails the bounds check like an access
+ * after {@link #free()}: reads return -1 and other operations fail with {@link OutOfBoundException}.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public final class UnsafeStorage implements Storage {
+
+    /**
+     * Large copies are split, so the thread doesn't delay a safepoint for too long.
+     */
+    private static final long COPY_THRESHOLD = 1024 * 1024;
+
+    private static final boolean SWAP_BYTES = ByteOrder.nativeOrder() != ByteOrder.BIG_ENDIAN;
+
+    private static final Unsafe UNSAFE;
+    private static final long BYTE_ARRAY_OFFSET;
+
+    static {
+        Unsafe unsafe = null;
+        long offset = 0;
+        try {
+            final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = (Unsafe) field.get(null);
+            offset = unsafe.arrayBaseOffset(byte[].class);
+        } catch (Throwable e) {
+            unsafe = null;
+        }
+        UNSAFE = unsafe;
+        BYTE_ARRAY_OFFSET = offset;
+    }
+
+    /**
+     * Checks whether off-heap storage is supported by this JVM.
+     *
+     * @return true if supported.
+     */
+    public static boolean isSupported() {
+        return UNSAFE != null;
+    }
+
+    private volatile long address;
+    private volatile long size;
+
+    /**
+     * The number of accesses in progress, the memory is not released till they are done.
+     */
+    private final AtomicInteger accesses = new AtomicInteger();
+
+    /**
+     * Allocates the off-heap storage of specified size, the memory is filled with zeros.
+     *
+     * @param size the storage size.
+     * @throws MemoryException off-heap storage is not supported or memory can't be allocated.
+     */
+    public UnsafeStorage(long size) throws MemoryException {
+        if (UNSAFE == null) {
+            throw new MemoryException("Off-heap storage is not supported");
+        }
+        if (size < 0) {
+            throw new OutOfBoundException("Size can't be negative: " + size);
+        }
+
+        try {
+            this.address = UNSAFE.allocateMemory(size);
+        } catch (OutOfMemoryError e) {
+            throw new MemoryException("Error to allocate off-heap memory of size " + size, e);
+        }
+        UNSAFE.setMemory(address, size, (byte) 0);
+        this.size = size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void free() {
+        final long address = this.address;
+        if (address != 0) {
+            // the size is reset first, so the later accesses fail the bounds check
+            this.size = 0;
+            while (accesses.get() != 0) {
+                Thread.yield();
+            }
+            this.address = 0;
+            UNSAFE.freeMemory(address);
+        }
+    }
+
+    @Override
+    public void write(byte[] data) throws OutOfBoundException {
+        enter();
+        try {
+            if (data.length > size) {
+                throw new OutOfBoundException();
+            }
+
+            copyFromArray(data, 0, 0, data.length);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void write(byte[] data, long offset) throws OutOfBoundException {
+        enter();
+        try {
+            if (offset < 0 || offset >= size || data.length + offset > size) {
+                throw new OutOfBoundException();
+            }
+
+            copyFromArray(data, 0, offset, data.length);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void write(byte[] data, long offset, int length) throws OutOfBoundException {
+        enter();
+        try {
+            if (offset < 0 || offset >= size || length + offset > size || length > data.length) {
+                throw new OutOfBoundException();
+            }
+
+            copyFromArray(data, 0, offset, length);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void write(byte[] data, long offset, int dataOffset, int length) throws OutOfBoundException {
+        enter();
+        try {
+            if (offset < 0 || offset >= size || length + offset > size
+                    || dataOffset < 0 || length > data.length - dataOffset) {
+                throw new OutOfBoundException();
+            }
+
+            copyFromArray(data, dataOffset, offset, length);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void write(byte data, long offset) throws OutOfBoundException {
+        enter();
+        try {
+            if (offset < 0 || offset >= size) {
+                throw new OutOfBoundException();
+            }
+
+            UNSAFE.putByte(address + offset, data);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public int read(byte[] data) {
+        enter();
+        try {
+            int length = data.length;
+            if (length > size) {
+                length = (int) size;
+            }
+
+            copyToArray(0, data, 0, length);
+
+            return length;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public int read(byte[] data, long offset, int length) {
+        enter();
+        try {
+            if (data.length < length) {
+                length = data.length;
+            }
+            if (length <= 0 || offset < 0 || offset + length > size) {
+                return -1;
+            }
+
+            copyToArray(offset, data, 0, length);
+
+            return length;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public int read(byte[] data, long offset, int dataOffset, int length) {
+        enter();
+        try {
+            // the array bounds are checked before the copy, as it's not checked by the copy itself
+            if (dataOffset < 0 || length <= 0 || length > data.length - dataOffset
+                    || offset < 0 || offset + length > size) {
+                return -1;
+            }
+
+            copyToArray(offset, data, dataOffset, length);
+
+            return length;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public byte read(long offset) {
+        enter();
+        try {
+            if (offset < 0 || offset >= size) {
+                return -1;
+            }
+
+            return UNSAFE.getByte(address + offset);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public short getShort(long offset) throws OutOfBoundException {
+        enter();
+        try {
+            final short value = UNSAFE.getShort(address(offset, 2));
+            return SWAP_BYTES ? Short.reverseBytes(value) : value;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void putShort(long offset, short value) throws OutOfBoundException {
+        enter();
+        try {
+            UNSAFE.putShort(address(offset, 2), SWAP_BYTES ? Short.reverseBytes(value) : value);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public int getInt(long offset) throws OutOfBoundException {
+        enter();
+        try {
+            final int value = UNSAFE.getInt(address(offset, 4));
+            return SWAP_BYTES ? Integer.reverseBytes(value) : value;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void putInt(long offset, int value) throws OutOfBoundException {
+        enter();
+        try {
+            UNSAFE.putInt(address(offset, 4), SWAP_BYTES ? Integer.reverseBytes(value) : value);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public long getLong(long offset) throws OutOfBoundException {
+        enter();
+        try {
+            final long value = UNSAFE.getLong(address(offset, 8));
+            return SWAP_BYTES ? Long.reverseBytes(value) : value;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void putLong(long offset, long value) throws OutOfBoundException {
+        enter();
+        try {
+            UNSAFE.putLong(address(offset, 8), SWAP_BYTES ? Long.reverseBytes(value) : value);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public double getDouble(long offset) throws OutOfBoundException {
+        return Double.longBitsToDouble(getLong(offset));
+    }
+
+    @Override
+    public void putDouble(long offset, double value) throws OutOfBoundException {
+        putLong(offset, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Counts the access, so the memory is not released while it's in progress.
+     * The size is read after the access is counted, so an access that passes the bounds check is waited by free.
+     */
+    private void enter() {
+        accesses.incrementAndGet();
+    }
+
+    private void exit() {
+        accesses.decrementAndGet();
+    }
+
+    private long address(long offset, int length) throws OutOfBoundException {
+        if (offset < 0 || offset + length > size) {
+            throw new OutOfBoundException();
+        }
+        return address + offset;
+    }
+
+    private void copyFromArray(byte[] data, int dataOffset, long offset, int length) {
+        long src = BYTE_ARRAY_OFFSET + dataOffset;
+        long dst = address + offset;
+        while (length > 0) {
+            final long count = Math.min(length, COPY_THRESHOLD);
+            UNSAFE.copyMemory(data, src, null, dst, count);
+            length -= count;
+            src += count;
+            dst += count;
+        }
+    }
+
+    private void copyToArray(long offset, byte[] data, int dataOffset, int length) {
+        long src = address + offset;
+        long dst = BYTE_ARRAY_OFFSET + dataOffset;
+        while (length > 0) {
+            final long count = Math.min(length, COPY_THRESHOLD);
+            UNSAFE.copyMemory(null, src, data, dst, count);
+            length -= count;
+            src += count;
+            dst += count;
+        }
+    }
+}
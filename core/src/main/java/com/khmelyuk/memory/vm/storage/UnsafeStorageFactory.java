@@ -0,0 +1,20 @@
+package com.khmelyuk.memory.vm.storage;
+
+/**
+ * A factory for {@link UnsafeStorage}
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class UnsafeStorageFactory implements StorageFactory {
+
+    private static StorageFactory instance = new UnsafeStorageFactory();
+
+    public static StorageFactory getInstance() {
+        return instance;
+    }
+
+    @Override
+    public Storage create(long begin, int size) {
+        return new UnsafeStorage(size);
+    }
+}
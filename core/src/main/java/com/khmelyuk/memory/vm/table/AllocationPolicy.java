@@ -0,0 +1,46 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * The policy to choose the free block to allocate from.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public enum AllocationPolicy {
+
+    /**
+     * The first free block that is large enough. The fastest, as the search stops on the first fit block.
+     */
+    FirstFit("firstFit"),
+
+    /**
+     * The first free block that is large enough, starting from the block where the last search stopped.
+     * Spreads allocations over the free list, so small fragments are not accumulated at the beginning of it.
+     */
+    NextFit("nextFit"),
+
+    /**
+     * The smallest free block that is large enough. Leaves the smallest fragments, but searches the whole list.
+     */
+    BestFit("bestFit"),
+
+    /**
+     * The largest free block. Leaves the largest fragments, so they are more likely to be used,
+     * but searches the whole list.
+     */
+    WorstFit("worstFit");
+
+    private final String name;
+
+    private AllocationPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the policy name, used in the names of metrics.
+     *
+     * @return the policy name.
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,365 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.concurrency.StripedCounter;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual memory table that splits the address space into a number of arenas.
+ * Each arena has it's own table that covers it's own address range, so threads that use different arenas
+ * don't share table locks.
+ * <p/>
+ * Threads are assigned to arenas round-robin. If the arena of the thread can't allocate a block,
+ * other arenas are tried. Freed block goes back to the arena it was allocated from, whatever thread frees it.
+ * When the table is increased, the new address range is added to the last arena.
+ * <p/>
+ * Arenas start at addresses aligned to {@link #ARENA_ALIGNMENT}, if arenas are not smaller than it,
+ * so aligned blocks can be allocated from any arena. Larger alignments are served by arenas
+ * which start address is aligned, the first arena at least.
+ * <p/>
+ * Arenas are addressed with long offsets, so tables that keep addresses as int can cover
+ * more than 2 GB together, as long as each arena is not larger than 2 GB.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class ArenaVirtualMemoryTable implements VirtualMemoryTable {
+
+    public static final int ARENA_ALIGNMENT = 4096;
+
+    private final int arenasCount;
+    private final VirtualMemoryTableFactory tableFactory;
+
+    private volatile Arena[] arenas;
+
+    private final AtomicInteger nextArena = new AtomicInteger();
+    private final ThreadLocal<Integer> threadArena = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return (nextArena.getAndIncrement() & Integer.MAX_VALUE) % arenasCount;
+        }
+    };
+
+    private final StripedCounter totalAllocations = new StripedCounter();
+    private final StripedCounter failedAllocations = new StripedCounter();
+    private final StripedCounter totalFrees = new StripedCounter();
+    private final StripedCounter failedFrees = new StripedCounter();
+    private final StripedCounter fallbacks = new StripedCounter();
+
+    private final Metrics metrics;
+
+    /**
+     * @param size         the size of the table.
+     * @param arenasCount  the number of arenas.
+     * @param tableFactory the factory to create the table for each arena.
+     * @throws MemoryException error to create a table for arena.
+     */
+    public ArenaVirtualMemoryTable(long size, int arenasCount, VirtualMemoryTableFactory tableFactory) {
+        if (arenasCount <= 0) {
+            throw new IllegalArgumentException("Arenas count should be positive: " + arenasCount);
+        }
+
+        this.arenasCount = arenasCount;
+        this.tableFactory = tableFactory;
+        this.arenas = createArenas(size);
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.arenas", arenasCount);
+        metrics.addValueMetric("vmtable.arenaFallbacks");
+        for (int i = 0; i < arenasCount; i++) {
+            metrics.addValueMetric("vmtable.arenas." + i + ".freeSize");
+            metrics.addValueMetric("vmtable.arenas." + i + ".usedSize");
+        }
+    }
+
+    private Arena[] createArenas(long size) {
+        final Arena[] result = new Arena[arenasCount];
+        long arenaSize = size / arenasCount;
+        if (arenaSize >= ARENA_ALIGNMENT) {
+            arenaSize &= -ARENA_ALIGNMENT;
+        }
+        for (int i = 0; i < arenasCount; i++) {
+            // the last arena takes the rest
+            final long each = (i == arenasCount - 1 ? size - arenaSize * i : arenaSize);
+            result[i] = new Arena(i, i * arenaSize, each, tableFactory.create(each));
+        }
+        return result;
+    }
+
+    public int getArenasCount() {
+        return arenasCount;
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        final List<Block> result = new ArrayList<>();
+        for (Arena arena : arenas) {
+            for (Block each : arena.table.getUsed()) {
+                result.add(new TableBlock(arena.offset + each.getAddress(), each.getSize()));
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        final List<Block> result = new ArrayList<>();
+        for (Arena arena : arenas) {
+            for (Block each : arena.table.getFree()) {
+                result.add(new TableBlock(arena.offset + each.getAddress(), each.getSize()));
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        long freeBlocks = 0;
+        long usedBlocks = 0;
+        final Arena[] arenas = this.arenas;
+        for (int i = 0; i < arenas.length; i++) {
+            final VirtualMemoryTable table = arenas[i].table;
+            freeBlocks += table.getFree().size();
+            usedBlocks += table.getUsed().size();
+
+            metrics.mark("vmtable.arenas." + i + ".freeSize", table.getFreeMemorySize());
+            metrics.mark("vmtable.arenas." + i + ".usedSize", table.getUsedMemorySize());
+        }
+
+        metrics.mark("vmtable.totalAllocations", totalAllocations.sum());
+        metrics.mark("vmtable.failedAllocations", failedAllocations.sum());
+        metrics.mark("vmtable.totalFrees", totalFrees.sum());
+        metrics.mark("vmtable.failedFrees", failedFrees.sum());
+        metrics.mark("vmtable.arenaFallbacks", fallbacks.sum());
+        metrics.mark("vmtable.freeSize", getFreeMemorySize());
+        metrics.mark("vmtable.usedSize", getUsedMemorySize());
+        metrics.mark("vmtable.freeBlocksCount", freeBlocks);
+        metrics.mark("vmtable.usedBlocksCount", usedBlocks);
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        totalAllocations.increment();
+
+        final Arena[] arenas = this.arenas;
+        final int first = threadArena.get();
+        for (int i = 0; i < arenas.length; i++) {
+            final Arena arena = arenas[(first + i) % arenas.length];
+            final Block block = arena.table.allocate(size);
+            if (block != null) {
+                if (i != 0) {
+                    fallbacks.increment();
+                }
+                return new ArenaBlock(arena, block);
+            }
+        }
+
+        failedAllocations.increment();
+        return null;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+
+        totalAllocations.increment();
+
+        final Arena[] arenas = this.arenas;
+        final int first = threadArena.get();
+        for (int i = 0; i < arenas.length; i++) {
+            final Arena arena = arenas[(first + i) % arenas.length];
+            if (TableAlignment.padding(arena.offset, alignment) != 0) {
+                // block aligned in the arena is not aligned in the table
+                continue;
+            }
+            final Block block = arena.table.allocate(size, alignment);
+            if (block != null) {
+                if (i != 0) {
+                    fallbacks.increment();
+                }
+                return new ArenaBlock(arena, block);
+            }
+        }
+
+        failedAllocations.increment();
+        return null;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        totalFrees.increment();
+
+        if (block instanceof ArenaBlock) {
+            final ArenaBlock arenaBlock = (ArenaBlock) block;
+            if (isOwnArena(arenaBlock.arena) && arenaBlock.arena.table.free(arenaBlock.block)) {
+                arenaBlock.clear();
+                return true;
+            }
+        }
+
+        failedFrees.increment();
+        return false;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        // the block is resized within it's arena
+        if (block instanceof ArenaBlock) {
+            final ArenaBlock arenaBlock = (ArenaBlock) block;
+            if (isOwnArena(arenaBlock.arena) && arenaBlock.arena.table.resize(arenaBlock.block, size)) {
+                arenaBlock.size = size;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isOwnArena(Arena arena) {
+        final Arena[] arenas = this.arenas;
+        return arena.index < arenas.length && arenas[arena.index] == arena;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        return TableBatches.allocateAll(this, sizes);
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        return TableBatches.freeAll(this, blocks);
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        long result = 0;
+        for (Arena each : arenas) {
+            result += each.table.getFreeMemorySize();
+        }
+        return result;
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        long result = 0;
+        for (Arena each : arenas) {
+            result += each.table.getUsedMemorySize();
+        }
+        return result;
+    }
+
+    @Override
+    public void reset(long size) {
+        metrics.reset();
+        metrics.mark("vmtable.arenas", arenasCount);
+
+        arenas = createArenas(size);
+
+        totalAllocations.reset();
+        failedAllocations.reset();
+        totalFrees.reset();
+        failedFrees.reset();
+        fallbacks.reset();
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        final Arena last = arenas[arenasCount - 1];
+        final long increase = size - (last.offset + last.size);
+        return increase > 0 && last.table.canIncreaseSize(last.size + increase);
+    }
+
+    @Override
+    public synchronized void increaseSize(long size) {
+        final Arena last = arenas[arenasCount - 1];
+        final long increase = size - (last.offset + last.size);
+        if (increase > 0) {
+            last.table.increaseSize(last.size + increase);
+            last.size += increase;
+        }
+        metrics.increment("vmtable.increases");
+    }
+
+    // ---------- internal structures
+
+    private static final class Arena {
+
+        final int index;
+        final long offset;
+        final VirtualMemoryTable table;
+
+        volatile long size;
+
+        Arena(int index, long offset, long size, VirtualMemoryTable table) {
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+            this.table = table;
+        }
+    }
+
+    private static final class ArenaBlock implements Block {
+
+        final Arena arena;
+        final Block block;
+
+        volatile long address;
+        volatile long size;
+
+        ArenaBlock(Arena arena, Block block) {
+            this.arena = arena;
+            this.block = block;
+            this.address = arena.offset + block.getAddress();
+            this.size = block.getSize();
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        void clear() {
+            address = 0;
+            size = 0;
+        }
+    }
+}
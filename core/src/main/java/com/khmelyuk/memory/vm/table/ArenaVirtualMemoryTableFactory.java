@@ -0,0 +1,32 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+
+/**
+ * A factory for {@link ArenaVirtualMemoryTable}, the table of each arena is created with other factory.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class ArenaVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new ArenaVirtualMemoryTableFactory(
+            Runtime.getRuntime().availableProcessors(),
+            LinkedVirtualMemoryTableFactory.getInstance());
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    private final int arenas;
+    private final VirtualMemoryTableFactory tableFactory;
+
+    public ArenaVirtualMemoryTableFactory(int arenas, VirtualMemoryTableFactory tableFactory) {
+        this.arenas = arenas;
+        this.tableFactory = tableFactory;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) throws MemoryException {
+        return new ArenaVirtualMemoryTable(size, arenas, tableFactory);
+    }
+}
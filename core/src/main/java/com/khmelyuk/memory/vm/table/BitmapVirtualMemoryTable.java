@@ -0,0 +1,571 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.concurrency.StripedCounter;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Virtual memory table that allocates small blocks from pages with occupancy bitmaps, in front of other table.
+ * <p/>
+ * Pages are allocated as blocks from the underlying table. Each page is split into units of {@link #UNIT} bytes,
+ * and each unit has one bit in the bitmap of the page, so the small block doesn't need any other metadata in the table.
+ * The small block takes a run of units within a single word of the bitmap. Free run is found with
+ * {@link Long#numberOfTrailingZeros(long)} and is marked with CAS on the word, so allocation and free
+ * of small blocks are lock-free. The lock is taken only to add a new page.
+ * <p/>
+ * Blocks larger than {@link #MAX_SMALL_SIZE} are allocated from the table directly.
+ * When the table fails to allocate a block, empty pages are returned back to the table and allocation is retried.
+ * Free units of pages are free for this table, but used for the underlying table.
+ * Aligned blocks are allocated from the underlying table.
+ * Small block is resized in place within it's units, other blocks are resized by the underlying table.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class BitmapVirtualMemoryTable implements VirtualMemoryTable {
+
+    public static final int MAX_SMALL_SIZE = 256;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    static final int UNIT = 16;
+
+    private static final int UNITS_PER_WORD = 64;
+    private static final long LOCKED = -1L;
+
+    private final VirtualMemoryTable table;
+    private final int pageSize;
+    private final int wordsPerPage;
+
+    private volatile Page[] pages = new Page[0];
+    private volatile int lastPage;
+    private final Object pagesLock = new Object();
+
+    private final StripedCounter usedSize = new StripedCounter();
+    private final StripedCounter usedBlocks = new StripedCounter();
+    private final StripedCounter totalAllocations = new StripedCounter();
+    private final StripedCounter failedAllocations = new StripedCounter();
+    private final StripedCounter totalFrees = new StripedCounter();
+    private final StripedCounter failedFrees = new StripedCounter();
+    private final StripedCounter smallAllocations = new StripedCounter();
+    private final StripedCounter releasedPages = new StripedCounter();
+
+    private final Metrics metrics;
+
+    public BitmapVirtualMemoryTable(VirtualMemoryTable table) {
+        this(table, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param table    the table to allocate pages and large blocks from.
+     * @param pageSize the size of page, should be a multiple of 1024.
+     */
+    public BitmapVirtualMemoryTable(VirtualMemoryTable table, int pageSize) {
+        if (pageSize <= 0 || pageSize % (UNIT * UNITS_PER_WORD) != 0) {
+            throw new IllegalArgumentException("Page size should be a positive multiple of "
+                    + (UNIT * UNITS_PER_WORD) + ": " + pageSize);
+        }
+
+        this.table = table;
+        this.pageSize = pageSize;
+        this.wordsPerPage = pageSize / (UNIT * UNITS_PER_WORD);
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.bitmap.pages");
+        metrics.addValueMetric("vmtable.bitmap.smallAllocations");
+        metrics.addValueMetric("vmtable.bitmap.releasedPages");
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Gets the number of pages used for small blocks.
+     *
+     * @return the number of pages.
+     */
+    public int getPagesCount() {
+        int result = 0;
+        for (Page each : pages) {
+            if (each != null) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        final Set<Block> pageBlocks = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+        final List<Block> result = new ArrayList<>();
+        for (Page each : pages) {
+            if (each != null) {
+                pageBlocks.add(each.block);
+                each.collect(result, true);
+            }
+        }
+        for (Block each : table.getUsed()) {
+            if (!pageBlocks.contains(each)) {
+                result.add(each);
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        final List<Block> result = new ArrayList<>(table.getFree());
+        for (Page each : pages) {
+            if (each != null) {
+                each.collect(result, false);
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        long freeBlocks = table.getFree().size();
+        for (Page each : pages) {
+            if (each != null) {
+                freeBlocks += each.freeRunsCount();
+            }
+        }
+
+        metrics.mark("vmtable.totalAllocations", totalAllocations.sum());
+        metrics.mark("vmtable.failedAllocations", failedAllocations.sum());
+        metrics.mark("vmtable.totalFrees", totalFrees.sum());
+        metrics.mark("vmtable.failedFrees", failedFrees.sum());
+        metrics.mark("vmtable.freeSize", getFreeMemorySize());
+        metrics.mark("vmtable.usedSize", getUsedMemorySize());
+        metrics.mark("vmtable.freeBlocksCount", freeBlocks);
+        metrics.mark("vmtable.usedBlocksCount", usedBlocks.sum());
+        metrics.mark("vmtable.bitmap.pages", getPagesCount());
+        metrics.mark("vmtable.bitmap.smallAllocations", smallAllocations.sum());
+        metrics.mark("vmtable.bitmap.releasedPages", releasedPages.sum());
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        totalAllocations.increment();
+
+        Block result = null;
+        if (size <= MAX_SMALL_SIZE) {
+            result = allocateSmall(size);
+        }
+        if (result == null) {
+            result = table.allocate(size);
+            if (result == null && releaseEmptyPages()) {
+                result = table.allocate(size);
+            }
+        }
+
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedSize.add(size);
+        usedBlocks.increment();
+
+        return result;
+    }
+
+    private Block allocateSmall(int size) {
+        final int units = (size + UNIT - 1) / UNIT;
+        while (true) {
+            final Page[] pages = this.pages;
+            final int first = lastPage;
+            for (int i = 0; i < pages.length; i++) {
+                final int index = (first + i) % pages.length;
+                final Page page = pages[index];
+                if (page != null) {
+                    final Block result = page.allocate(this, units, size);
+                    if (result != null) {
+                        if (index != first) {
+                            lastPage = index;
+                        }
+                        smallAllocations.increment();
+                        return result;
+                    }
+                }
+            }
+
+            synchronized (pagesLock) {
+                // other thread has changed pages since the scan, so scan again
+                if (pages != this.pages) {
+                    continue;
+                }
+                if (!addPage()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocates a new page from the underlying table. Called under the pages lock.
+     *
+     * @return true if page was added.
+     */
+    private boolean addPage() {
+        Block block = table.allocate(pageSize);
+        if (block == null) {
+            return false;
+        }
+
+        Page[] pages = this.pages;
+        int index = 0;
+        while (index < pages.length && pages[index] != null) {
+            index++;
+        }
+        if (index == pages.length) {
+            Page[] copy = new Page[pages.length + 1];
+            System.arraycopy(pages, 0, copy, 0, pages.length);
+            pages = copy;
+        } else {
+            pages = pages.clone();
+        }
+        pages[index] = new Page(index, block, wordsPerPage);
+
+        lastPage = index;
+        this.pages = pages;
+        return true;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+        if (alignment == 1) {
+            return allocate(size);
+        }
+
+        totalAllocations.increment();
+
+        // aligned blocks are allocated from the table
+        Block result = table.allocate(size, alignment);
+        if (result == null && releaseEmptyPages()) {
+            result = table.allocate(size, alignment);
+        }
+
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedSize.add(size);
+        usedBlocks.increment();
+
+        return result;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        totalFrees.increment();
+
+        final long size = block.getSize();
+        final boolean result;
+        if (block instanceof BitmapBlock) {
+            result = freeSmall((BitmapBlock) block);
+        } else {
+            result = table.free(block);
+        }
+
+        if (!result) {
+            failedFrees.increment();
+            return false;
+        }
+
+        usedSize.add(-size);
+        usedBlocks.decrement();
+
+        return true;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (block == null) {
+            return false;
+        }
+
+        final long oldSize = block.getSize();
+        if (block instanceof BitmapBlock) {
+            // the small block can be resized within it's units only
+            final BitmapBlock bitmapBlock = (BitmapBlock) block;
+            if (bitmapBlock.table != this || bitmapBlock.freed != 0
+                    || size > Long.bitCount(bitmapBlock.mask) * UNIT) {
+                return false;
+            }
+            bitmapBlock.size = size;
+        } else if (!table.resize(block, size)) {
+            return false;
+        }
+
+        usedSize.add(size - oldSize);
+
+        return true;
+    }
+
+    private boolean freeSmall(BitmapBlock block) {
+        final Page page = block.page;
+        final Page[] pages = this.pages;
+        if (block.table != this || page.index >= pages.length || pages[page.index] != page || !block.markFreed()) {
+            return false;
+        }
+
+        page.release(block.word, block.mask);
+        return true;
+    }
+
+    /**
+     * Returns pages without used blocks back to the table.
+     * Each word of the page is locked with CAS, so concurrent allocations skip the page while it's released.
+     *
+     * @return true if any page was returned.
+     */
+    private boolean releaseEmptyPages() {
+        boolean result = false;
+        synchronized (pagesLock) {
+            final Page[] pages = this.pages.clone();
+            for (int i = 0; i < pages.length; i++) {
+                final Page page = pages[i];
+                if (page != null && page.lock()) {
+                    pages[i] = null;
+                    table.free(page.block);
+                    releasedPages.increment();
+                    result = true;
+                }
+            }
+            if (result) {
+                this.pages = pages;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        return TableBatches.allocateAll(this, sizes);
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        return TableBatches.freeAll(this, blocks);
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return table.getFreeMemorySize() + table.getUsedMemorySize() - usedSize.sum();
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedSize.sum();
+    }
+
+    @Override
+    public void reset(long size) {
+        metrics.reset();
+
+        synchronized (pagesLock) {
+            pages = new Page[0];
+            lastPage = 0;
+            table.reset(size);
+        }
+
+        usedSize.reset();
+        usedBlocks.reset();
+        totalAllocations.reset();
+        failedAllocations.reset();
+        totalFrees.reset();
+        failedFrees.reset();
+        smallAllocations.reset();
+        releasedPages.reset();
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return table.canIncreaseSize(size);
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        table.increaseSize(size);
+        metrics.increment("vmtable.increases");
+    }
+
+    // ---------- internal structures
+
+    /**
+     * Finds the lowest run of {@code units} free units in the word.
+     *
+     * @return the index of the first unit of the run, or -1 if there is no such run.
+     */
+    static int findFreeRun(long word, int units) {
+        final long free = ~word;
+        long starts = free;
+        for (int i = 1; i < units && starts != 0; i++) {
+            starts &= free >>> i;
+        }
+        return starts != 0 ? Long.numberOfTrailingZeros(starts) : -1;
+    }
+
+    private static final class Page {
+
+        final int index;
+        final Block block;
+        final AtomicLongArray bitmap;
+
+        Page(int index, Block block, int words) {
+            this.index = index;
+            this.block = block;
+            this.bitmap = new AtomicLongArray(words);
+        }
+
+        Block allocate(BitmapVirtualMemoryTable table, int units, int size) {
+            final long runMask = (1L << units) - 1;
+            for (int i = 0; i < bitmap.length(); i++) {
+                long word = bitmap.get(i);
+                int unit;
+                while ((unit = findFreeRun(word, units)) != -1) {
+                    final long mask = runMask << unit;
+                    if (bitmap.compareAndSet(i, word, word | mask)) {
+                        final long address = block.getAddress() + (i * UNITS_PER_WORD + unit) * UNIT;
+                        return new BitmapBlock(table, this, i, mask, address, size);
+                    }
+                    word = bitmap.get(i);
+                }
+            }
+            return null;
+        }
+
+        void release(int index, long mask) {
+            long word;
+            do {
+                word = bitmap.get(index);
+            } while (!bitmap.compareAndSet(index, word, word & ~mask));
+        }
+
+        /**
+         * Locks all words of empty page, so nothing can be allocated from it.
+         *
+         * @return true if page was empty and is locked now.
+         */
+        boolean lock() {
+            for (int i = 0; i < bitmap.length(); i++) {
+                if (!bitmap.compareAndSet(i, 0, LOCKED)) {
+                    // rollback words locked so far
+                    for (int j = 0; j < i; j++) {
+                        bitmap.set(j, 0);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Collects the used or free runs of units as blocks.
+         * Adjacent used blocks can't be distinguished by bitmap, so they are collected as a single block.
+         */
+        void collect(Collection<Block> result, boolean used) {
+            int start = -1;
+            final int units = bitmap.length() * UNITS_PER_WORD;
+            for (int unit = 0; unit <= units; unit++) {
+                final boolean match = unit < units
+                        && ((bitmap.get(unit / UNITS_PER_WORD) >>> (unit % UNITS_PER_WORD)) & 1) == (used ? 1 : 0);
+                if (match && start == -1) {
+                    start = unit;
+                } else if (!match && start != -1) {
+                    result.add(new TableBlock(block.getAddress() + start * UNIT, (unit - start) * UNIT));
+                    start = -1;
+                }
+            }
+        }
+
+        int freeRunsCount() {
+            final List<Block> free = new ArrayList<>();
+            collect(free, false);
+            return free.size();
+        }
+    }
+
+    private static final class BitmapBlock implements Block {
+
+        private static final AtomicIntegerFieldUpdater<BitmapBlock> FREED =
+                AtomicIntegerFieldUpdater.newUpdater(BitmapBlock.class, "freed");
+
+        final BitmapVirtualMemoryTable table;
+        final Page page;
+        final int word;
+        final long mask;
+
+        volatile long address;
+        volatile int size;
+        volatile int freed;
+
+        BitmapBlock(BitmapVirtualMemoryTable table, Page page, int word, long mask, long address, int size) {
+            this.table = table;
+            this.page = page;
+            this.word = word;
+            this.mask = mask;
+            this.address = address;
+            this.size = size;
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        boolean markFreed() {
+            if (FREED.compareAndSet(this, 0, 1)) {
+                address = 0;
+                size = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+
+/**
+ * A factory for {@link BitmapVirtualMemoryTable}, the underlying table is created with other factory.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class BitmapVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance =
+            new BitmapVirtualMemoryTableFactory(LinkedVirtualMemoryTableFactory.getInstance());
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    private final VirtualMemoryTableFactory tableFactory;
+    private final int pageSize;
+
+    public BitmapVirtualMemoryTableFactory(VirtualMemoryTableFactory tableFactory) {
+        this(tableFactory, BitmapVirtualMemoryTable.DEFAULT_PAGE_SIZE);
+    }
+
+    public BitmapVirtualMemoryTableFactory(VirtualMemoryTableFactory tableFactory, int pageSize) {
+        this.tableFactory = tableFactory;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) throws MemoryException {
+        return new BitmapVirtualMemoryTable(tableFactory.create(size), pageSize);
+    }
+}
@@ -12,12 +12,12 @@ public interface Block {
      *
      * @return the address block.
      */
-    int getAddress();
+    long getAddress();
 
     /**
      * Gets the block size.
      *
      * @return the block size.
      */
-    int getSize();
+    long getSize();
 }
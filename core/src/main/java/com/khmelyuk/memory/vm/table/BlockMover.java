@@ -0,0 +1,19 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * Moves the content of a block, when the block is relocated by the table.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public interface BlockMover {
+
+    /**
+     * Moves the content of the block to the new address.
+     * The source and the target can overlap.
+     *
+     * @param from   the current address of the block.
+     * @param to     the new address of the block.
+     * @param length the size of the block.
+     */
+    void move(long from, long to, int length);
+}
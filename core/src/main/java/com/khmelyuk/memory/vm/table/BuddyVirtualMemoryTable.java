@@ -0,0 +1,526 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+import com.khmelyuk.memory.metrics.TimeContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Virtual memory table based on the binary buddy system.
+ * <p/>
+ * Each block size is rounded up to the power of two, but not less than min block size.
+ * Each order has it's own free list, so the block is allocated by splitting the smallest free block
+ * that is large enough, and freed block is merged with it's buddy while the buddy is free.
+ * The buddy address is found with address arithmetic, so both allocate and free are O(log n).
+ * <p/>
+ * If memory size is not a power of two, it's split into aligned power of two blocks;
+ * the tail that is less than min block size can't be allocated till the table is increased.
+ * <p/>
+ * Used memory size counts the requested size, while the rounding overhead is reported
+ * with {@code vmtable.internalFragmentation} metric. Free memory size is the size of free blocks.
+ * <p/>
+ * Blocks are aligned to their size, so aligned block is allocated as a block of order not less than the alignment.
+ * Block is resized in place only within it's order.
+ * <p/>
+ * Addresses are kept as int, so the table can't be larger than 2 GB.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class BuddyVirtualMemoryTable implements VirtualMemoryTable {
+
+    public static final int DEFAULT_MIN_BLOCK_SIZE = 16;
+
+    private static final int MAX_ORDER = 30;
+
+    private final int minOrder;
+
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The addresses of free blocks for each order.
+     */
+    private final Set<Integer>[] free;
+    private final Map<Integer, BuddyBlock> used = new HashMap<>();
+
+    private volatile int size;
+
+    /**
+     * The size that is split into blocks, it's the size rounded down to the min block size.
+     */
+    private int coveredSize;
+
+    private volatile int freeMemorySize;
+    private volatile int usedMemorySize;
+    private volatile long internalFragmentation;
+    private int freeBlocksCount;
+
+    private final Metrics metrics;
+
+    public BuddyVirtualMemoryTable(int size) {
+        this(size, DEFAULT_MIN_BLOCK_SIZE);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BuddyVirtualMemoryTable(int size, int minBlockSize) {
+        if (minBlockSize <= 0 || Integer.bitCount(minBlockSize) != 1) {
+            throw new IllegalArgumentException("Min block size should be a power of two: " + minBlockSize);
+        }
+
+        this.minOrder = Integer.numberOfTrailingZeros(minBlockSize);
+        this.free = new Set[MAX_ORDER + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new LinkedHashSet<>();
+        }
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.splits");
+        metrics.addValueMetric("vmtable.merges");
+        metrics.addValueMetric("vmtable.internalFragmentation");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addTimerMetric("vmtable.allocationTime");
+        metrics.addTimerMetric("vmtable.freeTime");
+
+        reset(size);
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        lock.lock();
+        try {
+            return Collections.<Block>unmodifiableCollection(new ArrayList<>(used.values()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        lock.lock();
+        try {
+            final List<Block> result = new ArrayList<>(freeBlocksCount);
+            for (int order = minOrder; order <= MAX_ORDER; order++) {
+                for (Integer each : free[order]) {
+                    result.add(new TableBlock(each, 1 << order));
+                }
+            }
+            return Collections.unmodifiableCollection(result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        lock.lock();
+        try {
+            metrics.mark("vmtable.freeSize", freeMemorySize);
+            metrics.mark("vmtable.usedSize", usedMemorySize);
+            metrics.mark("vmtable.freeBlocksCount", freeBlocksCount);
+            metrics.mark("vmtable.usedBlocksCount", used.size());
+            metrics.mark("vmtable.internalFragmentation", internalFragmentation);
+        } finally {
+            lock.unlock();
+        }
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        metrics.increment("vmtable.totalAllocations");
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        final int order = getOrder(size);
+        BuddyBlock result = null;
+        if (order <= MAX_ORDER) {
+            lock.lock();
+            try {
+                result = allocateBlock(order, size);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        timer.stop();
+
+        if (result == null) {
+            metrics.increment("vmtable.failedAllocations");
+        }
+
+        return result;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+
+        metrics.increment("vmtable.totalAllocations");
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        // the block of order is aligned to 2^order
+        final int order = Math.max(getOrder(size), Integer.numberOfTrailingZeros(alignment));
+        BuddyBlock result = null;
+        if (order <= MAX_ORDER) {
+            lock.lock();
+            try {
+                result = allocateBlock(order, size);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        timer.stop();
+
+        if (result == null) {
+            metrics.increment("vmtable.failedAllocations");
+        }
+
+        return result;
+    }
+
+    private BuddyBlock allocateBlock(int order, int size) {
+        int current = order;
+        while (current <= MAX_ORDER && free[current].isEmpty()) {
+            current++;
+        }
+        if (current > MAX_ORDER) {
+            return null;
+        }
+
+        final int address = removeFirstFree(current);
+
+        // split the block and put the upper halves to the free lists
+        while (current > order) {
+            current--;
+            addFree(address + (1 << current), current);
+            metrics.increment("vmtable.splits");
+        }
+
+        final BuddyBlock result = new BuddyBlock(this, address, size, order);
+        used.put(address, result);
+
+        freeMemorySize -= 1 << order;
+        usedMemorySize += size;
+        internalFragmentation += (1 << order) - size;
+
+        return result;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (!(block instanceof BuddyBlock) || ((BuddyBlock) block).table != this) {
+            return false;
+        }
+
+        // the block can be resized within it's order only
+        final BuddyBlock buddyBlock = (BuddyBlock) block;
+        lock.lock();
+        try {
+            if (buddyBlock.freed || used.get(buddyBlock.address) != buddyBlock || size > 1 << buddyBlock.order) {
+                return false;
+            }
+
+            final int delta = size - buddyBlock.size;
+            usedMemorySize += delta;
+            internalFragmentation -= delta;
+            buddyBlock.size = size;
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        TableBatches.checkSizes(sizes);
+
+        metrics.increment("vmtable.totalAllocations", sizes.length);
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        final BuddyBlock[] result = new BuddyBlock[sizes.length];
+        boolean allocated = true;
+        lock.lock();
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                final int order = getOrder(sizes[i]);
+                result[i] = (order <= MAX_ORDER ? allocateBlock(order, sizes[i]) : null);
+                if (result[i] == null) {
+                    // rollback
+                    for (int j = i - 1; j >= 0; j--) {
+                        freeBlock(result[j]);
+                    }
+                    allocated = false;
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        if (!allocated) {
+            metrics.increment("vmtable.failedAllocations");
+            return null;
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        metrics.increment("vmtable.totalFrees");
+
+        TimeContext timer = metrics.getTimer("vmtable.freeTime");
+        timer.start();
+
+        boolean result = false;
+        if (block instanceof BuddyBlock && ((BuddyBlock) block).table == this) {
+            lock.lock();
+            try {
+                result = freeBlock((BuddyBlock) block);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        timer.stop();
+
+        if (!result) {
+            metrics.increment("vmtable.failedFrees");
+        }
+
+        return result;
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        metrics.increment("vmtable.totalFrees", blocks.size());
+
+        TimeContext timer = metrics.getTimer("vmtable.freeTime");
+        timer.start();
+
+        int result = 0;
+        lock.lock();
+        try {
+            for (Block each : blocks) {
+                if (each instanceof BuddyBlock && ((BuddyBlock) each).table == this && freeBlock((BuddyBlock) each)) {
+                    result++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        metrics.increment("vmtable.failedFrees", blocks.size() - result);
+
+        return result;
+    }
+
+    private boolean freeBlock(BuddyBlock block) {
+        if (block.freed || used.get(block.address) != block) {
+            return false;
+        }
+        used.remove(block.address);
+
+        final int order = block.order;
+        freeMemorySize += 1 << order;
+        usedMemorySize -= block.size;
+        internalFragmentation -= (1 << order) - block.size;
+
+        mergeFree(block.address, order);
+
+        block.freed = true;
+        block.address = 0;
+        block.size = 0;
+
+        return true;
+    }
+
+    /**
+     * Adds the free block, merging it with it's buddy while the buddy is free too.
+     *
+     * @param address the address of the free block.
+     * @param order   the order of the free block.
+     */
+    private void mergeFree(int address, int order) {
+        while (order < MAX_ORDER) {
+            final int buddy = address ^ (1 << order);
+            if (!free[order].remove(buddy)) {
+                break;
+            }
+            freeBlocksCount--;
+            address = Math.min(address, buddy);
+            order++;
+            metrics.increment("vmtable.merges");
+        }
+        addFree(address, order);
+    }
+
+    /**
+     * Splits the memory range into the largest aligned blocks and adds them to the free lists.
+     *
+     * @param from the start address of the range, should be aligned to the min block size.
+     * @param to   the end address of the range.
+     * @return the end of the last added block.
+     */
+    private int addFreeRange(int from, int to) {
+        int address = from;
+        while (to - address >= 1 << minOrder) {
+            int order = Math.min(Integer.numberOfTrailingZeros(address), MAX_ORDER);
+            order = Math.min(order, 31 - Integer.numberOfLeadingZeros(to - address));
+
+            mergeFree(address, order);
+            freeMemorySize += 1 << order;
+            address += 1 << order;
+        }
+        return address;
+    }
+
+    private void addFree(int address, int order) {
+        free[order].add(address);
+        freeBlocksCount++;
+    }
+
+    private int removeFirstFree(int order) {
+        final Iterator<Integer> iterator = free[order].iterator();
+        final int result = iterator.next();
+        iterator.remove();
+        freeBlocksCount--;
+        return result;
+    }
+
+    private int getOrder(int size) {
+        if (size > 1 << MAX_ORDER) {
+            return MAX_ORDER + 1;
+        }
+        return Math.max(minOrder, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return freeMemorySize;
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedMemorySize;
+    }
+
+    @Override
+    public void reset(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        metrics.reset();
+
+        lock.lock();
+        try {
+            for (Set<Integer> each : free) {
+                each.clear();
+            }
+            used.clear();
+            freeBlocksCount = 0;
+            freeMemorySize = 0;
+            usedMemorySize = 0;
+            internalFragmentation = 0;
+
+            coveredSize = addFreeRange(0, tableSize);
+            this.size = tableSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return size > this.size && size <= TableSizes.MAX_INT_TABLE_SIZE;
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        lock.lock();
+        try {
+            if (tableSize > this.size) {
+                coveredSize = addFreeRange(coveredSize, tableSize);
+                this.size = tableSize;
+            }
+        } finally {
+            lock.unlock();
+        }
+        metrics.increment("vmtable.increases");
+    }
+
+    // ---------- internal structures
+
+    private static final class BuddyBlock implements Block {
+
+        final BuddyVirtualMemoryTable table;
+        final int order;
+
+        int address;
+        int size;
+        boolean freed;
+
+        BuddyBlock(BuddyVirtualMemoryTable table, int address, int size, int order) {
+            this.table = table;
+            this.address = address;
+            this.size = size;
+            this.order = order;
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * A factory for {@link BuddyVirtualMemoryTable}
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class BuddyVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new BuddyVirtualMemoryTableFactory();
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    private final int minBlockSize;
+
+    public BuddyVirtualMemoryTableFactory() {
+        this(BuddyVirtualMemoryTable.DEFAULT_MIN_BLOCK_SIZE);
+    }
+
+    public BuddyVirtualMemoryTableFactory(int minBlockSize) {
+        this.minBlockSize = minBlockSize;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) {
+        return new BuddyVirtualMemoryTable(TableSizes.checkIntTableSize(size), minBlockSize);
+    }
+}
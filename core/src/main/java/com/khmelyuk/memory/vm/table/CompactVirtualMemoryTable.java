@@ -0,0 +1,630 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Virtual memory table that keeps the block metadata in primitive arrays instead of objects.
+ * <p/>
+ * Each block, free or used, is an entry with an index in the arrays. All entries are linked in the address order,
+ * so freed block is merged with it's free neighbours in O(1), and free entries are linked in the free list,
+ * which is searched for the first fit. Entries of merged blocks are reused for new blocks.
+ * The table takes about 28 bytes per block and doesn't hold any object per block,
+ * so the number of blocks doesn't affect the garbage collection.
+ * <p/>
+ * The allocated block is a light view that refers to the entry by index. The entry has a stamp that is changed
+ * on each allocation and free, so a view of a freed block can't free the entry that is reused for other block.
+ * {@link #getUsed()} and {@link #getFree()} create views on demand.
+ * <p/>
+ * Aligned block is allocated from the first free block that fits it with padding,
+ * the padding stays in the free block, and the rest after the aligned block becomes a new free block.
+ * <p/>
+ * Addresses are kept as int, so the table can't be larger than 2 GB.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class CompactVirtualMemoryTable implements VirtualMemoryTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    private final Lock lock = new ReentrantLock();
+
+    // entries, all arrays have the same length
+    private int[] addresses;
+    private int[] sizes;
+    private int[] stamps;
+    private int[] prev;
+    private int[] next;
+    private int[] prevFree;
+    private int[] nextFree;
+
+    private int head;
+    private int tail;
+    private int freeHead;
+
+    /**
+     * The stack of unused entries, linked with the {@code next} array.
+     */
+    private int unusedHead;
+    private int entriesCount;
+
+    /**
+     * Changed on each reset, so views of blocks allocated before reset are invalid.
+     */
+    private int generation;
+
+    private volatile int size;
+    private volatile int freeMemorySize;
+    private volatile int usedMemorySize;
+    private int freeBlocksCount;
+    private int usedBlocksCount;
+
+    private final Metrics metrics;
+
+    public CompactVirtualMemoryTable(int size) {
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.entriesCapacity");
+
+        reset(size);
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        return getBlocks(true);
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        return getBlocks(false);
+    }
+
+    private Collection<Block> getBlocks(boolean used) {
+        lock.lock();
+        try {
+            final List<Block> result = new ArrayList<>(used ? usedBlocksCount : freeBlocksCount);
+            for (int entry = head; entry != NONE; entry = next[entry]) {
+                if (isUsed(entry) == used) {
+                    result.add(used
+                            ? new CompactBlock(this, generation, entry, stamps[entry], addresses[entry], sizes[entry])
+                            : new TableBlock(addresses[entry], sizes[entry]));
+                }
+            }
+            return Collections.unmodifiableCollection(result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        lock.lock();
+        try {
+            metrics.mark("vmtable.freeSize", freeMemorySize);
+            metrics.mark("vmtable.usedSize", usedMemorySize);
+            metrics.mark("vmtable.freeBlocksCount", freeBlocksCount);
+            metrics.mark("vmtable.usedBlocksCount", usedBlocksCount);
+            metrics.mark("vmtable.entriesCapacity", addresses.length);
+        } finally {
+            lock.unlock();
+        }
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        metrics.increment("vmtable.totalAllocations");
+
+        Block result = null;
+        lock.lock();
+        try {
+            final int entry = allocateEntry(size, 1);
+            if (entry != NONE) {
+                result = new CompactBlock(this, generation, entry, stamps[entry], addresses[entry], size);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (result == null) {
+            metrics.increment("vmtable.failedAllocations");
+        }
+
+        return result;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+
+        metrics.increment("vmtable.totalAllocations");
+
+        Block result = null;
+        lock.lock();
+        try {
+            final int entry = allocateEntry(size, alignment);
+            if (entry != NONE) {
+                result = new CompactBlock(this, generation, entry, stamps[entry], addresses[entry], size);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (result == null) {
+            metrics.increment("vmtable.failedAllocations");
+        }
+
+        return result;
+    }
+
+    private int allocateEntry(int size, int alignment) {
+        int entry = freeHead;
+        while (entry != NONE && sizes[entry] - TableAlignment.padding(addresses[entry], alignment) < size) {
+            entry = nextFree[entry];
+        }
+        if (entry == NONE) {
+            return NONE;
+        }
+
+        final int padding = TableAlignment.padding(addresses[entry], alignment);
+        if (padding != 0) {
+            // split: the free block keeps the padding, the used block and the rest follow it
+            final int result = newEntry(addresses[entry] + padding, size);
+            linkAfter(result, entry);
+            final int rest = sizes[entry] - padding - size;
+            if (rest != 0) {
+                final int restEntry = newEntry(addresses[result] + size, rest);
+                linkAfter(restEntry, result);
+                linkFree(restEntry);
+            }
+            sizes[entry] = padding;
+            entry = result;
+        } else if (sizes[entry] > size) {
+            // split: the used block takes the beginning of the free block
+            final int result = newEntry(addresses[entry], size);
+            linkBefore(result, entry);
+            addresses[entry] += size;
+            sizes[entry] -= size;
+            entry = result;
+        } else {
+            unlinkFree(entry);
+        }
+
+        stamps[entry]++;
+        usedBlocksCount++;
+        freeMemorySize -= size;
+        usedMemorySize += size;
+
+        return entry;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (!(block instanceof CompactBlock) || ((CompactBlock) block).table != this) {
+            return false;
+        }
+
+        final CompactBlock compact = (CompactBlock) block;
+        lock.lock();
+        try {
+            if (compact.generation != generation || !resizeEntry(compact.entry, compact.stamp, size)) {
+                return false;
+            }
+            compact.size = size;
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    private boolean resizeEntry(int entry, int stamp, int size) {
+        if (entry >= stamps.length || stamps[entry] != stamp || !isUsed(entry)) {
+            return false;
+        }
+
+        final int delta = size - sizes[entry];
+        final int after = next[entry];
+        final boolean afterFree = after != NONE && !isUsed(after);
+        if (delta > 0) {
+            // extend into the next free block
+            if (!afterFree || sizes[after] < delta) {
+                return false;
+            }
+            if (sizes[after] == delta) {
+                unlinkFree(after);
+                unlink(after);
+                releaseEntry(after);
+            } else {
+                addresses[after] += delta;
+                sizes[after] -= delta;
+            }
+        } else if (delta < 0) {
+            // release the tail, merging it with the next free block
+            if (afterFree) {
+                addresses[after] += delta;
+                sizes[after] -= delta;
+            } else {
+                final int rest = newEntry(addresses[entry] + size, -delta);
+                linkAfter(rest, entry);
+                linkFree(rest);
+            }
+        }
+
+        sizes[entry] = size;
+        freeMemorySize -= delta;
+        usedMemorySize += delta;
+
+        return true;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        TableBatches.checkSizes(sizes);
+
+        metrics.increment("vmtable.totalAllocations", sizes.length);
+
+        final Block[] result = new Block[sizes.length];
+        lock.lock();
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                final int entry = allocateEntry(sizes[i], 1);
+                if (entry == NONE) {
+                    // rollback
+                    for (int j = i - 1; j >= 0; j--) {
+                        final CompactBlock block = (CompactBlock) result[j];
+                        freeEntry(block.entry, block.stamp);
+                    }
+                    metrics.increment("vmtable.failedAllocations");
+                    return null;
+                }
+                result[i] = new CompactBlock(this, generation, entry, stamps[entry], addresses[entry], sizes[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        metrics.increment("vmtable.totalFrees");
+
+        boolean result = false;
+        if (block instanceof CompactBlock && ((CompactBlock) block).table == this) {
+            final CompactBlock compact = (CompactBlock) block;
+            lock.lock();
+            try {
+                result = compact.generation == generation && freeEntry(compact.entry, compact.stamp);
+            } finally {
+                lock.unlock();
+            }
+            if (result) {
+                compact.address = 0;
+                compact.size = 0;
+            }
+        }
+
+        if (!result) {
+            metrics.increment("vmtable.failedFrees");
+        }
+
+        return result;
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        metrics.increment("vmtable.totalFrees", blocks.size());
+
+        int result = 0;
+        lock.lock();
+        try {
+            for (Block each : blocks) {
+                if (each instanceof CompactBlock && ((CompactBlock) each).table == this) {
+                    final CompactBlock compact = (CompactBlock) each;
+                    if (compact.generation == generation && freeEntry(compact.entry, compact.stamp)) {
+                        compact.address = 0;
+                        compact.size = 0;
+                        result++;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        metrics.increment("vmtable.failedFrees", blocks.size() - result);
+
+        return result;
+    }
+
+    private boolean freeEntry(int entry, int stamp) {
+        if (entry >= stamps.length || stamps[entry] != stamp || !isUsed(entry)) {
+            return false;
+        }
+
+        final int size = sizes[entry];
+        stamps[entry]++;
+        usedBlocksCount--;
+        freeMemorySize += size;
+        usedMemorySize -= size;
+
+        // merge with free neighbours
+        final int before = prev[entry];
+        final int after = next[entry];
+        if (after != NONE && !isUsed(after)) {
+            sizes[entry] += sizes[after];
+            unlinkFree(after);
+            unlink(after);
+            releaseEntry(after);
+        }
+        if (before != NONE && !isUsed(before)) {
+            sizes[before] += sizes[entry];
+            unlink(entry);
+            releaseEntry(entry);
+        } else {
+            linkFree(entry);
+        }
+
+        return true;
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return freeMemorySize;
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedMemorySize;
+    }
+
+    @Override
+    public void reset(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        metrics.reset();
+
+        lock.lock();
+        try {
+            addresses = new int[INITIAL_CAPACITY];
+            sizes = new int[INITIAL_CAPACITY];
+            stamps = new int[INITIAL_CAPACITY];
+            prev = new int[INITIAL_CAPACITY];
+            next = new int[INITIAL_CAPACITY];
+            prevFree = new int[INITIAL_CAPACITY];
+            nextFree = new int[INITIAL_CAPACITY];
+
+            generation++;
+            head = NONE;
+            tail = NONE;
+            freeHead = NONE;
+            unusedHead = NONE;
+            entriesCount = 0;
+            usedBlocksCount = 0;
+            freeBlocksCount = 0;
+
+            if (tableSize > 0) {
+                final int entry = newEntry(0, tableSize);
+                linkLast(entry);
+                linkFree(entry);
+            }
+
+            this.size = tableSize;
+            this.freeMemorySize = tableSize;
+            this.usedMemorySize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return size > this.size && size <= TableSizes.MAX_INT_TABLE_SIZE;
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        lock.lock();
+        try {
+            final int increase = tableSize - this.size;
+            if (increase > 0) {
+                if (tail != NONE && !isUsed(tail)) {
+                    sizes[tail] += increase;
+                } else {
+                    final int entry = newEntry(this.size, increase);
+                    linkLast(entry);
+                    linkFree(entry);
+                }
+                this.size = tableSize;
+                this.freeMemorySize += increase;
+            }
+        } finally {
+            lock.unlock();
+        }
+        metrics.increment("vmtable.increases");
+    }
+
+    // ---------- entries
+
+    private boolean isUsed(int entry) {
+        return (stamps[entry] & 1) == 1;
+    }
+
+    private int newEntry(int address, int size) {
+        int entry = unusedHead;
+        if (entry != NONE) {
+            unusedHead = next[entry];
+        } else {
+            if (entriesCount == addresses.length) {
+                grow();
+            }
+            entry = entriesCount++;
+        }
+
+        addresses[entry] = address;
+        sizes[entry] = size;
+        prev[entry] = NONE;
+        next[entry] = NONE;
+        prevFree[entry] = NONE;
+        nextFree[entry] = NONE;
+        return entry;
+    }
+
+    private void releaseEntry(int entry) {
+        // the stamp is kept, so old views of the entry stay invalid
+        next[entry] = unusedHead;
+        unusedHead = entry;
+    }
+
+    private void grow() {
+        final int capacity = addresses.length * 2;
+        addresses = Arrays.copyOf(addresses, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        stamps = Arrays.copyOf(stamps, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prevFree = Arrays.copyOf(prevFree, capacity);
+        nextFree = Arrays.copyOf(nextFree, capacity);
+    }
+
+    private void linkLast(int entry) {
+        prev[entry] = tail;
+        next[entry] = NONE;
+        if (tail != NONE) {
+            next[tail] = entry;
+        } else {
+            head = entry;
+        }
+        tail = entry;
+    }
+
+    private void linkBefore(int entry, int successor) {
+        final int predecessor = prev[successor];
+        prev[entry] = predecessor;
+        next[entry] = successor;
+        prev[successor] = entry;
+        if (predecessor != NONE) {
+            next[predecessor] = entry;
+        } else {
+            head = entry;
+        }
+    }
+
+    private void linkAfter(int entry, int predecessor) {
+        final int successor = next[predecessor];
+        if (successor != NONE) {
+            linkBefore(entry, successor);
+        } else {
+            linkLast(entry);
+        }
+    }
+
+    private void unlink(int entry) {
+        final int predecessor = prev[entry];
+        final int successor = next[entry];
+        if (predecessor != NONE) {
+            next[predecessor] = successor;
+        } else {
+            head = successor;
+        }
+        if (successor != NONE) {
+            prev[successor] = predecessor;
+        } else {
+            tail = predecessor;
+        }
+    }
+
+    private void linkFree(int entry) {
+        prevFree[entry] = NONE;
+        nextFree[entry] = freeHead;
+        if (freeHead != NONE) {
+            prevFree[freeHead] = entry;
+        }
+        freeHead = entry;
+        freeBlocksCount++;
+    }
+
+    private void unlinkFree(int entry) {
+        final int predecessor = prevFree[entry];
+        final int successor = nextFree[entry];
+        if (predecessor != NONE) {
+            nextFree[predecessor] = successor;
+        } else {
+            freeHead = successor;
+        }
+        if (successor != NONE) {
+            prevFree[successor] = predecessor;
+        }
+        freeBlocksCount--;
+    }
+
+    /**
+     * The view of the used block.
+     */
+    private static final class CompactBlock implements Block {
+
+        final CompactVirtualMemoryTable table;
+        final int generation;
+        final int entry;
+        final int stamp;
+
+        volatile int address;
+        volatile int size;
+
+        CompactBlock(CompactVirtualMemoryTable table, int generation, int entry, int stamp, int address, int size) {
+            this.table = table;
+            this.generation = generation;
+            this.entry = entry;
+            this.stamp = stamp;
+            this.address = address;
+            this.size = size;
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * A factory for {@link CompactVirtualMemoryTable}.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class CompactVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new CompactVirtualMemoryTableFactory();
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) {
+        return new CompactVirtualMemoryTable(TableSizes.checkIntTableSize(size));
+    }
+}
@@ -0,0 +1,489 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+import com.khmelyuk.memory.metrics.TimeContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Virtual memory table that keeps free blocks in two indexes:
+ * by address, to find the neighbours to merge with on free, and by size and address, to find the best fit block.
+ * Both allocate and free are O(log n) and don't depend on the number of free blocks.
+ * <p/>
+ * The indexes are concurrent skip lists, so the free blocks can be read without locking.
+ * Changes are done under the lock, so both indexes are always consistent.
+ * Used blocks are indexed by address.
+ * <p/>
+ * Aligned block is allocated from the smallest free block that fits it with padding.
+ * Any block larger than the size plus alignment fits, so only the smaller blocks are checked one by one.
+ * The padding stays free.
+ * <p/>
+ * Addresses are kept as int, so the table can't be larger than 2 GB.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class IndexedVirtualMemoryTable implements VirtualMemoryTable {
+
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Free blocks by address: address to size.
+     */
+    private final ConcurrentNavigableMap<Integer, Integer> freeByAddress = new ConcurrentSkipListMap<>();
+
+    /**
+     * Free blocks ordered by size and then by address, see {@link #sizeKey(int, int)}.
+     */
+    private final ConcurrentSkipListSet<Long> freeBySize = new ConcurrentSkipListSet<>();
+
+    private final ConcurrentMap<Integer, TableBlock> used = new ConcurrentHashMap<>();
+
+    private final AtomicInteger freeMemorySize;
+    private final AtomicInteger usedMemorySize;
+    private volatile int size;
+
+    private final Metrics metrics;
+
+    public IndexedVirtualMemoryTable(int size) {
+        if (size > 0) {
+            addFreeBlock(0, size);
+        }
+
+        this.size = size;
+        usedMemorySize = new AtomicInteger(0);
+        freeMemorySize = new AtomicInteger(size);
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.largestFreeBlock");
+        metrics.addTimerMetric("vmtable.allocationTime");
+        metrics.addTimerMetric("vmtable.freeTime");
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        return Collections.<Block>unmodifiableCollection(used.values());
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        final List<Block> result = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> each : freeByAddress.entrySet()) {
+            result.add(new TableBlock(each.getKey(), each.getValue()));
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        final Long largest = freeBySize.isEmpty() ? null : freeBySize.last();
+
+        metrics.mark("vmtable.freeSize", freeMemorySize.longValue());
+        metrics.mark("vmtable.usedSize", usedMemorySize.longValue());
+        metrics.mark("vmtable.freeBlocksCount", freeByAddress.size());
+        metrics.mark("vmtable.usedBlocksCount", used.size());
+        metrics.mark("vmtable.largestFreeBlock", largest != null ? largest >>> 32 : 0);
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        metrics.increment("vmtable.totalAllocations");
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        final TableBlock result;
+        lock.lock();
+        try {
+            result = allocateBlock(size, 1);
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        if (result == null) {
+            metrics.increment("vmtable.failedAllocations");
+            return null;
+        }
+
+        freeMemorySize.addAndGet(-size);
+        usedMemorySize.addAndGet(size);
+
+        return result;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+
+        metrics.increment("vmtable.totalAllocations");
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        final TableBlock result;
+        lock.lock();
+        try {
+            result = allocateBlock(size, alignment);
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        if (result == null) {
+            metrics.increment("vmtable.failedAllocations");
+            return null;
+        }
+
+        freeMemorySize.addAndGet(-size);
+        usedMemorySize.addAndGet(size);
+
+        return result;
+    }
+
+    /**
+     * Allocates the smallest free block that is large enough, and with the lowest address among such blocks.
+     * Should be called under the lock.
+     *
+     * @param size      the size of block to allocate.
+     * @param alignment the alignment of block to allocate.
+     * @return the allocated block or null.
+     */
+    private TableBlock allocateBlock(int size, int alignment) {
+        Long key = freeBySize.ceiling(sizeKey(size, 0));
+
+        // blocks smaller than size plus alignment may not fit because of padding
+        final long fitsAnyway = ((long) size + alignment - 1) << 32;
+        while (key != null && key < fitsAnyway
+                && (int) (key >>> 32) - TableAlignment.padding((int) (long) key, alignment) < size) {
+            key = freeBySize.higher(key);
+        }
+        if (key == null) {
+            return null;
+        }
+
+        final int blockSize = (int) (key >>> 32);
+        final int blockAddress = (int) (long) key;
+        final int padding = TableAlignment.padding(blockAddress, alignment);
+        final int address = blockAddress + padding;
+
+        removeFreeBlock(blockAddress, blockSize);
+        if (padding != 0) {
+            addFreeBlock(blockAddress, padding);
+        }
+        if (blockSize > padding + size) {
+            addFreeBlock(address + size, blockSize - padding - size);
+        }
+
+        final TableBlock result = new TableBlock(address, size);
+        used.put(address, result);
+        return result;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        TableBatches.checkSizes(sizes);
+
+        metrics.increment("vmtable.totalAllocations", sizes.length);
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        final TableBlock[] result = new TableBlock[sizes.length];
+        int allocatedSize = 0;
+        boolean allocated = true;
+        lock.lock();
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                result[i] = allocateBlock(sizes[i], 1);
+                if (result[i] == null) {
+                    // rollback
+                    for (int j = 0; j < i; j++) {
+                        used.remove((int) result[j].getAddress());
+                        addFreeRange((int) result[j].getAddress(), (int) result[j].getSize());
+                    }
+                    allocated = false;
+                    break;
+                }
+                allocatedSize += sizes[i];
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        if (!allocated) {
+            metrics.increment("vmtable.failedAllocations");
+            return null;
+        }
+
+        freeMemorySize.addAndGet(-allocatedSize);
+        usedMemorySize.addAndGet(allocatedSize);
+
+        return result;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        metrics.increment("vmtable.totalFrees");
+
+        TimeContext timer = metrics.getTimer("vmtable.freeTime");
+        timer.start();
+
+        TableBlock tableBlock = null;
+        lock.lock();
+        try {
+            final TableBlock each = used.get((int) block.getAddress());
+            if (each != null && each.equals(block)) {
+                used.remove((int) each.getAddress());
+                addFreeRange((int) each.getAddress(), (int) each.getSize());
+                tableBlock = each;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        if (tableBlock == null) {
+            metrics.increment("vmtable.failedFrees");
+            return false;
+        }
+
+        final int size = (int) tableBlock.getSize();
+        usedMemorySize.addAndGet(-size);
+        freeMemorySize.addAndGet(size);
+
+        tableBlock.resize(0, 0);
+
+        return true;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (block == null) {
+            return false;
+        }
+
+        final int delta;
+        lock.lock();
+        try {
+            final TableBlock tableBlock = used.get((int) block.getAddress());
+            if (tableBlock == null || !tableBlock.equals(block)) {
+                return false;
+            }
+
+            delta = size - (int) tableBlock.getSize();
+            if (delta > 0) {
+                // extend into the next free block
+                final int end = (int) tableBlock.getEnd();
+                final Integer nextSize = freeByAddress.get(end);
+                if (nextSize == null || nextSize < delta) {
+                    return false;
+                }
+                removeFreeBlock(end, nextSize);
+                if (nextSize > delta) {
+                    addFreeBlock(end + delta, nextSize - delta);
+                }
+            } else if (delta < 0) {
+                // release the tail, merging it with the next free block
+                addFreeRange((int) tableBlock.getAddress() + size, -delta);
+            }
+            tableBlock.setSize(size);
+        } finally {
+            lock.unlock();
+        }
+
+        usedMemorySize.addAndGet(delta);
+        freeMemorySize.addAndGet(-delta);
+
+        return true;
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        metrics.increment("vmtable.totalFrees", blocks.size());
+
+        TimeContext timer = metrics.getTimer("vmtable.freeTime");
+        timer.start();
+
+        final List<TableBlock> removed = new ArrayList<>(blocks.size());
+        int size = 0;
+        lock.lock();
+        try {
+            for (Block each : blocks) {
+                if (each == null) {
+                    continue;
+                }
+                final TableBlock block = used.get((int) each.getAddress());
+                if (block != null && block.equals(each)) {
+                    used.remove((int) block.getAddress());
+                    removed.add(block);
+                    size += (int) block.getSize();
+                }
+            }
+
+            // adjacent blocks are merged in a single sweep, before they are merged with free neighbours
+            Collections.sort(removed);
+            int i = 0;
+            while (i < removed.size()) {
+                final int address = (int) removed.get(i).getAddress();
+                int end = (int) removed.get(i).getEnd();
+                for (i++; i < removed.size() && removed.get(i).getAddress() == end; i++) {
+                    end = (int) removed.get(i).getEnd();
+                }
+                addFreeRange(address, end - address);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        timer.stop();
+
+        usedMemorySize.addAndGet(-size);
+        freeMemorySize.addAndGet(size);
+        metrics.increment("vmtable.failedFrees", blocks.size() - removed.size());
+
+        for (TableBlock each : removed) {
+            each.resize(0, 0);
+        }
+
+        return removed.size();
+    }
+
+    /**
+     * Adds a free range, merging it with the free neighbours.
+     * Should be called under the lock.
+     *
+     * @param address the address of the free range.
+     * @param size    the size of the free range.
+     */
+    private void addFreeRange(int address, int size) {
+        final Map.Entry<Integer, Integer> tail = freeByAddress.lowerEntry(address);
+        if (tail != null && tail.getKey() + tail.getValue() == address) {
+            removeFreeBlock(tail.getKey(), tail.getValue());
+            address = tail.getKey();
+            size += tail.getValue();
+        }
+
+        final Integer headSize = freeByAddress.get(address + size);
+        if (headSize != null) {
+            removeFreeBlock(address + size, headSize);
+            size += headSize;
+        }
+
+        addFreeBlock(address, size);
+    }
+
+    private void addFreeBlock(int address, int size) {
+        freeByAddress.put(address, size);
+        freeBySize.add(sizeKey(size, address));
+    }
+
+    private void removeFreeBlock(int address, int size) {
+        freeByAddress.remove(address);
+        freeBySize.remove(sizeKey(size, address));
+    }
+
+    /**
+     * The key to order the blocks by size and then by address.
+     */
+    private static long sizeKey(int size, int address) {
+        return ((long) size << 32) | (address & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return freeMemorySize.get();
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedMemorySize.get();
+    }
+
+    @Override
+    public void reset(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        metrics.reset();
+
+        lock.lock();
+        try {
+            used.clear();
+            freeByAddress.clear();
+            freeBySize.clear();
+            if (tableSize > 0) {
+                addFreeBlock(0, tableSize);
+            }
+            usedMemorySize.set(0);
+            freeMemorySize.set(tableSize);
+            this.size = tableSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return size > this.size && size <= TableSizes.MAX_INT_TABLE_SIZE;
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        lock.lock();
+        try {
+            if (tableSize > this.size) {
+                addFreeRange(this.size, tableSize - this.size);
+                freeMemorySize.addAndGet(tableSize - this.size);
+                this.size = tableSize;
+            }
+        } finally {
+            lock.unlock();
+        }
+        metrics.increment("vmtable.increases");
+    }
+}
@@ -0,0 +1,20 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * A factory for {@link IndexedVirtualMemoryTable}
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class IndexedVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new IndexedVirtualMemoryTableFactory();
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) {
+        return new IndexedVirtualMemoryTable(TableSizes.checkIntTableSize(size));
+    }
+}
@@ -1,46 +1,103 @@
 package com.khmelyuk.memory.vm.table;
 
+import com.khmelyuk.memory.MemoryException;
 import com.khmelyuk.memory.OutOfBoundException;
 import com.khmelyuk.memory.metrics.Metrics;
 import com.khmelyuk.memory.metrics.MetricsSnapshot;
 import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
 import com.khmelyuk.memory.metrics.TimeContext;
+import com.khmelyuk.memory.util.LongObjectHashMap;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Virtual memory table based on linked lists.
  * Works the best for small number of threads.
+ * <p/>
+ * Used blocks are indexed by address, so free doesn't depend on the number of used blocks.
+ * <p/>
+ * The free block to allocate from is chosen with the {@link AllocationPolicy}, first fit by default.
+ * The number of free blocks examined by searches is reported with
+ * {@code vmtable.<policy>.searches} and {@code vmtable.<policy>.searchLength} metrics.
+ * <p/>
+ * Used blocks can be relocated with {@link #compact(int, BlockMover)}.
+ * <p/>
+ * Aligned block is allocated from the free block that fits it with padding,
+ * the leading padding is left in the free list. Aligned blocks are pinned, so compaction doesn't move them.
  *
  * @author Ruslan Khmelyuk
  */
-public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
+public class LinkedVirtualMemoryTable implements RelocatableVirtualMemoryTable {
 
-    private static final int YIELD_MARGIN = 15;
-    private static final int MAX_ALLOC_LOOPS = 20;
+    /**
+     * The number of loops to repeat the search at once, before it parks.
+     */
+    private static final int SPIN_LOOPS = 15;
+    private static final int MAX_MERGE_LOOPS = 20;
+    private static final long MIN_BACKOFF_NANOS = 1000;
+    private static final long MAX_BACKOFF_NANOS = 1000000;
+
+    /**
+     * Returned by search if the fit block is locked by other thread.
+     */
+    private static final TableBlock LOCKED_BY_OTHER = new TableBlock(-1, 0);
 
     private final ReadWriteLock usedLock = new ReentrantReadWriteLock();
     private final ReadWriteLock freeLock = new ReentrantReadWriteLock();
 
-    private final LinkedList<TableBlock> used = new LinkedList<>();
+    private final LongObjectHashMap<TableBlock> used = new LongObjectHashMap<>();
     private final LinkedList<TableBlock> free = new LinkedList<>();
 
-    private final AtomicInteger freeMemorySize;
-    private final AtomicInteger usedMemorySize;
+    /**
+     * Used blocks that can't be moved by compaction, guarded by the lock of used blocks.
+     */
+    private final Set<TableBlock> pinned = Collections.newSetFromMap(new IdentityHashMap<TableBlock, Boolean>());
+
+    private final AtomicLong freeMemorySize;
+    private final AtomicLong usedMemorySize;
+
+    private final AllocationPolicy policy;
+    private final String searchesMetric;
+    private final String searchLengthMetric;
+
+    private static final AtomicReferenceFieldUpdater<LinkedVirtualMemoryTable, TableBlock> ROVER =
+            AtomicReferenceFieldUpdater.newUpdater(LinkedVirtualMemoryTable.class, TableBlock.class, "rover");
+
+    /**
+     * The free block where the last next fit search stopped, or null to start from the head of the list.
+     * It's a reference, so it's not moved when blocks are added to the head of the list.
+     * Searches move it with CAS under the read lock of free blocks, and it's reset when it's block is removed
+     * under the write lock, so it's always in the list of free blocks.
+     */
+    private volatile TableBlock rover;
 
     private final Metrics metrics;
 
-    public LinkedVirtualMemoryTable(int size) {
+    public LinkedVirtualMemoryTable(long size) {
+        this(size, AllocationPolicy.FirstFit);
+    }
+
+    public LinkedVirtualMemoryTable(long size, AllocationPolicy policy) {
         free.add(new TableBlock(0, size));
 
-        usedMemorySize = new AtomicInteger(0);
-        freeMemorySize = new AtomicInteger(size);
+        this.policy = policy;
+        this.searchesMetric = "vmtable." + policy.getName() + ".searches";
+        this.searchLengthMetric = "vmtable." + policy.getName() + ".searchLength";
+
+        usedMemorySize = new AtomicLong(0);
+        freeMemorySize = new AtomicLong(size);
 
         // add metrics
         metrics = new Metrics();
@@ -50,7 +107,11 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         metrics.addValueMetric("vmtable.failedFrees");
         metrics.addValueMetric("vmtable.increases");
         metrics.addValueMetric("vmtable.loopsToFindFitBlock");
+        metrics.addValueMetric(searchesMetric);
+        metrics.addValueMetric(searchLengthMetric);
         metrics.addValueMetric("vmtable.fragmentation");
+        metrics.addValueMetric("vmtable.relocatedBlocks");
+        metrics.addValueMetric("vmtable.alignedAllocations");
         metrics.addValueMetric("vmtable.freeSize");
         metrics.addValueMetric("vmtable.usedSize");
         metrics.addValueMetric("vmtable.freeBlocksCount");
@@ -59,11 +120,15 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         metrics.addTimerMetric("vmtable.freeTime");
     }
 
+    public AllocationPolicy getPolicy() {
+        return policy;
+    }
+
     @Override
     public Collection<Block> getUsed() {
         try {
             usedLock.readLock().lock();
-            return Collections.<Block>unmodifiableCollection(used);
+            return Collections.<Block>unmodifiableCollection(used.values());
         } finally {
             usedLock.readLock().unlock();
         }
@@ -102,7 +167,7 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
                 result = new TableBlock(freeBlock.getAddress(), size);
                 if (freeBlock.getSize() == size) {
                     freeBlock.resize(0, 0);
-                    removeBlock(free, freeBlock, freeLock);
+                    removeFreeBlock(freeBlock);
                     metrics.decrement("vmtable.fragmentation");
                 } else {
                     freeBlock.resize(
@@ -116,7 +181,7 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
                 freeBlock.unlock();
             }
 
-            insertBlock(used, result, usedLock);
+            insertUsedBlock(result);
 
             usedMemorySize.addAndGet(size);
 
@@ -137,47 +202,212 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         return null;
     }
 
-    protected TableBlock findBlockToAllocateFrom(int size) {
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+        if (alignment == 1) {
+            return allocate(size);
+        }
+
+        metrics.increment("vmtable.totalAllocations");
+        metrics.increment("vmtable.alignedAllocations");
 
-        // TODO - do we need this loop restriction?
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        TableBlock result;
         int loop = 0;
-        boolean repeat;
-        do {
-            repeat = false;
+        while (true) {
             try {
-                freeLock.readLock().lock();
+                freeLock.writeLock().lock();
+                result = allocateFromFree(size, alignment);
+            } finally {
+                freeLock.writeLock().unlock();
+            }
+            if (result != LOCKED_BY_OTHER) {
+                break;
+            }
+            metrics.increment("vmtable.loopsToFindFitBlock");
+            backoff(loop++);
+        }
+
+        if (result == null) {
+            timer.stop();
+            metrics.increment("vmtable.failedAllocations");
+            return null;
+        }
+
+        freeMemorySize.addAndGet(-size);
+        try {
+            usedLock.writeLock().lock();
+            used.put(result.getAddress(), result);
+            pinned.add(result);
+        } finally {
+            usedLock.writeLock().unlock();
+        }
+        usedMemorySize.addAndGet(size);
+
+        timer.stop();
+        markSizeMetrics();
+
+        return result;
+    }
+
+    /**
+     * Finds and locks the free block to allocate from, according to the allocation policy.
+     * Should be called under the lock of free blocks.
+     *
+     * @param size      the size of block to allocate.
+     * @param alignment the alignment of block to allocate.
+     * @return the locked block that is large enough, null if there is no such block,
+     *         or {@link #LOCKED_BY_OTHER} if such block is locked by other thread.
+     */
+    private TableBlock lockFitBlock(int size, int alignment) {
+        int examined = 0;
+        boolean lockedByOther = false;
+        TableBlock result = null;
+
+        if (policy == AllocationPolicy.BestFit || policy == AllocationPolicy.WorstFit) {
+            final boolean best = (policy == AllocationPolicy.BestFit);
+            TableBlock candidate = null;
+            for (TableBlock each : free) {
+                examined++;
+                final long eachSize = each.getSize();
+                if (fits(each, size, alignment) && (candidate == null
+                        || (best ? eachSize < candidate.getSize() : eachSize > candidate.getSize()))) {
+                    candidate = each;
+                    if (best && eachSize == size) {
+                        break;
+                    }
+                }
+            }
+            if (candidate != null) {
+                result = lockIfFits(candidate, size, alignment);
+                lockedByOther = (result == null);
+            }
+        } else if (policy == AllocationPolicy.NextFit) {
+            // the linked list can't be entered at the rover, so the blocks before it are walked
+            // and counted as examined; if no block after the rover fits, the search wraps to the head
+            final TableBlock start = rover;
+            boolean started = (start == null);
+            boolean wrap = false;
+            final Iterator<TableBlock> it = free.iterator();
+            while (it.hasNext()) {
+                final TableBlock each = it.next();
+                examined++;
+                if (!started && each != start) {
+                    wrap |= fits(each, size, alignment);
+                    continue;
+                }
+                started = true;
+                if (fits(each, size, alignment)) {
+                    result = lockIfFits(each, size, alignment);
+                    if (result != null) {
+                        // the block that is allocated entirely is removed, so the next one is the rover
+                        final boolean consumed = (each.getSize() == size
+                                && TableAlignment.padding(each.getAddress(), alignment) == 0);
+                        ROVER.compareAndSet(this, start, !consumed ? each : it.hasNext() ? it.next() : null);
+                        break;
+                    }
+                    lockedByOther = true;
+                }
+            }
+            if (!started) {
+                // the rover is not in the list any more, so the next search starts from the head
+                ROVER.compareAndSet(this, start, null);
+            }
+            if (result == null && wrap) {
                 for (TableBlock each : free) {
-                    if (each.getSize() >= size) {
-                        if (each.lock()) {
-                            if (each.getSize() >= size) {
-                                return each;
-                            }
-                            each.unlock();
-                        } else {
-                            // looks like there was a block that was enough to allocate from
-                            // but now it's locked, so need to loop the list of blocks again.
-                            repeat = true;
+                    if (each == start) {
+                        break;
+                    }
+                    examined++;
+                    if (fits(each, size, alignment)) {
+                        result = lockIfFits(each, size, alignment);
+                        if (result != null) {
+                            ROVER.compareAndSet(this, start, each);
+                            break;
                         }
+                        lockedByOther = true;
+                    }
+                }
+            }
+        } else {
+            for (TableBlock each : free) {
+                examined++;
+                if (fits(each, size, alignment)) {
+                    result = lockIfFits(each, size, alignment);
+                    if (result != null) {
+                        break;
                     }
+                    lockedByOther = true;
                 }
+            }
+        }
+
+        metrics.increment(searchesMetric);
+        metrics.increment(searchLengthMetric, examined);
+
+        return (result == null && lockedByOther ? LOCKED_BY_OTHER : result);
+    }
+
+    private static TableBlock lockIfFits(TableBlock block, int size, int alignment) {
+        if (block.lock()) {
+            if (fits(block, size, alignment)) {
+                return block;
+            }
+            block.unlock();
+        }
+        return null;
+    }
+
+    private static boolean fits(TableBlock block, int size, int alignment) {
+        return block.getSize() - TableAlignment.padding(block.getAddress(), alignment) >= size;
+    }
+
+    /**
+     * Finds and locks the free block to allocate from.
+     * If the fit block is locked by other thread, the search is repeated till the block is unlocked,
+     * as blocks are locked only for a short time, so null is returned only if there is no fit block.
+     *
+     * @param size the size of block to allocate.
+     * @return the locked block that is large enough, or null if there is no such block.
+     */
+    protected TableBlock findBlockToAllocateFrom(int size) {
+        int loop = 0;
+        while (true) {
+            try {
+                freeLock.readLock().lock();
+                final TableBlock result = lockFitBlock(size, 1);
+                if (result != LOCKED_BY_OTHER) {
+                    return result;
+                }
+                // looks like there was a block that was enough to allocate from
+                // but now it's locked, so need to loop the list of blocks again.
             } finally {
                 freeLock.readLock().unlock();
             }
             metrics.increment("vmtable.loopsToFindFitBlock");
 
-            // avoid ever looping, instead prefer to wait or exit the loop
-            loop++;
-            if (loop > MAX_ALLOC_LOOPS) {
-                break;
-            } else if (loop == MAX_ALLOC_LOOPS) {
-                sleep();
-            } else if (loop >= YIELD_MARGIN) {
-                Thread.yield();
-            }
+            backoff(loop++);
         }
-        while (repeat);
+    }
 
-        return null;
+    /**
+     * Waits before the search is repeated, when the block is locked by other thread.
+     * The search is repeated at once for the first loops, and then the thread parks
+     * for exponentially increasing time, but not longer than {@link #MAX_BACKOFF_NANOS}.
+     *
+     * @param loop the number of the loop, starting from 0.
+     */
+    private static void backoff(int loop) {
+        if (loop >= SPIN_LOOPS) {
+            final int shift = Math.min(loop - SPIN_LOOPS, 10);
+            LockSupport.parkNanos(Math.min(MIN_BACKOFF_NANOS << shift, MAX_BACKOFF_NANOS));
+        }
     }
 
     @Override
@@ -191,30 +421,27 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         TimeContext timer = metrics.getTimer("vmtable.freeTime");
         timer.start();
 
-        TableBlock tableBlock = getSimilarBlock(used, block, usedLock);
+        TableBlock tableBlock = removeUsedBlock(block);
         if (tableBlock != null) {
-            if (removeBlock(used, tableBlock, usedLock)) {
-                int size = tableBlock.getSize();
-                usedMemorySize.addAndGet(-size);
+            long size = tableBlock.getSize();
+            usedMemorySize.addAndGet(-size);
 
-                addFreeBlock(new TableBlock(
-                        tableBlock.getAddress(),
-                        tableBlock.getSize()));
+            addFreeBlock(new TableBlock(
+                    tableBlock.getAddress(),
+                    tableBlock.getSize()));
 
-                freeMemorySize.addAndGet(size);
+            freeMemorySize.addAndGet(size);
 
-                tableBlock.resize(0, 0);
-                tableBlock.unlock();
+            tableBlock.resize(0, 0);
 
-                timer.stop();
+            timer.stop();
 
-                metrics.mark("vmtable.freeSize", freeMemorySize.longValue());
-                metrics.mark("vmtable.usedSize", usedMemorySize.longValue());
-                metrics.mark("vmtable.freeBlocksCount", free.size());
-                metrics.mark("vmtable.usedBlocksCount", used.size());
+            metrics.mark("vmtable.freeSize", freeMemorySize.longValue());
+            metrics.mark("vmtable.usedSize", usedMemorySize.longValue());
+            metrics.mark("vmtable.freeBlocksCount", free.size());
+            metrics.mark("vmtable.usedBlocksCount", used.size());
 
-                return true;
-            }
+            return true;
         }
 
         timer.stop();
@@ -224,6 +451,372 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         return false;
     }
 
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (block == null) {
+            return false;
+        }
+
+        final long delta;
+        try {
+            freeLock.writeLock().lock();
+            usedLock.writeLock().lock();
+
+            final TableBlock tableBlock = used.get(block.getAddress());
+            if (tableBlock == null || !tableBlock.equals(block)) {
+                return false;
+            }
+
+            delta = size - tableBlock.getSize();
+            final TableBlock next = lockFreeBlockAt(tableBlock.getEnd());
+            if (delta > 0) {
+                // extend into the next free block
+                if (next == null) {
+                    return false;
+                }
+                try {
+                    if (next.getSize() < delta) {
+                        return false;
+                    } else if (next.getSize() == delta) {
+                        next.resize(0, 0);
+                        unlinkFreeBlock(next);
+                        metrics.decrement("vmtable.fragmentation");
+                    } else {
+                        next.resize(next.getAddress() + delta, next.getSize() - delta);
+                    }
+                } finally {
+                    next.unlock();
+                }
+            } else if (delta < 0) {
+                // release the tail, merging it with the next free block
+                if (next != null) {
+                    next.resize(next.getAddress() + delta, next.getSize() - delta);
+                    next.unlock();
+                } else {
+                    free.addFirst(new TableBlock(tableBlock.getAddress() + size, -delta));
+                    metrics.increment("vmtable.fragmentation");
+                }
+            }
+            tableBlock.setSize(size);
+        } finally {
+            usedLock.writeLock().unlock();
+            freeLock.writeLock().unlock();
+        }
+
+        freeMemorySize.addAndGet(-delta);
+        usedMemorySize.addAndGet(delta);
+        markSizeMetrics();
+
+        return true;
+    }
+
+    /**
+     * Finds and locks the free block with specified address.
+     * Should be called under the write lock of free blocks.
+     *
+     * @param address the address of free block.
+     * @return the locked free block or null if there is no such block, or it's locked by other thread.
+     */
+    private TableBlock lockFreeBlockAt(long address) {
+        for (TableBlock each : free) {
+            if (each.getAddress() == address && each.lock()) {
+                if (each.getAddress() == address) {
+                    return each;
+                }
+                each.unlock();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        TableBatches.checkSizes(sizes);
+
+        metrics.increment("vmtable.totalAllocations", sizes.length);
+
+        TimeContext timer = metrics.getTimer("vmtable.allocationTime");
+        timer.start();
+
+        List<TableBlock> result;
+        long allocatedSize;
+        int loop = 0;
+        while (true) {
+            result = new ArrayList<>(sizes.length);
+            allocatedSize = 0;
+            boolean lockedByOther = false;
+            try {
+                freeLock.writeLock().lock();
+                for (int each : sizes) {
+                    final TableBlock block = allocateFromFree(each, 1);
+                    if (block == null || block == LOCKED_BY_OTHER) {
+                        lockedByOther = (block == LOCKED_BY_OTHER);
+                        break;
+                    }
+                    result.add(block);
+                    allocatedSize += each;
+                }
+            } finally {
+                freeLock.writeLock().unlock();
+            }
+            freeMemorySize.addAndGet(-allocatedSize);
+
+            if (result.size() == sizes.length) {
+                break;
+            }
+
+            // rollback, the blocks weren't published yet
+            addFreeBlocks(result);
+
+            if (!lockedByOther) {
+                timer.stop();
+                metrics.increment("vmtable.failedAllocations");
+
+                return null;
+            }
+            metrics.increment("vmtable.loopsToFindFitBlock");
+            backoff(loop++);
+        }
+
+        try {
+            usedLock.writeLock().lock();
+            for (TableBlock each : result) {
+                used.put(each.getAddress(), each);
+            }
+        } finally {
+            usedLock.writeLock().unlock();
+        }
+        usedMemorySize.addAndGet(allocatedSize);
+
+        timer.stop();
+        markSizeMetrics();
+
+        return result.toArray(new Block[result.size()]);
+    }
+
+    /**
+     * Allocates a block from the free block chosen by the allocation policy.
+     * Should be called under the write lock of free blocks, so the list can't be changed,
+     * but blocks locked by other threads are skipped.
+     *
+     * @param size      the size of block to allocate.
+     * @param alignment the alignment of block to allocate.
+     * @return the allocated block, null if there is no fit block,
+     *         or {@link #LOCKED_BY_OTHER} if the fit block is locked by other thread.
+     */
+    private TableBlock allocateFromFree(int size, int alignment) {
+        final TableBlock each = lockFitBlock(size, alignment);
+        if (each == null || each == LOCKED_BY_OTHER) {
+            return each;
+        }
+
+        try {
+            final int padding = TableAlignment.padding(each.getAddress(), alignment);
+            final TableBlock result = new TableBlock(each.getAddress() + padding, size);
+            if (padding != 0) {
+                // the leading padding stays free, and the rest goes to a new free block
+                final long rest = each.getEnd() - result.getEnd();
+                each.setSize(padding);
+                if (rest != 0) {
+                    free.addFirst(new TableBlock(result.getEnd(), rest));
+                    metrics.increment("vmtable.fragmentation");
+                }
+            } else if (each.getSize() == size) {
+                each.resize(0, 0);
+                unlinkFreeBlock(each);
+                metrics.decrement("vmtable.fragmentation");
+            } else {
+                each.resize(each.getAddress() + size, each.getSize() - size);
+                metrics.increment("vmtable.fragmentation");
+            }
+            return result;
+        } finally {
+            each.unlock();
+        }
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        metrics.increment("vmtable.totalFrees", blocks.size());
+
+        TimeContext timer = metrics.getTimer("vmtable.freeTime");
+        timer.start();
+
+        final List<TableBlock> removed = new ArrayList<>(blocks.size());
+        try {
+            usedLock.writeLock().lock();
+            for (Block each : blocks) {
+                if (each == null) {
+                    continue;
+                }
+                final TableBlock block = used.get(each.getAddress());
+                if (block != null && block.equals(each)) {
+                    used.remove(block.getAddress());
+                    pinned.remove(block);
+                    removed.add(block);
+                }
+            }
+        } finally {
+            usedLock.writeLock().unlock();
+        }
+
+        long size = 0;
+        for (TableBlock each : removed) {
+            size += each.getSize();
+        }
+        usedMemorySize.addAndGet(-size);
+        addFreeBlocks(removed);
+
+        timer.stop();
+
+        metrics.increment("vmtable.failedFrees", blocks.size() - removed.size());
+        markSizeMetrics();
+
+        return removed.size();
+    }
+
+    @Override
+    public int compact(int maxBytes, BlockMover mover) {
+        int moved = 0;
+        int relocated = 0;
+        try {
+            freeLock.writeLock().lock();
+            usedLock.writeLock().lock();
+
+            final TableBlock lowest = getLowestCompactableFreeBlock();
+            if (lowest == null || !lowest.lock()) {
+                return 0;
+            }
+            try {
+                mergeFollowingFreeBlocks(lowest);
+
+                // slide used blocks down to the free block, so it bubbles up to the end of memory;
+                // stop on a gap, which is a block that is being freed or allocated now
+                TableBlock block;
+                while ((block = used.get(lowest.getEnd())) != null && !pinned.contains(block)
+                        && (moved == 0 || moved + block.getSize() <= maxBytes)) {
+                    final int size = (int) block.getSize();
+                    mover.move(block.getAddress(), lowest.getAddress(), size);
+
+                    used.remove(block.getAddress());
+                    block.setAddress(lowest.getAddress());
+                    used.put(block.getAddress(), block);
+
+                    lowest.setAddress(lowest.getAddress() + size);
+                    mergeFollowingFreeBlocks(lowest);
+
+                    moved += size;
+                    relocated++;
+                }
+            } finally {
+                lowest.unlock();
+            }
+        } finally {
+            usedLock.writeLock().unlock();
+            freeLock.writeLock().unlock();
+        }
+
+        metrics.increment("vmtable.relocatedBlocks", relocated);
+        markSizeMetrics();
+
+        return moved;
+    }
+
+    @Override
+    public long getLargestFreeBlockSize() {
+        try {
+            freeLock.readLock().lock();
+            long result = 0;
+            for (TableBlock each : free) {
+                result = Math.max(result, each.getSize());
+            }
+            return result;
+        } finally {
+            freeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the free block with the lowest address, which is not followed by a pinned block.
+     * Should be called under the locks of free and used blocks.
+     *
+     * @return the lowest free block or null if there is no such block.
+     */
+    private TableBlock getLowestCompactableFreeBlock() {
+        TableBlock result = null;
+        for (TableBlock each : free) {
+            if ((result == null || each.getAddress() < result.getAddress())
+                    && (pinned.isEmpty() || !pinned.contains(used.get(each.getEnd())))) {
+                result = each;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges the free blocks that follow the specified block into it.
+     * Should be called under the write lock of free blocks, blocks locked by other threads are not merged.
+     *
+     * @param block the locked free block to merge into.
+     */
+    private void mergeFollowingFreeBlocks(TableBlock block) {
+        boolean merged;
+        do {
+            merged = false;
+            for (TableBlock each : free) {
+                if (each != block && each.getAddress() == block.getEnd() && each.lock()) {
+                    if (each.getAddress() == block.getEnd()) {
+                        block.setSize(block.getSize() + each.getSize());
+                        unlinkFreeBlock(each);
+                        each.resize(0, 0);
+                        metrics.decrement("vmtable.fragmentation");
+                        merged = true;
+                    }
+                    each.unlock();
+                    if (merged) {
+                        break;
+                    }
+                }
+            }
+        } while (merged);
+    }
+
+    /**
+     * Adds the blocks to the free memory list and clears them.
+     * Blocks are sorted by address first, so adjacent blocks are merged in a single sweep
+     * before they are merged with the free memory.
+     *
+     * @param blocks the blocks to add to the free memory list.
+     */
+    private void addFreeBlocks(List<TableBlock> blocks) {
+        Collections.sort(blocks);
+
+        int i = 0;
+        while (i < blocks.size()) {
+            final long address = blocks.get(i).getAddress();
+            long end = blocks.get(i).getEnd();
+            for (i++; i < blocks.size() && blocks.get(i).getAddress() == end; i++) {
+                end = blocks.get(i).getEnd();
+            }
+            addFreeBlock(new TableBlock(address, end - address));
+            freeMemorySize.addAndGet(end - address);
+        }
+
+        for (TableBlock each : blocks) {
+            each.resize(0, 0);
+        }
+    }
+
+    private void markSizeMetrics() {
+        metrics.mark("vmtable.freeSize", freeMemorySize.longValue());
+        metrics.mark("vmtable.usedSize", usedMemorySize.longValue());
+        metrics.mark("vmtable.freeBlocksCount", free.size());
+        metrics.mark("vmtable.usedBlocksCount", used.size());
+    }
+
     /**
      * Add a block to the free memory list.
      *
@@ -244,8 +837,8 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
      * @return true if memory was extended, otherwise false.
      */
     protected boolean extendFreeMemory(TableBlock block) {
-        final int blockAddress = block.getAddress();
-        final int blockEnd = block.getEnd();
+        final long blockAddress = block.getAddress();
+        final long blockEnd = block.getEnd();
 
         TableBlock head = null;
         TableBlock tail = null;
@@ -286,13 +879,12 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
             } finally {
                 freeLock.readLock().unlock();
             }
-            loop++;
-            if (loop > MAX_ALLOC_LOOPS) {
+            // neighbours are not merged if they are locked for too long, it's fine
+            if (repeat && loop == MAX_MERGE_LOOPS) {
                 break;
-            } else if (loop == MAX_ALLOC_LOOPS) {
-                sleep();
-            } else if (loop >= YIELD_MARGIN) {
-                Thread.yield();
+            }
+            if (repeat) {
+                backoff(loop++);
             }
         } while (repeat);
 
@@ -305,7 +897,7 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
             } else {
                 // head is found, so we just resize tail and remove head
                 tail.setSize(block.getSize() + tail.getSize() + head.getSize());
-                removeBlock(free, head, freeLock);
+                removeFreeBlock(head);
 
                 head.unlock();
 
@@ -329,17 +921,17 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
     }
 
     @Override
-    public int getFreeMemorySize() {
+    public long getFreeMemorySize() {
         return freeMemorySize.get();
     }
 
     @Override
-    public int getUsedMemorySize() {
+    public long getUsedMemorySize() {
         return usedMemorySize.get();
     }
 
     @Override
-    public void reset(int size) {
+    public void reset(long size) {
         // reset allocations/frees count first, as it's not used
         // for any functionality but to show information
         metrics.reset();
@@ -348,6 +940,7 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         try {
             usedLock.writeLock().lock();
             used.clear();
+            pinned.clear();
             usedMemorySize.set(0);
         } finally {
             usedLock.writeLock().unlock();
@@ -360,6 +953,7 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
             freeLock.writeLock().lock();
             free.clear();
             free.add(new TableBlock(0, size));
+            rover = null;
             freeMemorySize.set(size);
         } finally {
             freeLock.writeLock().unlock();
@@ -368,61 +962,121 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         metrics.mark("vmtable.freeBlocksCount", free.size());
     }
 
+    /**
+     * Resets the table for specified size and restores the used blocks, the rest of memory becomes free.
+     * Takes time proportional to the number of used blocks, not to the memory size,
+     * so the table of a persisted memory is restored quickly.
+     *
+     * @param size       the table size.
+     * @param usedBlocks the used blocks to restore.
+     * @throws MemoryException     the used blocks overlap.
+     * @throws OutOfBoundException the used block is out of the table.
+     */
+    public void restore(long size, Collection<? extends Block> usedBlocks) throws MemoryException {
+        final List<TableBlock> blocks = new ArrayList<>(usedBlocks.size());
+        for (Block each : usedBlocks) {
+            blocks.add(new TableBlock(each.getAddress(), each.getSize()));
+        }
+        Collections.sort(blocks);
+
+        // free blocks are the gaps between used blocks
+        final List<TableBlock> freeBlocks = new ArrayList<>();
+        long position = 0;
+        long usedSize = 0;
+        for (TableBlock each : blocks) {
+            if (each.getAddress() < position || each.getSize() <= 0) {
+                throw new MemoryException("Used block overlaps other block at address " + each.getAddress());
+            }
+            if (each.getAddress() > position) {
+                freeBlocks.add(new TableBlock(position, each.getAddress() - position));
+            }
+            position = each.getEnd();
+            usedSize += each.getSize();
+        }
+        if (position > size) {
+            throw new OutOfBoundException("Used block is out of the table of size " + size);
+        }
+        if (position < size) {
+            freeBlocks.add(new TableBlock(position, size - position));
+        }
+
+        metrics.reset();
+
+        try {
+            usedLock.writeLock().lock();
+            used.clear();
+            pinned.clear();
+            for (TableBlock each : blocks) {
+                used.put(each.getAddress(), each);
+            }
+            usedMemorySize.set(usedSize);
+        } finally {
+            usedLock.writeLock().unlock();
+        }
+
+        try {
+            freeLock.writeLock().lock();
+            free.clear();
+            free.addAll(freeBlocks);
+            rover = null;
+            freeMemorySize.set(size - usedSize);
+        } finally {
+            freeLock.writeLock().unlock();
+        }
+
+        markSizeMetrics();
+    }
+
     @Override
-    public boolean canIncreaseSize(int size) {
-        final int freeSize = freeMemorySize.get();
-        final int usedSize = usedMemorySize.get();
-        final int totalSize = freeSize + usedSize;
+    public boolean canIncreaseSize(long size) {
+        final long freeSize = freeMemorySize.get();
+        final long usedSize = usedMemorySize.get();
+        final long totalSize = freeSize + usedSize;
 
         return !(size < usedSize || size <= totalSize);
     }
 
     @Override
-    public void increaseSize(int size) {
-        final int freeSize = freeMemorySize.get();
-        final int usedSize = usedMemorySize.get();
-        final int totalSize = freeSize + usedSize;
+    public void increaseSize(long size) {
+        final long freeSize = freeMemorySize.get();
+        final long usedSize = usedMemorySize.get();
+        final long totalSize = freeSize + usedSize;
 
         // increase memory size
-        int incSize = size - totalSize;
+        long incSize = size - totalSize;
         addFreeBlock(new TableBlock(totalSize, incSize));
         freeMemorySize.addAndGet(incSize);
         metrics.increment("vmtable.increases");
     }
 
     /**
-     * Gets the same block or block with such address and size.
+     * Finds the used block with the same address and size and removes it from the used blocks.
      *
-     * @param list  the list to find a similar block in.
      * @param block the block to find similar to it.
-     * @param lock  the lock to avoid concurrency issues.
-     * @return the found similar block or null.
+     * @return the removed used block or null.
      */
-    private static TableBlock getSimilarBlock(List<TableBlock> list, Block block, ReadWriteLock lock) {
-        boolean repeat;
-        do {
-            repeat = false;
-            try {
-                lock.readLock().lock();
-                for (TableBlock each : list) {
-                    if (each.equals(block)) {
-                        if (each.lock()) {
-                            if (each.equals(block)) {
-                                return each;
-                            }
-                            each.unlock();
-                        } else {
-                            repeat = true;
-                        }
-                    }
-                }
-            } finally {
-                lock.readLock().unlock();
+    private TableBlock removeUsedBlock(Block block) {
+        try {
+            usedLock.writeLock().lock();
+            final TableBlock result = used.get(block.getAddress());
+            if (result != null && result.equals(block)) {
+                used.remove(result.getAddress());
+                pinned.remove(result);
+                return result;
             }
+            return null;
+        } finally {
+            usedLock.writeLock().unlock();
         }
-        while (repeat);
+    }
 
-        return null;
+    private void insertUsedBlock(TableBlock block) {
+        try {
+            usedLock.writeLock().lock();
+            used.put(block.getAddress(), block);
+        } finally {
+            usedLock.writeLock().unlock();
+        }
     }
 
     private static void insertBlock(LinkedList<TableBlock> table, TableBlock block, ReadWriteLock lock) {
@@ -434,20 +1088,25 @@ public class LinkedVirtualMemoryTable implements VirtualMemoryTable {
         }
     }
 
-    private static boolean removeBlock(List<TableBlock> table, TableBlock block, ReadWriteLock lock) {
+    private void removeFreeBlock(TableBlock block) {
         try {
-            lock.writeLock().lock();
-            return table.remove(block);
+            freeLock.writeLock().lock();
+            unlinkFreeBlock(block);
         } finally {
-            lock.writeLock().unlock();
+            freeLock.writeLock().unlock();
         }
     }
 
-    private void sleep() {
-        try {
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            // TODO: how to handle in this case?
+    /**
+     * Removes the block from the list of free blocks, and resets the rover if it's this block.
+     * Should be called under the write lock of free blocks.
+     *
+     * @param block the free block to remove.
+     */
+    private void unlinkFreeBlock(TableBlock block) {
+        free.remove(block);
+        if (rover == block) {
+            rover = null;
         }
     }
 }
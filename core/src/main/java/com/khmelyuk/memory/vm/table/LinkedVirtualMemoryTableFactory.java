@@ -0,0 +1,30 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * A factory for {@link LinkedVirtualMemoryTable}
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class LinkedVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new LinkedVirtualMemoryTableFactory();
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    private final AllocationPolicy policy;
+
+    public LinkedVirtualMemoryTableFactory() {
+        this(AllocationPolicy.FirstFit);
+    }
+
+    public LinkedVirtualMemoryTableFactory(AllocationPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) {
+        return new LinkedVirtualMemoryTable(size, policy);
+    }
+}
@@ -0,0 +1,826 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.concurrency.StripedCounter;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Virtual memory table that allocates and frees small blocks without locks.
+ * It's based on the "Scalable Lock-Free Dynamic Memory Allocation" by Maged M. Michael (see docs).
+ * <p/>
+ * The memory is split into superblocks of the same size. Each superblock is given to a single size class,
+ * and is split into the blocks of that size. The state of the superblock is stored in the anchor of it's descriptor,
+ * and it's changed only with CAS. Each size class has an active superblock to allocate from,
+ * and a list of partial superblocks, that have free blocks. When all blocks of superblock are freed,
+ * the superblock is returned back, and can be used by any size class.
+ * <p/>
+ * Blocks larger than the biggest size class are allocated as a run of superblocks.
+ * Superblocks are taken from the {@link LinkedVirtualMemoryTable} that counts in superblocks,
+ * so it is locked only when superblock is taken or returned, but not on every allocation.
+ * <p/>
+ * Small blocks are rounded up to the size of their size class, and large blocks to the run of superblocks,
+ * so used memory size counts the sizes of slots and runs taken by blocks. The tail less than superblock
+ * is not counted as free memory, as it can't be allocated.
+ * Blocks are aligned to the size of their size class, and superblocks are aligned to the superblock size,
+ * so aligned block is allocated from the size class not less than the alignment, or as a run of superblocks.
+ * Small block is resized in place within it's size class, and large block by resizing it's run of superblocks.
+ * The table doesn't time every allocation and free, as shared timers would serialize the threads.
+ * Works the best for large number of threads.
+ * <p/>
+ * Addresses are kept as int, so the table can't be larger than 2 GB.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class LockFreeVirtualMemoryTable implements VirtualMemoryTable {
+
+    public static final int DEFAULT_SUPERBLOCK_SIZE = 16 * 1024;
+    public static final int MIN_BLOCK_SIZE = 16;
+
+    /**
+     * The biggest size class should still have at least this number of blocks in the superblock.
+     */
+    private static final int MIN_BLOCKS_PER_SUPERBLOCK = 8;
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    // ---------- anchor layout: avail (21 bits), count (21 bits), state (2 bits), tag (20 bits)
+
+    private static final int ACTIVE = 0;
+    private static final int FULL = 1;
+    private static final int PARTIAL = 2;
+    private static final int EMPTY = 3;
+
+    private static final int INDEX_BITS = 21;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final int COUNT_SHIFT = INDEX_BITS;
+    private static final int STATE_SHIFT = INDEX_BITS * 2;
+    private static final int TAG_SHIFT = STATE_SHIFT + 2;
+
+    private final int superblockSize;
+    private final int superblockShift;
+    private final int maxBlockSize;
+    private final SizeClass[] sizeClasses;
+
+    private final LinkedVirtualMemoryTable superblocks;
+    private final AtomicReferenceArray<AtomicReferenceArray<Descriptor>> descriptors;
+    private final AtomicInteger superblocksCount = new AtomicInteger();
+
+    /**
+     * The blocks allocated as runs of superblocks, by the index of the first superblock.
+     */
+    private final ConcurrentMap<Integer, LockFreeBlock> runs = new ConcurrentHashMap<>();
+
+    private volatile int size;
+
+    private final StripedCounter usedSize = new StripedCounter();
+    private final StripedCounter usedBlocks = new StripedCounter();
+    private final StripedCounter totalAllocations = new StripedCounter();
+    private final StripedCounter failedAllocations = new StripedCounter();
+    private final StripedCounter totalFrees = new StripedCounter();
+    private final StripedCounter failedFrees = new StripedCounter();
+
+    private final Metrics metrics;
+
+    public LockFreeVirtualMemoryTable(int size) {
+        this(size, DEFAULT_SUPERBLOCK_SIZE);
+    }
+
+    /**
+     * Creates a table with specified superblock size.
+     * The superblock size should be power of two. The memory size is better to be a multiple of superblock size,
+     * as the tail less than superblock can't be allocated.
+     *
+     * @param size           the table size.
+     * @param superblockSize the size of the superblock.
+     */
+    public LockFreeVirtualMemoryTable(int size, int superblockSize) {
+        if (Integer.bitCount(superblockSize) != 1
+                || superblockSize < MIN_BLOCK_SIZE * MIN_BLOCKS_PER_SUPERBLOCK
+                || superblockSize / MIN_BLOCK_SIZE > INDEX_MASK) {
+            throw new IllegalArgumentException("Wrong superblock size: " + superblockSize);
+        }
+
+        this.size = size;
+        this.superblockSize = superblockSize;
+        this.superblockShift = Integer.numberOfTrailingZeros(superblockSize);
+        this.maxBlockSize = superblockSize / MIN_BLOCKS_PER_SUPERBLOCK;
+
+        int classesCount = Integer.numberOfTrailingZeros(maxBlockSize) - Integer.numberOfTrailingZeros(MIN_BLOCK_SIZE) + 1;
+        this.sizeClasses = new SizeClass[classesCount];
+        for (int i = 0, blockSize = MIN_BLOCK_SIZE; i < classesCount; i++, blockSize <<= 1) {
+            sizeClasses[i] = new SizeClass(blockSize, superblockSize / blockSize);
+        }
+
+        this.superblocks = new LinkedVirtualMemoryTable(size >> superblockShift);
+        this.descriptors = new AtomicReferenceArray<>(((Integer.MAX_VALUE >> superblockShift) >> CHUNK_SHIFT) + 1);
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.superblocks");
+        metrics.addValueMetric("vmtable.superblockSize", superblockSize);
+    }
+
+    public int getSuperblockSize() {
+        return superblockSize;
+    }
+
+    /**
+     * Gets the used blocks. These are the same blocks that were returned on allocation, so they can be freed
+     * or resized. It's not atomic, so the blocks allocated or freed meanwhile could be missed.
+     *
+     * @return the list of used blocks.
+     */
+    @Override
+    public Collection<Block> getUsed() {
+        final List<Block> result = new ArrayList<>();
+        for (Block each : new ArrayList<>(superblocks.getUsed())) {
+            final Descriptor descriptor = getDescriptor((int) each.getAddress());
+            if (descriptor != null && descriptor.superblock == each) {
+                for (int i = 0; i < descriptor.blocks.length(); i++) {
+                    addUsed(result, descriptor.blocks.get(i));
+                }
+            } else {
+                addUsed(result, runs.get((int) each.getAddress()));
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    private static void addUsed(List<Block> result, LockFreeBlock block) {
+        if (block != null && block.freed == 0) {
+            result.add(block);
+        }
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        final List<Block> result = new ArrayList<>();
+        for (Block each : new ArrayList<>(superblocks.getFree())) {
+            if (each.getSize() > 0) {
+                result.add(toBytes(each));
+            }
+        }
+        for (Block each : new ArrayList<>(superblocks.getUsed())) {
+            final Descriptor descriptor = getDescriptor((int) each.getAddress());
+            if (descriptor != null && descriptor.superblock == each) {
+                boolean[] free = getFreeSlots(descriptor);
+                for (int i = 0; i < free.length; i++) {
+                    if (free[i]) {
+                        result.add(new TableBlock(descriptor.address + i * descriptor.blockSize, descriptor.blockSize));
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        long freeBlocksCount = 0;
+        for (Block each : new ArrayList<>(superblocks.getUsed())) {
+            final Descriptor descriptor = getDescriptor((int) each.getAddress());
+            if (descriptor != null && descriptor.superblock == each) {
+                freeBlocksCount += count(descriptor.anchor.get());
+            }
+        }
+        freeBlocksCount += superblocks.getFree().size();
+
+        metrics.mark("vmtable.totalAllocations", totalAllocations.sum());
+        metrics.mark("vmtable.failedAllocations", failedAllocations.sum());
+        metrics.mark("vmtable.totalFrees", totalFrees.sum());
+        metrics.mark("vmtable.failedFrees", failedFrees.sum());
+        metrics.mark("vmtable.freeSize", getFreeMemorySize());
+        metrics.mark("vmtable.usedSize", getUsedMemorySize());
+        metrics.mark("vmtable.freeBlocksCount", freeBlocksCount);
+        metrics.mark("vmtable.usedBlocksCount", usedBlocks.sum());
+        metrics.mark("vmtable.superblocks", superblocksCount.get());
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        totalAllocations.increment();
+
+        final LockFreeBlock result = (size > maxBlockSize ? allocateLarge(size, 1) : allocateSmall(size, size));
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedSize.add(takenSize(result.run, result.address));
+        usedBlocks.increment();
+
+        return result;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+
+        totalAllocations.increment();
+
+        // the size class block is aligned to it's size
+        final int classSize = Math.max(size, alignment);
+        final LockFreeBlock result = (classSize > maxBlockSize
+                ? allocateLarge(size, Math.max(1, alignment >> superblockShift))
+                : allocateSmall(classSize, size));
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedSize.add(takenSize(result.run, result.address));
+        usedBlocks.increment();
+
+        return result;
+    }
+
+    /**
+     * Allocates a run of superblocks.
+     *
+     * @param size      the size of block.
+     * @param alignment the alignment of the run, in superblocks.
+     * @return the allocated block or null.
+     */
+    private LockFreeBlock allocateLarge(int size, int alignment) {
+        final int count = (size + superblockSize - 1) >> superblockShift;
+        Block run = superblocks.allocate(count, alignment);
+        if (run == null && releaseEmptyActiveSuperblocks()) {
+            run = superblocks.allocate(count, alignment);
+        }
+        if (run == null) {
+            return null;
+        }
+
+        final LockFreeBlock result = new LockFreeBlock(this, (int) run.getAddress() << superblockShift, size, run);
+        runs.put((int) run.getAddress(), result);
+        return result;
+    }
+
+    /**
+     * Allocates a block from the size class.
+     *
+     * @param classSize the size to choose the size class.
+     * @param size      the size of block.
+     * @return the allocated block or null.
+     */
+    private LockFreeBlock allocateSmall(int classSize, int size) {
+        final SizeClass sizeClass = sizeClasses[getSizeClassIndex(classSize)];
+
+        int address = allocateFromActive(sizeClass);
+        if (address == -1) {
+            address = allocateFromPartial(sizeClass);
+        }
+        if (address == -1) {
+            address = allocateFromNewSuperblock(sizeClass);
+        }
+        if (address == -1) {
+            // no superblocks left, but other thread could make a superblock active meanwhile
+            address = allocateFromActive(sizeClass);
+        }
+
+        if (address == -1) {
+            return null;
+        }
+
+        final LockFreeBlock result = new LockFreeBlock(this, address, size, null);
+        final Descriptor descriptor = getDescriptor(address >> superblockShift);
+        descriptor.blocks.set((address - descriptor.address) / descriptor.blockSize, result);
+        return result;
+    }
+
+    /**
+     * Gets the size taken by the allocated block, that is the size of it's slot or of it's run of superblocks.
+     *
+     * @param run     the run of superblocks of the large block, or null for the small block.
+     * @param address the address of the block.
+     * @return the taken size in bytes.
+     */
+    private int takenSize(Block run, int address) {
+        if (run != null) {
+            return (int) run.getSize() << superblockShift;
+        }
+        return getDescriptor(address >> superblockShift).blockSize;
+    }
+
+    private int allocateFromActive(SizeClass sizeClass) {
+        while (true) {
+            final Active active = sizeClass.active.get();
+            if (active == null) {
+                return -1;
+            }
+
+            final Descriptor descriptor = active.descriptor;
+            final long anchor = descriptor.anchor.get();
+            if (state(anchor) != ACTIVE) {
+                // superblock is full, and is not active any more
+                sizeClass.active.compareAndSet(active, null);
+                continue;
+            }
+
+            final int count = count(anchor);
+            if (count == 0) {
+                // no free blocks, so mark superblock as full, and it will become partial on free
+                if (descriptor.anchor.compareAndSet(anchor, anchor(0, 0, FULL, tag(anchor) + 1))) {
+                    sizeClass.active.compareAndSet(active, null);
+                }
+                continue;
+            }
+
+            final int avail = avail(anchor);
+            final long newAnchor = anchor(descriptor.next[avail], count - 1, ACTIVE, tag(anchor) + 1);
+            if (descriptor.anchor.compareAndSet(anchor, newAnchor)) {
+                return descriptor.address + avail * descriptor.blockSize;
+            }
+        }
+    }
+
+    private int allocateFromPartial(SizeClass sizeClass) {
+        Descriptor descriptor;
+        while ((descriptor = sizeClass.partial.poll()) != null) {
+            long anchor, newAnchor;
+            do {
+                anchor = descriptor.anchor.get();
+                if (state(anchor) != PARTIAL || count(anchor) == 0) {
+                    // superblock is empty and was returned already
+                    break;
+                }
+
+                final int count = count(anchor) - 1;
+                final int state = (count > 0 ? ACTIVE : FULL);
+                newAnchor = anchor(descriptor.next[avail(anchor)], count, state, tag(anchor) + 1);
+                if (descriptor.anchor.compareAndSet(anchor, newAnchor)) {
+                    if (state == ACTIVE) {
+                        makeActive(sizeClass, descriptor);
+                    }
+                    return descriptor.address + avail(anchor) * descriptor.blockSize;
+                }
+            } while (true);
+        }
+
+        return -1;
+    }
+
+    private int allocateFromNewSuperblock(SizeClass sizeClass) {
+        Block superblock = superblocks.allocate(1);
+        if (superblock == null && releaseEmptyActiveSuperblocks()) {
+            superblock = superblocks.allocate(1);
+        }
+        if (superblock == null) {
+            return -1;
+        }
+
+        final int index = (int) superblock.getAddress();
+        final Descriptor descriptor = new Descriptor(sizeClass, superblock, index << superblockShift);
+
+        // the first block is allocated right away
+        descriptor.anchor.set(anchor(1, sizeClass.maxCount - 1, ACTIVE, 0));
+        setDescriptor(index, descriptor);
+        superblocksCount.incrementAndGet();
+
+        makeActive(sizeClass, descriptor);
+
+        return descriptor.address;
+    }
+
+    /**
+     * Makes the descriptor in {@code ACTIVE} state to be an active superblock of size class.
+     * If size class has active superblock already, then this one becomes partial.
+     *
+     * @param sizeClass  the size class.
+     * @param descriptor the descriptor of superblock in {@code ACTIVE} state.
+     */
+    private void makeActive(SizeClass sizeClass, Descriptor descriptor) {
+        if (sizeClass.active.compareAndSet(null, new Active(descriptor))) {
+            return;
+        }
+
+        long anchor;
+        do {
+            anchor = descriptor.anchor.get();
+        }
+        while (!descriptor.anchor.compareAndSet(anchor, anchor(avail(anchor), count(anchor), PARTIAL, tag(anchor) + 1)));
+
+        sizeClass.partial.offer(descriptor);
+    }
+
+    /**
+     * Active superblocks are not returned even if all their blocks are free, so the next allocation is fast.
+     * When there are no free superblocks left, the empty active superblocks are returned too.
+     *
+     * @return true if any superblock was returned.
+     */
+    private boolean releaseEmptyActiveSuperblocks() {
+        boolean released = false;
+        for (SizeClass each : sizeClasses) {
+            final Active active = each.active.get();
+            if (active == null || count(active.descriptor.anchor.get()) != each.maxCount) {
+                continue;
+            }
+            if (!each.active.compareAndSet(active, null)) {
+                continue;
+            }
+
+            final Descriptor descriptor = active.descriptor;
+            long anchor;
+            int state;
+            do {
+                anchor = descriptor.anchor.get();
+                if (state(anchor) != ACTIVE) {
+                    // superblock became full, and will be returned to partial list on free
+                    break;
+                }
+                state = (count(anchor) == each.maxCount ? EMPTY : PARTIAL);
+                if (descriptor.anchor.compareAndSet(anchor, anchor(avail(anchor), count(anchor), state, tag(anchor) + 1))) {
+                    if (state == EMPTY) {
+                        releaseSuperblock(descriptor);
+                        released = true;
+                    } else {
+                        each.partial.offer(descriptor);
+                    }
+                    break;
+                }
+            } while (true);
+        }
+        return released;
+    }
+
+    private void releaseSuperblock(Descriptor descriptor) {
+        setDescriptor(descriptor.address >> superblockShift, null);
+        superblocksCount.decrementAndGet();
+        superblocks.free(descriptor.superblock);
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        totalFrees.increment();
+
+        if (!(block instanceof LockFreeBlock)) {
+            failedFrees.increment();
+            return false;
+        }
+
+        final LockFreeBlock lockFreeBlock = (LockFreeBlock) block;
+        final int address = lockFreeBlock.address;
+        if (lockFreeBlock.table != this || !lockFreeBlock.release()) {
+            failedFrees.increment();
+            return false;
+        }
+
+        final int takenSize = takenSize(lockFreeBlock.run, address);
+        if (lockFreeBlock.run != null) {
+            runs.remove((int) lockFreeBlock.run.getAddress(), lockFreeBlock);
+            superblocks.free(lockFreeBlock.run);
+        } else {
+            freeSmall(address);
+        }
+
+        usedSize.add(-takenSize);
+        usedBlocks.decrement();
+
+        return true;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (!(block instanceof LockFreeBlock) || ((LockFreeBlock) block).table != this) {
+            return false;
+        }
+
+        final LockFreeBlock lockFreeBlock = (LockFreeBlock) block;
+        if (lockFreeBlock.freed != 0) {
+            return false;
+        }
+
+        if (lockFreeBlock.run != null) {
+            // the run of superblocks is resized in the superblocks table
+            final long oldCount = lockFreeBlock.run.getSize();
+            final int count = (size + superblockSize - 1) >> superblockShift;
+            if (count != oldCount && !superblocks.resize(lockFreeBlock.run, count)) {
+                return false;
+            }
+            usedSize.add((count - oldCount) << superblockShift);
+        } else if (size > getDescriptor(lockFreeBlock.address >> superblockShift).blockSize) {
+            // the small block can be resized within it's size class only
+            return false;
+        }
+
+        lockFreeBlock.size = size;
+
+        return true;
+    }
+
+    private void freeSmall(int address) {
+        final int index = address >> superblockShift;
+        final Descriptor descriptor = getDescriptor(index);
+        final int slot = (address - descriptor.address) / descriptor.blockSize;
+        final int maxCount = descriptor.sizeClass.maxCount;
+
+        // the block is cleared before the slot is free, so it doesn't override the block allocated next
+        descriptor.blocks.set(slot, null);
+
+        long anchor, newAnchor;
+        int state;
+        do {
+            anchor = descriptor.anchor.get();
+            descriptor.next[slot] = avail(anchor);
+
+            final int count = count(anchor) + 1;
+            state = state(anchor);
+            if (state != ACTIVE && count == maxCount) {
+                state = EMPTY;
+            } else if (state == FULL) {
+                state = PARTIAL;
+            }
+            newAnchor = anchor(slot, count, state, tag(anchor) + 1);
+        }
+        while (!descriptor.anchor.compareAndSet(anchor, newAnchor));
+
+        if (state == EMPTY) {
+            // the superblock is not used anymore, so return it back;
+            // it's removed from the partial list lazily on allocation
+            releaseSuperblock(descriptor);
+        } else if (state(anchor) == FULL) {
+            descriptor.sizeClass.partial.offer(descriptor);
+        }
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        return TableBatches.allocateAll(this, sizes);
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        return TableBatches.freeAll(this, blocks);
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return ((size >> superblockShift) << superblockShift) - getUsedMemorySize();
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedSize.sum();
+    }
+
+    @Override
+    public void reset(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        metrics.reset();
+
+        superblocks.reset(tableSize >> superblockShift);
+        for (int i = 0; i < descriptors.length(); i++) {
+            descriptors.set(i, null);
+        }
+        for (SizeClass each : sizeClasses) {
+            each.active.set(null);
+            each.partial.clear();
+        }
+        superblocksCount.set(0);
+        runs.clear();
+
+        usedSize.reset();
+        usedBlocks.reset();
+        totalAllocations.reset();
+        failedAllocations.reset();
+        totalFrees.reset();
+        failedFrees.reset();
+
+        this.size = tableSize;
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return size > this.size && size <= TableSizes.MAX_INT_TABLE_SIZE;
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        final int tableSize = TableSizes.checkIntTableSize(size);
+        final int count = tableSize >> superblockShift;
+        if (superblocks.canIncreaseSize(count)) {
+            superblocks.increaseSize(count);
+        }
+        this.size = tableSize;
+        metrics.increment("vmtable.increases");
+    }
+
+    private Block toBytes(Block superblocksRun) {
+        return new TableBlock(
+                superblocksRun.getAddress() << superblockShift,
+                superblocksRun.getSize() << superblockShift);
+    }
+
+    /**
+     * Finds free slots of the superblock. It's not atomic, so used for information only.
+     *
+     * @param descriptor the superblock descriptor.
+     * @return the array where free slots are marked with true.
+     */
+    private static boolean[] getFreeSlots(Descriptor descriptor) {
+        final boolean[] result = new boolean[descriptor.sizeClass.maxCount];
+        final long anchor = descriptor.anchor.get();
+
+        int avail = avail(anchor);
+        for (int i = count(anchor); i > 0 && avail < result.length; i--) {
+            result[avail] = true;
+            avail = descriptor.next[avail];
+        }
+        return result;
+    }
+
+    private int getSizeClassIndex(int size) {
+        if (size <= MIN_BLOCK_SIZE) {
+            return 0;
+        }
+        return (32 - Integer.numberOfLeadingZeros(size - 1)) - Integer.numberOfTrailingZeros(MIN_BLOCK_SIZE);
+    }
+
+    private Descriptor getDescriptor(int index) {
+        final AtomicReferenceArray<Descriptor> chunk = descriptors.get(index >>> CHUNK_SHIFT);
+        return (chunk != null ? chunk.get(index & CHUNK_MASK) : null);
+    }
+
+    private void setDescriptor(int index, Descriptor descriptor) {
+        final int chunkIndex = index >>> CHUNK_SHIFT;
+        AtomicReferenceArray<Descriptor> chunk = descriptors.get(chunkIndex);
+        if (chunk == null) {
+            descriptors.compareAndSet(chunkIndex, null, new AtomicReferenceArray<Descriptor>(CHUNK_MASK + 1));
+            chunk = descriptors.get(chunkIndex);
+        }
+        chunk.set(index & CHUNK_MASK, descriptor);
+    }
+
+    // ---------- anchor helpers
+
+    private static long anchor(int avail, int count, int state, long tag) {
+        return (avail & INDEX_MASK)
+                | ((count & INDEX_MASK) << COUNT_SHIFT)
+                | ((long) state << STATE_SHIFT)
+                | (tag << TAG_SHIFT);
+    }
+
+    private static int avail(long anchor) {
+        return (int) (anchor & INDEX_MASK);
+    }
+
+    private static int count(long anchor) {
+        return (int) ((anchor >>> COUNT_SHIFT) & INDEX_MASK);
+    }
+
+    private static int state(long anchor) {
+        return (int) ((anchor >>> STATE_SHIFT) & 3);
+    }
+
+    private static long tag(long anchor) {
+        return anchor >>> TAG_SHIFT;
+    }
+
+    // ---------- internal structures
+
+    private static final class SizeClass {
+
+        final int blockSize;
+        final int maxCount;
+
+        final AtomicReference<Active> active = new AtomicReference<>();
+        final Queue<Descriptor> partial = new ConcurrentLinkedQueue<>();
+
+        SizeClass(int blockSize, int maxCount) {
+            this.blockSize = blockSize;
+            this.maxCount = maxCount;
+        }
+    }
+
+    /**
+     * The reference to the active superblock. A new instance is created every time superblock becomes active,
+     * so the stale active superblock can't be reset by mistake, if it became active again.
+     */
+    private static final class Active {
+
+        final Descriptor descriptor;
+
+        Active(Descriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+    }
+
+    private static final class Descriptor {
+
+        final AtomicLong anchor = new AtomicLong();
+        final SizeClass sizeClass;
+        final Block superblock;
+        final int address;
+        final int blockSize;
+
+        /**
+         * The list of free blocks, where each free block points to the next one.
+         */
+        final int[] next;
+
+        /**
+         * The allocated blocks by their slots.
+         */
+        final AtomicReferenceArray<LockFreeBlock> blocks;
+
+        Descriptor(SizeClass sizeClass, Block superblock, int address) {
+            this.sizeClass = sizeClass;
+            this.superblock = superblock;
+            this.address = address;
+            this.blockSize = sizeClass.blockSize;
+
+            this.next = new int[sizeClass.maxCount];
+            this.blocks = new AtomicReferenceArray<>(sizeClass.maxCount);
+            for (int i = 0; i < next.length; i++) {
+                next[i] = i + 1;
+            }
+        }
+    }
+
+    private static final class LockFreeBlock implements Block {
+
+        private static final AtomicIntegerFieldUpdater<LockFreeBlock> FREED =
+                AtomicIntegerFieldUpdater.newUpdater(LockFreeBlock.class, "freed");
+
+        final LockFreeVirtualMemoryTable table;
+        final Block run;
+
+        int address;
+        int size;
+        volatile int freed;
+
+        LockFreeBlock(LockFreeVirtualMemoryTable table, int address, int size, Block run) {
+            this.table = table;
+            this.address = address;
+            this.size = size;
+            this.run = run;
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Marks the block as freed and clears it.
+         *
+         * @return true if block was freed by this call, or false if it was freed already.
+         */
+        boolean release() {
+            if (FREED.compareAndSet(this, 0, 1)) {
+                address = 0;
+                size = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
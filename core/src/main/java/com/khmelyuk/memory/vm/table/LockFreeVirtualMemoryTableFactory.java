@@ -0,0 +1,30 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * A factory for {@link LockFreeVirtualMemoryTable}
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class LockFreeVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new LockFreeVirtualMemoryTableFactory();
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    private final int superblockSize;
+
+    public LockFreeVirtualMemoryTableFactory() {
+        this(LockFreeVirtualMemoryTable.DEFAULT_SUPERBLOCK_SIZE);
+    }
+
+    public LockFreeVirtualMemoryTableFactory(int superblockSize) {
+        this.superblockSize = superblockSize;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) {
+        return new LockFreeVirtualMemoryTable(TableSizes.checkIntTableSize(size), superblockSize);
+    }
+}
@@ -0,0 +1,323 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.util.LongObjectHashMap;
+import com.khmelyuk.memory.vm.storage.MappedFileStorage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The virtual memory table, which used blocks are persisted to the file, so the table can be restored later,
+ * for example when the memory mapped by file is opened again.
+ * <p/>
+ * Blocks are allocated with the {@link LinkedVirtualMemoryTable}. Each used block is recorded to a slot of the file
+ * as its address and size, the slot of the freed block is cleared and reused by the next allocation.
+ * So the file size is proportional to the max number of used blocks, and the table is restored in time
+ * proportional to it, not to the memory size.
+ * <p/>
+ * The file is mapped, so records survive the restart of the process as soon as they are written,
+ * but recent records can be lost if the system crashes. The address is written before the size,
+ * and the slot is empty while its size is zero, so a torn record is never restored as a used block.
+ * <p/>
+ * Table operations are serialized, so records are written in the same order as blocks are allocated and freed.
+ * Blocks are not relocated, so the memory with this table can't be compacted.
+ * When the table is reset, it's detached from the file, so the memory can be freed and opened again.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class PersistentVirtualMemoryTable implements VirtualMemoryTable {
+
+    private static final int MAGIC = 0x4D454D54;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 16;
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final int SLOTS_GROW_COUNT = 4096;
+
+    /**
+     * Creates the table of specified size, that is persisted to the file.
+     * The previous content of the file is replaced.
+     *
+     * @param channel the channel of the file to persist the table to.
+     * @param size    the table size.
+     * @return the created table.
+     * @throws MemoryException error to write the file.
+     */
+    public static PersistentVirtualMemoryTable create(FileChannel channel, long size) throws MemoryException {
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new MemoryException("Error to create the allocation table file", e);
+        }
+
+        final MappedFileStorage records = new MappedFileStorage(
+                channel, HEADER_SIZE + (long) SLOTS_GROW_COUNT * RECORD_SIZE, SEGMENT_SIZE, false);
+        records.putInt(0, MAGIC);
+        records.putInt(4, VERSION);
+        records.putLong(8, size);
+
+        final PersistentVirtualMemoryTable result = new PersistentVirtualMemoryTable(
+                channel, new LinkedVirtualMemoryTable(size), records);
+        result.addFreeSlots(0, SLOTS_GROW_COUNT);
+        return result;
+    }
+
+    /**
+     * Opens the table persisted to the file, the used blocks are restored from the file.
+     *
+     * @param channel the channel of the file the table is persisted to.
+     * @return the opened table.
+     * @throws MemoryException the file is not an allocation table, or error to read it.
+     */
+    public static PersistentVirtualMemoryTable open(FileChannel channel) throws MemoryException {
+        final long fileSize;
+        try {
+            fileSize = channel.size();
+        } catch (IOException e) {
+            throw new MemoryException("Error to open the allocation table file", e);
+        }
+        if (fileSize < HEADER_SIZE) {
+            throw new MemoryException("Not an allocation table file");
+        }
+
+        final MappedFileStorage records = new MappedFileStorage(channel, fileSize, SEGMENT_SIZE, false);
+        if (records.getInt(0) != MAGIC) {
+            throw new MemoryException("Not an allocation table file");
+        }
+        if (records.getInt(4) != VERSION) {
+            throw new MemoryException("Unsupported version of allocation table file: " + records.getInt(4));
+        }
+
+        final PersistentVirtualMemoryTable result = new PersistentVirtualMemoryTable(
+                channel, new LinkedVirtualMemoryTable(records.getLong(8)), records);
+        result.restore();
+        return result;
+    }
+
+    private final FileChannel channel;
+    private final LinkedVirtualMemoryTable table;
+    private MappedFileStorage records;
+
+    /**
+     * The slots of used blocks by their addresses, and the empty slots.
+     */
+    private final LongObjectHashMap<Integer> slots = new LongObjectHashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int slotsCount;
+
+    private PersistentVirtualMemoryTable(FileChannel channel, LinkedVirtualMemoryTable table, MappedFileStorage records) {
+        this.channel = channel;
+        this.table = table;
+        this.records = records;
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        return table.getUsed();
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        return table.getFree();
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        return table.getMetrics();
+    }
+
+    @Override
+    public synchronized Block allocate(int size) {
+        return record(table.allocate(size));
+    }
+
+    @Override
+    public synchronized Block allocate(int size, int alignment) {
+        return record(table.allocate(size, alignment));
+    }
+
+    @Override
+    public synchronized boolean resize(Block block, int size) {
+        if (!table.resize(block, size)) {
+            return false;
+        }
+
+        final Integer slot = slots.get(block.getAddress());
+        if (slot != null) {
+            records.putLong(slotPosition(slot) + 8, size);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        // the block is cleared when it's freed
+        final long address = block.getAddress();
+        if (!table.free(block)) {
+            return false;
+        }
+
+        clear(address);
+        return true;
+    }
+
+    @Override
+    public synchronized Block[] allocateAll(int[] sizes) {
+        final Block[] result = table.allocateAll(sizes);
+        if (result != null) {
+            for (Block each : result) {
+                record(each);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int freeAll(Collection<? extends Block> blocks) {
+        // the table frees only the used blocks, that are exactly the recorded ones
+        final List<Long> freed = new ArrayList<>(blocks.size());
+        for (Block each : blocks) {
+            if (each != null && isRecorded(each)) {
+                freed.add(each.getAddress());
+            }
+        }
+
+        final int result = table.freeAll(blocks);
+        for (Long each : freed) {
+            clear(each);
+        }
+        return result;
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return table.getFreeMemorySize();
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return table.getUsedMemorySize();
+    }
+
+    /**
+     * Resets the table, the table is detached from the file, so the persisted blocks are kept.
+     * The table is reset when the memory is freed, and it's opened again with the same blocks.
+     *
+     * @param size the new size of the table.
+     */
+    @Override
+    public synchronized void reset(long size) {
+        table.reset(size);
+
+        records = null;
+        slots.clear();
+        freeSlots.clear();
+        slotsCount = 0;
+    }
+
+    @Override
+    public synchronized void increaseSize(long size) {
+        table.increaseSize(size);
+        if (records != null) {
+            records.putLong(8, size);
+        }
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return table.canIncreaseSize(size);
+    }
+
+    /**
+     * Restores the used blocks from the records of the file.
+     */
+    private void restore() {
+        final int count = (int) ((records.size() - HEADER_SIZE) / RECORD_SIZE);
+        final List<Block> used = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final long position = slotPosition(i);
+            final long size = records.getLong(position + 8);
+            if (size > 0) {
+                final long address = records.getLong(position);
+                used.add(new TableBlock(address, size));
+                slots.put(address, i);
+            } else {
+                freeSlots.add(i);
+            }
+        }
+        slotsCount = count;
+
+        table.restore(records.getLong(8), used);
+    }
+
+    /**
+     * Records the allocated block to the empty slot, the file is extended if there are no empty slots.
+     *
+     * @param block the allocated block or null.
+     * @return the same block.
+     */
+    private Block record(Block block) {
+        if (block == null || records == null) {
+            return block;
+        }
+
+        if (freeSlots.isEmpty()) {
+            growSlots();
+        }
+
+        final int slot = freeSlots.poll();
+        final long position = slotPosition(slot);
+        records.putLong(position, block.getAddress());
+        records.putLong(position + 8, block.getSize());
+        slots.put(block.getAddress(), slot);
+
+        return block;
+    }
+
+    private boolean isRecorded(Block block) {
+        final Integer slot = slots.get(block.getAddress());
+        return slot != null && records.getLong(slotPosition(slot) + 8) == block.getSize();
+    }
+
+    /**
+     * Clears the slot of the freed block, so it can be reused.
+     *
+     * @param address the address of the freed block.
+     */
+    private void clear(long address) {
+        final Integer slot = slots.remove(address);
+        if (slot != null) {
+            records.putLong(slotPosition(slot) + 8, 0);
+            freeSlots.push(slot);
+        }
+    }
+
+    private void growSlots() {
+        final int count = slotsCount + SLOTS_GROW_COUNT;
+        records = new MappedFileStorage(channel, HEADER_SIZE + (long) count * RECORD_SIZE, SEGMENT_SIZE, false);
+        addFreeSlots(slotsCount, count);
+    }
+
+    private void addFreeSlots(int from, int to) {
+        for (int i = from; i < to; i++) {
+            freeSlots.add(i);
+        }
+        slotsCount = to;
+    }
+
+    private static long slotPosition(int slot) {
+        return HEADER_SIZE + (long) slot * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,32 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * The table of virtual memory blocks, which can move used blocks to defeat external fragmentation.
+ * <p/>
+ * Blocks returned by the table are handles: when a used block is moved, its address is updated,
+ * so the block is still valid after compaction.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public interface RelocatableVirtualMemoryTable extends VirtualMemoryTable {
+
+    /**
+     * Slides used blocks down to the lowest free block, so free memory is merged into the tail.
+     * At least one block is moved, if there is a block to move, so the step is bounded
+     * by the max of {@code maxBytes} and the size of the largest block.
+     * <p/>
+     * Used blocks must not be accessed while they are compacted.
+     *
+     * @param maxBytes the max number of bytes to move.
+     * @param mover    the mover of the blocks content.
+     * @return the number of moved bytes, 0 if memory is compacted or blocks are changed by other thread.
+     */
+    int compact(int maxBytes, BlockMover mover);
+
+    /**
+     * Gets the size of the largest free block.
+     *
+     * @return the size of the largest free block.
+     */
+    long getLargestFreeBlockSize();
+}
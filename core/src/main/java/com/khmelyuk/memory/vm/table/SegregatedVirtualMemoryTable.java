@@ -0,0 +1,608 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.concurrency.StripedCounter;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Virtual memory table with segregated free lists for small blocks.
+ * <p/>
+ * Small blocks are rounded up to the size of their bin. Bins are 16 bytes apart up to 128 bytes,
+ * and then there are 4 bins for each power of two up to {@link #MAX_SMALL_SIZE}.
+ * Each bin has it's own lock and takes runs of blocks from the table for large blocks.
+ * Each run keeps a stack of it's free blocks, so small block is allocated and freed in O(1).
+ * When all blocks in the run are free, the run is returned back, except the last one for the bin.
+ * <p/>
+ * Blocks larger than {@link #MAX_SMALL_SIZE} are allocated from the {@link LinkedVirtualMemoryTable}.
+ * Used memory size counts the requested size.
+ * <p/>
+ * Small block is resized in place within it's bin, and large block is resized by the {@link LinkedVirtualMemoryTable}.
+ * <p/>
+ * Aligned blocks are always allocated from the {@link LinkedVirtualMemoryTable}, as bins don't align blocks.
+ * <p/>
+ * Counters are striped, so threads that allocate from different bins don't share anything but the bin lookup.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class SegregatedVirtualMemoryTable implements VirtualMemoryTable {
+
+    public static final int MAX_SMALL_SIZE = 4096;
+
+    private static final int QUANTUM = 16;
+    private static final int MAX_QUANTUM_SIZE = 128;
+    private static final int BINS_PER_DOUBLING = 4;
+
+    /**
+     * The min size of the run, so the small bins don't take runs too often.
+     */
+    private static final int MIN_RUN_SIZE = 4096;
+
+    /**
+     * The min number of blocks in the run for the large bins.
+     */
+    private static final int MIN_RUN_BLOCKS = 8;
+
+    private final Bin[] bins;
+    private final byte[] binIndex;
+
+    private final LinkedVirtualMemoryTable large;
+    private volatile long size;
+
+    private final StripedCounter usedMemorySize = new StripedCounter();
+    private final StripedCounter totalAllocations = new StripedCounter();
+    private final StripedCounter failedAllocations = new StripedCounter();
+    private final StripedCounter totalFrees = new StripedCounter();
+    private final StripedCounter failedFrees = new StripedCounter();
+    private final StripedCounter largeAllocations = new StripedCounter();
+
+    private final Metrics metrics;
+
+    public SegregatedVirtualMemoryTable(long size) {
+        this.size = size;
+        this.large = new LinkedVirtualMemoryTable(size);
+
+        final List<Integer> binSizes = new ArrayList<>();
+        for (int each = QUANTUM; each <= MAX_QUANTUM_SIZE; each += QUANTUM) {
+            binSizes.add(each);
+        }
+        for (int base = MAX_QUANTUM_SIZE; base < MAX_SMALL_SIZE; base <<= 1) {
+            for (int i = 1; i <= BINS_PER_DOUBLING; i++) {
+                binSizes.add(base + i * (base / BINS_PER_DOUBLING));
+            }
+        }
+
+        this.bins = new Bin[binSizes.size()];
+        for (int i = 0; i < bins.length; i++) {
+            final int blockSize = binSizes.get(i);
+            bins[i] = new Bin(blockSize, Math.max(MIN_RUN_SIZE / blockSize, MIN_RUN_BLOCKS));
+        }
+
+        // lookup for the bin by the size in quantums
+        this.binIndex = new byte[MAX_SMALL_SIZE / QUANTUM + 1];
+        for (int i = 0, bin = 0; i < binIndex.length; i++) {
+            while (bins[bin].blockSize < i * QUANTUM) {
+                bin++;
+            }
+            binIndex[i] = (byte) bin;
+        }
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.largeAllocations");
+        for (Bin each : bins) {
+            metrics.addValueMetric(each.metricPrefix + "usedBlocks");
+            metrics.addValueMetric(each.metricPrefix + "freeBlocks");
+            metrics.addValueMetric(each.metricPrefix + "runs");
+        }
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        final List<Block> result = new ArrayList<>();
+        final Set<Block> runBlocks = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+        for (Bin bin : bins) {
+            bin.lock.lock();
+            try {
+                for (Run run : bin.runs) {
+                    runBlocks.add(run.block);
+                    final boolean[] free = run.getFreeSlots();
+                    for (int i = 0; i < free.length; i++) {
+                        if (!free[i]) {
+                            result.add(new TableBlock(run.address + i * bin.blockSize, bin.blockSize));
+                        }
+                    }
+                }
+            } finally {
+                bin.lock.unlock();
+            }
+        }
+        for (Block each : new ArrayList<>(large.getUsed())) {
+            if (!runBlocks.contains(each)) {
+                result.add(each);
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        final List<Block> result = new ArrayList<>(large.getFree());
+        for (Bin bin : bins) {
+            bin.lock.lock();
+            try {
+                for (Run run : bin.runs) {
+                    final boolean[] free = run.getFreeSlots();
+                    for (int i = 0; i < free.length; i++) {
+                        if (free[i]) {
+                            result.add(new TableBlock(run.address + i * bin.blockSize, bin.blockSize));
+                        }
+                    }
+                }
+            } finally {
+                bin.lock.unlock();
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        long usedBlocks = large.getUsed().size();
+        long freeBlocks = large.getFree().size();
+        for (Bin each : bins) {
+            each.lock.lock();
+            try {
+                metrics.mark(each.metricPrefix + "usedBlocks", each.usedBlocks);
+                metrics.mark(each.metricPrefix + "freeBlocks", each.freeBlocks);
+                metrics.mark(each.metricPrefix + "runs", each.runs.size());
+
+                usedBlocks += each.usedBlocks - each.runs.size();
+                freeBlocks += each.freeBlocks;
+            } finally {
+                each.lock.unlock();
+            }
+        }
+
+        metrics.mark("vmtable.totalAllocations", totalAllocations.sum());
+        metrics.mark("vmtable.failedAllocations", failedAllocations.sum());
+        metrics.mark("vmtable.totalFrees", totalFrees.sum());
+        metrics.mark("vmtable.failedFrees", failedFrees.sum());
+        metrics.mark("vmtable.largeAllocations", largeAllocations.sum());
+        metrics.mark("vmtable.freeSize", getFreeMemorySize());
+        metrics.mark("vmtable.usedSize", getUsedMemorySize());
+        metrics.mark("vmtable.usedBlocksCount", usedBlocks);
+        metrics.mark("vmtable.freeBlocksCount", freeBlocks);
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        totalAllocations.increment();
+
+        Block result = null;
+        if (size <= MAX_SMALL_SIZE) {
+            final Bin bin = bins[binIndex[(size + QUANTUM - 1) / QUANTUM]];
+            result = allocateSmall(bin, size);
+            if (result == null) {
+                // there is no memory for a new run, so try to allocate just this block
+                result = allocateLarge(size, 1);
+            }
+        } else {
+            result = allocateLarge(size, 1);
+        }
+
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedMemorySize.add(result.getSize());
+
+        return result;
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+        if (alignment == 1) {
+            return allocate(size);
+        }
+
+        totalAllocations.increment();
+
+        final Block result = allocateLarge(size, alignment);
+
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedMemorySize.add(result.getSize());
+
+        return result;
+    }
+
+    private Block allocateSmall(Bin bin, int size) {
+        final Lock lock = bin.lock;
+        lock.lock();
+        try {
+            Run run = bin.partial;
+            if (run == null) {
+                final Block runBlock = large.allocate(bin.blockSize * bin.blocksPerRun);
+                if (runBlock == null) {
+                    return null;
+                }
+
+                run = new Run(bin, runBlock);
+                bin.runs.add(run);
+                bin.link(run);
+                bin.freeBlocks += run.freeCount;
+            }
+
+            final int slot = run.pop();
+            if (run.freeCount == 0) {
+                bin.unlink(run);
+            }
+            bin.freeBlocks--;
+            bin.usedBlocks++;
+
+            return new SmallBlock(this, run, slot, run.address + slot * bin.blockSize, size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Block allocateLarge(int size, int alignment) {
+        Block result = large.allocate(size, alignment);
+        if (result == null && releaseEmptyRuns()) {
+            result = large.allocate(size, alignment);
+        }
+        if (result != null) {
+            largeAllocations.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Each bin keeps an empty run to avoid to take and return runs too often.
+     * When there is no memory for large block, these runs are returned.
+     *
+     * @return true if any run was returned.
+     */
+    private boolean releaseEmptyRuns() {
+        boolean released = false;
+        for (Bin bin : bins) {
+            bin.lock.lock();
+            try {
+                final Run run = bin.partial;
+                if (run != null && run.isEmpty() && run.next == null) {
+                    releaseRun(bin, run);
+                    released = true;
+                }
+            } finally {
+                bin.lock.unlock();
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        totalFrees.increment();
+
+        final long size = block.getSize();
+        final boolean result;
+        if (block instanceof SmallBlock) {
+            result = freeSmall((SmallBlock) block);
+        } else {
+            result = large.free(block);
+        }
+
+        if (!result) {
+            failedFrees.increment();
+            return false;
+        }
+
+        usedMemorySize.add(-size);
+
+        return true;
+    }
+
+    private boolean freeSmall(SmallBlock block) {
+        if (block.table != this) {
+            return false;
+        }
+
+        final Run run = block.run;
+        final Bin bin = run.bin;
+        final Lock lock = bin.lock;
+        lock.lock();
+        try {
+            if (block.freed) {
+                return false;
+            }
+            block.freed = true;
+            block.address = 0;
+            block.size = 0;
+
+            run.push(block.slot);
+            bin.freeBlocks++;
+            bin.usedBlocks--;
+
+            if (run.freeCount == 1) {
+                bin.link(run);
+            }
+            if (run.isEmpty() && (bin.partial != run || run.next != null)) {
+                // the bin has other runs to allocate from, so return this one
+                releaseRun(bin, run);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (block == null) {
+            return false;
+        }
+
+        final long oldSize = block.getSize();
+        if (block instanceof SmallBlock) {
+            if (!resizeSmall((SmallBlock) block, size)) {
+                return false;
+            }
+        } else if (!large.resize(block, size)) {
+            return false;
+        }
+
+        usedMemorySize.add(size - oldSize);
+
+        return true;
+    }
+
+    private boolean resizeSmall(SmallBlock block, int size) {
+        if (block.table != this) {
+            return false;
+        }
+
+        // the small block can be resized within it's bin only
+        final Bin bin = block.run.bin;
+        final Lock lock = bin.lock;
+        lock.lock();
+        try {
+            if (block.freed || size > bin.blockSize) {
+                return false;
+            }
+            block.size = size;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseRun(Bin bin, Run run) {
+        bin.unlink(run);
+        bin.runs.remove(run);
+        bin.freeBlocks -= run.freeCount;
+        large.free(run.block);
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        return TableBatches.allocateAll(this, sizes);
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        return TableBatches.freeAll(this, blocks);
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return size - usedMemorySize.sum();
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedMemorySize.sum();
+    }
+
+    @Override
+    public void reset(long size) {
+        metrics.reset();
+
+        for (Bin each : bins) {
+            each.lock.lock();
+            try {
+                each.runs.clear();
+                each.partial = null;
+                each.usedBlocks = 0;
+                each.freeBlocks = 0;
+            } finally {
+                each.lock.unlock();
+            }
+        }
+        large.reset(size);
+
+        usedMemorySize.reset();
+        totalAllocations.reset();
+        failedAllocations.reset();
+        totalFrees.reset();
+        failedFrees.reset();
+        largeAllocations.reset();
+
+        this.size = size;
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return large.canIncreaseSize(size);
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        large.increaseSize(size);
+        this.size = size;
+        metrics.increment("vmtable.increases");
+    }
+
+    // ---------- internal structures
+
+    private static final class Bin {
+
+        final int blockSize;
+        final int blocksPerRun;
+        final String metricPrefix;
+
+        final Lock lock = new ReentrantLock();
+        final Set<Run> runs = new HashSet<>();
+
+        /**
+         * The head of the list of runs with free blocks.
+         */
+        Run partial;
+
+        int usedBlocks;
+        int freeBlocks;
+
+        Bin(int blockSize, int blocksPerRun) {
+            this.blockSize = blockSize;
+            this.blocksPerRun = blocksPerRun;
+            this.metricPrefix = "vmtable.bins." + blockSize + ".";
+        }
+
+        void link(Run run) {
+            run.prev = null;
+            run.next = partial;
+            if (partial != null) {
+                partial.prev = run;
+            }
+            partial = run;
+        }
+
+        void unlink(Run run) {
+            if (run.prev != null) {
+                run.prev.next = run.next;
+            } else if (partial == run) {
+                partial = run.next;
+            }
+            if (run.next != null) {
+                run.next.prev = run.prev;
+            }
+            run.prev = null;
+            run.next = null;
+        }
+    }
+
+    private static final class Run {
+
+        final Bin bin;
+        final Block block;
+        final long address;
+        final int[] freeSlots;
+        int freeCount;
+
+        Run prev;
+        Run next;
+
+        Run(Bin bin, Block block) {
+            final int blocksCount = bin.blocksPerRun;
+            this.bin = bin;
+            this.block = block;
+            this.address = block.getAddress();
+            this.freeSlots = new int[blocksCount];
+            for (int i = 0; i < blocksCount; i++) {
+                // lower addresses are on the top of the stack
+                freeSlots[i] = blocksCount - i - 1;
+            }
+            this.freeCount = blocksCount;
+        }
+
+        int pop() {
+            return freeSlots[--freeCount];
+        }
+
+        void push(int slot) {
+            freeSlots[freeCount++] = slot;
+        }
+
+        boolean isEmpty() {
+            return freeCount == freeSlots.length;
+        }
+
+        boolean[] getFreeSlots() {
+            final boolean[] result = new boolean[freeSlots.length];
+            for (int i = 0; i < freeCount; i++) {
+                result[freeSlots[i]] = true;
+            }
+            return result;
+        }
+    }
+
+    private static final class SmallBlock implements Block {
+
+        final SegregatedVirtualMemoryTable table;
+        final Run run;
+        final int slot;
+
+        long address;
+        int size;
+        boolean freed;
+
+        SmallBlock(SegregatedVirtualMemoryTable table, Run run, int slot, long address, int size) {
+            this.table = table;
+            this.run = run;
+            this.slot = slot;
+            this.address = address;
+            this.size = size;
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * A factory for {@link SegregatedVirtualMemoryTable}
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class SegregatedVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance = new SegregatedVirtualMemoryTableFactory();
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) {
+        return new SegregatedVirtualMemoryTable(size);
+    }
+}
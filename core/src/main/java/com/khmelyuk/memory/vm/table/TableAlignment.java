@@ -0,0 +1,35 @@
+package com.khmelyuk.memory.vm.table;
+
+/**
+ * Helpers for tables to allocate aligned blocks.
+ *
+ * @author Ruslan Khmelyuk
+ */
+final class TableAlignment {
+
+    private TableAlignment() {
+    }
+
+    /**
+     * Checks that alignment is a power of two.
+     *
+     * @param alignment the alignment to check.
+     * @throws IllegalArgumentException if alignment is not a power of two.
+     */
+    static void checkAlignment(int alignment) {
+        if (alignment <= 0 || Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("Alignment should be a power of two: " + alignment);
+        }
+    }
+
+    /**
+     * Gets the number of bytes to skip from the address to the closest aligned address.
+     *
+     * @param address   the address.
+     * @param alignment the alignment, a power of two.
+     * @return the padding to the aligned address.
+     */
+    static int padding(long address, int alignment) {
+        return (int) (-address & (alignment - 1));
+    }
+}
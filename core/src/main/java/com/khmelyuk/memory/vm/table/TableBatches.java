@@ -0,0 +1,64 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+
+import java.util.Collection;
+
+/**
+ * Batch operations for tables that don't have own batch implementation.
+ * Blocks are allocated and freed one by one with the table methods.
+ *
+ * @author Ruslan Khmelyuk
+ */
+final class TableBatches {
+
+    private TableBatches() {
+    }
+
+    /**
+     * Allocates blocks one by one; if any block can't be allocated, already allocated blocks are freed.
+     *
+     * @param table the table to allocate blocks from.
+     * @param sizes the sizes of blocks to allocate.
+     * @return the allocated blocks, or null if any block can't be allocated.
+     */
+    static Block[] allocateAll(VirtualMemoryTable table, int[] sizes) {
+        checkSizes(sizes);
+
+        final Block[] result = new Block[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            result[i] = table.allocate(sizes[i]);
+            if (result[i] == null) {
+                for (int j = 0; j < i; j++) {
+                    table.free(result[j]);
+                }
+                return null;
+            }
+        }
+        return result;
+    }
+
+    static int freeAll(VirtualMemoryTable table, Collection<? extends Block> blocks) {
+        int result = 0;
+        for (Block each : blocks) {
+            if (table.free(each)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks all sizes before anything is allocated.
+     *
+     * @param sizes the sizes of blocks to allocate.
+     * @throws OutOfBoundException if any size is negative or zero.
+     */
+    static void checkSizes(int[] sizes) throws OutOfBoundException {
+        for (int each : sizes) {
+            if (each <= 0) {
+                throw new OutOfBoundException("Size can't be negative or be zero: " + each);
+            }
+        }
+    }
+}
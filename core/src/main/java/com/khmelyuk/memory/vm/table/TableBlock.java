@@ -11,44 +11,45 @@ final class TableBlock implements Block, Comparable<TableBlock> {
 
     private final AtomicBoolean lock = new AtomicBoolean(false);
 
-    private int size;
-    private int address;
+    private long size;
+    private long address;
 
-    public TableBlock(int address, int size) {
+    public TableBlock(long address, long size) {
         this.address = address;
         this.size = size;
     }
 
     @Override
-    public int getAddress() {
+    public long getAddress() {
         return address;
     }
 
-    public void setAddress(int address) {
+    public void setAddress(long address) {
         this.address = address;
     }
 
     @Override
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
-    public void setSize(int length) {
+    public void setSize(long length) {
         this.size = length;
     }
 
-    public int getEnd() {
+    public long getEnd() {
         return address + size;
     }
 
-    public void resize(int address, int length) {
+    public void resize(long address, long length) {
         this.address = address;
         this.size = length;
     }
 
     @Override
     public int hashCode() {
-        return (size * 31 + address);
+        final long hash = size * 31 + address;
+        return (int) (hash ^ (hash >>> 32));
     }
 
     public boolean lock() {
@@ -66,7 +67,7 @@ final class TableBlock implements Block, Comparable<TableBlock> {
             TableBlock that = (TableBlock) o;
 
             return address == that.address
-                    && size != that.size;
+                    && size == that.size;
         }
 
         return false;
@@ -74,6 +75,6 @@ final class TableBlock implements Block, Comparable<TableBlock> {
 
     @Override
     public int compareTo(TableBlock o) {
-        return address - o.address;
+        return Long.compare(address, o.address);
     }
 }
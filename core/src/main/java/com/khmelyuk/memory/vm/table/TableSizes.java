@@ -0,0 +1,34 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+
+/**
+ * Helpers for tables that keep addresses as int, so such table can't be larger than 2 GB.
+ * Larger memory is split into arenas, see {@link ArenaVirtualMemoryTable}.
+ *
+ * @author Ruslan Khmelyuk
+ */
+final class TableSizes {
+
+    /**
+     * The max size of the table that keeps addresses as int.
+     */
+    static final int MAX_INT_TABLE_SIZE = Integer.MAX_VALUE;
+
+    private TableSizes() {
+    }
+
+    /**
+     * Checks that the size of the table is not negative and fits int addresses.
+     *
+     * @param size the size of the table.
+     * @return the size of the table as int.
+     * @throws OutOfBoundException if size is negative or larger than {@link #MAX_INT_TABLE_SIZE}.
+     */
+    static int checkIntTableSize(long size) throws OutOfBoundException {
+        if (size < 0 || size > MAX_INT_TABLE_SIZE) {
+            throw new OutOfBoundException("Table size should be between 0 and " + MAX_INT_TABLE_SIZE + ": " + size);
+        }
+        return (int) size;
+    }
+}
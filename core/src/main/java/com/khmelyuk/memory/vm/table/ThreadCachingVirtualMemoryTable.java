@@ -0,0 +1,569 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.concurrency.StripedCounter;
+import com.khmelyuk.memory.metrics.Metrics;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import com.khmelyuk.memory.metrics.MetricsSnapshotBuilder;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Virtual memory table that keeps per-thread caches of small free blocks in front of other table.
+ * <p/>
+ * Small block sizes are rounded up to the size class, and each thread has a stack of free blocks
+ * for each size class. Allocation takes a block from the stack of the current thread, and free puts it back,
+ * so the common allocate and free pair doesn't touch the shared table or shared counters.
+ * When the stack is empty, it's refilled with a batch of blocks allocated from the table at once,
+ * and when the stack is full, a half of it is flushed back to the table at once.
+ * The cache of the thread is also limited in bytes; if table fails to allocate a block,
+ * caches of all threads are flushed and allocation is retried.
+ * <p/>
+ * Blocks larger than {@link #MAX_CACHED_SIZE} are allocated from the table directly.
+ * Cached blocks are free for this table, but used for the underlying table.
+ * Aligned blocks are not cached, they are allocated from the underlying table.
+ * Cached block is resized in place within it's size class, other blocks are resized by the underlying table.
+ * Cached blocks allocated before the table was reset can't be freed or resized, as their memory could be used
+ * by other blocks already.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class ThreadCachingVirtualMemoryTable implements VirtualMemoryTable {
+
+    public static final int MAX_CACHED_SIZE = 1024;
+    public static final int DEFAULT_CACHE_CAPACITY = 16;
+    public static final int DEFAULT_MAX_CACHE_SIZE = 64 * 1024;
+
+    private static final int QUANTUM = 16;
+    private static final int CLASSES_COUNT = MAX_CACHED_SIZE / QUANTUM;
+
+    private final VirtualMemoryTable table;
+    private final int capacity;
+    private final int maxCacheSize;
+
+    private final ThreadLocal<Cache> cache = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            final Cache result = new Cache(Thread.currentThread(), capacity);
+            caches.add(result);
+            return result;
+        }
+    };
+    private final ConcurrentLinkedQueue<Cache> caches = new ConcurrentLinkedQueue<>();
+
+    private final StripedCounter usedSize = new StripedCounter();
+    private final StripedCounter usedBlocks = new StripedCounter();
+    private final StripedCounter totalAllocations = new StripedCounter();
+    private final StripedCounter failedAllocations = new StripedCounter();
+    private final StripedCounter totalFrees = new StripedCounter();
+    private final StripedCounter failedFrees = new StripedCounter();
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter flushes = new StripedCounter();
+
+    private final Metrics metrics;
+
+    /**
+     * The number of resets, cached blocks of previous resets are rejected.
+     */
+    private volatile int generation;
+
+    public ThreadCachingVirtualMemoryTable(VirtualMemoryTable table) {
+        this(table, DEFAULT_CACHE_CAPACITY, DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    /**
+     * @param table        the table to allocate blocks from.
+     * @param capacity     the max number of cached blocks per size class per thread.
+     * @param maxCacheSize the max size of cached blocks per thread.
+     */
+    public ThreadCachingVirtualMemoryTable(VirtualMemoryTable table, int capacity, int maxCacheSize) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Cache capacity should be at least 2: " + capacity);
+        }
+
+        this.table = table;
+        this.capacity = capacity;
+        this.maxCacheSize = maxCacheSize;
+
+        // add metrics
+        metrics = new Metrics();
+        metrics.addValueMetric("vmtable.totalAllocations");
+        metrics.addValueMetric("vmtable.failedAllocations");
+        metrics.addValueMetric("vmtable.totalFrees");
+        metrics.addValueMetric("vmtable.failedFrees");
+        metrics.addValueMetric("vmtable.increases");
+        metrics.addValueMetric("vmtable.freeSize");
+        metrics.addValueMetric("vmtable.usedSize");
+        metrics.addValueMetric("vmtable.freeBlocksCount");
+        metrics.addValueMetric("vmtable.usedBlocksCount");
+        metrics.addValueMetric("vmtable.cache.hits");
+        metrics.addValueMetric("vmtable.cache.misses");
+        metrics.addValueMetric("vmtable.cache.flushes");
+        metrics.addValueMetric("vmtable.cache.blocks");
+        metrics.addValueMetric("vmtable.cache.size");
+    }
+
+    @Override
+    public Collection<Block> getUsed() {
+        final Set<Block> cached = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+        for (Cache each : caches) {
+            synchronized (each) {
+                each.collect(cached);
+            }
+        }
+
+        final List<Block> result = new ArrayList<>();
+        for (Block each : table.getUsed()) {
+            if (!cached.contains(each)) {
+                result.add(each);
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public Collection<Block> getFree() {
+        final List<Block> result = new ArrayList<>(table.getFree());
+        for (Cache each : caches) {
+            synchronized (each) {
+                each.collect(result);
+            }
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        long cachedBlocks = 0;
+        long cachedSize = 0;
+        for (Cache each : caches) {
+            synchronized (each) {
+                cachedBlocks += each.blocksCount;
+                cachedSize += each.size;
+            }
+        }
+
+        metrics.mark("vmtable.totalAllocations", totalAllocations.sum());
+        metrics.mark("vmtable.failedAllocations", failedAllocations.sum());
+        metrics.mark("vmtable.totalFrees", totalFrees.sum());
+        metrics.mark("vmtable.failedFrees", failedFrees.sum());
+        metrics.mark("vmtable.freeSize", getFreeMemorySize());
+        metrics.mark("vmtable.usedSize", getUsedMemorySize());
+        metrics.mark("vmtable.freeBlocksCount", table.getFree().size() + cachedBlocks);
+        metrics.mark("vmtable.usedBlocksCount", usedBlocks.sum());
+        metrics.mark("vmtable.cache.hits", hits.sum());
+        metrics.mark("vmtable.cache.misses", misses.sum());
+        metrics.mark("vmtable.cache.flushes", flushes.sum());
+        metrics.mark("vmtable.cache.blocks", cachedBlocks);
+        metrics.mark("vmtable.cache.size", cachedSize);
+
+        return new MetricsSnapshotBuilder().fromMetrics(metrics).build();
+    }
+
+    @Override
+    public Block allocate(int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+
+        totalAllocations.increment();
+
+        Block result;
+        if (size <= MAX_CACHED_SIZE) {
+            result = allocateCached(size);
+        } else {
+            result = table.allocate(size);
+            if (result == null && flushAll()) {
+                result = table.allocate(size);
+            }
+        }
+
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedSize.add(size);
+        usedBlocks.increment();
+
+        return result;
+    }
+
+    private Block allocateCached(int size) {
+        final int sizeClass = (size - 1) / QUANTUM;
+        final Cache cache = this.cache.get();
+
+        Block block;
+        synchronized (cache) {
+            block = cache.pop(sizeClass);
+            if (block != null) {
+                hits.increment();
+                return new CachedBlock(this, generation, block, size);
+            }
+            misses.increment();
+            block = refill(cache, sizeClass);
+        }
+
+        // flush is done without holding the lock of own cache, as it locks caches of all threads
+        if (block == null && flushAll()) {
+            synchronized (cache) {
+                block = refill(cache, sizeClass);
+            }
+        }
+
+        return block != null ? new CachedBlock(this, generation, block, size) : null;
+    }
+
+    /**
+     * Allocates a batch of blocks from the table for the size class at once.
+     * If the batch can't be allocated, a single block is allocated.
+     *
+     * @return the allocated block, other blocks of the batch are in the cache.
+     */
+    private Block refill(Cache cache, int sizeClass) {
+        final int classSize = (sizeClass + 1) * QUANTUM;
+        final int batch = Math.min(capacity / 2, (maxCacheSize - cache.size) / classSize);
+
+        if (batch > 1) {
+            final int[] sizes = new int[batch];
+            Arrays.fill(sizes, classSize);
+            final Block[] blocks = table.allocateAll(sizes);
+            if (blocks != null) {
+                for (int i = 1; i < blocks.length; i++) {
+                    cache.push(sizeClass, blocks[i]);
+                }
+                return blocks[0];
+            }
+        }
+        return table.allocate(classSize);
+    }
+
+    @Override
+    public Block allocate(int size, int alignment) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        TableAlignment.checkAlignment(alignment);
+        if (alignment == 1) {
+            return allocate(size);
+        }
+
+        totalAllocations.increment();
+
+        // aligned blocks are allocated from the table
+        Block result = table.allocate(size, alignment);
+        if (result == null && flushAll()) {
+            result = table.allocate(size, alignment);
+        }
+
+        if (result == null) {
+            failedAllocations.increment();
+            return null;
+        }
+
+        usedSize.add(size);
+        usedBlocks.increment();
+
+        return result;
+    }
+
+    @Override
+    public boolean free(Block block) {
+        if (block == null) {
+            return false;
+        }
+
+        totalFrees.increment();
+
+        final long size = block.getSize();
+        final boolean result;
+        if (block instanceof CachedBlock) {
+            result = freeCached((CachedBlock) block);
+        } else {
+            result = table.free(block);
+        }
+
+        if (!result) {
+            failedFrees.increment();
+            return false;
+        }
+
+        usedSize.add(-size);
+        usedBlocks.decrement();
+
+        return true;
+    }
+
+    @Override
+    public boolean resize(Block block, int size) {
+        if (size <= 0) {
+            throw new OutOfBoundException("Size can't be negative or be zero: " + size);
+        }
+        if (block == null) {
+            return false;
+        }
+
+        final long oldSize = block.getSize();
+        if (block instanceof CachedBlock) {
+            // the cached block can be resized within it's size class only
+            final CachedBlock cached = (CachedBlock) block;
+            if (!isOwn(cached) || cached.freed != 0 || size > cached.block.getSize()) {
+                return false;
+            }
+            cached.size = size;
+        } else if (!table.resize(block, size)) {
+            return false;
+        }
+
+        usedSize.add(size - oldSize);
+
+        return true;
+    }
+
+    /**
+     * Checks whether the cached block was allocated by this table since the last reset.
+     */
+    private boolean isOwn(CachedBlock block) {
+        return block.table == this && block.generation == generation;
+    }
+
+    private boolean freeCached(CachedBlock block) {
+        if (!isOwn(block) || !block.markFreed()) {
+            return false;
+        }
+
+        final Block original = block.block;
+        final int sizeClass = (int) ((original.getSize() - 1) / QUANTUM);
+        final Cache cache = this.cache.get();
+
+        synchronized (cache) {
+            if (cache.isFull(sizeClass) || cache.size + original.getSize() > maxCacheSize) {
+                flushes.increment();
+                cache.flush(table, capacity / 2);
+            }
+            cache.push(sizeClass, original);
+        }
+        return true;
+    }
+
+    /**
+     * Returns cached blocks of all threads back to the table.
+     * Caches of finished threads are removed.
+     *
+     * @return true if any block was returned.
+     */
+    private boolean flushAll() {
+        boolean result = false;
+        for (Iterator<Cache> it = caches.iterator(); it.hasNext(); ) {
+            final Cache each = it.next();
+            synchronized (each) {
+                if (each.blocksCount > 0) {
+                    each.flush(table, Integer.MAX_VALUE);
+                    flushes.increment();
+                    result = true;
+                }
+                if (each.owner.get() == null || !each.owner.get().isAlive()) {
+                    it.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Block[] allocateAll(int[] sizes) {
+        return TableBatches.allocateAll(this, sizes);
+    }
+
+    @Override
+    public int freeAll(Collection<? extends Block> blocks) {
+        return TableBatches.freeAll(this, blocks);
+    }
+
+    @Override
+    public long getFreeMemorySize() {
+        return table.getFreeMemorySize() + table.getUsedMemorySize() - usedSize.sum();
+    }
+
+    @Override
+    public long getUsedMemorySize() {
+        return usedSize.sum();
+    }
+
+    @Override
+    public void reset(long size) {
+        metrics.reset();
+        generation++;
+
+        for (Cache each : caches) {
+            synchronized (each) {
+                each.clear();
+            }
+        }
+        table.reset(size);
+
+        usedSize.reset();
+        usedBlocks.reset();
+        totalAllocations.reset();
+        failedAllocations.reset();
+        totalFrees.reset();
+        failedFrees.reset();
+        hits.reset();
+        misses.reset();
+        flushes.reset();
+    }
+
+    @Override
+    public boolean canIncreaseSize(long size) {
+        return table.canIncreaseSize(size);
+    }
+
+    @Override
+    public void increaseSize(long size) {
+        table.increaseSize(size);
+        metrics.increment("vmtable.increases");
+    }
+
+    // ---------- internal structures
+
+    /**
+     * The cache of the thread. Used by the owner thread, and by other threads only to flush or collect blocks,
+     * so the lock is almost never contended.
+     */
+    private static final class Cache {
+
+        final WeakReference<Thread> owner;
+        final Block[][] blocks;
+        final int[] counts;
+
+        int blocksCount;
+        int size;
+
+        Cache(Thread owner, int capacity) {
+            this.owner = new WeakReference<>(owner);
+            this.blocks = new Block[CLASSES_COUNT][capacity];
+            this.counts = new int[CLASSES_COUNT];
+        }
+
+        Block pop(int sizeClass) {
+            if (counts[sizeClass] == 0) {
+                return null;
+            }
+            final int index = --counts[sizeClass];
+            final Block result = blocks[sizeClass][index];
+            blocks[sizeClass][index] = null;
+            blocksCount--;
+            size -= result.getSize();
+            return result;
+        }
+
+        void push(int sizeClass, Block block) {
+            blocks[sizeClass][counts[sizeClass]++] = block;
+            blocksCount++;
+            size += block.getSize();
+        }
+
+        boolean isFull(int sizeClass) {
+            return counts[sizeClass] == blocks[sizeClass].length;
+        }
+
+        /**
+         * Returns up to {@code count} oldest blocks of each size class back to the table at once.
+         */
+        void flush(VirtualMemoryTable table, int count) {
+            final List<Block> flushed = new ArrayList<>();
+            for (int sizeClass = 0; sizeClass < CLASSES_COUNT; sizeClass++) {
+                final Block[] stack = blocks[sizeClass];
+                final int flushCount = Math.min(count, counts[sizeClass]);
+                if (flushCount == 0) {
+                    continue;
+                }
+                for (int i = 0; i < flushCount; i++) {
+                    size -= stack[i].getSize();
+                    flushed.add(stack[i]);
+                }
+                final int left = counts[sizeClass] - flushCount;
+                System.arraycopy(stack, flushCount, stack, 0, left);
+                for (int i = left; i < counts[sizeClass]; i++) {
+                    stack[i] = null;
+                }
+                counts[sizeClass] = left;
+                blocksCount -= flushCount;
+            }
+            if (!flushed.isEmpty()) {
+                table.freeAll(flushed);
+            }
+        }
+
+        void collect(Collection<Block> result) {
+            for (int sizeClass = 0; sizeClass < CLASSES_COUNT; sizeClass++) {
+                for (int i = 0; i < counts[sizeClass]; i++) {
+                    result.add(blocks[sizeClass][i]);
+                }
+            }
+        }
+
+        void clear() {
+            for (int sizeClass = 0; sizeClass < CLASSES_COUNT; sizeClass++) {
+                for (int i = 0; i < counts[sizeClass]; i++) {
+                    blocks[sizeClass][i] = null;
+                }
+                counts[sizeClass] = 0;
+            }
+            blocksCount = 0;
+            size = 0;
+        }
+    }
+
+    private static final class CachedBlock implements Block {
+
+        private static final AtomicIntegerFieldUpdater<CachedBlock> FREED =
+                AtomicIntegerFieldUpdater.newUpdater(CachedBlock.class, "freed");
+
+        final ThreadCachingVirtualMemoryTable table;
+        final int generation;
+        final Block block;
+
+        volatile long address;
+        volatile int size;
+        volatile int freed;
+
+        CachedBlock(ThreadCachingVirtualMemoryTable table, int generation, Block block, int size) {
+            this.table = table;
+            this.generation = generation;
+            this.block = block;
+            this.address = block.getAddress();
+            this.size = size;
+        }
+
+        @Override
+        public long getAddress() {
+            return address;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        boolean markFreed() {
+            if (FREED.compareAndSet(this, 0, 1)) {
+                address = 0;
+                size = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+
+/**
+ * A factory for {@link ThreadCachingVirtualMemoryTable}, the underlying table is created with other factory.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class ThreadCachingVirtualMemoryTableFactory implements VirtualMemoryTableFactory {
+
+    private static VirtualMemoryTableFactory instance =
+            new ThreadCachingVirtualMemoryTableFactory(LinkedVirtualMemoryTableFactory.getInstance());
+
+    public static VirtualMemoryTableFactory getInstance() {
+        return instance;
+    }
+
+    private final VirtualMemoryTableFactory tableFactory;
+    private final int capacity;
+    private final int maxCacheSize;
+
+    public ThreadCachingVirtualMemoryTableFactory(VirtualMemoryTableFactory tableFactory) {
+        this(tableFactory,
+                ThreadCachingVirtualMemoryTable.DEFAULT_CACHE_CAPACITY,
+                ThreadCachingVirtualMemoryTable.DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public ThreadCachingVirtualMemoryTableFactory(VirtualMemoryTableFactory tableFactory, int capacity, int maxCacheSize) {
+        this.tableFactory = tableFactory;
+        this.capacity = capacity;
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    @Override
+    public VirtualMemoryTable create(long size) throws MemoryException {
+        return new ThreadCachingVirtualMemoryTable(tableFactory.create(size), capacity, maxCacheSize);
+    }
+}
@@ -33,6 +33,27 @@ public interface VirtualMemoryTable extends Monitorable {
      */
     Block allocate(int size);
 
+    /**
+     * Allocates a block of specified size, which address is a multiple of specified alignment.
+     * The alignment of 1 means any address, so it's the same as {@link #allocate(int)}.
+     *
+     * @param size      the size of block to allocate.
+     * @param alignment the alignment of the block address, should be a power of two.
+     * @return the allocated block of specified size or null if such block can't be allocated.
+     */
+    Block allocate(int size, int alignment);
+
+    /**
+     * Resizes the used block in place, so it's address is not changed.
+     * The block is extended into the adjacent free memory, or the tail of block is released when it's shrunk.
+     *
+     * @param block the used block to resize.
+     * @param size  the new size of the block.
+     * @return true if the block is resized, false if it can't be resized in place,
+     *         or it's not a used block of this table.
+     */
+    boolean resize(Block block, int size);
+
     /**
      * Frees the block of memory.
      * The input block is always cleared.
@@ -42,26 +63,43 @@ public interface VirtualMemoryTable extends Monitorable {
      */
     boolean free(Block block);
 
+    /**
+     * Allocates blocks of specified sizes at once. Either all blocks are allocated, or none of them.
+     *
+     * @param sizes the sizes of blocks to allocate.
+     * @return the allocated blocks in the order of sizes, or null if any block can't be allocated.
+     */
+    Block[] allocateAll(int[] sizes);
+
+    /**
+     * Frees the blocks of memory at once.
+     * Each freed block is cleared, blocks that can't be freed are skipped.
+     *
+     * @param blocks the blocks to free.
+     * @return the number of freed blocks.
+     */
+    int freeAll(Collection<? extends Block> blocks);
+
     /**
      * Gets the size of free memory.
      *
      * @return the size of free memory.
      */
-    int getFreeMemorySize();
+    long getFreeMemorySize();
 
     /**
      * Gets the used memory size.
      *
      * @return the size of the used memory.
      */
-    int getUsedMemorySize();
+    long getUsedMemorySize();
 
     /**
      * Reset the table for specified size. This will remove any allocations.
      *
      * @param size the new table size.
      */
-    void reset(int size);
+    void reset(long size);
 
     /**
      * Changes the table virtual memory size.
@@ -69,7 +107,7 @@ public interface VirtualMemoryTable extends Monitorable {
      *
      * @param size the new size for table.
      */
-    void increaseSize(int size);
+    void increaseSize(long size);
 
     /**
      * Check if possible to increase a table size to specified size.
@@ -77,6 +115,6 @@ public interface VirtualMemoryTable extends Monitorable {
      * @param size the size to increase to.
      * @return true if size can be increased.
      */
-    boolean canIncreaseSize(int size);
+    boolean canIncreaseSize(long size);
 
 }
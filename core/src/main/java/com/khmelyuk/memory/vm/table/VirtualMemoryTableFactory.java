@@ -0,0 +1,20 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+
+/**
+ * A factory for virtual memory table.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public interface VirtualMemoryTableFactory {
+
+    /**
+     * Creates a virtual memory table of specified size.
+     *
+     * @param size the table size.
+     * @return the created table.
+     * @throws MemoryException error to create a new table.
+     */
+    VirtualMemoryTable create(long size) throws MemoryException;
+}
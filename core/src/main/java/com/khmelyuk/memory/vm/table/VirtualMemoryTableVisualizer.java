@@ -26,9 +26,9 @@ public class VirtualMemoryTableVisualizer {
 
         System.out.println(builder.toString());
 
-        final int freeSize = table.getFreeMemorySize();
-        final int usedSize = table.getUsedMemorySize();
-        final int totalSize = freeSize + usedSize;
+        final long freeSize = table.getFreeMemorySize();
+        final long usedSize = table.getUsedMemorySize();
+        final long totalSize = freeSize + usedSize;
 
         System.out.println("Used\t"
                 + FormatUtil.sizeAsString(MemorySize.bytes(usedSize))
@@ -51,7 +51,7 @@ public class VirtualMemoryTableVisualizer {
     }
 
     public boolean[] buildTableModel(VirtualMemoryTable table, int blockSize) {
-        int totalSize = table.getFreeMemorySize() + table.getUsedMemorySize();
+        long totalSize = table.getFreeMemorySize() + table.getUsedMemorySize();
         assert blockSize > 0 : "Block size can't be 0 or less.";
 
         int len = (int) Math.ceil((double) totalSize / blockSize);
@@ -67,7 +67,7 @@ public class VirtualMemoryTableVisualizer {
         return data;
     }
 
-    private int calcAddress(int blockSize, int address) {
+    private int calcAddress(int blockSize, long address) {
         return (int) Math.ceil((double) address / blockSize);
     }
 
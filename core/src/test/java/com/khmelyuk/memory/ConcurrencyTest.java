@@ -24,7 +24,7 @@ import java.util.List;
  */
 public class ConcurrencyTest {
 
-    private static final int SIZE = MemorySize.kilobytes(2).getBytes();
+    private static final int SIZE = MemorySize.kilobytes(2).getBytesAsInt();
 
     private Memory memory;
 
@@ -1,8 +1,22 @@
 package com.khmelyuk.memory;
 
+import com.khmelyuk.memory.space.Space;
+import com.khmelyuk.memory.vm.storage.MappedFileStorage;
+import com.khmelyuk.memory.vm.storage.Storage;
+import com.khmelyuk.memory.vm.storage.StorageFactory;
+import com.khmelyuk.memory.vm.storage.UnsafeStorageFactory;
+import com.khmelyuk.memory.vm.table.BuddyVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.LinkedVirtualMemoryTableFactory;
+import com.khmelyuk.memory.vm.table.LockFreeVirtualMemoryTableFactory;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Ruslan Khmelyuk
  */
@@ -14,7 +28,7 @@ public class DynamicMemoryAllocatorTest {
         Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(40), MemorySize.kilobytes(5));
 
         Assert.assertNotNull(memory);
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
     }
 
     @Test
@@ -23,7 +37,7 @@ public class DynamicMemoryAllocatorTest {
         Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(40), MemorySize.kilobytes(5));
 
         Assert.assertNotNull(memory);
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
     }
 
     @Test
@@ -32,7 +46,7 @@ public class DynamicMemoryAllocatorTest {
         Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(20));
 
         Assert.assertNotNull(memory);
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
     }
 
     @Test
@@ -41,7 +55,53 @@ public class DynamicMemoryAllocatorTest {
         Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(20));
 
         Assert.assertNotNull(memory);
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
+    }
+
+    @Test
+    public void testAllocateFixedSizeLargerThan2GB() throws Exception {
+        // sectors are mapped by sparse files, so the test doesn't need that much memory
+        final List<File> files = new ArrayList<>();
+        StorageFactory storageFactory = new StorageFactory() {
+            @Override
+            public Storage create(long begin, int size) {
+                try {
+                    File file = File.createTempFile("large-memory-sector", ".test");
+                    file.deleteOnExit();
+                    files.add(file);
+                    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                    return new MappedFileStorage(randomAccessFile.getChannel(), size, 1 << 30, false);
+                } catch (IOException e) {
+                    throw new MemoryException("Error to create a sector", e);
+                }
+            }
+        };
+
+        final long size = 5L * 1024 * 1024 * 1024 + 100;
+        DynamicMemoryAllocator allocator = new DynamicMemoryAllocator(
+                LinkedVirtualMemoryTableFactory.getInstance(), storageFactory);
+        Memory memory = allocator.allocate(size, size);
+        try {
+            Assert.assertEquals(size, memory.size());
+            Assert.assertEquals(5, files.size());
+
+            Space first = memory.allocate(Integer.MAX_VALUE);
+            Space second = memory.allocate(Integer.MAX_VALUE);
+            Space last = memory.allocate(MemorySize.kilobytes(1).getBytesAsInt());
+            Assert.assertEquals(2L * Integer.MAX_VALUE, last.getAddress());
+
+            first.getBlock().putLong(Integer.MAX_VALUE - 8, 42L);
+            second.getBlock().putLong(0, 43L);
+            last.write("Hello world of goo");
+            Assert.assertEquals(42L, first.getBlock().getLong(Integer.MAX_VALUE - 8));
+            Assert.assertEquals(43L, second.getBlock().getLong(0));
+            Assert.assertEquals("Hello world of goo", last.readString());
+        } finally {
+            memory.free();
+            for (File each : files) {
+                each.delete();
+            }
+        }
     }
 
     @Test
@@ -50,10 +110,10 @@ public class DynamicMemoryAllocatorTest {
         Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(40), MemorySize.kilobytes(5));
 
         Assert.assertNotNull(memory);
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
 
         memory.allocate(MemorySize.kilobytes(40));
-        Assert.assertEquals(MemorySize.kilobytes(40).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(40).getBytesAsInt(), memory.size());
     }
 
     @Test(expected = OutOfMemoryException.class)
@@ -62,9 +122,85 @@ public class DynamicMemoryAllocatorTest {
         Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(40), MemorySize.kilobytes(5));
 
         Assert.assertNotNull(memory);
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
 
         memory.allocate(MemorySize.kilobytes(20));
         memory.allocate(MemorySize.kilobytes(30));
     }
+
+    @Test
+    public void testAllocateMemory_LockFreeTable() {
+        DynamicMemoryAllocator allocator = new DynamicMemoryAllocator(new LockFreeVirtualMemoryTableFactory(1024));
+        Memory memory = allocator.allocate(MemorySize.kilobytes(4), MemorySize.kilobytes(8), MemorySize.kilobytes(2));
+
+        Space space = memory.allocate(MemorySize.kilobytes(4));
+        Assert.assertNotNull(space);
+        space.write("Hello");
+        Assert.assertEquals("Hello", space.readString());
+
+        Assert.assertNotNull(memory.allocate(100));
+        Assert.assertEquals(MemorySize.kilobytes(6).getBytesAsInt(), memory.size());
+        Assert.assertEquals(2, memory.getStatistic().getUsedBlocksCount());
+    }
+
+    @Test
+    public void testAllocateMemory_BuddyTable() {
+        DynamicMemoryAllocator allocator = new DynamicMemoryAllocator(BuddyVirtualMemoryTableFactory.getInstance());
+        Memory memory = allocator.allocate(MemorySize.kilobytes(3), MemorySize.kilobytes(8), MemorySize.kilobytes(1));
+
+        Space space = memory.allocate(MemorySize.kilobytes(2));
+        Assert.assertNotNull(space);
+        space.write("Hello");
+        Assert.assertEquals("Hello", space.readString());
+
+        Assert.assertNotNull(memory.allocate(MemorySize.kilobytes(2)));
+        Assert.assertEquals(MemorySize.kilobytes(4).getBytesAsInt(), memory.size());
+        Assert.assertEquals(2, memory.getStatistic().getUsedBlocksCount());
+    }
+
+    @Test
+    public void testAllocateMemory_Arenas() {
+        DynamicMemoryAllocator allocator = new DynamicMemoryAllocator(LinkedVirtualMemoryTableFactory.getInstance(), 4);
+        Memory memory = allocator.allocate(MemorySize.kilobytes(4), MemorySize.kilobytes(8), MemorySize.kilobytes(2));
+
+        Assert.assertEquals(4L, memory.getMetrics().getValueMetric("vmtable.arenas").get());
+
+        // arena is 1Kb, so allocation grows the last arena
+        Space space = memory.allocate(MemorySize.kilobytes(2));
+        Assert.assertNotNull(space);
+        space.write("Hello");
+        Assert.assertEquals("Hello", space.readString());
+        Assert.assertEquals(MemorySize.kilobytes(6).getBytesAsInt(), memory.size());
+    }
+
+    @Test
+    public void testResizeIncreasesMemory() {
+        DynamicMemoryAllocator allocator = new DynamicMemoryAllocator();
+        Memory memory = allocator.allocate(MemorySize.kilobytes(20), MemorySize.kilobytes(40), MemorySize.kilobytes(5));
+
+        // the last space is extended in place after the memory is increased
+        Space space = memory.allocate(MemorySize.kilobytes(20));
+        space.resize(MemorySize.kilobytes(30).getBytesAsInt());
+
+        Assert.assertEquals(0, space.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(30).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(30).getBytesAsInt(), memory.size());
+    }
+
+    @Test
+    public void testAllocateOffHeapMemory() {
+        DynamicMemoryAllocator allocator = new DynamicMemoryAllocator(
+                LinkedVirtualMemoryTableFactory.getInstance(),
+                UnsafeStorageFactory.getInstance());
+        Memory memory = allocator.allocate(MemorySize.kilobytes(1), MemorySize.kilobytes(4), MemorySize.kilobytes(1));
+        try {
+            Space space = memory.allocate(MemorySize.kilobytes(3));
+            space.write("off-heap");
+
+            Assert.assertEquals(MemorySize.kilobytes(3).getBytes(), memory.size());
+            Assert.assertEquals("off-heap", space.readString());
+        } finally {
+            memory.free();
+        }
+    }
 }
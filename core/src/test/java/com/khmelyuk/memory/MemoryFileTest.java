@@ -1,10 +1,14 @@
 package com.khmelyuk.memory;
 
+import com.khmelyuk.memory.space.MemorySpace;
 import com.khmelyuk.memory.space.Space;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * @author Ruslan Khmelyuk
@@ -88,4 +92,114 @@ public class MemoryFileTest {
 
         file.deleteOnExit();
     }
+
+    @Test
+    public void testLargeFileMemory() throws Exception {
+        long size = 3L * FileMemoryAllocator.SEGMENT_SIZE;
+
+        File file = File.createTempFile("large-file-memory", ".test");
+        file.deleteOnExit();
+        Memory memory = allocator.allocate(file, size);
+        try {
+            Assert.assertEquals(size, memory.size());
+            Assert.assertEquals(size, file.length());
+
+            Space space = memory.allocate(200);
+            space.write("Hello world of goo");
+            Assert.assertEquals("Hello world of goo", space.readString());
+        } finally {
+            memory.free();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPersistentFileMemory() throws Exception {
+        File file = File.createTempFile("persistent-file-memory", ".test");
+        File tableFile = new File(file.getPath() + FileMemoryAllocator.TABLE_FILE_SUFFIX);
+        file.deleteOnExit();
+        tableFile.deleteOnExit();
+
+        Memory memory = allocator.create(file, 1000);
+        Space space1 = memory.allocate(200);
+        Space space2 = memory.allocate(100);
+        Space space3 = memory.allocate(300);
+        space1.write("Hello world of goo");
+        space3.write("Hello world of foo");
+        space2.free();
+        memory.free();
+
+        memory = allocator.open(file);
+        try {
+            Assert.assertEquals(1000, memory.size());
+            Assert.assertEquals(500, memory.getUsedMemorySize());
+            Assert.assertEquals(2, memory.getSpaces().size());
+            Assert.assertEquals("Hello world of goo", memory.getSpace(0).readString());
+            Assert.assertEquals("Hello world of foo", memory.getSpace(300).readString());
+            Assert.assertNull(memory.getSpace(200));
+
+            // the freed block is reused
+            MemorySpace space = memory.allocate(100);
+            Assert.assertEquals(200, space.getAddress());
+        } finally {
+            memory.free();
+            file.delete();
+            tableFile.delete();
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testOpenNotPersistentFileMemory() throws Exception {
+        File file = File.createTempFile("not-persistent-file-memory", ".test");
+        file.deleteOnExit();
+        try {
+            allocator.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPersistentFileMemoryNotMapped() throws Exception {
+        File fds = new File("/proc/self/fd");
+        Assume.assumeTrue(fds.isDirectory());
+
+        // the memory file can't be opened, as it's a directory
+        File directory = File.createTempFile("persistent-file-memory", ".test");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        File tableFile = new File(directory.getPath() + FileMemoryAllocator.TABLE_FILE_SUFFIX);
+        tableFile.deleteOnExit();
+        directory.deleteOnExit();
+
+        try {
+            // the first attempt opens the files of classes it loads, so it's not counted
+            createAndOpen(directory);
+            final int before = fds.list().length;
+            for (int i = 0; i < 20; i++) {
+                createAndOpen(directory);
+            }
+
+            // the table file is closed, otherwise each attempt would leave two open files
+            Assert.assertTrue(fds.list().length - before < 20);
+        } finally {
+            tableFile.delete();
+            directory.delete();
+        }
+    }
+
+    private void createAndOpen(File file) {
+        try {
+            allocator.create(file, 1000);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            allocator.open(file);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
 }
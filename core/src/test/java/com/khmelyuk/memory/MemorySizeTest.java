@@ -25,7 +25,7 @@ public class MemorySizeTest {
     public void createMemorySize() {
         MemorySize size = MemorySize.kilobytes(10);
 
-        assertThat(size.getSize(), is(10));
+        assertThat(size.getSize(), is(10L));
         assertThat(size.getUnit(), is(SizeUnit.KB));
     }
 
@@ -34,7 +34,7 @@ public class MemorySizeTest {
         MemorySize kbs = MemorySize.kilobytes(10);
         MemorySize bytes = kbs.convertTo(SizeUnit.Bytes);
 
-        assertThat(bytes.getSize(), is(10 * 1024));
+        assertThat(bytes.getSize(), is(10L * 1024));
         assertThat(bytes.getUnit(), is(SizeUnit.Bytes));
     }
 
@@ -43,7 +43,7 @@ public class MemorySizeTest {
         MemorySize bytes = MemorySize.bytes(2000);
         MemorySize kbs = bytes.convertTo(SizeUnit.KB);
 
-        assertThat(kbs.getSize(), is(2));
+        assertThat(kbs.getSize(), is(2L));
         assertThat(kbs.getUnit(), is(SizeUnit.KB));
     }
 
@@ -52,7 +52,7 @@ public class MemorySizeTest {
         MemorySize kbs = MemorySize.kilobytes(2000);
         MemorySize mbs = kbs.convertTo(SizeUnit.MB);
 
-        assertThat(mbs.getSize(), is(2));
+        assertThat(mbs.getSize(), is(2L));
         assertThat(mbs.getUnit(), is(SizeUnit.MB));
     }
 
@@ -61,7 +61,7 @@ public class MemorySizeTest {
         MemorySize kbs = MemorySize.megabytes(2000);
         MemorySize mbs = kbs.convertTo(SizeUnit.GB);
 
-        assertThat(mbs.getSize(), is(2));
+        assertThat(mbs.getSize(), is(2L));
         assertThat(mbs.getUnit(), is(SizeUnit.GB));
     }
 
@@ -72,8 +72,8 @@ public class MemorySizeTest {
 
         MemorySize result = memSize1.add(memSize2);
 
-        assertThat(result.getSize(), is(1044));
-        assertThat(result.getBytes(), is(1044));
+        assertThat(result.getSize(), is(1044L));
+        assertThat(result.getBytes(), is(1044L));
         assertThat(result.getUnit(), is(SizeUnit.Bytes));
     }
 
@@ -98,8 +98,8 @@ public class MemorySizeTest {
 
         MemorySize result = memSize1.subtract(memSize2);
 
-        assertThat(result.getSize(), is(1004));
-        assertThat(result.getBytes(), is(1004));
+        assertThat(result.getSize(), is(1004L));
+        assertThat(result.getBytes(), is(1004L));
         assertThat(result.getUnit(), is(SizeUnit.Bytes));
     }
 
@@ -135,11 +135,11 @@ public class MemorySizeTest {
 
     @Test
     public void ZEROConstantHasZeroSize() {
-        assertThat(MemorySize.ZERO.getSize(), is(0));
-        assertThat(MemorySize.ZERO.getBytes(), is(0));
+        assertThat(MemorySize.ZERO.getSize(), is(0L));
+        assertThat(MemorySize.ZERO.getBytes(), is(0L));
     }
 
-    private void assertSizeAndUnit(MemorySize memorySize, int size, SizeUnit unit) {
+    private void assertSizeAndUnit(MemorySize memorySize, long size, SizeUnit unit) {
         assertThat(memorySize.getSize(), is(size));
         assertThat(memorySize.getUnit(), is(unit));
     }
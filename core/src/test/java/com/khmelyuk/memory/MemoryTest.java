@@ -3,10 +3,22 @@ package com.khmelyuk.memory;
 import com.khmelyuk.memory.metrics.MetricsSnapshot;
 import com.khmelyuk.memory.space.MemorySpace;
 import com.khmelyuk.memory.space.Space;
+import com.khmelyuk.memory.vm.Compactor;
+import com.khmelyuk.memory.vm.EpochReclaimer;
+import com.khmelyuk.memory.vm.table.AllocationPolicy;
+import com.khmelyuk.memory.vm.table.BuddyVirtualMemoryTableFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.matchers.JUnitMatchers.hasItem;
@@ -29,12 +41,12 @@ public class MemoryTest {
 
     @Test
     public void testAlloc() {
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
     }
 
     @Test
     public void testFree() {
-        Assert.assertEquals(MemorySize.kilobytes(20).getBytes(), memory.size());
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt(), memory.size());
 
         memory.free();
 
@@ -46,8 +58,8 @@ public class MemoryTest {
         MemorySpace space = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space.size());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
     }
 
     @Test
@@ -55,8 +67,8 @@ public class MemoryTest {
         MemorySpace space = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space.size());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
     }
 
     @Test
@@ -65,15 +77,15 @@ public class MemoryTest {
 
         Assert.assertNotNull(space);
         Assert.assertEquals(0, space.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space.size());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space2 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space2);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.size());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
     }
 
     @Test(expected = OutOfMemoryException.class)
@@ -96,28 +108,28 @@ public class MemoryTest {
 
         Assert.assertNotNull(space);
         Assert.assertEquals(0, space.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space.size());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space2 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space2);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.size());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
 
         space2.free();
 
         Assert.assertEquals(0, space2.size());
         Assert.assertEquals(0, space2.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space3 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space3);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space3.size());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space3.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space3.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space3.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
     }
 
     @Test
@@ -137,35 +149,35 @@ public class MemoryTest {
 
         Assert.assertNotNull(space);
         Assert.assertEquals(0, space.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space.size());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space2 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space2);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.size());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space3 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space3);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space3.size());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), space3.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space3.size());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), space3.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), memory.getFreeMemorySize());
 
         space2.free();
 
         Assert.assertEquals(0, space2.size());
         Assert.assertEquals(0, space2.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space4 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space4);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space4.size());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space4.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space4.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space4.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), memory.getFreeMemorySize());
     }
 
     @Test
@@ -174,25 +186,25 @@ public class MemoryTest {
 
         Assert.assertNotNull(space);
         Assert.assertEquals(0, space.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space.size());
-        Assert.assertEquals(MemorySize.kilobytes(15).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space.size());
+        Assert.assertEquals(MemorySize.kilobytes(15).getBytesAsInt(), memory.getFreeMemorySize());
 
         MemorySpace space2 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space2);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.size());
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space2.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space2.getAddress());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
 
         space.free();
 
         MemorySpace space3 = memory.allocate(MemorySize.kilobytes(5));
 
         Assert.assertNotNull(space3);
-        Assert.assertEquals(MemorySize.kilobytes(5).getBytes(), space3.size());
+        Assert.assertEquals(MemorySize.kilobytes(5).getBytesAsInt(), space3.size());
         Assert.assertEquals(0, space3.getAddress());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getFreeMemorySize());
-        Assert.assertEquals(MemorySize.kilobytes(10).getBytes(), memory.getUsedMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getFreeMemorySize());
+        Assert.assertEquals(MemorySize.kilobytes(10).getBytesAsInt(), memory.getUsedMemorySize());
     }
 
     @Test
@@ -237,4 +249,527 @@ public class MemoryTest {
         MetricsSnapshot snapshot = memory.getMetrics();
         assertThat(snapshot.getMetrics(), hasItem("memory.spaces"));
     }
+
+    @Test
+    public void allocateAllAndFreeAll() {
+        MemorySpace[] spaces = memory.allocateAll(100, 200, 300);
+
+        Assert.assertEquals(3, spaces.length);
+        Assert.assertEquals(200, spaces[1].size());
+        Assert.assertEquals(600, memory.getUsedMemorySize());
+        assertThat(memory.getMetrics().getValueMetric("memory.spaces").get(), is(3L));
+
+        spaces[0].write("Hello");
+        Assert.assertEquals("Hello", spaces[0].readString());
+
+        Assert.assertEquals(3, memory.freeAll(Arrays.asList(spaces)));
+        Assert.assertEquals(0, memory.getUsedMemorySize());
+        assertThat(memory.getMetrics().getValueMetric("memory.spaces").get(), is(0L));
+    }
+
+    @Test(expected = OutOfMemoryException.class)
+    public void allocateAll_NoSize() {
+        try {
+            memory.allocateAll(MemorySize.kilobytes(10).getBytesAsInt(), MemorySize.kilobytes(11).getBytesAsInt());
+        } finally {
+            Assert.assertEquals(0, memory.getUsedMemorySize());
+        }
+    }
+
+    @Test
+    public void allocationPolicy() {
+        Memory memory = new FixedMemoryAllocator(AllocationPolicy.BestFit).allocate(MemorySize.kilobytes(1));
+        Space space1 = memory.allocate(100);
+        memory.allocate(100);
+        Space space2 = memory.allocate(50);
+        memory.allocate(100);
+        space1.free();
+        space2.free();
+
+        // the smallest free block is used
+        Assert.assertEquals(200, memory.allocate(40).getAddress());
+        assertThat(memory.getMetrics().getValueMetric("vmtable.bestFit.searches").get(), is(5L));
+    }
+
+    @Test
+    public void compaction() {
+        Compactor compactor = memory.enableCompaction();
+        Assert.assertSame(compactor, memory.enableCompaction());
+
+        Space[] spaces = new Space[10];
+        for (int i = 0; i < spaces.length; i++) {
+            spaces[i] = memory.allocate(1000);
+            spaces[i].write("space " + i);
+        }
+        for (int i = 0; i < spaces.length; i += 2) {
+            spaces[i].free();
+        }
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt() - 5000, memory.getFreeMemorySize());
+        assertThat(compactor.getFragmentation() > 0, is(true));
+
+        compactor.setStepSize(1000);
+        Assert.assertEquals(5000, compactor.compact());
+        Assert.assertEquals(0, compactor.getFragmentation());
+
+        // spaces are moved, but still have their data
+        for (int i = 1; i < spaces.length; i += 2) {
+            Assert.assertEquals((i / 2) * 1000, spaces[i].getAddress());
+            Assert.assertEquals("space " + i, spaces[i].readString());
+        }
+        Assert.assertNotNull(memory.allocate(MemorySize.kilobytes(20).getBytesAsInt() - 5000));
+
+        MetricsSnapshot metrics = memory.getMetrics();
+        assertThat(metrics.getValueMetric("vm.compaction.bytesMoved").get(), is(5000L));
+        assertThat(metrics.getValueMetric("vm.compaction.steps").get(), is(6L));
+        assertThat(metrics.getValueMetric("vm.compaction.fragmentationAfter").get(), is(0L));
+        assertThat(metrics.getMetrics(), hasItem("vm.compaction.pauseTime"));
+        assertThat(metrics.getMetrics(), hasItem("vm.compaction.fragmentationBefore"));
+    }
+
+    @Test
+    public void compactionKeepsStreamsValid() throws Exception {
+        memory.enableCompaction();
+        Space first = memory.allocate(100);
+        Space space = memory.allocate(100);
+        space.write(new byte[]{1, 2, 3, 4});
+
+        InputStream in = space.getInputStream();
+        OutputStream out = space.getOutputStream();
+        Assert.assertEquals(1, in.read());
+
+        first.free();
+        memory.enableCompaction().compact();
+        Assert.assertEquals(0, space.getAddress());
+
+        Assert.assertEquals(2, in.read());
+        out.write(5);
+
+        byte[] data = new byte[4];
+        space.read(data);
+        Assert.assertArrayEquals(new byte[]{5, 2, 3, 4}, data);
+    }
+
+    @Test(expected = MemoryException.class)
+    public void compactionWithSpaces() {
+        memory.allocate(100);
+        memory.enableCompaction();
+    }
+
+    @Test(expected = MemoryException.class)
+    public void compactionWithNotRelocatableTable() {
+        new FixedMemoryAllocator(BuddyVirtualMemoryTableFactory.getInstance())
+                .allocate(MemorySize.kilobytes(1))
+                .enableCompaction();
+    }
+
+    @Test(expected = MemoryException.class)
+    public void compactionWithSlabs() {
+        memory.enableCompaction();
+        memory.createSlab(10, 1000);
+    }
+
+    @Test(timeout = 10000)
+    public void backgroundCompaction() throws Exception {
+        final Compactor compactor = memory.enableCompaction();
+        compactor.setStepSize(256);
+        compactor.start(1, TimeUnit.MILLISECONDS);
+
+        try {
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                final int seed = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Space[] spaces = new Space[8];
+                        byte[] data = new byte[100];
+                        for (int i = 0; i < 2000; i++) {
+                            int idx = (i * 5 + seed) % spaces.length;
+                            if (spaces[idx] != null) {
+                                spaces[idx].read(data);
+                                if (data[0] != (byte) idx || data[99] != (byte) seed) {
+                                    failed.set(true);
+                                }
+                                spaces[idx].free();
+                            }
+                            spaces[idx] = memory.allocate(100 + (i % 4) * 50);
+                            data[0] = (byte) idx;
+                            data[99] = (byte) seed;
+                            spaces[idx].write(data);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread each : threads) {
+                each.join();
+            }
+            assertThat(failed.get(), is(false));
+        } finally {
+            compactor.stop();
+        }
+        Assert.assertFalse(compactor.isStarted());
+    }
+
+    @Test
+    public void allocateAligned() {
+        memory.allocate(10);
+
+        Space space = memory.allocate(100, 4096);
+        Assert.assertEquals(4096, space.getAddress());
+        Assert.assertEquals(100, space.size());
+        Assert.assertEquals(110, memory.getUsedMemorySize());
+
+        // the padding is not wasted
+        Assert.assertEquals(MemorySize.kilobytes(20).getBytesAsInt() - 110, memory.getFreeMemorySize());
+        space.free();
+        Assert.assertEquals(10, memory.getUsedMemorySize());
+    }
+
+    @Test
+    public void resize() {
+        Space space1 = memory.allocate(100);
+        Space space2 = memory.allocate(100);
+        space1.write(new byte[]{1, 2, 3});
+
+        // the last space is extended in place
+        space2.resize(1000);
+        Assert.assertEquals(100, space2.getAddress());
+        Assert.assertEquals(1000, space2.size());
+
+        // the first space is moved, as there is no free memory after it
+        space1.resize(200);
+        Assert.assertEquals(1100, space1.getAddress());
+        Assert.assertEquals(200, space1.size());
+        Assert.assertEquals(1200, memory.getUsedMemorySize());
+
+        byte[] data = new byte[3];
+        space1.read(data);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, data);
+
+        // the tail is released in place
+        space1.resize(3);
+        Assert.assertEquals(1100, space1.getAddress());
+        Assert.assertEquals(1003, memory.getUsedMemorySize());
+
+        assertThat(memory.getMetrics().getValueMetric("vm.resizes").get(), is(2L));
+        assertThat(memory.getMetrics().getValueMetric("vm.reallocations").get(), is(1L));
+    }
+
+    @Test
+    public void resizeKeepsStreamsValid() throws Exception {
+        Space space = memory.allocate(2);
+        memory.allocate(100);
+
+        OutputStream out = space.getOutputStream();
+        out.write(1);
+        space.resize(4);
+        out.write(2);
+        out.write(3);
+
+        InputStream in = space.getInputStream();
+        Assert.assertEquals(1, in.read());
+        Assert.assertEquals(2, in.read());
+        Assert.assertEquals(3, in.read());
+    }
+
+    @Test(expected = OutOfMemoryException.class)
+    public void resizeOutOfMemory() {
+        Space space = memory.allocate(100);
+        memory.allocate(100);
+
+        space.resize(MemorySize.kilobytes(20).getBytesAsInt());
+    }
+
+    @Test
+    public void reclamationDefersFreeWhileReading() throws Exception {
+        final EpochReclaimer reclaimer = memory.enableReclamation();
+        final Space space = memory.allocate(100);
+        space.write(new byte[]{1, 2, 3});
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch freed = new CountDownLatch(1);
+        final byte[] data = new byte[3];
+        final AtomicInteger readAfterFree = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reclaimer.getReaderLock().lock();
+                try {
+                    space.read(data);
+                    entered.countDown();
+                    freed.await();
+                    readAfterFree.set(space.read(new byte[3]));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    reclaimer.getReaderLock().unlock();
+                }
+            }
+        });
+        reader.start();
+        entered.await();
+
+        // the space is not reused while the reader is reading it
+        space.free();
+        Assert.assertEquals(0, reclaimer.reclaim());
+        Assert.assertEquals(1, reclaimer.getPendingCount());
+        Assert.assertEquals(100, memory.getUsedMemorySize());
+        memory.allocate(100).write(new byte[]{4, 5, 6});
+
+        freed.countDown();
+        reader.join();
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, data);
+
+        // the freed space is not resolved by the reader anymore
+        Assert.assertEquals(-1, readAfterFree.get());
+
+        Assert.assertEquals(1, reclaimer.reclaim());
+        Assert.assertEquals(0, reclaimer.getPendingCount());
+        Assert.assertEquals(100, memory.getUsedMemorySize());
+    }
+
+    @Test
+    public void reclamationReaderEntersAfterFree() throws Exception {
+        final EpochReclaimer reclaimer = memory.enableReclamation();
+        final Space space = memory.allocate(100);
+        space.write(new byte[]{1, 2, 3});
+        space.free();
+        Assert.assertEquals(1, reclaimer.getPendingCount());
+
+        // the reader enters after the space is retired, but before it's returned to the table
+        reclaimer.getReaderLock().lock();
+        try {
+            Assert.assertTrue(space.getBlock().isFreed());
+            Assert.assertEquals(-1, space.read(new byte[3]));
+            Assert.assertEquals(0, space.size());
+            try {
+                space.getBlock().getLong(0);
+                Assert.fail("Freed space is read");
+            } catch (OutOfBoundException e) {
+                // expected
+            }
+        } finally {
+            reclaimer.getReaderLock().unlock();
+        }
+
+        Assert.assertEquals(1, reclaimer.reclaim());
+        Assert.assertEquals(0, memory.getUsedMemorySize());
+
+        // the space is not freed twice
+        space.free();
+        Assert.assertEquals(0, reclaimer.getPendingCount());
+    }
+
+    @Test
+    public void reclamationReusesBlocksInBatches() {
+        EpochReclaimer reclaimer = memory.enableReclamation();
+        reclaimer.setBatchSize(3);
+
+        memory.allocate(100).free();
+        memory.allocate(100).free();
+        Assert.assertEquals(2, reclaimer.getPendingCount());
+        Assert.assertEquals(200, memory.getUsedMemorySize());
+
+        // the batch is full, and there are no readers
+        memory.allocate(100).free();
+        Assert.assertEquals(0, reclaimer.getPendingCount());
+        Assert.assertEquals(0, memory.getUsedMemorySize());
+
+        assertThat(memory.getMetrics().getValueMetric("vm.reclamation.retired").get(), is(3L));
+        assertThat(memory.getMetrics().getValueMetric("vm.reclamation.reclaimed").get(), is(3L));
+        assertThat(memory.getMetrics().getValueMetric("vm.reclamation.batches").get(), is(1L));
+    }
+
+    @Test
+    public void reclamationOnAllocationFailure() {
+        EpochReclaimer reclaimer = memory.enableReclamation();
+        final int size = MemorySize.kilobytes(20).getBytesAsInt();
+
+        memory.allocate(size).free();
+        Assert.assertEquals(1, reclaimer.getPendingCount());
+
+        // retired block is reclaimed to allocate a new one
+        Assert.assertNotNull(memory.allocate(size));
+        Assert.assertEquals(0, reclaimer.getPendingCount());
+    }
+
+    @Test(expected = MemoryException.class)
+    public void reclamationWithCompaction() {
+        memory.enableCompaction();
+        memory.enableReclamation();
+    }
+
+    @Test
+    public void tryAllocate() {
+        final int size = MemorySize.kilobytes(20).getBytesAsInt();
+        Space space = memory.tryAllocate(size);
+        Assert.assertNotNull(space);
+        Assert.assertNull(memory.tryAllocate(1));
+
+        space.free();
+        Assert.assertNotNull(memory.tryAllocate(1));
+        assertThat(memory.getMetrics().getValueMetric("memory.spaces").get(), is(1L));
+    }
+
+    @Test
+    public void allocateWaitsForFree() throws Exception {
+        final int size = MemorySize.kilobytes(20).getBytesAsInt();
+        final Space space = memory.allocate(size);
+
+        Thread freer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waitForWaiters(1);
+                space.free();
+            }
+        });
+        freer.start();
+
+        Space result = memory.allocate(size, 10, TimeUnit.SECONDS);
+        freer.join();
+
+        Assert.assertNotNull(result);
+        Assert.assertEquals(size, result.size());
+        assertThat(memory.getMetrics().getValueMetric("vm.allocation.waits").get(), is(1L));
+        assertThat(memory.getMetrics().getValueMetric("vm.allocation.waiters").get(), is(0L));
+        assertThat(memory.getMetrics().getTimerMetric("vm.allocation.waitTime").getCount(), is(1L));
+    }
+
+    @Test
+    public void allocateTimeout() throws Exception {
+        final int size = MemorySize.kilobytes(20).getBytesAsInt();
+        memory.allocate(size);
+
+        try {
+            memory.allocate(1, 50, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected OutOfMemoryException");
+        } catch (OutOfMemoryException e) {
+            // expected
+        }
+        assertThat(memory.getMetrics().getValueMetric("vm.allocation.timeouts").get(), is(1L));
+        assertThat(memory.getMetrics().getValueMetric("vm.allocation.waiters").get(), is(0L));
+    }
+
+    @Test
+    public void allocateWaitersAreServedInOrder() throws Exception {
+        final int half = MemorySize.kilobytes(10).getBytesAsInt();
+        final Space space1 = memory.allocate(half);
+        final Space space2 = memory.allocate(half);
+
+        final Space[] result = new Space[2];
+        Thread large = allocateInThread(result, 0, half + 1);
+        large.start();
+        waitForWaiters(1);
+        Thread small = allocateInThread(result, 1, 10);
+        small.start();
+        waitForWaiters(2);
+
+        // the small space fits, but the large one came first
+        space1.free();
+        Thread.sleep(50);
+        Assert.assertNull(result[0]);
+        Assert.assertNull(result[1]);
+        Assert.assertEquals(half, memory.getUsedMemorySize());
+
+        space2.free();
+        large.join();
+        small.join();
+        Assert.assertNotNull(result[0]);
+        Assert.assertNotNull(result[1]);
+        Assert.assertEquals(half + 11, memory.getUsedMemorySize());
+    }
+
+    @Test
+    public void allocateWaiterIsNotStarvedByAllocationsWithoutWait() throws Exception {
+        final int half = MemorySize.kilobytes(10).getBytesAsInt();
+        final Space space1 = memory.allocate(half);
+        final Space space2 = memory.allocate(half);
+
+        final Space[] result = new Space[1];
+        Thread large = allocateInThread(result, 0, half + 1);
+        large.start();
+        waitForWaiters(1);
+
+        // the memory freed for the waiting thread is not taken by allocations that don't wait
+        space1.free();
+        Assert.assertNull(memory.tryAllocate(10));
+        try {
+            memory.allocate(10);
+            Assert.fail("Expected OutOfMemoryException");
+        } catch (OutOfMemoryException e) {
+            // expected
+        }
+        try {
+            memory.allocateAll(new int[]{10, 10});
+            Assert.fail("Expected OutOfMemoryException");
+        } catch (OutOfMemoryException e) {
+            // expected
+        }
+        Assert.assertEquals(half, memory.getUsedMemorySize());
+
+        space2.free();
+        large.join();
+        Assert.assertNotNull(result[0]);
+        Assert.assertNotNull(memory.tryAllocate(10));
+    }
+
+    @Test
+    public void allocateWithoutWaitUsesMemoryNotReservedForWaiter() throws Exception {
+        final int half = MemorySize.kilobytes(10).getBytesAsInt();
+        final Space space1 = memory.allocate(half);
+        final Space space2 = memory.allocate(half - 100);
+
+        final Space[] result = new Space[1];
+        Thread large = allocateInThread(result, 0, half + 1);
+        large.start();
+        waitForWaiters(1);
+
+        // nothing was freed for the waiting thread yet
+        Assert.assertNotNull(memory.tryAllocate(10));
+        Assert.assertNotNull(memory.allocate(10));
+
+        // only the memory freed for the waiting thread is reserved
+        space1.free();
+        Assert.assertNull(memory.tryAllocate(100));
+        Assert.assertNotNull(memory.tryAllocate(10));
+        Assert.assertNull(result[0]);
+
+        space2.free();
+        large.join();
+        Assert.assertNotNull(result[0]);
+    }
+
+    @Test
+    public void allocateLargerThanMemoryDoesNotWait() throws Exception {
+        final int size = MemorySize.kilobytes(20).getBytesAsInt();
+        try {
+            memory.allocate(size + 1, 10, TimeUnit.SECONDS);
+            Assert.fail("Expected OutOfMemoryException");
+        } catch (OutOfMemoryException e) {
+            // expected
+        }
+        assertThat(memory.getMetrics().getValueMetric("vm.allocation.waits").get(), is(0L));
+        Assert.assertNotNull(memory.allocate(10));
+    }
+
+    private Thread allocateInThread(final Space[] result, final int index, final int size) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[index] = memory.allocate(size, 10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private void waitForWaiters(long count) {
+        while (memory.getMetrics().getValueMetric("vm.allocation.waiters").get() != count) {
+            Thread.yield();
+        }
+    }
 }
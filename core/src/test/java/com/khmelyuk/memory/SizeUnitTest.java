@@ -14,26 +14,26 @@ public class SizeUnitTest {
 
     @Test
     public void returnZeroIfSizeIsZero() {
-        assertThat(0, is(SizeUnit.Bytes.toBytes(0)));
-        assertThat(0, is(SizeUnit.KB.toBytes(0)));
-        assertThat(0, is(SizeUnit.MB.toBytes(0)));
-        assertThat(0, is(SizeUnit.GB.toBytes(0)));
+        assertThat(0L, is(SizeUnit.Bytes.toBytes(0)));
+        assertThat(0L, is(SizeUnit.KB.toBytes(0)));
+        assertThat(0L, is(SizeUnit.MB.toBytes(0)));
+        assertThat(0L, is(SizeUnit.GB.toBytes(0)));
     }
 
     @Test
     public void toBytesReturnCorrectValues() {
-        assertThat(SizeUnit.Bytes.toBytes(10), is(10));
-        assertThat(SizeUnit.KB.toBytes(10), is(1024 * 10));
-        assertThat(SizeUnit.MB.toBytes(2), is(1024 * 1024 * 2));
-        assertThat(SizeUnit.GB.toBytes(1), is(1024 * 1024 * 1024 * 1));
+        assertThat(SizeUnit.Bytes.toBytes(10), is(10L));
+        assertThat(SizeUnit.KB.toBytes(10), is(1024L * 10));
+        assertThat(SizeUnit.MB.toBytes(2), is(1024L * 1024 * 2));
+        assertThat(SizeUnit.GB.toBytes(1), is(1024L * 1024 * 1024 * 1));
     }
 
     @Test
     public void fromBytesReturnsCorrectValues() {
-        assertThat(SizeUnit.Bytes.fromBytes(10), is(10));
-        assertThat(SizeUnit.KB.fromBytes(1024 * 10), is(10));
-        assertThat(SizeUnit.MB.fromBytes(1024 * 1024 * 2), is(2));
-        assertThat(SizeUnit.GB.fromBytes(1024 * 1024 * 1024 * 1), is(1));
+        assertThat(SizeUnit.Bytes.fromBytes(10), is(10L));
+        assertThat(SizeUnit.KB.fromBytes(1024 * 10), is(10L));
+        assertThat(SizeUnit.MB.fromBytes(1024 * 1024 * 2), is(2L));
+        assertThat(SizeUnit.GB.fromBytes(1024 * 1024 * 1024 * 1), is(1L));
     }
 
     @Test
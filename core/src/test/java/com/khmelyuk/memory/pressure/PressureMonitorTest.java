@@ -0,0 +1,161 @@
+package com.khmelyuk.memory.pressure;
+
+import com.khmelyuk.memory.DynamicMemoryAllocator;
+import com.khmelyuk.memory.FixedMemoryAllocator;
+import com.khmelyuk.memory.Memory;
+import com.khmelyuk.memory.space.Space;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test case for memory pressure watermarks.
+ *
+ * @author Ruslan Khmelyuk
+ */
+public class PressureMonitorTest {
+
+    Memory memory;
+    RecordingListener listener;
+
+    @Before
+    public void setUp() {
+        memory = new FixedMemoryAllocator().allocate(1000);
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() {
+        memory.free();
+    }
+
+    @Test
+    public void usedPercentageWithHysteresis() throws Exception {
+        memory.addPressureListener(Watermark.usedPercentage(80, 50), listener);
+
+        Space space1 = memory.allocate(400);
+        Space space2 = memory.allocate(300);
+        Assert.assertNull(listener.poll(50));
+
+        Space space3 = memory.allocate(100);
+        Assert.assertEquals("high", listener.poll(1000));
+
+        // between watermarks, so memory is still under pressure
+        space3.free();
+        Space space4 = memory.allocate(200);
+        Assert.assertNull(listener.poll(50));
+
+        space4.free();
+        space2.free();
+        Assert.assertEquals("low", listener.poll(1000));
+
+        space1.free();
+        Assert.assertNull(listener.poll(50));
+    }
+
+    @Test
+    public void listenerIsNotifiedIfUnderPressureAlready() throws Exception {
+        memory.allocate(900);
+        memory.addPressureListener(Watermark.usedPercentage(80, 50), listener);
+
+        Assert.assertEquals("high", listener.poll(1000));
+    }
+
+    @Test
+    public void listenersAreCalledOnNotifierThread() throws Exception {
+        memory.addPressureListener(Watermark.usedPercentage(10, 0), listener);
+        memory.allocate(200);
+
+        Assert.assertEquals("high", listener.poll(1000));
+        Assert.assertNotSame(Thread.currentThread(), listener.thread);
+        Assert.assertEquals("memory-pressure-notifier", listener.thread.getName());
+    }
+
+    @Test
+    public void largestFreeBlock() throws Exception {
+        memory.addPressureListener(Watermark.largestFreeBlock(300, 500), listener);
+
+        Space space1 = memory.allocate(300);
+        Space space2 = memory.allocate(300);
+        memory.allocate(300);
+        Assert.assertEquals("high", listener.poll(1000));
+
+        // free memory is fragmented, the largest free block is 300 bytes
+        space1.free();
+        Assert.assertNull(listener.poll(50));
+
+        space2.free();
+        Assert.assertEquals("low", listener.poll(1000));
+    }
+
+    @Test
+    public void maxSize() throws Exception {
+        Memory dynamic = new DynamicMemoryAllocator().allocate(100, 300, 100);
+        try {
+            dynamic.addPressureListener(Watermark.maxSize(), listener);
+
+            dynamic.allocate(150);
+            Assert.assertNull(listener.poll(50));
+
+            dynamic.allocate(150);
+            Assert.assertEquals("high", listener.poll(1000));
+        } finally {
+            dynamic.free();
+        }
+    }
+
+    @Test
+    public void removeListener() throws Exception {
+        memory.addPressureListener(Watermark.usedPercentage(50, 10), listener);
+
+        Assert.assertTrue(memory.removePressureListener(listener));
+        Assert.assertFalse(memory.removePressureListener(listener));
+
+        memory.allocate(800);
+        Assert.assertNull(listener.poll(50));
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        memory.addPressureListener(Watermark.usedPercentage(50, 10), listener);
+
+        memory.allocate(600).free();
+        Assert.assertEquals("high", listener.poll(1000));
+        Assert.assertEquals("low", listener.poll(1000));
+
+        Assert.assertEquals(1L, memory.getMetrics().getValueMetric("memory.pressure.highWatermarks").get());
+        Assert.assertEquals(1L, memory.getMetrics().getValueMetric("memory.pressure.lowWatermarks").get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowWatermarkCantBeAboveHigh() {
+        Watermark.usedPercentage(50, 60);
+    }
+
+    private static class RecordingListener implements PressureListener {
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        volatile Thread thread;
+
+        @Override
+        public void onHighWatermark(Memory memory, Watermark watermark) {
+            thread = Thread.currentThread();
+            events.add("high");
+        }
+
+        @Override
+        public void onLowWatermark(Memory memory, Watermark watermark) {
+            thread = Thread.currentThread();
+            events.add("low");
+        }
+
+        String poll(long millis) throws InterruptedException {
+            return events.poll(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
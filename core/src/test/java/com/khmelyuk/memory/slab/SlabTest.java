@@ -0,0 +1,210 @@
+package com.khmelyuk.memory.slab;
+
+import com.khmelyuk.memory.FixedMemoryAllocator;
+import com.khmelyuk.memory.Memory;
+import com.khmelyuk.memory.MemorySize;
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.OutOfMemoryException;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class SlabTest {
+
+    Memory memory;
+
+    @Before
+    public void setUp() {
+        memory = new FixedMemoryAllocator().allocate(MemorySize.kilobytes(4));
+    }
+
+    @Test
+    public void testAllocate() {
+        Slab slab = memory.createSlab(48, 480);
+
+        Assert.assertEquals(10, slab.getRecordsPerSlab());
+        Assert.assertEquals(0, slab.getSlabsCount());
+
+        int record1 = slab.allocate();
+        int record2 = slab.allocate();
+
+        Assert.assertEquals(1, slab.getSlabsCount());
+        Assert.assertEquals(2, slab.getUsedRecordsCount());
+        Assert.assertEquals(slab.getRecordAddress(record1) + 48, slab.getRecordAddress(record2));
+        Assert.assertEquals(480, memory.getUsedMemorySize());
+    }
+
+    @Test
+    public void testAllocateNewSlab() {
+        Slab slab = memory.createSlab(48, 96);
+
+        Set<Long> addresses = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            addresses.add(slab.getRecordAddress(slab.allocate()));
+        }
+
+        Assert.assertEquals(5, addresses.size());
+        Assert.assertEquals(3, slab.getSlabsCount());
+    }
+
+    @Test
+    public void testFreedRecordIsReused() {
+        Slab slab = memory.createSlab(48, 480);
+        slab.allocate();
+        int record = slab.allocate();
+        slab.allocate();
+
+        Assert.assertTrue(slab.free(record));
+        Assert.assertFalse(slab.free(record));
+        Assert.assertEquals(2, slab.getUsedRecordsCount());
+
+        Assert.assertEquals(record, slab.allocate());
+    }
+
+    @Test
+    public void testFreeList() {
+        Slab slab = memory.createSlab(16, 64);
+        int[] records = new int[8];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = slab.allocate();
+        }
+        for (int each : records) {
+            Assert.assertTrue(slab.free(each));
+        }
+
+        // freed records are reused in reverse order
+        for (int i = records.length - 1; i >= 0; i--) {
+            Assert.assertEquals(records[i], slab.allocate());
+        }
+        Assert.assertEquals(2, slab.getSlabsCount());
+    }
+
+    @Test
+    public void testFreeWrongRecord() {
+        Slab slab = memory.createSlab(48, 480);
+        slab.allocate();
+
+        Assert.assertFalse(slab.free(-1));
+        Assert.assertFalse(slab.free(5));
+        Assert.assertFalse(slab.free(100));
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        Slab slab = memory.createSlab(8, 64);
+        int record1 = slab.allocate();
+        int record2 = slab.allocate();
+
+        slab.write(record1, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        slab.write(record2, new byte[]{9, 9}, 6, 2);
+
+        byte[] data = new byte[8];
+        Assert.assertEquals(8, slab.read(record1, data));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, data);
+
+        Assert.assertEquals(2, slab.read(record2, data, 6, 2));
+        Assert.assertEquals(9, data[0]);
+
+        // free and allocate again doesn't touch other records
+        slab.free(record2);
+        slab.allocate();
+        slab.read(record1, data);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, data);
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testWriteOutOfRecord() {
+        Slab slab = memory.createSlab(8, 64);
+        slab.write(slab.allocate(), new byte[9]);
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testWriteFreeRecord() {
+        Slab slab = memory.createSlab(8, 64);
+        int record = slab.allocate();
+        slab.free(record);
+        slab.write(record, new byte[4]);
+    }
+
+    @Test(expected = OutOfMemoryException.class)
+    public void testOutOfMemory() {
+        Slab slab = memory.createSlab(128, MemorySize.kilobytes(2));
+        for (int i = 0; i < 33; i++) {
+            slab.allocate();
+        }
+    }
+
+    @Test
+    public void testReleaseEmptySlabs() {
+        Slab slab = memory.createSlab(64, 128);
+        int record1 = slab.allocate();
+        int record2 = slab.allocate();
+        int record3 = slab.allocate();
+        slab.free(record1);
+        slab.free(record2);
+
+        Assert.assertEquals(1, slab.releaseEmptySlabs());
+        Assert.assertEquals(1, slab.getSlabsCount());
+        Assert.assertEquals(128, memory.getUsedMemorySize());
+        Assert.assertFalse(slab.free(record1));
+
+        slab.free(record3);
+        Assert.assertEquals(1, slab.releaseEmptySlabs());
+        Assert.assertEquals(0, memory.getUsedMemorySize());
+
+        // released slab is allocated again
+        slab.allocate();
+        Assert.assertEquals(1, slab.getSlabsCount());
+    }
+
+    @Test
+    public void testFreeSlab() {
+        Slab slab = memory.createSlab(64, 128);
+        slab.allocate();
+        slab.allocate();
+        slab.allocate();
+
+        slab.free();
+
+        Assert.assertEquals(0, slab.getSlabsCount());
+        Assert.assertEquals(0, slab.getUsedRecordsCount());
+        Assert.assertEquals(0, memory.getUsedMemorySize());
+    }
+
+    @Test
+    public void testMetrics() {
+        Slab slab = memory.createSlab(64, 128);
+        int record = slab.allocate();
+        slab.allocate();
+        slab.allocate();
+        slab.free(record);
+        slab.free(record);
+
+        MetricsSnapshot metrics = slab.getMetrics();
+        assertThat(metrics.getValueMetric("slab.recordSize").get(), is(64L));
+        assertThat(metrics.getValueMetric("slab.slabs").get(), is(2L));
+        assertThat(metrics.getValueMetric("slab.records").get(), is(4L));
+        assertThat(metrics.getValueMetric("slab.usedRecords").get(), is(2L));
+        assertThat(metrics.getValueMetric("slab.freeRecords").get(), is(2L));
+        assertThat(metrics.getValueMetric("slab.allocations").get(), is(3L));
+        assertThat(metrics.getValueMetric("slab.frees").get(), is(2L));
+        assertThat(metrics.getValueMetric("slab.failedFrees").get(), is(1L));
+        assertThat(metrics.getMetrics(), hasItem("slab.releasedSlabs"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordSizeTooSmall() {
+        memory.createSlab(2, 128);
+    }
+}
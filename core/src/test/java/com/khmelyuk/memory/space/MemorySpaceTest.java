@@ -83,6 +83,21 @@ public class MemorySpaceTest {
         Assert.assertThat(buffer[5], not(equalTo(data[5])));
     }
 
+    @Test
+    public void testReadWrite_Primitives() {
+        MemorySpace s = memory.allocate(MemorySize.kilobytes(2));
+
+        s.putShort(0, (short) 12);
+        s.putInt(2, -12323);
+        s.putLong(6, 1234567890123L);
+        s.putDouble(2040, 0.25);
+
+        Assert.assertEquals(12, s.getShort(0));
+        Assert.assertEquals(-12323, s.getInt(2));
+        Assert.assertEquals(1234567890123L, s.getLong(6));
+        Assert.assertEquals(0.25, s.getDouble(2040), 0);
+    }
+
     @Test
     public void testReadWrite_UDT() {
         MemorySpace s = memory.allocate(MemorySize.kilobytes(2));
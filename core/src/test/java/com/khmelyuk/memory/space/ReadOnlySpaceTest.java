@@ -99,6 +99,14 @@ public class ReadOnlySpaceTest {
         ro.write(new User());
     }
 
+    @Test(expected = WriteNotAllowedException.class)
+    public void testResizeFails() {
+        Space s = memory.allocate(MemorySize.kilobytes(2));
+        Space ro = s.readOnly();
+
+        ro.resize(100);
+    }
+
     @Test(expected = WriteNotAllowedException.class)
     public void testReadWrite_WriteDataFails() {
         MemorySpace s = memory.allocate(MemorySize.kilobytes(2));
@@ -115,6 +123,23 @@ public class ReadOnlySpaceTest {
         roSpace.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 11, 12, 14}, 5, 10);
     }
 
+    @Test
+    public void testReadWrite_ReadPrimitives() {
+        MemorySpace s = memory.allocate(MemorySize.kilobytes(2));
+        s.putLong(8, 42L);
+        Space roSpace = s.readOnly();
+
+        Assert.assertEquals(42L, roSpace.getLong(8));
+    }
+
+    @Test(expected = WriteNotAllowedException.class)
+    public void testReadWrite_WritePrimitiveFails() {
+        MemorySpace s = memory.allocate(MemorySize.kilobytes(2));
+        Space roSpace = s.readOnly();
+
+        roSpace.putInt(0, 1);
+    }
+
     @Test
     public void testReadWrite_ReadData() {
         MemorySpace s = memory.allocate(MemorySize.kilobytes(2));
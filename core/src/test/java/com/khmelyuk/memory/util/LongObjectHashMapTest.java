@@ -0,0 +1,95 @@
+package com.khmelyuk.memory.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class LongObjectHashMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        assertNull(map.put(10, "ten"));
+        assertNull(map.put(0, "zero"));
+        assertEquals("ten", map.put(10, "TEN"));
+
+        assertEquals(2, map.size());
+        assertEquals("TEN", map.get(10));
+        assertEquals("zero", map.get(0));
+        assertNull(map.get(20));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(20));
+    }
+
+    @Test
+    public void testRemove() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        map.put(1, "one");
+        map.put(2, "two");
+
+        assertEquals("one", map.remove(1));
+        assertNull(map.remove(1));
+        assertEquals(1, map.size());
+        assertNull(map.get(1));
+        assertEquals("two", map.get(2));
+    }
+
+    @Test
+    public void testClear() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        map.put(1, "one");
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertEquals(0, map.values().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new LongObjectHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void testLargeKeys() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        long key = 1L << 32;
+        map.put(key, "large");
+        map.put(0, "zero");
+
+        assertEquals("large", map.get(key));
+        assertEquals("zero", map.get(0));
+        assertNull(map.get(key + 1));
+    }
+
+    @Test
+    public void testSameAsHashMap() {
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<>(4);
+        Map<Long, Integer> expected = new HashMap<>();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // aligned keys, like block addresses
+            long key = random.nextInt(5000) * 16L;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> each : expected.entrySet()) {
+            assertEquals(each.getValue(), map.get(each.getKey()));
+        }
+        assertEquals(expected.size(), map.values().size());
+    }
+}
@@ -90,7 +90,7 @@ public class DynamicVirtualMemoryTest extends VirtualMemoryTest {
     @Test
     public void testAllocateManyElements() {
         VirtualMemory memory = new DynamicVirtualMemory(
-                new DynamicStorage(100, MemorySize.megabytes(10).getBytes(), 100, ByteArrayStorageFactory.getInstance()),
+                new DynamicStorage(100, MemorySize.megabytes(10).getBytesAsInt(), 100, ByteArrayStorageFactory.getInstance()),
                 new LinkedVirtualMemoryTable(100));
 
         for (int i = 0; i < 1000; i++) {
@@ -22,7 +22,7 @@ import java.nio.channels.FileChannel;
 public class VMPerformanceTest {
 
     static final int N = 5;
-    static final int SIZE = MemorySize.megabytes(2).getBytes();
+    static final int SIZE = MemorySize.megabytes(2).getBytesAsInt();
     static final int COUNT_COEFF = 2000;
 
     @Test
@@ -123,7 +123,8 @@ public class VMPerformanceTest {
 
     private static VirtualMemory createFixedFileVirtualMemory() {
         try {
-            File file = new File("vm-performance.test");
+            final File file = File.createTempFile("vm-performance", ".test");
+            file.deleteOnExit();
             final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
             final FileChannel channel = randomAccessFile.getChannel();
             channel.force(true);
@@ -139,6 +140,7 @@ public class VMPerformanceTest {
                     try {
                         channel.close();
                         randomAccessFile.close();
+                        file.delete();
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
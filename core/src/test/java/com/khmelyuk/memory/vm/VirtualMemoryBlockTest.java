@@ -85,6 +85,28 @@ public class VirtualMemoryBlockTest {
         Assert.assertEquals(30, read[2]);
     }
 
+    @Test
+    public void testPrimitives() {
+        VirtualMemory memory = createFixedVirtualMemory(20);
+        memory.allocate(4);
+        VirtualMemoryBlock block = memory.allocate(10);
+
+        block.putInt(0, 7);
+        block.putLong(2, -1L);
+
+        Assert.assertEquals(7 >> 16, block.getShort(0));
+        Assert.assertEquals(-1L, block.getLong(2));
+        Assert.assertEquals(-1L, memory.getLong(6));
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testPrimitiveOutOfBlock() {
+        VirtualMemory memory = createFixedVirtualMemory(20);
+        VirtualMemoryBlock block = memory.allocate(10);
+
+        block.putLong(4, 1L);
+    }
+
     @Test(expected = OutOfBoundException.class)
     public void testWriteOutOfBound() {
         VirtualMemory memory = createFixedVirtualMemory(10);
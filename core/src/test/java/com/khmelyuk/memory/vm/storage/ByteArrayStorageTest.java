@@ -1,5 +1,6 @@
 package com.khmelyuk.memory.vm.storage;
 
+import com.khmelyuk.memory.OutOfBoundException;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -22,4 +23,28 @@ public class ByteArrayStorageTest {
         Assert.assertEquals(read[1], data[3]);
         Assert.assertEquals(read[2], data[4]);
     }
+
+    @Test
+    public void testPrimitives() {
+        ByteArrayStorage storage = new ByteArrayStorage(100);
+
+        storage.putShort(0, (short) -2);
+        storage.putInt(2, 0x01020304);
+        storage.putLong(6, Long.MIN_VALUE + 1);
+        storage.putDouble(14, Math.PI);
+
+        Assert.assertEquals(-2, storage.getShort(0));
+        Assert.assertEquals(0x01020304, storage.getInt(2));
+        Assert.assertEquals(Long.MIN_VALUE + 1, storage.getLong(6));
+        Assert.assertEquals(Math.PI, storage.getDouble(14), 0);
+
+        // values are stored in big-endian order
+        Assert.assertEquals(1, storage.read(2));
+        Assert.assertEquals(4, storage.read(5));
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testPrimitiveOutOfBound() {
+        new ByteArrayStorage(100).getLong(93);
+    }
 }
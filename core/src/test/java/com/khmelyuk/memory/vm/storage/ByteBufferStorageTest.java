@@ -0,0 +1,154 @@
+package com.khmelyuk.memory.vm.storage;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class ByteBufferStorageTest {
+
+    @Test
+    public void testWriteWithOffsets() {
+        ByteBufferStorage storage = new ByteBufferStorage(ByteBuffer.allocate(100));
+
+        byte[] data = {10, 20, 30, 40, 50};
+        storage.write(data, 10, 2, 3);
+
+        byte[] read = new byte[5];
+        storage.read(read, 10, 3);
+
+        Assert.assertEquals(read[0], data[2]);
+        Assert.assertEquals(read[1], data[3]);
+        Assert.assertEquals(read[2], data[4]);
+    }
+
+    @Test
+    public void testReadDoesNotMoveBufferPosition() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+        ByteBufferStorage storage = new ByteBufferStorage(buffer);
+        storage.write(new byte[]{1, 2, 3}, 0);
+
+        byte[] read = new byte[3];
+        Assert.assertEquals(3, storage.read(read));
+        Assert.assertEquals(3, storage.read(read, 0, 3));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, read);
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testFree() {
+        ByteBufferStorage storage = new ByteBufferStorage(ByteBuffer.allocate(100));
+        storage.write(new byte[]{1, 2, 3}, 0);
+        storage.free();
+
+        Assert.assertEquals(0, storage.size());
+        Assert.assertEquals(-1, storage.read(new byte[3], 0, 3));
+    }
+
+    @Test
+    public void testFreedBufferIsNotKeptByOtherThreads() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        final ByteBufferStorage storage = new ByteBufferStorage(buffer);
+        final WeakReference<ByteBuffer> reference = new WeakReference<>(buffer);
+        buffer = null;
+
+        // the worker caches the duplicate and stays alive after the storage is freed
+        final CountDownLatch used = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                storage.read(new byte[10], 0, 10);
+                used.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        worker.start();
+        used.await();
+        storage.free();
+
+        try {
+            for (int i = 0; i < 50 && reference.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assert.assertNull(reference.get());
+        } finally {
+            done.countDown();
+            worker.join();
+        }
+    }
+
+    @Test
+    public void testReadAndWriteDoNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        ByteBufferStorage storage = new ByteBufferStorage(ByteBuffer.allocateDirect(4096));
+        byte[] data = new byte[64];
+
+        // warm up, so the per thread duplicate is created
+        readAndWrite(storage, data, 1000);
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        readAndWrite(storage, data, 100000);
+        final long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        // a slice per operation would be a few megabytes
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 10000);
+    }
+
+    private static void readAndWrite(Storage storage, byte[] data, int count) {
+        for (int i = 0; i < count; i++) {
+            final int offset = (i * data.length) % 4096;
+            storage.write(data, offset, 0, data.length);
+            storage.read(data, offset, 0, data.length);
+        }
+    }
+
+    @Test
+    public void testPrimitivesAreCompatibleWithByteArrayStorage() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(100).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBufferStorage storage = new ByteBufferStorage(buffer);
+        storage.putInt(10, 0x01020304);
+        storage.putLong(20, -5L);
+        storage.putShort(30, (short) 300);
+        storage.putDouble(40, -1.5);
+
+        byte[] data = new byte[100];
+        storage.read(data);
+        ByteArrayStorage copy = new ByteArrayStorage(100);
+        copy.write(data);
+
+        Assert.assertEquals(0x01020304, copy.getInt(10));
+        Assert.assertEquals(-5L, copy.getLong(20));
+        Assert.assertEquals(300, copy.getShort(30));
+        Assert.assertEquals(-1.5, copy.getDouble(40), 0);
+
+        // the order of the passed buffer is not changed
+        Assert.assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testPrimitiveOutOfBound() {
+        new ByteBufferStorage(ByteBuffer.allocate(100)).putInt(97, 1);
+    }
+}
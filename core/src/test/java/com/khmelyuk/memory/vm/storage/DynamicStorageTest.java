@@ -0,0 +1,104 @@
+package com.khmelyuk.memory.vm.storage;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class DynamicStorageTest {
+
+    @Test
+    public void testPowerOfTwoGrowth() {
+        checkSameAsFixed(new DynamicStorage(100, 1000, 64, ByteArrayStorageFactory.getInstance()));
+    }
+
+    @Test
+    public void testOtherGrowth() {
+        checkSameAsFixed(new DynamicStorage(100, 1000, 30, ByteArrayStorageFactory.getInstance()));
+    }
+
+    @Test
+    public void testEmptyFirstSector() {
+        checkSameAsFixed(new DynamicStorage(0, 1000, 32, ByteArrayStorageFactory.getInstance()));
+    }
+
+    @Test
+    public void testSectorBoundary() {
+        DynamicStorage storage = new DynamicStorage(10, 30, 8, ByteArrayStorageFactory.getInstance());
+        storage.increaseSize(18);
+
+        storage.write((byte) 1, 9);
+        storage.write((byte) 2, 10);
+        storage.write((byte) 3, 17);
+
+        Assert.assertEquals(1, storage.read(9));
+        Assert.assertEquals(2, storage.read(10));
+        Assert.assertEquals(3, storage.read(17));
+        Assert.assertEquals(-1, storage.read(18));
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testIncreaseByMoreThanGrowth() {
+        new DynamicStorage(10, 30, 8, ByteArrayStorageFactory.getInstance()).increaseSize(20);
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testIncreaseAfterLastStep() {
+        DynamicStorage storage = new DynamicStorage(10, 30, 8, ByteArrayStorageFactory.getInstance());
+        storage.increaseSize(14);
+        storage.increaseSize(22);
+    }
+
+    /**
+     * Grows the storage to the max size and checks that random writes and reads,
+     * that cross sectors too, give the same result as the fixed storage.
+     */
+    private static void checkSameAsFixed(DynamicStorage storage) {
+        while (storage.size() < storage.getMaxSize()) {
+            storage.increaseSize(Math.min(storage.size() + storage.getGrowth(), storage.getMaxSize()));
+        }
+
+        final int size = (int) storage.size();
+        final ByteArrayStorage fixed = new ByteArrayStorage(size);
+        final Random random = new Random(42);
+
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        storage.write(data);
+        fixed.write(data);
+
+        for (int i = 0; i < 1000; i++) {
+            final int length = 1 + random.nextInt(200);
+            final int offset = random.nextInt(size - length);
+            final byte[] chunk = new byte[length];
+            random.nextBytes(chunk);
+
+            storage.write(chunk, offset, 1, length - 1);
+            fixed.write(chunk, offset, 1, length - 1);
+            storage.putLong(offset, i);
+            fixed.putLong(offset, i);
+        }
+
+        byte[] expected = new byte[size];
+        byte[] actual = new byte[size];
+        Assert.assertEquals(size, fixed.read(expected));
+        Assert.assertEquals(size, storage.read(actual));
+        Assert.assertArrayEquals(expected, actual);
+
+        for (int i = 0; i < 1000; i++) {
+            final int offset = random.nextInt(size - 8);
+            Assert.assertEquals(fixed.read(offset), storage.read(offset));
+            Assert.assertEquals(fixed.getLong(offset), storage.getLong(offset));
+
+            byte[] chunk = new byte[10];
+            byte[] fixedChunk = new byte[10];
+            Assert.assertEquals(8, storage.read(chunk, offset, 2, 8));
+            fixed.read(fixedChunk, offset, 2, 8);
+            Assert.assertArrayEquals(fixedChunk, chunk);
+        }
+    }
+}
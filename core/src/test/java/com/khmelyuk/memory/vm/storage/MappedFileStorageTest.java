@@ -0,0 +1,96 @@
+package com.khmelyuk.memory.vm.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class MappedFileStorageTest {
+
+    File file;
+    RandomAccessFile randomAccessFile;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped-storage", ".test");
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        randomAccessFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void testSegmentsAreMappedOnFirstAccess() {
+        MappedFileStorage storage = new MappedFileStorage(randomAccessFile.getChannel(), 1000, 64, false);
+        Assert.assertEquals(1000, file.length());
+        Assert.assertEquals(0, storage.getMappedSegmentsCount());
+
+        storage.write((byte) 1, 10);
+        Assert.assertEquals(1, storage.getMappedSegmentsCount());
+
+        // the last segment is not full
+        storage.write((byte) 2, 999);
+        Assert.assertEquals(2, storage.read(999));
+        Assert.assertEquals(2, storage.getMappedSegmentsCount());
+    }
+
+    @Test
+    public void testWriteAndReadCrossSegments() {
+        MappedFileStorage storage = new MappedFileStorage(randomAccessFile.getChannel(), 1000, 64, false);
+
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        storage.write(data, 50);
+        storage.putLong(124, -2L);
+        storage.putInt(254, 42);
+
+        byte[] read = new byte[302];
+        Assert.assertEquals(300, storage.read(read, 50, 2, 300));
+        Assert.assertEquals(data[0], read[2]);
+        Assert.assertEquals(data[299], read[301]);
+        Assert.assertEquals(-2L, storage.getLong(124));
+        Assert.assertEquals(42, storage.getInt(254));
+        Assert.assertEquals(6, storage.getMappedSegmentsCount());
+    }
+
+    @Test
+    public void testDataIsKeptInFile() throws Exception {
+        MappedFileStorage storage = new MappedFileStorage(randomAccessFile.getChannel(), 1000, 64, false);
+        storage.putDouble(60, Math.PI);
+        storage.free();
+
+        storage = new MappedFileStorage(randomAccessFile.getChannel(), 1000, 256, true);
+        Assert.assertEquals(Math.PI, storage.getDouble(60), 0);
+    }
+
+    @Test
+    public void testLargerThan2GB() {
+        final long size = 5L * 1024 * 1024 * 1024;
+        MappedFileStorage storage = new MappedFileStorage(randomAccessFile.getChannel(), size, 1 << 30, false);
+
+        storage.putLong(size - 8, 123456789L);
+        storage.write(new byte[]{1, 2, 3}, (3L << 30) - 1);
+
+        Assert.assertEquals(123456789L, storage.getLong(size - 8));
+        Assert.assertEquals(2, storage.read(3L << 30));
+        Assert.assertEquals(3, storage.getMappedSegmentsCount());
+        storage.free();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSegmentSizeIsPowerOfTwo() {
+        new MappedFileStorage(randomAccessFile.getChannel(), 1000, 100, false);
+    }
+}
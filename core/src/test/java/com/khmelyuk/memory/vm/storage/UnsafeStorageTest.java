@@ -0,0 +1,203 @@
+package com.khmelyuk.memory.vm.storage;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class UnsafeStorageTest {
+
+    UnsafeStorage storage;
+
+    @Before
+    public void setUp() {
+        Assert.assertTrue(UnsafeStorage.isSupported());
+        storage = new UnsafeStorage(100);
+    }
+
+    @After
+    public void tearDown() {
+        storage.free();
+    }
+
+    @Test
+    public void testMemoryIsZeroed() {
+        byte[] read = new byte[100];
+        Assert.assertEquals(100, storage.read(read));
+        for (byte each : read) {
+            Assert.assertEquals(0, each);
+        }
+    }
+
+    @Test
+    public void testWriteWithOffsets() {
+        byte[] data = {10, 20, 30, 40, 50};
+        storage.write(data, 10, 2, 3);
+
+        byte[] read = new byte[5];
+        Assert.assertEquals(3, storage.read(read, 10, 3));
+
+        Assert.assertEquals(read[0], data[2]);
+        Assert.assertEquals(read[1], data[3]);
+        Assert.assertEquals(read[2], data[4]);
+
+        Assert.assertEquals(2, storage.read(read, 11, 3, 2));
+        Assert.assertEquals(read[3], data[3]);
+        Assert.assertEquals(read[4], data[4]);
+    }
+
+    @Test
+    public void testWriteAndReadByte() {
+        storage.write((byte) 42, 99);
+        Assert.assertEquals(42, storage.read(99));
+        Assert.assertEquals(-1, storage.read(100));
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testWriteOutOfBound() {
+        storage.write(new byte[10], 95);
+    }
+
+    @Test
+    public void testReadOutOfBound() {
+        Assert.assertEquals(-1, storage.read(new byte[10], 95, 10));
+        Assert.assertEquals(-1, storage.read(new byte[10], -1, 10));
+    }
+
+    @Test
+    public void testReadOutOfDataBound() {
+        byte[] read = new byte[8];
+        Assert.assertEquals(-1, storage.read(read, 0, -16, 16));
+        Assert.assertEquals(-1, storage.read(read, 0, -1, 4));
+        Assert.assertEquals(-1, storage.read(read, 0, 4, 8));
+        Assert.assertEquals(-1, storage.read(read, 0, 9, 1));
+        Assert.assertEquals(-1, storage.read(read, 0, Integer.MAX_VALUE, 2));
+        Assert.assertEquals(4, storage.read(read, 0, 4, 4));
+    }
+
+    @Test
+    public void testFree() {
+        storage.write(new byte[]{1, 2, 3});
+        storage.free();
+
+        Assert.assertEquals(0, storage.size());
+        Assert.assertEquals(-1, storage.read(new byte[3], 0, 3));
+        Assert.assertEquals(-1, storage.read(0));
+        try {
+            storage.putLong(0, 1);
+            Assert.fail("Freed storage is written");
+        } catch (OutOfBoundException e) {
+            // expected
+        }
+
+        // second free does nothing
+        storage.free();
+    }
+
+    @Test
+    public void testFreeWhileAccessed() throws Exception {
+        final int size = 1024 * 1024;
+        final UnsafeStorage large = new UnsafeStorage(size);
+        final byte[] data = new byte[64 * 1024];
+        final CountDownLatch started = new CountDownLatch(4);
+        final AtomicInteger stopped = new AtomicInteger();
+
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        // accesses continue till they fail the bounds check of the freed storage
+                        for (long offset = 0; ; offset = (offset + data.length) % size) {
+                            large.putLong(offset, offset);
+                            if (large.read(data, offset, data.length) == -1) {
+                                break;
+                            }
+                        }
+                    } catch (OutOfBoundException e) {
+                        // expected
+                    }
+                    stopped.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+
+        started.await();
+        Thread.sleep(20);
+        large.free();
+        for (Thread each : threads) {
+            each.join();
+        }
+
+        Assert.assertEquals(threads.length, stopped.get());
+        Assert.assertEquals(0, large.size());
+    }
+
+    @Test
+    public void testDynamicStorageOfOffHeapSectors() {
+        DynamicStorage dynamic = new DynamicStorage(10, 30, 10, UnsafeStorageFactory.getInstance());
+        try {
+            dynamic.increaseSize(20);
+
+            byte[] data = {1, 2, 3, 4, 5, 6};
+            dynamic.write(data, 7);
+
+            byte[] read = new byte[6];
+            Assert.assertEquals(6, dynamic.read(read, 7, 6));
+            Assert.assertArrayEquals(data, read);
+        } finally {
+            dynamic.free();
+        }
+    }
+
+    @Test
+    public void testPrimitives() {
+        storage.putShort(0, (short) -2);
+        storage.putInt(2, 0x01020304);
+        storage.putLong(6, Long.MAX_VALUE - 1);
+        storage.putDouble(92, Math.E);
+
+        Assert.assertEquals(-2, storage.getShort(0));
+        Assert.assertEquals(0x01020304, storage.getInt(2));
+        Assert.assertEquals(Long.MAX_VALUE - 1, storage.getLong(6));
+        Assert.assertEquals(Math.E, storage.getDouble(92), 0);
+
+        // values are stored in big-endian order, whatever is the native order
+        Assert.assertEquals(1, storage.read(2));
+        Assert.assertEquals(4, storage.read(5));
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testPrimitiveOutOfBound() {
+        storage.getInt(-1);
+    }
+
+    @Test
+    public void testPrimitivesCrossingSectors() {
+        DynamicStorage dynamic = new DynamicStorage(10, 30, 10, UnsafeStorageFactory.getInstance());
+        try {
+            dynamic.increaseSize(20);
+
+            dynamic.putLong(6, 0x0102030405060708L);
+            dynamic.putInt(10, 42);
+            dynamic.putShort(18, (short) 0x0A0B);
+
+            Assert.assertEquals(0x01020304, dynamic.getInt(6));
+            Assert.assertEquals(42, dynamic.getInt(10));
+            Assert.assertEquals(0x0A0B, dynamic.getShort(18));
+            Assert.assertEquals(0x010203040000002AL, dynamic.getLong(6));
+        } finally {
+            dynamic.free();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class ArenaVirtualMemoryTableTest {
+
+    @Test
+    public void testAllocateMemory() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(0, block.getAddress() % 250);
+        Assert.assertEquals(980, table.getFreeMemorySize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        // the same thread uses the same arena
+        Block block2 = table.allocate(30);
+        Assert.assertEquals(block.getAddress() + 20, block2.getAddress());
+    }
+
+    @Test
+    public void testThreadsUseDifferentArenas() throws Exception {
+        final VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 2, LinkedVirtualMemoryTableFactory.getInstance());
+        final Block block = table.allocate(20);
+        final AtomicReference<Block> other = new AtomicReference<>();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other.set(table.allocate(20));
+            }
+        });
+        thread.start();
+        thread.join();
+
+        Assert.assertEquals(500, Math.abs(block.getAddress() - other.get().getAddress()));
+
+        // block is freed to it's own arena from any thread
+        Assert.assertTrue(table.free(other.get()));
+        Assert.assertEquals(0, other.get().getSize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testFallbackToOtherArena() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 2, LinkedVirtualMemoryTableFactory.getInstance());
+
+        Block block1 = table.allocate(500);
+        Block block2 = table.allocate(500);
+        Assert.assertNotNull(block1);
+        Assert.assertNotNull(block2);
+        Assert.assertEquals(500, Math.abs(block1.getAddress() - block2.getAddress()));
+        Assert.assertNull(table.allocate(1));
+
+        // blocks can't span arenas
+        table.free(block1);
+        table.free(block2);
+        Assert.assertNull(table.allocate(501));
+
+        assertThat(table.getMetrics().getValueMetric("vmtable.arenaFallbacks").get(), is(1L));
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        Block block = table.allocate(20);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(0, block.getSize());
+        Assert.assertFalse(table.free(block));
+        Assert.assertFalse(table.free(new TableBlock(0, 20)));
+        Assert.assertFalse(table.free(null));
+        Assert.assertFalse(table.free(
+                new ArenaVirtualMemoryTable(1000, 4, LinkedVirtualMemoryTableFactory.getInstance()).allocate(10)));
+
+        Assert.assertEquals(1000, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testGrow() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 2, LinkedVirtualMemoryTableFactory.getInstance());
+        table.allocate(500);
+        table.allocate(500);
+
+        Assert.assertFalse(table.canIncreaseSize(1000));
+        Assert.assertTrue(table.canIncreaseSize(1500));
+        table.increaseSize(1500);
+
+        Assert.assertEquals(500, table.getFreeMemorySize());
+        Assert.assertEquals(1000, table.allocate(500).getAddress());
+    }
+
+    @Test
+    public void testResetTable() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        Block block = table.allocate(20);
+
+        table.reset(2000);
+
+        assertEquals(2000, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertFalse(table.free(block));
+        assertNotNull(table.allocate(500));
+    }
+
+    @Test
+    public void usedAndFreeBlocks() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        Block block = table.allocate(20);
+
+        assertEquals(1, table.getUsed().size());
+        assertEquals(block.getAddress(), table.getUsed().iterator().next().getAddress());
+        assertEquals(4, table.getFree().size());
+    }
+
+    @Test
+    public void counters() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 2, LinkedVirtualMemoryTableFactory.getInstance());
+
+        Block block = table.allocate(100);
+        table.allocate(1000);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(0L));
+        assertThat(metrics.getValueMetric("vmtable.freeBlocksCount").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.freeSize").get(), is(1000L));
+        assertThat(metrics.getValueMetric("vmtable.arenas").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.arenas.1.freeSize").get(), is(500L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 2, LinkedVirtualMemoryTableFactory.getInstance());
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.arenas"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.arenas.0.usedSize"));
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentAllocationsDontOverlap() throws Exception {
+        final int size = 64 * 1024;
+        final VirtualMemoryTable table = new ArenaVirtualMemoryTable(size, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        TableTests.assertConcurrentAllocationsDontOverlap(table, size, 8, 5000, 200);
+    }
+
+    @Test
+    public void testAllocateAllAndFreeAll() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(1000, 2, LinkedVirtualMemoryTableFactory.getInstance());
+        Block[] blocks = table.allocateAll(new int[]{400, 400});
+        Assert.assertEquals(800, table.getUsedMemorySize());
+
+        // the first block is freed back when the second one can't be allocated
+        Assert.assertNull(table.allocateAll(new int[]{100, 200}));
+        Assert.assertEquals(800, table.getUsedMemorySize());
+
+        Assert.assertEquals(2, table.freeAll(Arrays.asList(blocks)));
+        Assert.assertEquals(1000, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(4 * 8192, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        table.allocate(10);
+
+        Block block = table.allocate(100, 4096);
+        Assert.assertEquals(0, block.getAddress() % 4096);
+        Assert.assertEquals(0, table.allocate(100, 16384).getAddress() % 16384);
+        Assert.assertTrue(table.free(block));
+
+        // only the first arena is aligned, when arenas are small
+        VirtualMemoryTable small = new ArenaVirtualMemoryTable(1000, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        Assert.assertEquals(0, small.allocate(10, 64).getAddress());
+        Assert.assertEquals(64, small.allocate(10, 64).getAddress());
+    }
+
+    @Test
+    public void testResize() {
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(4 * 8192, 4, LinkedVirtualMemoryTableFactory.getInstance());
+        Block block = table.allocate(100);
+        final long address = block.getAddress();
+
+        Assert.assertTrue(table.resize(block, 200));
+        Assert.assertEquals(address, block.getAddress());
+        Assert.assertEquals(200, block.getSize());
+        Assert.assertFalse(table.resize(block, 8193));
+        Assert.assertEquals(200, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testArenasOfIntTablesLargerThan2GB() {
+        final long size = 5L * 1024 * 1024 * 1024;
+        VirtualMemoryTable table = new ArenaVirtualMemoryTable(size, 3, IndexedVirtualMemoryTableFactory.getInstance());
+        Assert.assertEquals(size, table.getFreeMemorySize());
+
+        // each block takes most of it's arena, so blocks are in different arenas
+        final int length = 1024 * 1024 * 1024;
+        long maxAddress = 0;
+        for (int i = 0; i < 3; i++) {
+            Block block = table.allocate(length);
+            Assert.assertNotNull(block);
+            maxAddress = Math.max(maxAddress, block.getAddress());
+        }
+        Assert.assertTrue(maxAddress > Integer.MAX_VALUE);
+        Assert.assertEquals(3L * length, table.getUsedMemorySize());
+        Assert.assertEquals(size - 3L * length, table.getFreeMemorySize());
+    }
+}
@@ -0,0 +1,263 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class BitmapVirtualMemoryTableTest {
+
+    @Test
+    public void testFindFreeRun() {
+        assertEquals(0, BitmapVirtualMemoryTable.findFreeRun(0L, 16));
+        assertEquals(2, BitmapVirtualMemoryTable.findFreeRun(0b11L, 3));
+        assertEquals(1, BitmapVirtualMemoryTable.findFreeRun(0b1001L, 2));
+        assertEquals(4, BitmapVirtualMemoryTable.findFreeRun(0b1101L, 2));
+        assertEquals(1, BitmapVirtualMemoryTable.findFreeRun(0b1001L, 1));
+        assertEquals(-1, BitmapVirtualMemoryTable.findFreeRun(-1L, 1));
+        assertEquals(-1, BitmapVirtualMemoryTable.findFreeRun(~(1L << 63 | 1L << 62), 3));
+        assertEquals(62, BitmapVirtualMemoryTable.findFreeRun(~(1L << 63 | 1L << 62), 2));
+    }
+
+    @Test
+    public void testAllocateMemory() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(8192);
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(linked, 1024);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+        Assert.assertEquals(8192 - 20, table.getFreeMemorySize());
+        Assert.assertEquals(1, table.getPagesCount());
+        Assert.assertEquals(1024, linked.getUsedMemorySize());
+
+        // small block takes the next units of the same page
+        Assert.assertEquals(32, table.allocate(30).getAddress());
+        Assert.assertEquals(64, table.allocate(1).getAddress());
+
+        // large block is allocated from the table
+        Block large = table.allocate(2000);
+        Assert.assertEquals(1024, large.getAddress());
+        Assert.assertEquals(2051, table.getUsedMemorySize());
+        Assert.assertEquals(1, table.getPagesCount());
+    }
+
+    @Test
+    public void testFreedUnitsAreReused() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192), 1024);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+        Block block3 = table.allocate(100);
+        long address = block2.getAddress();
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertEquals(0, block2.getSize());
+        Assert.assertEquals(0, block2.getAddress());
+        Assert.assertEquals(200, table.getUsedMemorySize());
+
+        // the gap is too small for 200 bytes, but fits 100 bytes
+        Assert.assertEquals(block3.getAddress() + 112, table.allocate(200).getAddress());
+        Assert.assertEquals(address, table.allocate(90).getAddress());
+        Assert.assertNotNull(block1);
+    }
+
+    @Test
+    public void testNewPageWhenPageIsFull() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(8192);
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(linked, 1024);
+
+        // 4 blocks of 256 bytes fill the page
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i * 256, table.allocate(256).getAddress());
+        }
+        Assert.assertEquals(1024, table.allocate(16).getAddress());
+        Assert.assertEquals(2, table.getPagesCount());
+        Assert.assertEquals(2048, linked.getUsedMemorySize());
+    }
+
+    @Test
+    public void testReleaseEmptyPagesWhenNoMemory() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(4096);
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(linked, 1024);
+
+        Block[] blocks = new Block[16];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = table.allocate(256);
+        }
+        Assert.assertEquals(4, table.getPagesCount());
+        Assert.assertNull(table.allocate(1));
+
+        for (int i = 4; i < blocks.length; i++) {
+            Assert.assertTrue(table.free(blocks[i]));
+        }
+        Assert.assertEquals(4096, linked.getUsedMemorySize());
+
+        // empty pages are returned to the table
+        Assert.assertNotNull(table.allocate(3072));
+        Assert.assertEquals(1, table.getPagesCount());
+        assertThat(table.getMetrics().getValueMetric("vmtable.bitmap.releasedPages").get(), is(3L));
+    }
+
+    @Test
+    public void testSmallBlockWhenNoPage() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(2000);
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(linked, 1024);
+
+        Assert.assertNotNull(table.allocate(1500));
+
+        // there is no space for a page, so small block is allocated from the table
+        Block block = table.allocate(100);
+        Assert.assertNotNull(block);
+        Assert.assertEquals(1500, block.getAddress());
+        Assert.assertEquals(0, table.getPagesCount());
+        Assert.assertTrue(table.free(block));
+    }
+
+    @Test
+    public void testFreeMemory() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192));
+        Block block = table.allocate(20);
+        Block large = table.allocate(2000);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertFalse(table.free(block));
+        Assert.assertTrue(table.free(large));
+        Assert.assertFalse(table.free(large));
+        Assert.assertFalse(table.free(null));
+        Assert.assertFalse(table.free(new TableBlock(2000, 20)));
+        Assert.assertFalse(table.free(new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192)).allocate(10)));
+
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(8192, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testResetTable() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192));
+        Block block = table.allocate(20);
+
+        table.reset(1024);
+
+        assertEquals(1024, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertEquals(0, table.getPagesCount());
+        assertFalse(table.free(block));
+        assertNotNull(table.allocate(1024));
+    }
+
+    @Test
+    public void testGrow() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(1024));
+        assertNotNull(table.allocate(1024));
+        assertNull(table.allocate(20));
+
+        assertTrue(table.canIncreaseSize(8192));
+        table.increaseSize(8192);
+        assertNotNull(table.allocate(20));
+    }
+
+    @Test
+    public void usedAndFreeBlocks() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(2048), 1024);
+        table.allocate(20);
+        table.allocate(100);
+        table.allocate(500);
+
+        // adjacent small blocks are seen as a single block
+        assertEquals(2, table.getUsed().size());
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(0, 144)));
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(1024, 500)));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(144, 880)));
+    }
+
+    @Test
+    public void counters() {
+        VirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192));
+
+        Block block = table.allocate(100);
+        table.allocate(10000);
+        table.allocate(2000);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(2000L));
+        assertThat(metrics.getValueMetric("vmtable.bitmap.pages").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.bitmap.smallAllocations").get(), is(1L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        VirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(200));
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.bitmap.pages"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.bitmap.smallAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.bitmap.releasedPages"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongPageSize() {
+        new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192), 1000);
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentAllocationsDontOverlap() throws Exception {
+        final int size = 64 * 1024;
+        final VirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(size));
+        TableTests.assertConcurrentAllocationsDontOverlap(table, size, 4, 20000, 400);
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192), 1024);
+        Assert.assertEquals(0, table.allocate(20).getAddress());
+
+        // aligned block is allocated from the table
+        Block block = table.allocate(20, 64);
+        Assert.assertEquals(1024, block.getAddress());
+        Assert.assertEquals(40, table.getUsedMemorySize());
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(1, table.getPagesCount());
+    }
+
+    @Test
+    public void testResize() {
+        BitmapVirtualMemoryTable table = new BitmapVirtualMemoryTable(new LinkedVirtualMemoryTable(8192), 1024);
+
+        // small block is resized within it's units
+        Block small = table.allocate(20);
+        Assert.assertTrue(table.resize(small, 32));
+        Assert.assertFalse(table.resize(small, 33));
+
+        Block large = table.allocate(300);
+        Assert.assertTrue(table.resize(large, 2000));
+        Assert.assertEquals(2032, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(small));
+        Assert.assertFalse(table.resize(small, 10));
+    }
+}
@@ -0,0 +1,271 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class BuddyVirtualMemoryTableTest {
+
+    @Test
+    public void testAllocateMemory() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(1024 - 32, table.getFreeMemorySize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        // the buddy of the first block
+        Block block2 = table.allocate(30);
+        Assert.assertEquals(32, block2.getAddress());
+
+        // the next free block of 128 bytes
+        Block block3 = table.allocate(100);
+        Assert.assertEquals(128, block3.getAddress());
+
+        // the free block of 64 bytes left after the first split
+        Block block4 = table.allocate(64);
+        Assert.assertEquals(64, block4.getAddress());
+
+        Assert.assertEquals(214, table.getUsedMemorySize());
+        Assert.assertEquals(1024 - 256, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testAllocateTooLargeBlock() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+
+        Assert.assertNull(table.allocate(1025));
+        Assert.assertNull(table.allocate(Integer.MAX_VALUE));
+        Assert.assertNotNull(table.allocate(1024));
+        Assert.assertNull(table.allocate(1));
+    }
+
+    @Test
+    public void testFreeMemoryMergesBuddies() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+
+        List<Block> blocks = new ArrayList<>();
+        Block block;
+        while ((block = table.allocate(16)) != null) {
+            blocks.add(block);
+        }
+        Assert.assertEquals(64, blocks.size());
+        Assert.assertEquals(0, table.getFreeMemorySize());
+
+        for (Block each : blocks) {
+            Assert.assertTrue(table.free(each));
+        }
+
+        Assert.assertEquals(1024, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertNotNull(table.allocate(1024));
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+        Block block = table.allocate(20);
+        Block block2 = table.allocate(50);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getSize());
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(50, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertEquals(1024, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+
+        Assert.assertFalse(table.free(block2));
+        Assert.assertFalse(table.free(new TableBlock(0, 20)));
+        Assert.assertFalse(table.free(new BuddyVirtualMemoryTable(1024).allocate(20)));
+    }
+
+    @Test
+    public void testNotPowerOfTwoSize() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(3000);
+
+        // 2048 + 512 + 256 + 128 + 32 + 16, the tail of 8 bytes is not used
+        Assert.assertEquals(2992, table.getFreeMemorySize());
+        Assert.assertEquals(6, table.getFree().size());
+
+        Assert.assertNotNull(table.allocate(2048));
+        Assert.assertNull(table.allocate(1024));
+        Assert.assertEquals(2048, table.allocate(512).getAddress());
+    }
+
+    @Test
+    public void testIncreaseSize() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(3000);
+        Block block = table.allocate(2048);
+
+        Assert.assertFalse(table.canIncreaseSize(3000));
+        Assert.assertTrue(table.canIncreaseSize(4096));
+        table.increaseSize(4096);
+
+        Assert.assertEquals(2048, table.getFreeMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertEquals(2048, table.allocate(2048).getAddress());
+
+        table.increaseSize(8192);
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(4096 + 2048, table.getFreeMemorySize());
+        Assert.assertEquals(2, table.getFree().size());
+    }
+
+    @Test
+    public void testMinBlockSize() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(4096, 512);
+        Block block = table.allocate(1);
+
+        Assert.assertEquals(4096 - 512, table.getFreeMemorySize());
+        Assert.assertEquals(512, table.allocate(1).getAddress());
+        Assert.assertTrue(table.free(block));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinBlockSizeIsPowerOfTwo() {
+        new BuddyVirtualMemoryTable(4096, 24);
+    }
+
+    @Test
+    public void testResetTable() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+        table.allocate(20);
+        table.allocate(500);
+
+        table.reset(0);
+
+        assertEquals(0, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertEquals(0, table.getFree().size());
+        assertNull(table.allocate(20));
+    }
+
+    @Test
+    public void usedAndFreeBlocks() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+        table.allocate(20);
+        table.allocate(20);
+        table.allocate(200);
+
+        assertEquals(3, table.getUsed().size());
+        // 64 + 128 + 512
+        assertEquals(3, table.getFree().size());
+    }
+
+    @Test
+    public void internalFragmentation() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(4096);
+        table.allocate(20);
+        Block block = table.allocate(600);
+        table.allocate(1024);
+
+        assertThat(table.getMetrics().getValueMetric("vmtable.internalFragmentation").get(), is(12L + 424L));
+
+        table.free(block);
+        assertThat(table.getMetrics().getValueMetric("vmtable.internalFragmentation").get(), is(12L));
+    }
+
+    @Test
+    public void counters() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+
+        Block block = table.allocate(100);
+        table.allocate(2048);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.splits").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.merges").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(0L));
+        assertThat(metrics.getValueMetric("vmtable.freeBlocksCount").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(0L));
+        assertThat(metrics.getValueMetric("vmtable.freeSize").get(), is(1024L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(200);
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.internalFragmentation"));
+    }
+
+    @Test
+    public void testAllocateAllAndFreeAll() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+        Block[] blocks = table.allocateAll(new int[]{20, 30, 100});
+        Assert.assertEquals(32, blocks[1].getAddress());
+        Assert.assertEquals(150, table.getUsedMemorySize());
+
+        Assert.assertNull(table.allocateAll(new int[]{256, 1024}));
+        Assert.assertEquals(150, table.getUsedMemorySize());
+
+        Assert.assertEquals(3, table.freeAll(Arrays.asList(blocks)));
+        Assert.assertEquals(1024, table.getFreeMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+
+        Block block = table.allocate(10, 64);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(10, block.getSize());
+        Assert.assertEquals(64, table.allocate(10).getAddress());
+        Assert.assertEquals(128, table.allocate(10, 128).getAddress());
+        Assert.assertNull(table.allocate(10, 2048));
+
+        Assert.assertEquals(30, table.getUsedMemorySize());
+        Assert.assertTrue(table.free(block));
+    }
+
+    @Test
+    public void testResize() {
+        VirtualMemoryTable table = new BuddyVirtualMemoryTable(1024);
+        Block block = table.allocate(100);
+
+        // the block is resized within it's order only
+        Assert.assertTrue(table.resize(block, 128));
+        Assert.assertEquals(128, table.getUsedMemorySize());
+        Assert.assertFalse(table.resize(block, 129));
+        Assert.assertTrue(table.resize(block, 20));
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertFalse(table.resize(block, 20));
+    }
+}
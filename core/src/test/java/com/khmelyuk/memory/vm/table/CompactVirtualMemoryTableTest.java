@@ -0,0 +1,268 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class CompactVirtualMemoryTableTest {
+
+    @Test
+    public void testAllocateMemory() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(980, table.getFreeMemorySize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        Assert.assertEquals(20, table.allocate(30).getAddress());
+        Assert.assertEquals(50, table.allocate(950).getAddress());
+        Assert.assertNull(table.allocate(1));
+        Assert.assertEquals(0, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testFreeMemoryMergesNeighbours() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+        Block block3 = table.allocate(100);
+
+        Assert.assertTrue(table.free(block1));
+        Assert.assertTrue(table.free(block3));
+        Assert.assertEquals(2, table.getFree().size());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertEquals(1, table.getFree().size());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(0, 1000)));
+        Assert.assertNotNull(table.allocate(1000));
+    }
+
+    @Test
+    public void testFirstFit() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block1 = table.allocate(100);
+        table.allocate(100);
+        table.free(block1);
+
+        Assert.assertEquals(200, table.allocate(150).getAddress());
+        Assert.assertEquals(0, table.allocate(50).getAddress());
+        Assert.assertEquals(50, table.allocate(50).getAddress());
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block = table.allocate(20);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(0, block.getSize());
+        Assert.assertFalse(table.free(block));
+        Assert.assertFalse(table.free(new TableBlock(0, 20)));
+        Assert.assertFalse(table.free(null));
+        Assert.assertFalse(table.free(new CompactVirtualMemoryTable(1000).allocate(10)));
+
+        Assert.assertEquals(1000, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testFreedViewDoesntFreeReusedEntry() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block = table.allocate(1000);
+        Block used = table.getUsed().iterator().next();
+
+        Assert.assertTrue(table.free(used));
+        Block other = table.allocate(1000);
+
+        // the entry is the same, but it's another allocation
+        Assert.assertFalse(table.free(block));
+        Assert.assertEquals(1000, table.getUsedMemorySize());
+        Assert.assertTrue(table.free(other));
+    }
+
+    @Test
+    public void testManyBlocks() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(100000);
+        Block[] blocks = new Block[10000];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = table.allocate(10);
+            Assert.assertEquals(i * 10, blocks[i].getAddress());
+        }
+        Assert.assertNull(table.allocate(1));
+
+        Random random = new Random(17);
+        for (int i = blocks.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Block tmp = blocks[i];
+            blocks[i] = blocks[j];
+            blocks[j] = tmp;
+        }
+        for (Block each : blocks) {
+            Assert.assertTrue(table.free(each));
+        }
+
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertEquals(100000, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsed().size());
+    }
+
+    @Test
+    public void testResetTable() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block = table.allocate(20);
+
+        table.reset(2000);
+
+        assertEquals(2000, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertNotNull(table.allocate(20));
+        assertFalse(table.free(block));
+    }
+
+    @Test
+    public void testGrow() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        table.allocate(900);
+
+        assertFalse(table.canIncreaseSize(1000));
+        assertTrue(table.canIncreaseSize(1500));
+        table.increaseSize(1500);
+
+        // the last free block is extended
+        assertEquals(1, table.getFree().size());
+        assertEquals(900, table.allocate(600).getAddress());
+
+        table.increaseSize(2000);
+        assertEquals(1500, table.allocate(500).getAddress());
+    }
+
+    @Test
+    public void usedAndFreeBlocks() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block = table.allocate(20);
+
+        assertEquals(1, table.getUsed().size());
+        Block used = table.getUsed().iterator().next();
+        assertEquals(block.getAddress(), used.getAddress());
+        assertEquals(block.getSize(), used.getSize());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(20, 980)));
+    }
+
+    @Test
+    public void counters() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+
+        Block block = table.allocate(100);
+        table.allocate(1000);
+        table.allocate(200);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.freeBlocksCount").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(200L));
+        assertThat(metrics.getValueMetric("vmtable.freeSize").get(), is(800L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(200);
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.entriesCapacity"));
+    }
+
+    @Test
+    public void testAllocateAllAndFreeAll() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(200);
+        Block[] blocks = table.allocateAll(new int[]{20, 30, 50});
+        Assert.assertEquals(50, blocks[2].getAddress());
+        Assert.assertEquals(100, table.getUsedMemorySize());
+
+        Assert.assertNull(table.allocateAll(new int[]{50, 60}));
+        Assert.assertEquals(100, table.getFreeMemorySize());
+        Assert.assertEquals(3, table.getUsed().size());
+
+        Assert.assertEquals(3, table.freeAll(Arrays.asList(blocks[0], blocks[1], blocks[2], blocks[1])));
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+        assertThat(table.getMetrics().getValueMetric("vmtable.failedFrees").get(), is(1L));
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        table.allocate(10);
+
+        Block block = table.allocate(100, 64);
+        Assert.assertEquals(64, block.getAddress());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(10, 54)));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(164, 836)));
+
+        Assert.assertEquals(512, table.allocate(100, 512).getAddress());
+        Assert.assertNull(table.allocate(100, 1024));
+        Assert.assertEquals(790, table.getFreeMemorySize());
+
+        // freed aligned block is merged with the padding and the rest
+        Assert.assertTrue(table.free(block));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(10, 502)));
+    }
+
+    @Test
+    public void testResize() {
+        VirtualMemoryTable table = new CompactVirtualMemoryTable(1000);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+
+        // extended into the next free block
+        Assert.assertTrue(table.resize(block2, 300));
+        Assert.assertEquals(100, block2.getAddress());
+        Assert.assertEquals(300, block2.getSize());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(400, 600)));
+        Assert.assertFalse(table.resize(block1, 150));
+
+        // the tail is released, and then taken back
+        Assert.assertTrue(table.resize(block1, 40));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(40, 60)));
+        Assert.assertTrue(table.resize(block1, 100));
+        Assert.assertEquals(1, table.getFree().size());
+
+        Assert.assertTrue(table.resize(block2, 200));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(300, 700)));
+        Assert.assertEquals(300, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertFalse(table.resize(block2, 10));
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertEquals(900, table.getFreeMemorySize());
+    }
+}
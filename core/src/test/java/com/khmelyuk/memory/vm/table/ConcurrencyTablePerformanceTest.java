@@ -11,7 +11,7 @@ import org.junit.Test;
 public class ConcurrencyTablePerformanceTest {
 
     static final int N = 5;
-    static final int SIZE = MemorySize.megabytes(2).getBytes();
+    static final int SIZE = MemorySize.megabytes(2).getBytesAsInt();
     static final int COUNT_COEFF = 2000;
     static final int THREAD_NUM = 3;
 
@@ -26,6 +26,27 @@ public class ConcurrencyTablePerformanceTest {
         System.out.println("Linked: Avg. duration " + (total / N) + "ms");
     }
 
+    @Test
+    public void testLockFreeTablePerformance() throws Exception {
+        testPerformance(new LockFreeVirtualMemoryTable(SIZE), 0, THREAD_NUM);
+        long total = 0;
+        for (int i = 0; i < N; i++) {
+            total += testPerformance(new LockFreeVirtualMemoryTable(SIZE), i, THREAD_NUM);
+        }
+
+        System.out.println("LockFree: Avg. duration " + (total / N) + "ms");
+    }
+
+    @Test
+    public void testIndexedTablePerformance() throws Exception {
+        testPerformance(new IndexedVirtualMemoryTable(SIZE), 0, THREAD_NUM);
+        long total = 0;
+        for (int i = 0; i < N; i++) {
+            total += testPerformance(new IndexedVirtualMemoryTable(SIZE), i, THREAD_NUM);
+        }
+
+        System.out.println("Indexed: Avg. duration " + (total / N) + "ms");
+    }
 
     @Test
     public void testLinkedTableQuality() throws Exception {
@@ -38,9 +59,31 @@ public class ConcurrencyTablePerformanceTest {
         System.out.println("Linked: Avg. nulls percentage " + Math.round(total / N) + "%");
     }
 
+    @Test
+    public void testLockFreeTableQuality() throws Exception {
+        testQuality(new LockFreeVirtualMemoryTable(SIZE), 0, THREAD_NUM);
+        float total = 0;
+        for (int i = 0; i < N; i++) {
+            total += testQuality(new LockFreeVirtualMemoryTable(SIZE), i, THREAD_NUM);
+        }
+
+        System.out.println("LockFree: Avg. nulls percentage " + Math.round(total / N) + "%");
+    }
+
+    @Test
+    public void testIndexedTableQuality() throws Exception {
+        testQuality(new IndexedVirtualMemoryTable(SIZE), 0, THREAD_NUM);
+        float total = 0;
+        for (int i = 0; i < N; i++) {
+            total += testQuality(new IndexedVirtualMemoryTable(SIZE), i, THREAD_NUM);
+        }
+
+        System.out.println("Indexed: Avg. nulls percentage " + Math.round(total / N) + "%");
+    }
+
     private static long testPerformance(final VirtualMemoryTable table, int n, int threadsNum) throws Exception {
         final int max = COUNT_COEFF * (n + 5);
-        final int avgBlockSize = table.getFreeMemorySize() / max;
+        final int avgBlockSize = (int) (table.getFreeMemorySize() / max);
         final Block[] blocks = new Block[max];
 
         Runnable runnable = new Runnable() {
@@ -76,7 +119,7 @@ public class ConcurrencyTablePerformanceTest {
 
     private static float testQuality(final VirtualMemoryTable table, int n, int threadsNum) throws Exception {
         final int max = COUNT_COEFF * (n + 5);
-        final int avgBlockSize = table.getFreeMemorySize() / max;
+        final int avgBlockSize = (int) (table.getFreeMemorySize() / max);
         final Block[] blocks = new Block[max];
 
         final float[] nullsPercentTotal = new float[]{0};
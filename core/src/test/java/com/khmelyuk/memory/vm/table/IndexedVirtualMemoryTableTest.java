@@ -0,0 +1,227 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.OutOfBoundException;
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class IndexedVirtualMemoryTableTest {
+
+    @Test
+    public void testAllocateMemory() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(180, table.getFreeMemorySize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        Block block2 = table.allocate(50);
+
+        Assert.assertNotNull(block2);
+        Assert.assertEquals(20, block2.getAddress());
+        Assert.assertEquals(50, block2.getSize());
+        Assert.assertEquals(130, table.getFreeMemorySize());
+        Assert.assertEquals(70, table.getUsedMemorySize());
+
+        Assert.assertNull(table.allocate(131));
+    }
+
+    @Test
+    public void testAllocateBestFit() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        Block block1 = table.allocate(50);
+        table.allocate(10);
+        Block block3 = table.allocate(20);
+        table.allocate(10);
+
+        table.free(block1);
+        table.free(block3);
+
+        // the hole of 20 bytes fits better than the hole of 50 bytes or the tail
+        Assert.assertEquals(60, table.allocate(20).getAddress());
+        Assert.assertEquals(0, table.allocate(40).getAddress());
+        Assert.assertEquals(40, table.allocate(10).getAddress());
+    }
+
+    @Test
+    public void testFreeMergesNeighbours() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        Block block1 = table.allocate(20);
+        Block block2 = table.allocate(30);
+        Block block3 = table.allocate(40);
+
+        Assert.assertTrue(table.free(block1));
+        Assert.assertTrue(table.free(block3));
+        Assert.assertEquals(2, table.getFree().size());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertEquals(200, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertNotNull(table.allocate(200));
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        Block block = table.allocate(20);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getSize());
+        Assert.assertEquals(0, block.getAddress());
+
+        Assert.assertFalse(table.free(block));
+        Assert.assertFalse(table.free(new TableBlock(0, 20)));
+        Assert.assertFalse(table.free(null));
+
+        // the similar block can be freed
+        table.allocate(20);
+        Assert.assertTrue(table.free(new TableBlock(0, 20)));
+    }
+
+    @Test
+    public void testGrow() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        table.allocate(150);
+
+        Assert.assertFalse(table.canIncreaseSize(200));
+        Assert.assertTrue(table.canIncreaseSize(300));
+        table.increaseSize(300);
+
+        Assert.assertEquals(150, table.getFreeMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertEquals(150, table.allocate(150).getAddress());
+    }
+
+    @Test
+    public void testResetTable() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        table.allocate(20);
+
+        table.reset(0);
+
+        assertEquals(0, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertEquals(0, table.getFree().size());
+        assertNull(table.allocate(20));
+    }
+
+    @Test
+    public void counters() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+
+        Block block = table.allocate(100);
+        table.allocate(50);
+        table.allocate(100);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.freeBlocksCount").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(50L));
+        assertThat(metrics.getValueMetric("vmtable.freeSize").get(), is(150L));
+        assertThat(metrics.getValueMetric("vmtable.largestFreeBlock").get(), is(100L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.largestFreeBlock"));
+    }
+
+    @Test
+    public void testAllocateAllAndFreeAll() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(200);
+        Block[] blocks = table.allocateAll(new int[]{20, 30, 50});
+        Assert.assertEquals(20, blocks[1].getAddress());
+        Assert.assertEquals(100, table.getUsedMemorySize());
+
+        Assert.assertNull(table.allocateAll(new int[]{50, 60}));
+        Assert.assertEquals(100, table.getFreeMemorySize());
+
+        Assert.assertEquals(3, table.freeAll(Arrays.asList(blocks)));
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+        assertThat(table.getMetrics().getValueMetric("vmtable.failedAllocations").get(), is(1L));
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(1000);
+        table.allocate(10);
+
+        Block block = table.allocate(100, 64);
+        Assert.assertEquals(64, block.getAddress());
+
+        // the padding stays free and is the best fit
+        Assert.assertEquals(10, table.allocate(54).getAddress());
+        Assert.assertEquals(512, table.allocate(100, 512).getAddress());
+        Assert.assertNull(table.allocate(100, 1024));
+        Assert.assertEquals(736, table.getFreeMemorySize());
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(836, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testResize() {
+        VirtualMemoryTable table = new IndexedVirtualMemoryTable(1000);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+
+        // extended into the next free block
+        Assert.assertTrue(table.resize(block2, 300));
+        Assert.assertEquals(100, block2.getAddress());
+        Assert.assertEquals(300, block2.getSize());
+        Assert.assertFalse(table.resize(block1, 150));
+
+        // the tail is released, and then taken back
+        Assert.assertTrue(table.resize(block1, 40));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(40, 60)));
+        Assert.assertTrue(table.resize(block1, 100));
+        Assert.assertEquals(1, table.getFree().size());
+
+        // the tail is merged with the next free block
+        Assert.assertTrue(table.resize(block2, 200));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(300, 700)));
+        Assert.assertEquals(300, table.getUsedMemorySize());
+        Assert.assertEquals(700, table.getFreeMemorySize());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertFalse(table.resize(block2, 10));
+    }
+
+    @Test(expected = OutOfBoundException.class)
+    public void testTableCantBeLargerThan2GB() {
+        IndexedVirtualMemoryTableFactory.getInstance().create(Integer.MAX_VALUE + 1L);
+    }
+}
@@ -1,9 +1,14 @@
 package com.khmelyuk.memory.vm.table;
 
+import com.khmelyuk.memory.MemoryException;
 import com.khmelyuk.memory.metrics.MetricsSnapshot;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static junit.framework.Assert.assertEquals;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -270,4 +275,335 @@ public class LinkedVirtualMemoryTableTest {
         assertThat(snapshot.getMetrics(), hasItem("vmtable.allocationTime"));
     }
 
+    @Test
+    public void testAllocateAll() {
+        VirtualMemoryTable table = new LinkedVirtualMemoryTable(200);
+        Block[] blocks = table.allocateAll(new int[]{20, 30, 50});
+
+        Assert.assertEquals(3, blocks.length);
+        Assert.assertEquals(0, blocks[0].getAddress());
+        Assert.assertEquals(20, blocks[1].getAddress());
+        Assert.assertEquals(50, blocks[2].getAddress());
+        Assert.assertEquals(100, table.getUsedMemorySize());
+        Assert.assertEquals(100, table.getFreeMemorySize());
+        Assert.assertEquals(3, table.getUsed().size());
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(3L));
+    }
+
+    @Test
+    public void testAllocateAllFailsAtOnce() {
+        VirtualMemoryTable table = new LinkedVirtualMemoryTable(200);
+
+        Assert.assertNull(table.allocateAll(new int[]{100, 50, 60}));
+        Assert.assertEquals(200, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(1, table.getFree().size());
+        Assert.assertNotNull(table.allocate(200));
+    }
+
+    @Test
+    public void testFreeAll() {
+        VirtualMemoryTable table = new LinkedVirtualMemoryTable(200);
+        Block[] blocks = table.allocateAll(new int[]{20, 30, 50, 40});
+
+        // the last block is used, so freed blocks are merged into a single free block
+        int freed = table.freeAll(Arrays.asList(blocks[2], blocks[0], blocks[1], blocks[0]));
+
+        Assert.assertEquals(3, freed);
+        Assert.assertEquals(0, blocks[0].getSize());
+        Assert.assertEquals(40, table.getUsedMemorySize());
+        Assert.assertEquals(160, table.getFreeMemorySize());
+        Assert.assertEquals(2, table.getFree().size());
+        Assert.assertEquals(0, table.allocate(100).getAddress());
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(4L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+    }
+
+    /**
+     * Creates a table with free blocks (in the order of free list): 400:30, 150:200, 0:100, 480:520.
+     */
+    private static VirtualMemoryTable fragmentedTable(AllocationPolicy policy) {
+        VirtualMemoryTable table = new LinkedVirtualMemoryTable(1000, policy);
+        Block[] blocks = table.allocateAll(new int[]{100, 50, 200, 50, 30, 50});
+        table.free(blocks[0]);
+        table.free(blocks[2]);
+        table.free(blocks[4]);
+        return table;
+    }
+
+    @Test
+    public void testFirstFitPolicy() {
+        VirtualMemoryTable table = fragmentedTable(AllocationPolicy.FirstFit);
+        long searchLength = metric(table, "vmtable.firstFit.searchLength");
+
+        Assert.assertEquals(150, table.allocate(90).getAddress());
+        assertThat(metric(table, "vmtable.firstFit.searchLength") - searchLength, is(2L));
+    }
+
+    @Test
+    public void testBestFitPolicy() {
+        VirtualMemoryTable table = fragmentedTable(AllocationPolicy.BestFit);
+        long searchLength = metric(table, "vmtable.bestFit.searchLength");
+
+        // the whole list is searched, unless the exact fit block is found
+        Assert.assertEquals(0, table.allocate(90).getAddress());
+        Assert.assertEquals(400, table.allocate(30).getAddress());
+        assertThat(metric(table, "vmtable.bestFit.searchLength") - searchLength, is(5L));
+    }
+
+    @Test
+    public void testWorstFitPolicy() {
+        VirtualMemoryTable table = fragmentedTable(AllocationPolicy.WorstFit);
+        Assert.assertEquals(480, table.allocate(90).getAddress());
+        Assert.assertEquals(570, table.allocate(10).getAddress());
+    }
+
+    @Test
+    public void testNextFitPolicy() {
+        VirtualMemoryTable table = fragmentedTable(AllocationPolicy.NextFit);
+        long searches = metric(table, "vmtable.nextFit.searches");
+
+        // the search starts from the block where the allocation of all blocks stopped
+        Assert.assertEquals(480, table.allocate(20).getAddress());
+
+        // the block allocated entirely is removed, and there are no blocks after it
+        Assert.assertEquals(500, table.allocate(500).getAddress());
+
+        // so the search starts from the head of the list
+        Assert.assertEquals(400, table.allocate(20).getAddress());
+        Assert.assertEquals(150, table.allocate(20).getAddress());
+        Assert.assertEquals(170, table.allocate(20).getAddress());
+        assertThat(metric(table, "vmtable.nextFit.searches") - searches, is(5L));
+    }
+
+    @Test
+    public void testNextFitSearchLengthCountsWalkToRover() {
+        VirtualMemoryTable table = fragmentedTable(AllocationPolicy.NextFit);
+        long searchLength = metric(table, "vmtable.nextFit.searchLength");
+
+        // the free list is 400:30, 150:200, 0:100, 480:520, so the rover is the last block
+        Assert.assertEquals(480, table.allocate(300).getAddress());
+        assertThat(metric(table, "vmtable.nextFit.searchLength") - searchLength, is(4L));
+
+        // the blocks before the rover are walked and counted
+        Assert.assertEquals(780, table.allocate(10).getAddress());
+        assertThat(metric(table, "vmtable.nextFit.searchLength") - searchLength, is(8L));
+
+        // the block added to the head of the list doesn't move the rover
+        Assert.assertEquals(832, table.allocate(100, 64).getAddress());
+        Assert.assertEquals(790, table.allocate(10).getAddress());
+    }
+
+    @Test
+    public void testNextFitRoverIsResetWhenBlockIsMerged() {
+        VirtualMemoryTable table = new LinkedVirtualMemoryTable(1000, AllocationPolicy.NextFit);
+        table.allocate(100);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+
+        // the rover is the block at 300, which is merged into the block at 100 and removed
+        table.free(block1);
+        table.free(block2);
+        Assert.assertEquals(1, table.getFree().size());
+
+        // the search starts from the head, and doesn't walk the list twice to find the removed rover
+        long searchLength = metric(table, "vmtable.nextFit.searchLength");
+        Assert.assertEquals(100, table.allocate(10).getAddress());
+        Assert.assertEquals(110, table.allocate(10).getAddress());
+        assertThat(metric(table, "vmtable.nextFit.searchLength") - searchLength, is(2L));
+    }
+
+    @Test
+    public void compactMovesUsedBlocksDown() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        Block[] blocks = table.allocateAll(new int[]{100, 100, 100, 100, 100});
+        table.free(blocks[0]);
+        table.free(blocks[2]);
+
+        final List<String> moves = new ArrayList<>();
+        BlockMover mover = new BlockMover() {
+            @Override
+            public void move(long from, long to, int length) {
+                moves.add(from + "->" + to + ":" + length);
+            }
+        };
+
+        Assert.assertEquals(300, table.compact(1000, mover));
+        Assert.assertEquals(Arrays.asList("100->0:100", "300->100:100", "400->200:100"), moves);
+
+        // blocks are handles, so their addresses are updated
+        Assert.assertEquals(0, blocks[1].getAddress());
+        Assert.assertEquals(100, blocks[3].getAddress());
+        Assert.assertEquals(200, blocks[4].getAddress());
+
+        Assert.assertEquals(1, table.getFree().size());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(300, 700)));
+        Assert.assertEquals(700, table.getLargestFreeBlockSize());
+        Assert.assertEquals(0, table.compact(1000, mover));
+
+        Assert.assertTrue(table.free(blocks[3]));
+        Assert.assertEquals(200, table.getUsedMemorySize());
+        assertThat(metric(table, "vmtable.relocatedBlocks"), is(3L));
+    }
+
+    @Test
+    public void compactIsBoundedByMaxBytes() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        Block[] blocks = table.allocateAll(new int[]{100, 200, 100, 100});
+        table.free(blocks[0]);
+
+        BlockMover mover = new BlockMover() {
+            @Override
+            public void move(long from, long to, int length) {
+            }
+        };
+
+        // the first block is moved even if it's larger than max bytes
+        Assert.assertEquals(200, table.compact(150, mover));
+        Assert.assertEquals(200, table.compact(200, mover));
+        Assert.assertEquals(0, table.compact(200, mover));
+        Assert.assertEquals(300, blocks[3].getAddress());
+        Assert.assertEquals(400, table.allocate(600).getAddress());
+    }
+
+    private static long metric(VirtualMemoryTable table, String name) {
+        return table.getMetrics().getValueMetric(name).get();
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        table.allocate(10);
+
+        Block block = table.allocate(100, 64);
+        Assert.assertEquals(64, block.getAddress());
+        Assert.assertEquals(100, block.getSize());
+
+        // the padding stays free
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(10, 54)));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(164, 836)));
+        Assert.assertEquals(890, table.getFreeMemorySize());
+        Assert.assertEquals(110, table.getUsedMemorySize());
+
+        Assert.assertEquals(512, table.allocate(100, 512).getAddress());
+        Assert.assertNull(table.allocate(100, 1024));
+        Assert.assertTrue(table.free(block));
+        assertThat(metric(table, "vmtable.alignedAllocations"), is(3L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongAlignment() {
+        new LinkedVirtualMemoryTable(1000).allocate(10, 3);
+    }
+
+    @Test
+    public void compactDoesntMoveAlignedBlocks() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        Block[] blocks = table.allocateAll(new int[]{100, 100});
+        Block aligned = table.allocate(50, 256);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+        table.free(blocks[0]);
+        table.free(block1);
+
+        BlockMover mover = new BlockMover() {
+            @Override
+            public void move(long from, long to, int length) {
+            }
+        };
+
+        // the aligned block is a barrier, but blocks after it are compacted
+        Assert.assertEquals(100, table.compact(1000, mover));
+        Assert.assertEquals(100, table.compact(1000, mover));
+        Assert.assertEquals(0, table.compact(1000, mover));
+
+        Assert.assertEquals(0, blocks[1].getAddress());
+        Assert.assertEquals(256, aligned.getAddress());
+        Assert.assertEquals(306, block2.getAddress());
+    }
+
+    @Test
+    public void testResize() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(100);
+
+        // extended into the next free block
+        Assert.assertTrue(table.resize(block2, 300));
+        Assert.assertEquals(100, block2.getAddress());
+        Assert.assertEquals(300, block2.getSize());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(400, 600)));
+
+        // there is no free block after it
+        Assert.assertFalse(table.resize(block1, 150));
+
+        // the tail is released
+        Assert.assertTrue(table.resize(block1, 40));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(40, 60)));
+
+        // the next free block is taken entirely
+        Assert.assertTrue(table.resize(block1, 100));
+        Assert.assertEquals(1, table.getFree().size());
+
+        // the tail is merged with the next free block
+        Assert.assertTrue(table.resize(block2, 200));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(300, 700)));
+        Assert.assertEquals(300, table.getUsedMemorySize());
+        Assert.assertEquals(700, table.getFreeMemorySize());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertFalse(table.resize(block2, 10));
+        Assert.assertFalse(table.resize(null, 10));
+    }
+
+    @Test
+    public void testTableLargerThan2GB() {
+        final long size = 5L * 1024 * 1024 * 1024;
+        VirtualMemoryTable table = new LinkedVirtualMemoryTable(size);
+        Block block1 = table.allocate(Integer.MAX_VALUE);
+        Block block2 = table.allocate(Integer.MAX_VALUE);
+        Block block3 = table.allocate(100);
+
+        Assert.assertEquals(Integer.MAX_VALUE, block2.getAddress());
+        Assert.assertEquals(2L * Integer.MAX_VALUE, block3.getAddress());
+        Assert.assertEquals(size - 2L * Integer.MAX_VALUE - 100, table.getFreeMemorySize());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertTrue(table.free(block1));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(0, 2L * Integer.MAX_VALUE)));
+
+        Assert.assertTrue(table.canIncreaseSize(size * 2));
+        table.increaseSize(size * 2);
+        Assert.assertEquals(size * 2 - 100, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testRestore() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        table.allocate(50);
+        table.restore(1000, Arrays.asList(new TableBlock(500, 100), new TableBlock(100, 200)));
+
+        Assert.assertEquals(2, table.getUsed().size());
+        Assert.assertEquals(300, table.getUsedMemorySize());
+        Assert.assertEquals(700, table.getFreeMemorySize());
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(0, 100)));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(300, 200)));
+        assertThat(table.getFree(), hasItem((Block) new TableBlock(600, 400)));
+
+        Block block = table.allocate(150);
+        Assert.assertEquals(300, block.getAddress());
+        Assert.assertTrue(table.free(new TableBlock(100, 200)));
+        Assert.assertEquals(250, table.getUsedMemorySize());
+    }
+
+    @Test(expected = MemoryException.class)
+    public void testRestoreOverlappedBlocks() {
+        LinkedVirtualMemoryTable table = new LinkedVirtualMemoryTable(1000);
+        table.restore(1000, Arrays.asList(new TableBlock(100, 200), new TableBlock(250, 100)));
+    }
 }
@@ -0,0 +1,282 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class LockFreeVirtualMemoryTableTest {
+
+    static final int SUPERBLOCK = 1024;
+
+    @Test
+    public void testAllocateMemory() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+
+        // the slot of the size class is taken
+        Assert.assertEquals(8 * SUPERBLOCK - 32, table.getFreeMemorySize());
+        Assert.assertEquals(32, table.getUsedMemorySize());
+
+        // same size class - same superblock
+        Block block2 = table.allocate(30);
+
+        Assert.assertNotNull(block2);
+        Assert.assertEquals(32, block2.getAddress());
+        Assert.assertEquals(30, block2.getSize());
+        Assert.assertEquals(64, table.getUsedMemorySize());
+
+        // other size class - other superblock
+        Block block3 = table.allocate(100);
+
+        Assert.assertNotNull(block3);
+        Assert.assertEquals(SUPERBLOCK, block3.getAddress());
+        Assert.assertEquals(192, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testAllocateLargeBlock() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        Block block = table.allocate(3 * SUPERBLOCK + 1);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(3 * SUPERBLOCK + 1, block.getSize());
+        Assert.assertEquals(4 * SUPERBLOCK, table.getUsedMemorySize());
+
+        Block block2 = table.allocate(20);
+        Assert.assertEquals(4 * SUPERBLOCK, block2.getAddress());
+
+        Assert.assertNull(table.allocate(4 * SUPERBLOCK));
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertNotNull(table.allocate(4 * SUPERBLOCK));
+    }
+
+    @Test
+    public void testAllocateEntireMemory() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+
+        List<Block> blocks = new ArrayList<>();
+        Block block;
+        while ((block = table.allocate(16)) != null) {
+            blocks.add(block);
+        }
+
+        Assert.assertEquals(8 * SUPERBLOCK / 16, blocks.size());
+        Assert.assertEquals(0, table.getFreeMemorySize());
+        Assert.assertEquals(8 * SUPERBLOCK, table.getUsedMemorySize());
+
+        for (Block each : blocks) {
+            Assert.assertTrue(table.free(each));
+        }
+        Assert.assertEquals(8 * SUPERBLOCK, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+
+        // all superblocks are returned, so can allocate a large block
+        Assert.assertNotNull(table.allocate(8 * SUPERBLOCK));
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        Block block = table.allocate(20);
+        Block block2 = table.allocate(50);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getSize());
+        Assert.assertEquals(8 * SUPERBLOCK - 64, table.getFreeMemorySize());
+        Assert.assertEquals(64, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(block2));
+        Assert.assertEquals(8 * SUPERBLOCK, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+
+        Assert.assertFalse(table.free(block2));
+        Assert.assertFalse(table.free(new TableBlock(0, 20)));
+    }
+
+    @Test
+    public void testFreedBlockIsReused() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        table.allocate(20);
+        Block block = table.allocate(20);
+        table.allocate(20);
+
+        Assert.assertEquals(32, block.getAddress());
+        table.free(block);
+
+        Assert.assertEquals(32, table.allocate(20).getAddress());
+    }
+
+    @Test
+    public void testGrow() {
+        LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(2 * SUPERBLOCK, SUPERBLOCK);
+        Assert.assertNotNull(table.allocate(2 * SUPERBLOCK));
+        Assert.assertNull(table.allocate(20));
+
+        Assert.assertTrue(table.canIncreaseSize(3 * SUPERBLOCK));
+        table.increaseSize(3 * SUPERBLOCK);
+        Assert.assertEquals(SUPERBLOCK, table.getFreeMemorySize());
+        Assert.assertNotNull(table.allocate(20));
+
+        Assert.assertFalse(table.canIncreaseSize(SUPERBLOCK));
+    }
+
+    @Test
+    public void testResetTable() {
+        LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        table.allocate(20);
+        table.allocate(5000);
+
+        table.reset(0);
+
+        assertEquals(0, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertNull(table.allocate(20));
+    }
+
+    @Test
+    public void usedAndFreeBlocks() {
+        LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(4 * SUPERBLOCK, SUPERBLOCK);
+        table.allocate(20);
+        table.allocate(20);
+        table.allocate(SUPERBLOCK);
+
+        assertEquals(3, table.getUsed().size());
+        // 30 free slots in the first superblock and the run of 2 free superblocks
+        assertEquals(31, table.getFree().size());
+    }
+
+    @Test
+    public void testTailIsNotFree() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(4 * SUPERBLOCK + 100, SUPERBLOCK);
+        Assert.assertEquals(4 * SUPERBLOCK, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testUsedBlocksCanBeFreed() {
+        LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(4 * SUPERBLOCK, SUPERBLOCK);
+        Block small = table.allocate(20);
+        Block large = table.allocate(SUPERBLOCK);
+
+        // the used blocks are the allocated blocks
+        Collection<Block> used = table.getUsed();
+        assertEquals(2, used.size());
+        assertThat(used, hasItem(small));
+        assertThat(used, hasItem(large));
+
+        for (Block each : used) {
+            assertTrue(table.free(each));
+        }
+        assertFalse(table.free(small));
+        assertFalse(table.free(large));
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+    }
+
+    @Test
+    public void counters() {
+        final LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(4 * SUPERBLOCK, SUPERBLOCK);
+
+        Block block = table.allocate(100);
+        table.allocate(100 * SUPERBLOCK);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(0L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(0L));
+        assertThat(metrics.getValueMetric("vmtable.freeSize").get(), is(4L * SUPERBLOCK));
+        // active superblock is kept for the next allocation
+        assertThat(metrics.getValueMetric("vmtable.superblocks").get(), is(1L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        final LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(200);
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.superblocks"));
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentAllocationsDontOverlap() throws Exception {
+        final int size = 64 * SUPERBLOCK;
+        final LockFreeVirtualMemoryTable table = new LockFreeVirtualMemoryTable(size, SUPERBLOCK);
+        TableTests.assertConcurrentAllocationsDontOverlap(table, size, 8, 20000, 200);
+        assertNotNull(table.allocate(size));
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        table.allocate(10);
+
+        // small blocks are aligned to their size class
+        Block small = table.allocate(10, 64);
+        Assert.assertEquals(0, small.getAddress() % 64);
+        Assert.assertEquals(10, small.getSize());
+
+        // larger alignments are served with superblocks
+        Block large = table.allocate(100, 2 * SUPERBLOCK);
+        Assert.assertEquals(0, large.getAddress() % (2 * SUPERBLOCK));
+        Assert.assertEquals(0, table.allocate(100, 256).getAddress() % 256);
+
+        // the slots of 16 and 64 bytes, and two superblocks, as 256 bytes is larger than the biggest size class
+        Assert.assertEquals(16 + 64 + 2 * SUPERBLOCK, table.getUsedMemorySize());
+        Assert.assertTrue(table.free(small));
+        Assert.assertTrue(table.free(large));
+    }
+
+    @Test
+    public void testResize() {
+        VirtualMemoryTable table = new LockFreeVirtualMemoryTable(8 * SUPERBLOCK, SUPERBLOCK);
+        Block small = table.allocate(20);
+
+        // small block is resized within it's size class
+        Assert.assertTrue(table.resize(small, 10));
+        Assert.assertFalse(table.resize(small, SUPERBLOCK));
+
+        // large block is resized with it's run of superblocks
+        Block large = table.allocate(SUPERBLOCK + 100);
+        final long address = large.getAddress();
+        Assert.assertTrue(table.resize(large, 2 * SUPERBLOCK));
+        Assert.assertTrue(table.resize(large, 3 * SUPERBLOCK));
+        Assert.assertEquals(address, large.getAddress());
+        Assert.assertEquals(3 * SUPERBLOCK + 32, table.getUsedMemorySize());
+        Assert.assertTrue(table.resize(large, 100));
+        Assert.assertEquals(SUPERBLOCK + 32, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(large));
+        Assert.assertFalse(table.resize(large, 100));
+    }
+}
@@ -0,0 +1,113 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.MemoryException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class PersistentVirtualMemoryTableTest {
+
+    File file;
+    RandomAccessFile randomAccessFile;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("persistent-table", ".test");
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        randomAccessFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void testAllocatedBlocksAreRestored() {
+        VirtualMemoryTable table = PersistentVirtualMemoryTable.create(randomAccessFile.getChannel(), 1000);
+        Block block1 = table.allocate(100);
+        Block block2 = table.allocate(200);
+        Block block3 = table.allocate(50);
+        Assert.assertTrue(table.free(block2));
+        Assert.assertTrue(table.resize(block3, 80));
+        Block block4 = table.allocate(150);
+
+        table = PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+        Assert.assertEquals(3, table.getUsed().size());
+        Assert.assertEquals(330, table.getUsedMemorySize());
+        Assert.assertEquals(670, table.getFreeMemorySize());
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(block1.getAddress(), 100)));
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(block3.getAddress(), 80)));
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(block4.getAddress(), 150)));
+
+        // restored blocks are freed and recorded as usual
+        Assert.assertTrue(table.free(new TableBlock(block1.getAddress(), 100)));
+        table = PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+        Assert.assertEquals(2, table.getUsed().size());
+        Assert.assertEquals(230, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testAllocateAllAndFreeAll() {
+        VirtualMemoryTable table = PersistentVirtualMemoryTable.create(randomAccessFile.getChannel(), 1000);
+        Block[] blocks = table.allocateAll(new int[]{100, 200, 300});
+        Assert.assertNotNull(blocks);
+
+        table = PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+        Assert.assertEquals(600, table.getUsedMemorySize());
+
+        Assert.assertEquals(2, table.freeAll(Arrays.asList(blocks[0], blocks[2])));
+        table = PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+        Assert.assertEquals(1, table.getUsed().size());
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(blocks[1].getAddress(), 200)));
+    }
+
+    @Test
+    public void testSlotsGrow() {
+        VirtualMemoryTable table = PersistentVirtualMemoryTable.create(randomAccessFile.getChannel(), 100000);
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            blocks.add(table.allocate(10));
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            Assert.assertTrue(table.free(blocks.get(i)));
+        }
+
+        table = PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+        Assert.assertEquals(5000, table.getUsed().size());
+        Assert.assertEquals(50000, table.getUsedMemorySize());
+        assertThat(table.getUsed(), hasItem((Block) new TableBlock(99990, 10)));
+    }
+
+    @Test
+    public void testResetKeepsRecords() {
+        VirtualMemoryTable table = PersistentVirtualMemoryTable.create(randomAccessFile.getChannel(), 1000);
+        table.allocate(100);
+        table.reset(0);
+        Assert.assertEquals(0, table.getUsedMemorySize());
+
+        table = PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+        Assert.assertEquals(100, table.getUsedMemorySize());
+        Assert.assertEquals(900, table.getFreeMemorySize());
+    }
+
+    @Test(expected = MemoryException.class)
+    public void testOpenNotTableFile() throws Exception {
+        randomAccessFile.write(new byte[100]);
+        PersistentVirtualMemoryTable.open(randomAccessFile.getChannel());
+    }
+}
@@ -0,0 +1,230 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class SegregatedVirtualMemoryTableTest {
+
+    static final int SIZE = 64 * 1024;
+
+    @Test
+    public void testAllocateMemory() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(SIZE - 20, table.getFreeMemorySize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        // same bin of 32 bytes
+        Block block2 = table.allocate(30);
+        Assert.assertEquals(32, block2.getAddress());
+
+        // bin of 48 bytes takes the next run of 4KB
+        Block block3 = table.allocate(40);
+        Assert.assertEquals(4096, block3.getAddress());
+
+        Assert.assertEquals(90, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testAllocateLargeBlock() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        Block block = table.allocate(10000);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(10000, block.getSize());
+        Assert.assertEquals(10000, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertNotNull(table.allocate(SIZE));
+    }
+
+    @Test
+    public void testFreedBlockIsReused() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        table.allocate(100);
+        Block block = table.allocate(100);
+        table.allocate(100);
+
+        Assert.assertEquals(112, block.getAddress());
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getSize());
+
+        Assert.assertEquals(112, table.allocate(100).getAddress());
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        Block block = table.allocate(20);
+        Block block2 = table.allocate(5000);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertTrue(table.free(block2));
+        Assert.assertEquals(SIZE, table.getFreeMemorySize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+
+        Assert.assertFalse(table.free(block));
+        Assert.assertFalse(table.free(block2));
+        Assert.assertFalse(table.free(new TableBlock(0, 20)));
+    }
+
+    @Test
+    public void testEmptyRunsAreReturned() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+
+        // fill the memory with small blocks, some of them are allocated as runs can't be allocated
+        List<Block> blocks = new ArrayList<>();
+        Block block;
+        while ((block = table.allocate(64)) != null) {
+            blocks.add(block);
+        }
+        Assert.assertEquals(SIZE / 64, blocks.size());
+
+        for (Block each : blocks) {
+            Assert.assertTrue(table.free(each));
+        }
+
+        // the last empty run is kept, but returned when need memory for large block
+        Assert.assertNotNull(table.allocate(SIZE));
+    }
+
+    @Test
+    public void testGrow() {
+        SegregatedVirtualMemoryTable table = new SegregatedVirtualMemoryTable(200);
+        table.allocate(100);
+
+        Assert.assertTrue(table.canIncreaseSize(SIZE));
+        table.increaseSize(SIZE);
+        Assert.assertEquals(SIZE - 100, table.getFreeMemorySize());
+        Assert.assertNotNull(table.allocate(20));
+
+        Assert.assertFalse(table.canIncreaseSize(100));
+    }
+
+    @Test
+    public void testResetTable() {
+        SegregatedVirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        table.allocate(20);
+        table.allocate(5000);
+
+        table.reset(0);
+
+        assertEquals(0, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertNull(table.allocate(20));
+    }
+
+    @Test
+    public void usedAndFreeBlocks() {
+        SegregatedVirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        table.allocate(1024);
+        table.allocate(1024);
+        table.allocate(5000);
+
+        assertEquals(3, table.getUsed().size());
+        // 6 free blocks in the run of 1024 bytes blocks, and the rest of memory
+        assertEquals(7, table.getFree().size());
+    }
+
+    @Test
+    public void binMetrics() {
+        SegregatedVirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        Block block = table.allocate(16);
+        table.allocate(16);
+        table.allocate(20);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.bins.16.usedBlocks").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.bins.16.freeBlocks").get(), is(255L));
+        assertThat(metrics.getValueMetric("vmtable.bins.16.runs").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.bins.32.usedBlocks").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.bins.48.runs").get(), is(0L));
+
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(36L));
+    }
+
+    @Test
+    public void counters() {
+        SegregatedVirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+
+        Block block = table.allocate(100);
+        table.allocate(2 * SIZE);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        SegregatedVirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.largeAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.bins.16.usedBlocks"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.bins.4096.runs"));
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+        table.allocate(10);
+
+        Block block = table.allocate(100, 256);
+        Assert.assertEquals(0, block.getAddress() % 256);
+        Assert.assertEquals(110, table.getUsedMemorySize());
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(10, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testResize() {
+        VirtualMemoryTable table = new SegregatedVirtualMemoryTable(SIZE);
+
+        // small block is resized within it's bin
+        Block small = table.allocate(20);
+        Assert.assertTrue(table.resize(small, 32));
+        Assert.assertFalse(table.resize(small, 33));
+
+        Block large = table.allocate(5000);
+        final long address = large.getAddress();
+        Assert.assertTrue(table.resize(large, 6000));
+        Assert.assertEquals(address, large.getAddress());
+        Assert.assertEquals(6032, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(small));
+        Assert.assertFalse(table.resize(small, 10));
+    }
+}
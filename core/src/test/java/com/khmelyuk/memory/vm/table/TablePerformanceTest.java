@@ -11,7 +11,7 @@ import org.junit.Test;
 public class TablePerformanceTest {
 
     static final int N = 20;
-    static final int SIZE = MemorySize.megabytes(2).getBytes();
+    static final int SIZE = MemorySize.megabytes(2).getBytesAsInt();
     static final int COUNT_COEFF = 2000;
 
     @Test(timeout = 900)
@@ -27,9 +27,25 @@ public class TablePerformanceTest {
         System.out.println("Linked: Avg. duration " + (total / N) + "ms");
     }
 
+    /**
+     * The segregated table takes runs from the linked table, so it's given more time than the linked table alone.
+     */
+    @Test(timeout = 2000)
+    public void testSegregatedTablePerformance() {
+        long begin = System.currentTimeMillis();
+        testPerformance(new SegregatedVirtualMemoryTable(SIZE), 0);
+        long total = 0;
+        for (int i = 0; i < N; i++) {
+            total += testPerformance(new SegregatedVirtualMemoryTable(SIZE), i);
+        }
+
+        System.out.println("Segregated: duration " + (System.currentTimeMillis() - begin) + "ms");
+        System.out.println("Segregated: Avg. duration " + (total / N) + "ms");
+    }
+
     private static long testPerformance(final VirtualMemoryTable table, int n) {
         final int max = COUNT_COEFF * (n + 5);
-        final int avgBlockSize = table.getFreeMemorySize() / max;
+        final int avgBlockSize = (int) (table.getFreeMemorySize() / max);
         final Block[] blocks = new Block[max];
 
         long begin = System.currentTimeMillis();
@@ -0,0 +1,84 @@
+package com.khmelyuk.memory.vm.table;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * The checks shared by tests of virtual memory tables.
+ *
+ * @author Ruslan Khmelyuk
+ */
+final class TableTests {
+
+    private TableTests() {
+    }
+
+    /**
+     * Allocates and frees blocks of the table from a number of threads, and checks that used blocks
+     * never overlap, and that all memory is free when the threads are done.
+     *
+     * @param table        the table to check.
+     * @param size         the table size.
+     * @param threadsCount the number of threads.
+     * @param loops        the number of allocations by each thread.
+     * @param maxBlockSize the max size of allocated block.
+     * @throws InterruptedException the test thread was interrupted.
+     */
+    static void assertConcurrentAllocationsDontOverlap(final VirtualMemoryTable table, int size,
+                                                       int threadsCount, final int loops, final int maxBlockSize)
+            throws InterruptedException {
+
+        final BitSet usage = new BitSet(size);
+        final AtomicBoolean overlap = new AtomicBoolean(false);
+
+        Thread[] threads = new Thread[threadsCount];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Block[] blocks = new Block[16];
+                    for (int i = 0; i < loops; i++) {
+                        int idx = (i * 7 + seed) % blocks.length;
+                        if (blocks[idx] != null) {
+                            mark(blocks[idx], false);
+                            table.free(blocks[idx]);
+                        }
+                        blocks[idx] = table.allocate(1 + (i * 31 + seed) % maxBlockSize);
+                        if (blocks[idx] != null) {
+                            mark(blocks[idx], true);
+                        }
+                    }
+                    for (Block each : blocks) {
+                        if (each != null) {
+                            mark(each, false);
+                            table.free(each);
+                        }
+                    }
+                }
+
+                private void mark(Block block, boolean used) {
+                    synchronized (usage) {
+                        int from = (int) block.getAddress();
+                        int to = (int) (from + block.getSize());
+                        if (used && usage.get(from, to).cardinality() != 0) {
+                            overlap.set(true);
+                        }
+                        usage.set(from, to, used);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread each : threads) {
+            each.join();
+        }
+
+        assertFalse(overlap.get());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(size, table.getFreeMemorySize());
+    }
+}
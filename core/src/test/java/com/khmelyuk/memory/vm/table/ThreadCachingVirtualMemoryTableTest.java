@@ -0,0 +1,239 @@
+package com.khmelyuk.memory.vm.table;
+
+import com.khmelyuk.memory.metrics.MetricsSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+/**
+ * @author Ruslan Khmelyuk
+ */
+public class ThreadCachingVirtualMemoryTableTest {
+
+    @Test
+    public void testAllocateMemory() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(4096);
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(linked, 4, 1024);
+        Block block = table.allocate(20);
+
+        Assert.assertNotNull(block);
+        Assert.assertEquals(0, block.getAddress());
+        Assert.assertEquals(20, block.getSize());
+        Assert.assertEquals(20, table.getUsedMemorySize());
+        Assert.assertEquals(4096 - 20, table.getFreeMemorySize());
+
+        // the batch of 2 blocks of 32 bytes is allocated from the table
+        Assert.assertEquals(64, linked.getUsedMemorySize());
+        Assert.assertEquals(32, table.allocate(30).getAddress());
+        Assert.assertEquals(2, table.getUsed().size());
+
+        Block large = table.allocate(2000);
+        Assert.assertEquals(2000, large.getSize());
+        Assert.assertEquals(2050, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testFreedBlockIsReused() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(4096);
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(linked, 4, 1024);
+        Block block = table.allocate(100);
+        long address = block.getAddress();
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertEquals(0, block.getSize());
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(4096, table.getFreeMemorySize());
+
+        // block is still used for the underlying table
+        Assert.assertEquals(2 * 112, linked.getUsedMemorySize());
+        Assert.assertEquals(address, table.allocate(110).getAddress());
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.cache.hits").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.cache.misses").get(), is(1L));
+    }
+
+    @Test
+    public void testFlushWhenCacheIsFull() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(4096);
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(linked, 4, 1024);
+
+        Block[] blocks = new Block[5];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = table.allocate(16);
+        }
+        for (Block each : blocks) {
+            Assert.assertTrue(table.free(each));
+        }
+
+        // 6 blocks were allocated in batches of 2, and when the cache of 4 blocks was full, 2 blocks were flushed
+        Assert.assertEquals(4 * 16, linked.getUsedMemorySize());
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.cache.flushes").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.cache.blocks").get(), is(4L));
+        assertThat(metrics.getValueMetric("vmtable.cache.size").get(), is(64L));
+    }
+
+    @Test
+    public void testFlushAllWhenNoMemory() throws Exception {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(1024);
+        final VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(linked, 8, 1024);
+
+        // other thread keeps freed blocks in it's cache
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                table.free(table.allocate(100));
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertEquals(4 * 112, linked.getUsedMemorySize());
+
+        Assert.assertNotNull(table.allocate(1024));
+        Assert.assertEquals(1024, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testFreeMemory() {
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(4096));
+        Block block = table.allocate(20);
+        Block large = table.allocate(2000);
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertFalse(table.free(block));
+        Assert.assertTrue(table.free(large));
+        Assert.assertFalse(table.free(large));
+        Assert.assertFalse(table.free(null));
+        Assert.assertFalse(table.free(new TableBlock(2000, 20)));
+        Assert.assertFalse(table.free(new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(100)).allocate(10)));
+
+        Assert.assertEquals(0, table.getUsedMemorySize());
+        Assert.assertEquals(4096, table.getFreeMemorySize());
+    }
+
+    @Test
+    public void testResetTable() {
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(4096));
+        table.free(table.allocate(20));
+        table.allocate(20);
+
+        table.reset(1024);
+
+        assertEquals(1024, table.getFreeMemorySize());
+        assertEquals(0, table.getUsedMemorySize());
+        assertEquals(0, table.getUsed().size());
+        assertThat(table.getMetrics().getValueMetric("vmtable.cache.blocks").get(), is(0L));
+        assertNotNull(table.allocate(1024));
+    }
+
+    @Test
+    public void testBlockAllocatedBeforeResetIsNotFreed() {
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(4096));
+        Block stale = table.allocate(20);
+        long address = stale.getAddress();
+
+        table.reset(4096);
+        Block block = table.allocate(20);
+        Assert.assertEquals(address, block.getAddress());
+
+        // the stale block is not put to the cache, so it's address is not allocated again
+        Assert.assertFalse(table.free(stale));
+        Assert.assertFalse(table.resize(stale, 10));
+        Assert.assertTrue(table.allocate(20).getAddress() != address);
+        Assert.assertEquals(40, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testGrow() {
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(1024));
+        assertNotNull(table.allocate(1024));
+        assertNull(table.allocate(20));
+
+        assertTrue(table.canIncreaseSize(2048));
+        table.increaseSize(2048);
+        assertNotNull(table.allocate(20));
+    }
+
+    @Test
+    public void counters() {
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(4096));
+
+        Block block = table.allocate(100);
+        table.allocate(10000);
+        table.allocate(2000);
+        table.free(block);
+        table.free(block);
+
+        MetricsSnapshot metrics = table.getMetrics();
+        assertThat(metrics.getValueMetric("vmtable.totalAllocations").get(), is(3L));
+        assertThat(metrics.getValueMetric("vmtable.failedAllocations").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.totalFrees").get(), is(2L));
+        assertThat(metrics.getValueMetric("vmtable.failedFrees").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedBlocksCount").get(), is(1L));
+        assertThat(metrics.getValueMetric("vmtable.usedSize").get(), is(2000L));
+    }
+
+    @Test
+    public void hasMetrics() {
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(200));
+        MetricsSnapshot snapshot = table.getMetrics();
+
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedAllocations"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.totalFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.failedFrees"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.increases"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedSize"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.freeBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.usedBlocksCount"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.cache.hits"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.cache.misses"));
+        assertThat(snapshot.getMetrics(), hasItem("vmtable.cache.flushes"));
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentAllocationsDontOverlap() throws Exception {
+        final int size = 64 * 1024;
+        final VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(new LinkedVirtualMemoryTable(size));
+        TableTests.assertConcurrentAllocationsDontOverlap(table, size, 4, 20000, 200);
+    }
+
+    @Test
+    public void testAllocateAligned() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(4096);
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(linked, 4, 1024);
+        table.allocate(10);
+
+        Block block = table.allocate(10, 64);
+        Assert.assertEquals(0, block.getAddress() % 64);
+        Assert.assertEquals(20, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(block));
+        Assert.assertFalse(table.free(block));
+        Assert.assertEquals(10, table.getUsedMemorySize());
+    }
+
+    @Test
+    public void testResize() {
+        LinkedVirtualMemoryTable linked = new LinkedVirtualMemoryTable(4096);
+        VirtualMemoryTable table = new ThreadCachingVirtualMemoryTable(linked, 4, 1024);
+
+        // cached block is resized within it's size class
+        Block small = table.allocate(20);
+        Assert.assertTrue(table.resize(small, 32));
+        Assert.assertFalse(table.resize(small, 33));
+
+        Block large = table.allocate(2000);
+        Assert.assertTrue(table.resize(large, 3000));
+        Assert.assertEquals(3032, table.getUsedMemorySize());
+
+        Assert.assertTrue(table.free(small));
+        Assert.assertFalse(table.resize(small, 10));
+    }
+}